@@ -0,0 +1,61 @@
+package org.mystudying.booksmarket2.benchmarks;
+
+import org.mystudying.booksmarket2.domain.Author;
+import org.mystudying.booksmarket2.domain.AuthorBooks;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthorRepositoryBenchmark {
+
+    @Benchmark
+    public List<Author> findAll(CatalogState state) {
+        return state.authorRepository.findAll();
+    }
+
+    @Benchmark
+    public Optional<Author> findById(CatalogState state) {
+        return state.authorRepository.findById(state.randomAuthorId());
+    }
+
+    @Benchmark
+    public Optional<Author> findByName(CatalogState state) {
+        return state.authorRepository.findByName(CatalogSeeder.authorName(state.randomAuthorIndex()));
+    }
+
+    @Benchmark
+    public Optional<AuthorBooks> findWithBooksById(CatalogState state) {
+        return state.authorRepository.findWithBooksById(state.randomAuthorId());
+    }
+
+    @Benchmark
+    public long create(CatalogState state) {
+        return state.authorRepository.create(new Author(1, "Benchmark New Author", LocalDate.of(1950, 1, 1)));
+    }
+
+    @Benchmark
+    public List<Author> findAllPage(CatalogState state) {
+        return state.authorRepository.findAll(CatalogSeeder.authorName(state.randomAuthorIndex()), 0, CatalogState.PAGE_SIZE);
+    }
+
+    @Benchmark
+    public long streamAll(CatalogState state) {
+        try (var authors = state.authorRepository.streamAll()) {
+            return authors.count();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.mystudying.booksmarket2.benchmarks;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+import org.mystudying.booksmarket2.cache.EntityCaches;
+import org.mystudying.booksmarket2.repositories.AuthorRepository;
+import org.mystudying.booksmarket2.repositories.BookRepository;
+import org.mystudying.booksmarket2.repositories.BookingRepository;
+import org.mystudying.booksmarket2.repositories.BookingShards;
+import org.mystudying.booksmarket2.repositories.ReservationRepository;
+import org.mystudying.booksmarket2.repositories.UserRepository;
+import org.mystudying.booksmarket2.search.CatalogSearch;
+import org.mystudying.booksmarket2.services.AuthorService;
+import org.mystudying.booksmarket2.services.AvailabilityEngine;
+import org.mystudying.booksmarket2.services.BookService;
+import org.mystudying.booksmarket2.services.UserService;
+import org.mystudying.booksmarket2.services.Waitlist;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Spring context used by the benchmarks: the real repositories and services on top of an
+ * in-memory H2 database in MySQL mode, migrated with the regular Flyway scripts.
+ * <p>
+ * Not annotated with {@code @Configuration} on purpose, so the application's component scan
+ * never picks it up when the benchmark sources are compiled in.
+ */
+@EnableTransactionManagement
+@EnableScheduling
+public class BenchmarkContext {
+
+    @Bean(destroyMethod = "close")
+    HikariDataSource dataSource() {
+        var dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:bench-" + UUID.randomUUID()
+                + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=YEAR,VALUE;LOCK_TIMEOUT=10000;DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        dataSource.setMaximumPoolSize(Integer.getInteger("bench.poolSize", 80));
+        dataSource.setTransactionIsolation("TRANSACTION_READ_COMMITTED");
+        Flyway.configure()
+                .dataSource(dataSource)
+                .locations("classpath:db/migration")
+                .load()
+                .migrate();
+        return dataSource;
+    }
+
+    @Bean
+    JdbcTemplate jdbcTemplate(DataSource dataSource) {
+        return new JdbcTemplate(dataSource);
+    }
+
+    @Bean
+    JdbcClient jdbcClient(JdbcTemplate jdbcTemplate) {
+        return JdbcClient.create(jdbcTemplate);
+    }
+
+    @Bean
+    PlatformTransactionManager transactionManager(DataSource dataSource) {
+        return new DataSourceTransactionManager(dataSource);
+    }
+
+    @Bean
+    TransactionTemplate transactionTemplate(PlatformTransactionManager transactionManager) {
+        return new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * @param properties application properties for the run, e.g. {@code booksmarket.availability-engine.enabled=true}
+     */
+    static AnnotationConfigApplicationContext open(Map<String, Object> properties) {
+        var context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", properties));
+        context.register(BenchmarkContext.class, EntityCaches.class, AvailabilityEngine.class,
+                BookRepository.class, UserRepository.class, AuthorRepository.class, BookingRepository.class,
+                BookingShards.class, ReservationRepository.class, Waitlist.class,
+                BookService.class, UserService.class, AuthorService.class, CatalogSearch.class);
+        context.refresh();
+        return context;
+    }
+}
@@ -0,0 +1,57 @@
+package org.mystudying.booksmarket2.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+
+/**
+ * Runs the selected benchmarks once per thread count and writes one JSON result file per run,
+ * named {@code <timestamp>-t<threads>.json}, so results of different runs can be compared.
+ * <p>
+ * System properties: {@code bench.include} (regexp), {@code bench.threads} (e.g. {@code 1,4,16,64}),
+ * {@code bench.catalogSize} (e.g. {@code 10000,1000000}), {@code bench.jvmArgs}, {@code bench.properties} ({@code key=value;key=value}) and {@code bench.resultDir}.
+ * Any regular JMH command line option can be passed as an argument as well.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        var include = System.getProperty("bench.include", ".*");
+        var catalogSizes = System.getProperty("bench.catalogSize", "10000").split(",");
+        var properties = System.getProperty("bench.properties", "");
+        var resultDir = Path.of(System.getProperty("bench.resultDir", "target/jmh"));
+        var jvmArgs = System.getProperty("bench.jvmArgs", "-Xmx2g").trim().split("\\s+");
+        int[] threadCounts = Arrays.stream(System.getProperty("bench.threads", "1,4,16,64").split(","))
+                .map(String::trim)
+                .mapToInt(Integer::parseInt)
+                .toArray();
+
+        Files.createDirectories(resultDir);
+        var runId = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+        var commandLine = new CommandLineOptions(args);
+
+        for (int threads : threadCounts) {
+            Options options = new OptionsBuilder()
+                    .parent(commandLine)
+                    .include(include)
+                    .threads(threads)
+                    .jvmArgsAppend(jvmArgs)
+                    .param("catalogSize", catalogSizes)
+                    .param("properties", properties)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(resultDir.resolve(runId + "-t" + threads + ".json").toString())
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.mystudying.booksmarket2.benchmarks;
+
+import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.exceptions.BookNotFoundException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BookRepositoryBenchmark {
+
+    @Benchmark
+    public List<Book> findAll(CatalogState state) {
+        return state.bookRepository.findAll();
+    }
+
+    @Benchmark
+    public List<Book> findByYear(CatalogState state) {
+        return state.bookRepository.findByYear(CatalogSeeder.bookYear(state.randomBookIndex()));
+    }
+
+    @Benchmark
+    public List<Book> findByAuthorName(CatalogState state) {
+        return state.bookRepository.findByAuthorName(CatalogSeeder.authorName(state.randomAuthorIndex()));
+    }
+
+    @Benchmark
+    public List<Book> findByAuthorId(CatalogState state) {
+        return state.bookRepository.findByAuthorId(state.randomAuthorId());
+    }
+
+    @Benchmark
+    public List<Book> findByAvailabilityAvailable(CatalogState state) {
+        return state.bookRepository.findByAvailability(true);
+    }
+
+    @Benchmark
+    public List<Book> findByAvailabilityUnavailable(CatalogState state) {
+        return state.bookRepository.findByAvailability(false);
+    }
+
+    @Benchmark
+    public Optional<Book> findById(CatalogState state) {
+        return state.bookRepository.findById(state.randomBookId());
+    }
+
+    @Benchmark
+    public Optional<Book> findByTitle(CatalogState state) {
+        return state.bookRepository.findByTitle(CatalogSeeder.bookTitle(state.randomBookIndex()));
+    }
+
+    @Benchmark
+    public List<Book> findBooksByUserId(CatalogState state) {
+        return state.bookRepository.findBooksByUserId(state.randomUserId());
+    }
+
+    @Benchmark
+    public Optional<Book> findAndLockById(CatalogState state) {
+        return state.transactionTemplate.execute(status -> state.bookRepository.findAndLockById(state.randomBookId()));
+    }
+
+    @Benchmark
+    public Book update(CatalogState state) {
+        long id = state.randomBookId();
+        var book = state.bookRepository.findById(id).orElseThrow(() -> new BookNotFoundException(id));
+        state.bookRepository.update(book);
+        return book;
+    }
+
+    @Benchmark
+    public List<Book> findAllPage(CatalogState state) {
+        return state.bookRepository.findAll(CatalogSeeder.bookTitle(state.randomBookIndex()), 0, CatalogState.PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Book> findByYearPage(CatalogState state) {
+        long index = state.randomBookIndex();
+        return state.bookRepository.findByYear(CatalogSeeder.bookYear(index), CatalogSeeder.bookTitle(index), 0,
+                CatalogState.PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Book> findByAvailabilityPage(CatalogState state) {
+        return state.bookRepository.findByAvailability(true, CatalogSeeder.bookTitle(state.randomBookIndex()), 0,
+                CatalogState.PAGE_SIZE);
+    }
+
+    @Benchmark
+    public long streamAll(CatalogState state) {
+        try (var books = state.bookRepository.streamAll()) {
+            return books.count();
+        }
+    }
+
+    @Benchmark
+    public long streamByYear(CatalogState state) {
+        try (var books = state.bookRepository.streamByYear(CatalogSeeder.bookYear(state.randomBookIndex()))) {
+            return books.count();
+        }
+    }
+
+    @Benchmark
+    public long streamByAvailability(CatalogState state) {
+        try (var books = state.bookRepository.streamByAvailability(false)) {
+            return books.count();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.mystudying.booksmarket2.benchmarks;
+
+import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.domain.Booking;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BookingRepositoryBenchmark {
+
+    @Benchmark
+    public Optional<Booking> find(CatalogState state) {
+        return state.bookingRepository.find(state.randomUserId(), state.randomBookId());
+    }
+
+    @Benchmark
+    public List<Long> findBookIdsByUserId(CatalogState state) {
+        return state.bookingRepository.findBookIdsByUserId(state.randomUserId());
+    }
+
+    /** The loans projection and the book cache, against the join of BookRepositoryBenchmark.findBooksByUserId. */
+    @Benchmark
+    public List<Book> findBooksByUserIdThroughService(CatalogState state) {
+        return state.userService.findBooksByUserId(state.randomUserId());
+    }
+
+    /**
+     * Create and delete are measured together so the bookings table keeps its seeded size.
+     * The hot book is never part of the seeded loans, and every thread uses its own user.
+     */
+    @Benchmark
+    public Booking createAndDelete(CatalogState state, UserSlot slot) {
+        var booking = new Booking(slot.userId, state.hotBookId());
+        state.bookingRepository.create(booking);
+        state.bookingRepository.delete(booking);
+        return booking;
+    }
+}
@@ -0,0 +1,86 @@
+package org.mystudying.booksmarket2.benchmarks;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fills the benchmark database with a synthetic catalog. Names follow a fixed pattern,
+ * so benchmarks can build valid lookup keys from an index without keeping them in memory.
+ */
+class CatalogSeeder {
+    static final int BATCH_SIZE = 10_000;
+    static final int LOANS_PER_USER = 3;
+    static final int HOT_BOOK_COPIES = 1_000_000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    CatalogSeeder(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    static String authorName(long index) {
+        return "Benchmark Author " + index;
+    }
+
+    static String bookTitle(long index) {
+        return "Benchmark Book " + index;
+    }
+
+    static String userName(long index) {
+        return "Benchmark User " + index;
+    }
+
+    static String userEmail(long index) {
+        return "bench.user" + index + "@example.com";
+    }
+
+    static int bookYear(long index) {
+        return 1900 + (int) (index % 120);
+    }
+
+    void seed(int books, int authors, int users) {
+        insertInBatches("INSERT INTO authors(name, birthdate) VALUES (?, ?)", authors,
+                i -> new Object[]{authorName(i), Date.valueOf(LocalDate.of(1900, 1, 1).plusDays(i % 30_000))});
+        long firstAuthorId = firstId("authors", "name", authorName(0));
+
+        // Every tenth book is out of stock, the first one is the "hot" title everybody rents.
+        insertInBatches("INSERT INTO books(title, year, author_id, available) VALUES (?, ?, ?, ?)", books,
+                i -> new Object[]{bookTitle(i), bookYear(i), firstAuthorId + i % authors,
+                        i == 0 ? HOT_BOOK_COPIES : (i % 10 == 0 ? 0 : 1_000)});
+        long firstBookId = firstId("books", "title", bookTitle(0));
+
+        insertInBatches("INSERT INTO users(name, email) VALUES (?, ?)", users,
+                i -> new Object[]{userName(i), userEmail(i)});
+        long firstUserId = firstId("users", "email", userEmail(0));
+
+        insertInBatches("INSERT INTO bookings(user_id, book_id) VALUES (?, ?)", (long) users * LOANS_PER_USER,
+                i -> new Object[]{firstUserId + i / LOANS_PER_USER, firstBookId + 1 + i % (books - 1)});
+    }
+
+    private long firstId(String table, String column, String value) {
+        return jdbcTemplate.queryForObject("SELECT id FROM " + table + " WHERE " + column + " = ?", Long.class, value);
+    }
+
+    private void insertInBatches(String sql, long rows, RowFactory rowFactory) {
+        List<Object[]> batch = new ArrayList<>(BATCH_SIZE);
+        for (long i = 0; i < rows; i++) {
+            batch.add(rowFactory.row(i));
+            if (batch.size() == BATCH_SIZE) {
+                jdbcTemplate.batchUpdate(sql, batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            jdbcTemplate.batchUpdate(sql, batch);
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowFactory {
+        Object[] row(long index);
+    }
+}
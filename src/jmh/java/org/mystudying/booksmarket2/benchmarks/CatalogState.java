@@ -0,0 +1,120 @@
+package org.mystudying.booksmarket2.benchmarks;
+
+import org.mystudying.booksmarket2.repositories.AuthorRepository;
+import org.mystudying.booksmarket2.repositories.BookRepository;
+import org.mystudying.booksmarket2.repositories.BookingRepository;
+import org.mystudying.booksmarket2.repositories.UserRepository;
+import org.mystudying.booksmarket2.services.UserService;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * One seeded catalog per trial, shared by all benchmark threads.
+ * Run with {@code -p catalogSize=1000000} (or {@code -Dbench.catalogSize}) to change its size.
+ */
+@State(Scope.Benchmark)
+public class CatalogState {
+    static final int PAGE_SIZE = 50;
+
+    @Param({"10000"})
+    public int catalogSize;
+
+    @Param({"10000"})
+    public int userCount;
+
+    /**
+     * Application properties as {@code key=value;key=value}, e.g.
+     * {@code -p properties=booksmarket.availability-engine.enabled=true}.
+     */
+    @Param({""})
+    public String properties;
+
+    AnnotationConfigApplicationContext context;
+    BookRepository bookRepository;
+    UserRepository userRepository;
+    AuthorRepository authorRepository;
+    BookingRepository bookingRepository;
+    UserService userService;
+    TransactionTemplate transactionTemplate;
+
+    int authorCount;
+    long firstBookId;
+    long firstUserId;
+    long firstAuthorId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.open(parseProperties());
+        bookRepository = context.getBean(BookRepository.class);
+        userRepository = context.getBean(UserRepository.class);
+        authorRepository = context.getBean(AuthorRepository.class);
+        bookingRepository = context.getBean(BookingRepository.class);
+        userService = context.getBean(UserService.class);
+        transactionTemplate = context.getBean(TransactionTemplate.class);
+
+        var jdbcTemplate = context.getBean(JdbcTemplate.class);
+        authorCount = Math.max(1, catalogSize / 20);
+        new CatalogSeeder(jdbcTemplate).seed(catalogSize, authorCount, userCount);
+        firstBookId = jdbcTemplate.queryForObject("SELECT id FROM books WHERE title = ?", Long.class,
+                CatalogSeeder.bookTitle(0));
+        firstUserId = jdbcTemplate.queryForObject("SELECT id FROM users WHERE email = ?", Long.class,
+                CatalogSeeder.userEmail(0));
+        firstAuthorId = jdbcTemplate.queryForObject("SELECT id FROM authors WHERE name = ?", Long.class,
+                CatalogSeeder.authorName(0));
+    }
+
+    private Map<String, Object> parseProperties() {
+        var parsed = new HashMap<String, Object>();
+        for (var property : properties.split(";")) {
+            int separator = property.indexOf('=');
+            if (separator > 0) {
+                parsed.put(property.substring(0, separator).trim(), property.substring(separator + 1).trim());
+            }
+        }
+        return parsed;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    long hotBookId() {
+        return firstBookId;
+    }
+
+    long randomBookIndex() {
+        return ThreadLocalRandom.current().nextLong(catalogSize);
+    }
+
+    long randomBookId() {
+        return firstBookId + randomBookIndex();
+    }
+
+    long randomUserIndex() {
+        return ThreadLocalRandom.current().nextLong(userCount);
+    }
+
+    long randomUserId() {
+        return firstUserId + randomUserIndex();
+    }
+
+    long randomAuthorIndex() {
+        return ThreadLocalRandom.current().nextLong(authorCount);
+    }
+
+    long randomAuthorId() {
+        return firstAuthorId + randomAuthorIndex();
+    }
+}
@@ -0,0 +1,108 @@
+package org.mystudying.booksmarket2.benchmarks;
+
+import org.mystudying.booksmarket2.domain.Author;
+import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.domain.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Cost per object of building a million validated users, books and authors, as a 1M-row load would,
+ * with the shared validation (hand-written email scanner, cached date) against the checks it replaced
+ * ({@code Pattern.matches} and {@code LocalDate.now()} per object). Run with {@code -prof gc} for the garbage.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DomainConstructionBenchmark {
+    private static final int ROWS = 1_000_000;
+    private static final String EMAIL_REGEXP = "[-.\\w]+@([\\w-]+\\.)+[\\w-]+";
+
+    private String[] names;
+    private String[] emails;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        names = new String[ROWS];
+        emails = new String[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            names[i] = CatalogSeeder.userName(i);
+            emails[i] = CatalogSeeder.userEmail(i);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void users(Blackhole blackhole) {
+        for (int i = 0; i < ROWS; i++) {
+            blackhole.consume(new User(i + 1, names[i], emails[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void usersBefore(Blackhole blackhole) {
+        for (int i = 0; i < ROWS; i++) {
+            if (!Pattern.matches(EMAIL_REGEXP, emails[i]))
+                throw new IllegalArgumentException("Wrong format of email!");
+            blackhole.consume(User.load(i + 1, names[i], emails[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void books(Blackhole blackhole) {
+        for (int i = 0; i < ROWS; i++) {
+            blackhole.consume(new Book(i + 1, names[i], 1900 + i % 100, 1, 1));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void booksBefore(Blackhole blackhole) {
+        for (int i = 0; i < ROWS; i++) {
+            int year = 1900 + i % 100;
+            if (LocalDate.now().getYear() < year)
+                throw new IllegalArgumentException("Book year must be less or equal to current year and positive.");
+            blackhole.consume(Book.load(i + 1, names[i], year, 1, 1, 0));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void authors(Blackhole blackhole) {
+        var birthdate = LocalDate.of(1920, 1, 2);
+        for (int i = 0; i < ROWS; i++) {
+            blackhole.consume(new Author(i + 1, names[i], birthdate));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void authorsBefore(Blackhole blackhole) {
+        var birthdate = LocalDate.of(1920, 1, 2);
+        for (int i = 0; i < ROWS; i++) {
+            if (birthdate.isAfter(LocalDate.now()))
+                throw new IllegalArgumentException("Author birthdate must not be after now.");
+            blackhole.consume(Author.load(i + 1, names[i], birthdate));
+        }
+    }
+}
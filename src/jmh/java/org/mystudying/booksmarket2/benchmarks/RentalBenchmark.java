@@ -0,0 +1,68 @@
+package org.mystudying.booksmarket2.benchmarks;
+
+import org.mystudying.booksmarket2.domain.RentalOutcome;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code UserService} rent/return transactions. One invocation rents a book and returns it again,
+ * so availability and the bookings table stay stable over the whole run.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RentalBenchmark {
+    private static final int BATCH_SIZE = 20;
+
+    /** All threads compete for the same row: measures lock hold time. */
+    @Benchmark
+    public long rentAndReturnHotBook(CatalogState state, UserSlot slot) {
+        long bookId = state.hotBookId();
+        state.userService.rentBook(slot.userId, bookId);
+        state.userService.returnBook(slot.userId, bookId);
+        return bookId;
+    }
+
+    /** Threads spread over the catalog: measures the round trips of the transaction itself. */
+    @Benchmark
+    public long rentAndReturnAnyBook(CatalogState state, UserSlot slot) {
+        long index = state.randomBookIndex();
+        // every tenth seeded book except the hot one is out of stock, its neighbour never is
+        if (index % 10 == 0 && index > 0) {
+            index--;
+        }
+        long bookId = state.firstBookId + index;
+        if (state.bookingRepository.find(slot.userId, bookId).isPresent()) {
+            return bookId;
+        }
+        state.userService.rentBook(slot.userId, bookId);
+        state.userService.returnBook(slot.userId, bookId);
+        return bookId;
+    }
+
+    /** A desk checkout of {@value #BATCH_SIZE} random books in one transaction, returned again in one transaction. */
+    @Benchmark
+    public int rentAndReturnBatch(CatalogState state, UserSlot slot) {
+        var bookIds = new ArrayList<Long>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            bookIds.add(state.randomBookId());
+        }
+        var rented = state.userService.rentBooks(slot.userId, bookIds).entrySet().stream()
+                .filter(result -> result.getValue() == RentalOutcome.RENTED)
+                .map(Map.Entry::getKey)
+                .toList();
+        state.userService.returnBooks(slot.userId, rented);
+        return rented.size();
+    }
+}
@@ -0,0 +1,60 @@
+package org.mystudying.booksmarket2.benchmarks;
+
+import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.domain.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.simple.JdbcClient;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole-table reads of the repositories, which map with the index-based row mappers, against the same
+ * statements mapped by {@code JdbcClient.query(Class)}, which validates every row in the domain constructors.
+ * Run with {@code -prof gc} to compare the garbage per call as well.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RowMappingBenchmark {
+    private JdbcClient jdbcClient;
+
+    @Setup(Level.Trial)
+    public void setUp(CatalogState state) {
+        jdbcClient = state.context.getBean(JdbcClient.class);
+    }
+
+    @Benchmark
+    public List<Book> booksWithRowMapper(CatalogState state) {
+        return state.bookRepository.findAll();
+    }
+
+    @Benchmark
+    public List<Book> booksWithReflectiveMapping() {
+        return jdbcClient.sql("SELECT id, title, year, author_id, available FROM books ORDER BY title")
+                .query(Book.class).list();
+    }
+
+    @Benchmark
+    public List<User> usersWithRowMapper(CatalogState state) {
+        return state.userRepository.findAll();
+    }
+
+    @Benchmark
+    public List<User> usersWithReflectiveMapping() {
+        return jdbcClient.sql("SELECT id, name, email FROM users ORDER BY name").query(User.class).list();
+    }
+}
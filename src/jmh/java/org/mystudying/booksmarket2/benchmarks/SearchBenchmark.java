@@ -0,0 +1,69 @@
+package org.mystudying.booksmarket2.benchmarks;
+
+import org.mystudying.booksmarket2.search.CatalogSearch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.simple.JdbcClient;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Title searches against the in-memory index of {@link CatalogSearch} (built once in the setup), next to the
+ * {@code LIKE '%...%'} scan it replaces. Every title is "Benchmark Book N", so a query is selective through
+ * its number; "benchmark book" alone matches the whole catalog and is the index's worst case.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+    private CatalogSearch catalogSearch;
+    private JdbcClient jdbcClient;
+
+    @Setup(Level.Trial)
+    public void setUp(CatalogState state) {
+        catalogSearch = state.context.getBean(CatalogSearch.class);
+        jdbcClient = state.context.getBean(JdbcClient.class);
+        state.transactionTemplate.executeWithoutResult(status -> catalogSearch.searchBooks("benchmark", 0, 1));
+    }
+
+    @Benchmark
+    public List<Long> exactTerms(CatalogState state) {
+        return catalogSearch.searchBooks("benchmark book " + state.randomBookIndex(), 0, 10);
+    }
+
+    @Benchmark
+    public List<Long> prefix(CatalogState state) {
+        var number = Long.toString(state.randomBookIndex());
+        return catalogSearch.searchBooks("book " + number.substring(0, Math.max(1, number.length() - 2)), 0, 10);
+    }
+
+    @Benchmark
+    public List<Long> typo(CatalogState state) {
+        return catalogSearch.searchBooks("benchmrak " + state.randomBookIndex(), 0, 10);
+    }
+
+    @Benchmark
+    public List<Long> wholeCatalog() {
+        return catalogSearch.searchBooks("benchmark book", 0, 10);
+    }
+
+    @Benchmark
+    public List<Long> likeScan(CatalogState state) {
+        return jdbcClient.sql("SELECT id FROM books WHERE title LIKE ? LIMIT 10")
+                .param("%Book " + state.randomBookIndex() + "%")
+                .query(Long.class).list();
+    }
+}
@@ -0,0 +1,61 @@
+package org.mystudying.booksmarket2.benchmarks;
+
+import org.mystudying.booksmarket2.domain.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserRepositoryBenchmark {
+
+    @Benchmark
+    public List<User> findAll(CatalogState state) {
+        return state.userRepository.findAll();
+    }
+
+    @Benchmark
+    public Optional<User> findById(CatalogState state) {
+        return state.userRepository.findById(state.randomUserId());
+    }
+
+    @Benchmark
+    public Optional<User> findByName(CatalogState state) {
+        return state.userRepository.findByName(CatalogSeeder.userName(state.randomUserIndex()));
+    }
+
+    @Benchmark
+    public Optional<User> findByEmail(CatalogState state) {
+        return state.userRepository.findByEmail(CatalogSeeder.userEmail(state.randomUserIndex()));
+    }
+
+    @Benchmark
+    public long create(CatalogState state) {
+        var email = "bench." + UUID.randomUUID() + "@example.com";
+        return state.userRepository.create(new User(1, "Benchmark New User", email));
+    }
+
+    @Benchmark
+    public List<User> findAllPage(CatalogState state) {
+        return state.userRepository.findAll(CatalogSeeder.userName(state.randomUserIndex()), 0, CatalogState.PAGE_SIZE);
+    }
+
+    @Benchmark
+    public long streamAll(CatalogState state) {
+        try (var users = state.userRepository.streamAll()) {
+            return users.count();
+        }
+    }
+}
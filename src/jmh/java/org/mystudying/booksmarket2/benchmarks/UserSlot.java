@@ -0,0 +1,27 @@
+package org.mystudying.booksmarket2.benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gives every benchmark thread its own seeded user, so concurrent rentals never
+ * collide on the {@code bookings} primary key.
+ */
+@State(Scope.Thread)
+public class UserSlot {
+    private static final AtomicLong NEXT_INDEX = new AtomicLong();
+
+    long userId;
+
+    @Setup(Level.Trial)
+    public void setUp(CatalogState state) {
+        if (state.userCount < 64) {
+            throw new IllegalStateException("userCount must be at least 64, one user per benchmark thread.");
+        }
+        userId = state.firstUserId + NEXT_INDEX.getAndIncrement() % state.userCount;
+    }
+}
@@ -0,0 +1,91 @@
+package org.mystudying.booksmarket2.benchmarks;
+
+import org.mystudying.booksmarket2.domain.User;
+import org.mystudying.booksmarket2.services.AuthorService;
+import org.mystudying.booksmarket2.services.BookService;
+import org.mystudying.booksmarket2.services.VirtualThreadServices;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A burst of concurrent user lookups, each its own task: through {@link VirtualThreadServices}
+ * against a fixed pool of platform threads as large as the connection pool.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VirtualThreadBenchmark {
+
+    @Param({"1000"})
+    public int burst;
+
+    @Param({"16"})
+    public int maxConcurrency;
+
+    private VirtualThreadServices virtualThreads;
+    private ExecutorService platformThreads;
+
+    @Setup(Level.Trial)
+    public void setUp(CatalogState state) {
+        virtualThreads = new VirtualThreadServices(state.userService, state.context.getBean(BookService.class),
+                state.context.getBean(AuthorService.class), maxConcurrency);
+        platformThreads = Executors.newFixedThreadPool(maxConcurrency);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        virtualThreads.close();
+        platformThreads.close();
+    }
+
+    @Benchmark
+    public int lookupsOnVirtualThreads(CatalogState state) {
+        var calls = new ArrayList<CompletableFuture<Optional<User>>>(burst);
+        for (int i = 0; i < burst; i++) {
+            long userId = state.randomUserId();
+            calls.add(virtualThreads.users(service -> service.findById(userId)));
+        }
+        return join(calls);
+    }
+
+    @Benchmark
+    public int lookupsOnPlatformThreads(CatalogState state) {
+        var calls = new ArrayList<CompletableFuture<Optional<User>>>(burst);
+        for (int i = 0; i < burst; i++) {
+            long userId = state.randomUserId();
+            calls.add(CompletableFuture.supplyAsync(() -> state.userService.findById(userId), platformThreads));
+        }
+        return join(calls);
+    }
+
+    private static int join(ArrayList<CompletableFuture<Optional<User>>> calls) {
+        int found = 0;
+        for (var call : calls) {
+            if (call.join().isPresent()) {
+                found++;
+            }
+        }
+        return found;
+    }
+}
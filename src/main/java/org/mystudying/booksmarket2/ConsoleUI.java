@@ -1,35 +1,64 @@
 package org.mystudying.booksmarket2;
 
 
+import org.mystudying.booksmarket2.cache.EntityCaches;
 import org.mystudying.booksmarket2.domain.Author;
 import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.domain.BookCriteria;
+import org.mystudying.booksmarket2.domain.RentalOutcome;
+import org.mystudying.booksmarket2.domain.Reservation;
+import org.mystudying.booksmarket2.domain.Tally;
 import org.mystudying.booksmarket2.domain.User;
+import org.mystudying.booksmarket2.domain.YearAvailability;
 import org.mystudying.booksmarket2.exceptions.*;
+import org.mystudying.booksmarket2.exports.ExportFormat;
+import org.mystudying.booksmarket2.exports.ExportService;
+import org.mystudying.booksmarket2.exports.ExportTable;
+import org.mystudying.booksmarket2.imports.ImportKind;
+import org.mystudying.booksmarket2.imports.ImportService;
 import org.mystudying.booksmarket2.services.AuthorService;
 import org.mystudying.booksmarket2.services.BookService;
+import org.mystudying.booksmarket2.services.ReservationListener;
+import org.mystudying.booksmarket2.services.StatisticsService;
 import org.mystudying.booksmarket2.services.UserService;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
 
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.format.DateTimeParseException;
 import java.util.InputMismatchException;
 import java.util.List;
 import java.util.Optional;
 import java.util.Scanner;
+import java.util.function.Function;
 
 @Component
-public class ConsoleUI implements CommandLineRunner {
+public class ConsoleUI implements CommandLineRunner, ReservationListener {
 
     private final UserService userService;
     private final AuthorService authorService;
     private final BookService bookService;
+    private final EntityCaches caches;
+    private final ImportService importService;
+    private final ExportService exportService;
+    private final StatisticsService statisticsService;
     private final Scanner scanner;
 
-    public ConsoleUI(UserService userService, AuthorService authorService, BookService bookService) {
+    private static final int PAGE_SIZE = 20;
+    private static final int SEARCH_RESULTS = 10;
+
+    public ConsoleUI(UserService userService, AuthorService authorService, BookService bookService,
+                     EntityCaches caches, ImportService importService, ExportService exportService,
+                     StatisticsService statisticsService) {
         this.userService = userService;
         this.authorService = authorService;
         this.bookService = bookService;
+        this.caches = caches;
+        this.importService = importService;
+        this.exportService = exportService;
+        this.statisticsService = statisticsService;
         this.scanner = new Scanner(System.in);
     }
 
@@ -38,6 +67,11 @@ public class ConsoleUI implements CommandLineRunner {
         displayMainMenu();
     }
 
+    @Override
+    public void bookHandedOver(long userId, long bookId) {
+        System.out.println("Book " + bookId + " went to user " + userId + ", who was waiting for it.");
+    }
+
     private void displayMainMenu() {
         int choice;
         do {
@@ -45,6 +79,10 @@ public class ConsoleUI implements CommandLineRunner {
             System.out.println("1. User Management");
             System.out.println("2. Author Management");
             System.out.println("3. Book Management");
+            System.out.println("4. Cache Statistics");
+            System.out.println("5. Import from File");
+            System.out.println("6. Export Catalog");
+            System.out.println("7. Catalog Statistics");
             System.out.println("0. Exit");
             System.out.print("Enter your choice: ");
             choice = getIntInput();
@@ -53,6 +91,13 @@ public class ConsoleUI implements CommandLineRunner {
                 case 1 -> userMenu();
                 case 2 -> authorMenu();
                 case 3 -> bookMenu();
+                case 4 -> {
+                    caches.stats().forEach(System.out::println);
+                    System.out.println(statisticsService.cacheStats());
+                }
+                case 5 -> importFromFile();
+                case 6 -> exportCatalog();
+                case 7 -> statisticsMenu();
                 case 0 -> System.out.println("Exiting application. Goodbye!");
                 default -> System.out.println("Invalid choice. Please try again.");
             }
@@ -70,6 +115,10 @@ public class ConsoleUI implements CommandLineRunner {
             System.out.println("5. Rent a book");
             System.out.println("6. Return a book");
             System.out.println("7. Add new user");
+            System.out.println("8. Reserve a book");
+            System.out.println("9. Show reservations by a user");
+            System.out.println("10. Cancel a reservation");
+            System.out.println("11. Show users borrowing a book");
             System.out.println("0. Back to Main Menu");
             System.out.print("Enter your choice: ");
             choice = getIntInput();
@@ -82,6 +131,10 @@ public class ConsoleUI implements CommandLineRunner {
                 case 5 -> rentBook();
                 case 6 -> returnBook();
                 case 7 -> addNewUser();
+                case 8 -> reserveBook();
+                case 9 -> showReservationsByUser();
+                case 10 -> cancelReservation();
+                case 11 -> showUsersByBook();
                 case 0 -> System.out.println("Returning to Main Menu.");
                 default -> System.out.println("Invalid choice. Please try again.");
             }
@@ -124,6 +177,8 @@ public class ConsoleUI implements CommandLineRunner {
             System.out.println("5. Show books by author name");
             System.out.println("6. Show available books");
             System.out.println("7. Show unavailable books");
+            System.out.println("8. Find books by several criteria");
+            System.out.println("9. Edit a book");
             System.out.println("0. Back to Main Menu");
             System.out.print("Enter your choice: ");
             choice = getIntInput();
@@ -136,6 +191,8 @@ public class ConsoleUI implements CommandLineRunner {
                 case 5 -> showBooksByAuthorName();
                 case 6 -> showAvailableBooks();
                 case 7 -> showUnavailableBooks();
+                case 8 -> showBooksByCriteria();
+                case 9 -> editBook();
                 case 0 -> System.out.println("Returning to Main Menu.");
                 default -> System.out.println("Invalid choice. Please try again.");
             }
@@ -144,12 +201,9 @@ public class ConsoleUI implements CommandLineRunner {
 
     // --- User Operations ---
     private void showAllUsers() {
-        List<User> users = userService.findAll();
-        if (users.isEmpty()) {
-            System.out.println("No users found.");
-        } else {
-            users.forEach(System.out::println);
-        }
+        showPaged((User last) -> last == null
+                ? userService.findAll(null, 0, PAGE_SIZE)
+                : userService.findAll(last.getName(), last.getId(), PAGE_SIZE), "No users found.");
     }
 
     private void findUserById() {
@@ -195,6 +249,22 @@ public class ConsoleUI implements CommandLineRunner {
         }
     }
 
+    private void showUsersByBook() {
+        System.out.print("Enter book ID: ");
+        long bookId = getLongInput();
+        try {
+            List<User> users = userService.findUsersByBookId(bookId);
+            if (users.isEmpty()) {
+                System.out.println("Book " + bookId + " is not borrowed by anyone.");
+            } else {
+                System.out.println("Users borrowing book " + bookId + ":");
+                users.forEach(System.out::println);
+            }
+        } catch (BookNotFoundException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
     private void rentBook() {
         System.out.print("Enter user ID: ");
         long userId = getLongInput();
@@ -221,6 +291,52 @@ public class ConsoleUI implements CommandLineRunner {
         }
     }
 
+    private void reserveBook() {
+        System.out.print("Enter user ID: ");
+        long userId = getLongInput();
+        System.out.print("Enter book ID: ");
+        long bookId = getLongInput();
+        try {
+            if (userService.reserve(userId, bookId) == RentalOutcome.RENTED) {
+                System.out.println("A copy was available: book " + bookId + " rented by user " + userId + ".");
+            } else {
+                System.out.println("User " + userId + " is on the waitlist for book " + bookId
+                        + " and gets the next copy returned.");
+            }
+        } catch (UserNotFoundException | BookNotFoundException | BookAlreadyBorrowedException
+                 | BookAlreadyReservedException e) {
+            System.out.println("Error reserving book: " + e.getMessage());
+        }
+    }
+
+    private void showReservationsByUser() {
+        System.out.print("Enter user ID: ");
+        long userId = getLongInput();
+        try {
+            List<Reservation> reservations = userService.findReservationsByUserId(userId);
+            if (reservations.isEmpty()) {
+                System.out.println("User " + userId + " is not waiting for any books.");
+            } else {
+                System.out.println("Books user " + userId + " is waiting for:");
+                reservations.forEach(reservation -> bookService.findById(reservation.getBookId())
+                        .ifPresent(System.out::println));
+            }
+        } catch (UserNotFoundException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private void cancelReservation() {
+        System.out.print("Enter user ID: ");
+        long userId = getLongInput();
+        System.out.print("Enter book ID: ");
+        long bookId = getLongInput();
+        if (userService.cancelReservation(userId, bookId)) {
+            System.out.println("Reservation of book " + bookId + " by user " + userId + " cancelled.");
+        } else {
+            System.out.println("User " + userId + " has not reserved book " + bookId + ".");
+        }
+    }
 
     private void addNewUser() {
         System.out.print("Enter user name: ");
@@ -237,12 +353,9 @@ public class ConsoleUI implements CommandLineRunner {
 
     // --- Author Operations ---
     private void showAllAuthors() {
-        List<Author> authors = authorService.findAll();
-        if (authors.isEmpty()) {
-            System.out.println("No authors found.");
-        } else {
-            authors.forEach(System.out::println);
-        }
+        showPaged((Author last) -> last == null
+                ? authorService.findAll(null, 0, PAGE_SIZE)
+                : authorService.findAll(last.getName(), last.getId(), PAGE_SIZE), "No authors found.");
     }
 
     private void findAuthorById() {
@@ -265,6 +378,7 @@ public class ConsoleUI implements CommandLineRunner {
             System.out.println(author);
         }  catch (AuthorNotFoundException e) {
             System.out.println(e.getMessage());
+            showMatches(authorService.search(name, SEARCH_RESULTS));
         }
 
     }
@@ -304,12 +418,9 @@ public class ConsoleUI implements CommandLineRunner {
 
     // --- Book Operations ---
     private void showAllBooks() {
-        List<Book> books = bookService.findAll();
-        if (books.isEmpty()) {
-            System.out.println("No books found.");
-        } else {
-            books.forEach(System.out::println);
-        }
+        showPaged((Book last) -> last == null
+                ? bookService.findAll(null, 0, PAGE_SIZE)
+                : bookService.findAll(last.getTitle(), last.getId(), PAGE_SIZE), "No books found.");
     }
 
     private void findBookById() {
@@ -331,18 +442,87 @@ public class ConsoleUI implements CommandLineRunner {
             System.out.println(book);
         } catch (BookNotFoundException e) {
             System.out.println(e.getMessage());
+            showMatches(bookService.search(title, SEARCH_RESULTS));
+        }
+    }
+
+    private void showMatches(List<?> matches) {
+        if (!matches.isEmpty()) {
+            System.out.println("Closest matches:");
+            matches.forEach(System.out::println);
+        }
+    }
+
+    private void showBooksByCriteria() {
+        System.out.println("Leave a criterion empty to skip it.");
+        var criteria = BookCriteria.any();
+        try {
+            System.out.print("Author name: ");
+            var authorName = scanner.nextLine().trim();
+            if (!authorName.isEmpty()) {
+                criteria = criteria.withAuthorName(authorName);
+            }
+            System.out.print("From year: ");
+            var from = optionalInt(scanner.nextLine());
+            System.out.print("To year: ");
+            var to = optionalInt(scanner.nextLine());
+            criteria = criteria.withYears(from, to);
+            System.out.print("Title starts with: ");
+            criteria = criteria.withTitlePrefix(scanner.nextLine().trim());
+            System.out.print("Only available (a) or only unavailable (u) books: ");
+            var availability = scanner.nextLine().trim();
+            if (availability.equalsIgnoreCase("a") || availability.equalsIgnoreCase("u")) {
+                criteria = criteria.withAvailable(availability.equalsIgnoreCase("a"));
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid criteria: " + e.getMessage());
+            return;
+        }
+        var chosen = criteria;
+        showPaged((Book last) -> last == null
+                ? bookService.findBy(chosen, null, 0, PAGE_SIZE)
+                : bookService.findBy(chosen, last.getTitle(), last.getId(), PAGE_SIZE), "No books match these criteria.");
+    }
+
+    private void editBook() {
+        System.out.print("Enter book ID: ");
+        long id = getLongInput();
+        System.out.println("Leave a field empty to keep its value.");
+        try {
+            System.out.print("Title: ");
+            var title = scanner.nextLine().trim();
+            System.out.print("Year: ");
+            var year = optionalInt(scanner.nextLine());
+            System.out.print("Author ID: ");
+            var authorId = optionalInt(scanner.nextLine());
+            System.out.print("Available copies: ");
+            var available = optionalInt(scanner.nextLine());
+            if (authorId != null) {
+                authorService.findById(authorId).orElseThrow(() -> new AuthorNotFoundException(authorId));
+            }
+            // applied to the current book, again after a conflict: blank fields keep whatever is saved by then
+            bookService.update(id, book -> book.edited(title.isEmpty() ? book.getTitle() : title,
+                    year == null ? book.getYear() : year,
+                    authorId == null ? book.getAuthorId() : authorId,
+                    available == null ? book.getAvailable() : available));
+            System.out.println(bookService.findById(id).orElseThrow(() -> new BookNotFoundException(id)));
+        } catch (BookNotFoundException | AuthorNotFoundException | BookUpdateConflictException e) {
+            System.out.println(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid value: " + e.getMessage());
         }
     }
 
+    private static Integer optionalInt(String input) {
+        return input.isBlank() ? null : Integer.valueOf(input.trim());
+    }
+
     private void showBooksByYear() {
         System.out.print("Enter year: ");
         int year = getIntInput();
-        List<Book> books = bookService.findByYear(year);
-        if (books.isEmpty()) {
-            System.out.println("No books found for year: " + year);
-        } else {
-            books.forEach(System.out::println);
-        }
+        showPaged((Book last) -> last == null
+                ? bookService.findByYear(year, null, 0, PAGE_SIZE)
+                : bookService.findByYear(year, last.getTitle(), last.getId(), PAGE_SIZE), "No books found for year: " + year);
     }
 
     private void showBooksByAuthorName() {
@@ -357,20 +537,108 @@ public class ConsoleUI implements CommandLineRunner {
     }
 
     private void showAvailableBooks() {
-        List<Book> books = bookService.findByAvailability(true);
-        if (books.isEmpty()) {
-            System.out.println("No available books found.");
-        } else {
-            books.forEach(System.out::println);
-        }
+        showPaged((Book last) -> last == null
+                ? bookService.findByAvailability(true, null, 0, PAGE_SIZE)
+                : bookService.findByAvailability(true, last.getTitle(), last.getId(), PAGE_SIZE), "No available books found.");
     }
 
     private void showUnavailableBooks() {
-        List<Book> books = bookService.findByAvailability(false);
-        if (books.isEmpty()) {
-            System.out.println("No unavailable books found.");
-        } else {
-            books.forEach(System.out::println);
+        showPaged((Book last) -> last == null
+                ? bookService.findByAvailability(false, null, 0, PAGE_SIZE)
+                : bookService.findByAvailability(false, last.getTitle(), last.getId(), PAGE_SIZE), "No unavailable books found.");
+    }
+
+    // --- Statistics ---
+    private void statisticsMenu() {
+        int choice;
+        do {
+            System.out.println("\n--- Catalog Statistics ---");
+            System.out.println("1. Totals");
+            System.out.println("2. Books per author");
+            System.out.println("3. Books on loan per user");
+            System.out.println("4. Most borrowed books");
+            System.out.println("5. Availability per year");
+            System.out.println("0. Back to Main Menu");
+            System.out.print("Enter your choice: ");
+            choice = getIntInput();
+
+            switch (choice) {
+                case 1 -> System.out.println(statisticsService.totals());
+                case 2 -> showPaged((Tally last) -> statisticsService.booksPerAuthor(last, PAGE_SIZE), "No books found.");
+                case 3 -> showPaged((Tally last) -> statisticsService.loansPerUser(last, PAGE_SIZE), "No books on loan.");
+                case 4 -> showPaged((Tally last) -> statisticsService.mostBorrowedBooks(last, PAGE_SIZE), "No books on loan.");
+                case 5 -> showPaged((YearAvailability last) -> statisticsService.availabilityPerYear(last, PAGE_SIZE),
+                        "No books found.");
+                case 0 -> System.out.println("Returning to Main Menu.");
+                default -> System.out.println("Invalid choice. Please try again.");
+            }
+        } while (choice != 0);
+    }
+
+    // --- Helper methods for paging ---
+    // nextPage gets the last item shown (null for the first page) and returns the next page.
+    private <T> void showPaged(Function<T, List<T>> nextPage, String emptyMessage) {
+        T last = null;
+        List<T> page;
+        do {
+            page = nextPage.apply(last);
+            if (page.isEmpty()) {
+                if (last == null) {
+                    System.out.println(emptyMessage);
+                }
+                return;
+            }
+            page.forEach(System.out::println);
+            last = page.get(page.size() - 1);
+        } while (page.size() == PAGE_SIZE && askForMore());
+    }
+
+    private boolean askForMore() {
+        System.out.print("Show more? (y/n): ");
+        return scanner.nextLine().trim().equalsIgnoreCase("y");
+    }
+
+    // --- Import ---
+    private void importFromFile() {
+        System.out.print("Import 1. Authors, 2. Users or 3. Books: ");
+        int choice = getIntInput();
+        if (choice < 1 || choice > 3) {
+            System.out.println("Invalid choice.");
+            return;
+        }
+        var kind = ImportKind.values()[choice - 1];
+        System.out.println("Columns: " + kind.columns() + " (CSV with a header line, or JSON objects)");
+        System.out.print("Enter file path: ");
+        var file = Path.of(scanner.nextLine().trim());
+        System.out.print("Start over instead of resuming an earlier import of this file? (y/n): ");
+        boolean restart = scanner.nextLine().trim().equalsIgnoreCase("y");
+        try {
+            var report = importService.importFile(kind, file, restart, System.out::println);
+            System.out.println("Done: " + report);
+            report.rejections().forEach(rejection -> System.out.println("  " + rejection));
+        } catch (UncheckedIOException e) {
+            System.out.println("Error reading file: " + e.getCause().getMessage());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error importing file: " + e.getMessage());
+        }
+    }
+
+    private void exportCatalog() {
+        System.out.print("Export 1. CSV or 2. NDJSON: ");
+        int choice = getIntInput();
+        if (choice < 1 || choice > 2) {
+            System.out.println("Invalid choice.");
+            return;
+        }
+        var format = ExportFormat.values()[choice - 1];
+        System.out.print("Enter directory: ");
+        var directory = Path.of(scanner.nextLine().trim());
+        System.out.print("Compress with gzip? (y/n): ");
+        boolean gzip = scanner.nextLine().trim().equalsIgnoreCase("y");
+        try {
+            System.out.println(exportService.export(directory, List.of(ExportTable.values()), format, gzip));
+        } catch (UncheckedIOException e) {
+            System.out.println("Error writing file: " + e.getCause().getMessage());
         }
     }
 
@@ -0,0 +1,16 @@
+package org.mystudying.booksmarket2.cache;
+
+/** Counters of one {@link EntityCache} since start; evictions include entries dropped because they expired. */
+public record CacheStats(String name, long hits, long misses, long evictions, int size) {
+
+    public double hitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d hits, %d misses (hit rate %.1f%%), %d evictions, %d entries",
+                name, hits, misses, hitRate() * 100, evictions, size);
+    }
+}
@@ -0,0 +1,351 @@
+package org.mystudying.booksmarket2.cache;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * Read-through cache of entities by id, bounded by size (least recently used goes first) and by time to live.
+ * Secondary keys such as a title or an email map to the id of the cached entity, so a lookup by key
+ * is served from the same entry as a lookup by id.
+ * <p>
+ * Only found entities are cached. Loads run outside the lock; a load that overlaps an invalidation is not
+ * stored, and a load inside a transaction is stored only once that transaction commits, so rows it wrote
+ * itself and then rolled back never get cached. Invalidating inside a transaction repeats the invalidation
+ * when the transaction completes, so a value read between the write and the commit does not stay in the cache.
+ * Nothing a transaction marked with {@link #skipLoadsOfCurrentTransaction} loads is stored, since its reads
+ * may be behind the primary. Cached instances are shared between callers and must not be modified.
+ */
+public final class EntityCache<T> {
+    // bound while the current transaction reads from where writes may not have arrived yet
+    private static final Object BEHIND_PRIMARY = new Object();
+
+    private final String name;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final ToLongFunction<T> idOf;
+    private final Map<String, Function<T, String>> keysOf;
+    private final LongSupplier clock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Long, Entry<T>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Map<String, Long>> indexes = new HashMap<>();
+    // Every invalidation takes the next generation; a load may store its value only if neither its id
+    // nor the whole cache was invalidated after the load began.
+    private long generation;
+    private long invalidatedAll;
+    private final Map<Long, Long> invalidatedIds = new HashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private record Entry<T>(T value, long expiresAt) {
+    }
+
+    /**
+     * @param maxSize 0 turns caching off, every lookup then goes to the loader
+     * @param keysOf  secondary indexes by name, each computing the key of an entity
+     */
+    public EntityCache(String name, int maxSize, Duration ttl, ToLongFunction<T> idOf,
+                       Map<String, Function<T, String>> keysOf) {
+        this(name, maxSize, ttl, idOf, keysOf, System::nanoTime);
+    }
+
+    EntityCache(String name, int maxSize, Duration ttl, ToLongFunction<T> idOf,
+                Map<String, Function<T, String>> keysOf, LongSupplier clock) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("Cache size cannot be negative.");
+        this.name = name;
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.idOf = idOf;
+        this.keysOf = Map.copyOf(keysOf);
+        this.clock = clock;
+        keysOf.keySet().forEach(index -> indexes.put(index, new HashMap<>()));
+    }
+
+    public Optional<T> get(long id, LongFunction<Optional<T>> loader) {
+        if (maxSize == 0) {
+            misses.increment();
+            return loader.apply(id);
+        }
+        long loadGeneration;
+        lock.lock();
+        try {
+            var value = liveValue(id);
+            if (value != null) {
+                hits.increment();
+                return Optional.of(value);
+            }
+            loadGeneration = generation;
+        } finally {
+            lock.unlock();
+        }
+        misses.increment();
+        var loaded = loader.apply(id);
+        loaded.ifPresent(value -> store(value, loadGeneration));
+        return loaded;
+    }
+
+    /** The cached entity, without loading it and without counting a hit or miss. */
+    public Optional<T> getIfPresent(long id) {
+        if (maxSize == 0) {
+            return Optional.empty();
+        }
+        lock.lock();
+        try {
+            return Optional.ofNullable(liveValue(id));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Optional<T> getBy(String index, String key, Function<String, Optional<T>> loader) {
+        var ids = indexes.get(index);
+        if (ids == null)
+            throw new IllegalArgumentException("Unknown index " + index + " of cache " + name + ".");
+        if (maxSize == 0) {
+            misses.increment();
+            return loader.apply(key);
+        }
+        long loadGeneration;
+        lock.lock();
+        try {
+            var id = ids.get(key);
+            var value = id == null ? null : liveValue(id);
+            if (value != null) {
+                hits.increment();
+                return Optional.of(value);
+            }
+            loadGeneration = generation;
+        } finally {
+            lock.unlock();
+        }
+        misses.increment();
+        var loaded = loader.apply(key);
+        loaded.ifPresent(value -> store(value, loadGeneration));
+        return loaded;
+    }
+
+    public void invalidate(long id) {
+        invalidateNow(id);
+        afterTransaction(() -> invalidateNow(id));
+    }
+
+    /** Removes the entity's id and every secondary key it has, whichever entity they currently point to. */
+    public void invalidate(T entity) {
+        invalidateNow(entity);
+        afterTransaction(() -> invalidateNow(entity));
+    }
+
+    /**
+     * Applies a change to the cached entity once the current transaction commits (at once outside a transaction),
+     * so the entry follows a write without being loaded again. Nothing is cached if the entity is absent,
+     * and a load that overlaps the write is not stored. The change must keep the id and the secondary keys.
+     */
+    public void update(long id, UnaryOperator<T> change) {
+        if (maxSize == 0) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        updateNow(id, change);
+                    }
+                }
+            });
+        } else {
+            updateNow(id, change);
+        }
+    }
+
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            invalidatedAll = ++generation;
+            invalidatedIds.clear();
+            entries.clear();
+            indexes.values().forEach(Map::clear);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Keeps what the current transaction loads out of every cache, for a transaction reading from a read replica:
+     * a replica may not show a write committed just before, and the row it returns would stay cached for the
+     * whole time to live. Outside a transaction it does nothing.
+     */
+    public static void skipLoadsOfCurrentTransaction() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()
+                || TransactionSynchronizationManager.hasResource(BEHIND_PRIMARY)) {
+            return;
+        }
+        TransactionSynchronizationManager.bindResource(BEHIND_PRIMARY, Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(BEHIND_PRIMARY);
+            }
+        });
+    }
+
+    /** Whether the current transaction was marked with {@link #skipLoadsOfCurrentTransaction}. */
+    public static boolean loadsOfCurrentTransactionSkipped() {
+        return TransactionSynchronizationManager.hasResource(BEHIND_PRIMARY);
+    }
+
+    public CacheStats stats() {
+        int size;
+        lock.lock();
+        try {
+            size = entries.size();
+        } finally {
+            lock.unlock();
+        }
+        return new CacheStats(name, hits.sum(), misses.sum(), evictions.sum(), size);
+    }
+
+    // Call with the lock held; drops an expired entry on the way.
+    private T liveValue(long id) {
+        var entry = entries.get(id);
+        if (entry == null) {
+            return null;
+        }
+        if (clock.getAsLong() - entry.expiresAt() >= 0) {
+            remove(id);
+            evictions.increment();
+            return null;
+        }
+        return entry.value();
+    }
+
+    private void store(T value, long loadGeneration) {
+        if (loadsOfCurrentTransactionSkipped()) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        put(value, loadGeneration);
+                    }
+                }
+            });
+        } else {
+            put(value, loadGeneration);
+        }
+    }
+
+    private void put(T value, long loadGeneration) {
+        long id = idOf.applyAsLong(value);
+        lock.lock();
+        try {
+            if (invalidatedAll > loadGeneration || invalidatedIds.getOrDefault(id, 0L) > loadGeneration) {
+                return;
+            }
+            remove(id);
+            entries.put(id, new Entry<>(value, clock.getAsLong() + ttlNanos));
+            keysOf.forEach((index, keyOf) -> indexes.get(index).put(keyOf.apply(value), id));
+            var eldest = entries.entrySet().iterator();
+            while (entries.size() > maxSize) {
+                var evicted = eldest.next();
+                eldest.remove();
+                removeKeys(evicted.getKey(), evicted.getValue().value());
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remove(long id) {
+        var entry = entries.remove(id);
+        if (entry != null) {
+            removeKeys(id, entry.value());
+        }
+    }
+
+    private void removeKeys(long id, T value) {
+        // a key may meanwhile point to another entity
+        keysOf.forEach((index, keyOf) -> indexes.get(index).remove(keyOf.apply(value), id));
+    }
+
+    private void invalidateNow(long id) {
+        lock.lock();
+        try {
+            stamp(id);
+            remove(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void updateNow(long id, UnaryOperator<T> change) {
+        lock.lock();
+        try {
+            stamp(id); // a load running now may have read the row before the write
+            var entry = entries.get(id);
+            if (entry != null) {
+                entries.put(id, new Entry<>(change.apply(entry.value()), entry.expiresAt()));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Call with the lock held.
+    private void stamp(long id) {
+        invalidatedIds.put(id, ++generation);
+        if (invalidatedIds.size() > Math.max(maxSize, 1024)) {
+            // forget old stamps; loads still running then simply do not store their value
+            invalidatedAll = generation;
+            invalidatedIds.clear();
+        }
+    }
+
+    private void invalidateNow(T entity) {
+        lock.lock();
+        try {
+            // the keys may have led a running load to another id
+            invalidatedAll = ++generation;
+            invalidatedIds.clear();
+            remove(idOf.applyAsLong(entity));
+            keysOf.forEach((index, keyOf) -> {
+                var id = indexes.get(index).get(keyOf.apply(entity));
+                if (id != null) {
+                    remove(id);
+                }
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void afterTransaction(Runnable invalidation) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    invalidation.run();
+                }
+            });
+        }
+    }
+}
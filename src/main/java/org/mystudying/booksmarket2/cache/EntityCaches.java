@@ -0,0 +1,64 @@
+package org.mystudying.booksmarket2.cache;
+
+import org.mystudying.booksmarket2.domain.Author;
+import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.domain.User;
+import org.mystudying.booksmarket2.domain.UserLoans;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The caches in front of the book, user and author lookups. Services read through them; the code that
+ * writes a row invalidates it. The loans of a user are a projection of the bookings rows that the
+ * booking writes update in place.
+ */
+@Component
+public class EntityCaches {
+    public static final String TITLE = "title";
+    public static final String NAME = "name";
+    public static final String EMAIL = "email";
+
+    private final EntityCache<Book> books;
+    private final EntityCache<User> users;
+    private final EntityCache<Author> authors;
+    private final EntityCache<UserLoans> loans;
+
+    public EntityCaches(@Value("${booksmarket.cache.max-size:10000}") int maxSize,
+                        @Value("${booksmarket.cache.ttl-seconds:300}") long ttlSeconds) {
+        var ttl = Duration.ofSeconds(ttlSeconds);
+        books = new EntityCache<>("books", maxSize, ttl, Book::getId, Map.of(TITLE, Book::getTitle));
+        users = new EntityCache<>("users", maxSize, ttl, User::getId, Map.of(NAME, User::getName, EMAIL, User::getEmail));
+        authors = new EntityCache<>("authors", maxSize, ttl, Author::getId, Map.of(NAME, Author::getName));
+        loans = new EntityCache<>("loans", maxSize, ttl, UserLoans::getUserId, Map.of());
+    }
+
+    /** Caches that never keep anything, for code and tests that construct services by hand. */
+    public static EntityCaches disabled() {
+        return new EntityCaches(0, 0);
+    }
+
+    public EntityCache<Book> books() {
+        return books;
+    }
+
+    public EntityCache<User> users() {
+        return users;
+    }
+
+    public EntityCache<Author> authors() {
+        return authors;
+    }
+
+    /** Book ids on loan, by user id. */
+    public EntityCache<UserLoans> loans() {
+        return loans;
+    }
+
+    public List<CacheStats> stats() {
+        return List.of(books.stats(), users.stats(), authors.stats(), loans.stats());
+    }
+}
@@ -0,0 +1,109 @@
+package org.mystudying.booksmarket2.cache;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Read-through cache of computed results, such as aggregates over a table, by key. A result is served until
+ * the refresh interval has passed since it was computed and computed again by the next lookup after that;
+ * nothing invalidates it earlier, so readers see the data as of at most one interval ago. Bounded by size,
+ * least recently used first.
+ * <p>
+ * Loads run outside the lock: lookups of the same stale key at the same time may each compute it, the last
+ * one stored wins. Cached results are shared between callers and must not be modified.
+ */
+public final class SnapshotCache<K, V> {
+    private final String name;
+    private final int maxSize;
+    private final long refreshNanos;
+    private final LongSupplier clock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private record Entry<V>(V value, long expiresAt) {
+    }
+
+    /**
+     * @param maxSize 0 turns caching off, every lookup then computes the result
+     */
+    public SnapshotCache(String name, int maxSize, Duration refresh) {
+        this(name, maxSize, refresh, System::nanoTime);
+    }
+
+    SnapshotCache(String name, int maxSize, Duration refresh, LongSupplier clock) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("Cache size cannot be negative.");
+        this.name = name;
+        this.maxSize = maxSize;
+        this.refreshNanos = refresh.toNanos();
+        this.clock = clock;
+    }
+
+    public V get(K key, Function<K, V> loader) {
+        if (maxSize > 0) {
+            lock.lock();
+            try {
+                var entry = entries.get(key);
+                if (entry != null && clock.getAsLong() - entry.expiresAt() < 0) {
+                    hits.increment();
+                    return entry.value();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        misses.increment();
+        var value = loader.apply(key);
+        if (maxSize > 0) {
+            put(key, value);
+        }
+        return value;
+    }
+
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public CacheStats stats() {
+        int size;
+        lock.lock();
+        try {
+            size = entries.size();
+        } finally {
+            lock.unlock();
+        }
+        return new CacheStats(name, hits.sum(), misses.sum(), evictions.sum(), size);
+    }
+
+    private void put(K key, V value) {
+        lock.lock();
+        try {
+            if (entries.put(key, new Entry<>(value, clock.getAsLong() + refreshNanos)) != null) {
+                // the stale result it replaces
+                evictions.increment();
+            }
+            var eldest = entries.entrySet().iterator();
+            while (entries.size() > maxSize) {
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -13,7 +13,7 @@ public class Author {
             throw new IllegalArgumentException("Author ID must be positive.");
         if (name.isBlank())
             throw new IllegalArgumentException("Author name must not be empty.");
-        if (birthdate.isAfter(LocalDate.now()))
+        if (birthdate.isAfter(DomainValidation.today()))
             throw new IllegalArgumentException("Author birthdate must not be after now.");
 
         this.id = id;
@@ -21,6 +21,19 @@ public class Author {
         this.birthdate = birthdate;
     }
 
+    private Author(long id, String name, LocalDate birthdate, Void trusted) {
+        this.id = id;
+        this.name = name;
+        this.birthdate = birthdate;
+    }
+
+    /**
+     * Builds an author from a row of the authors table without checking it again.
+     */
+    public static Author load(long id, String name, LocalDate birthdate) {
+        return new Author(id, name, birthdate, null);
+    }
+
     public long getId() {
         return id;
     }
@@ -0,0 +1,24 @@
+package org.mystudying.booksmarket2.domain;
+
+import java.util.List;
+
+public class AuthorBooks {
+    private final Author author;
+    private final List<Book> books;
+
+    public AuthorBooks(Author author, List<Book> books) {
+        if (books.stream().anyMatch(book -> book.getAuthorId() != author.getId()))
+            throw new IllegalArgumentException("All books must belong to the author.");
+
+        this.author = author;
+        this.books = List.copyOf(books);
+    }
+
+    public Author getAuthor() {
+        return author;
+    }
+
+    public List<Book> getBooks() {
+        return books;
+    }
+}
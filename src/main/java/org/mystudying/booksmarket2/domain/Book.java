@@ -1,20 +1,24 @@
 package org.mystudying.booksmarket2.domain;
 
-import java.time.LocalDate;
-
 public class Book {
     private final long id;
     private final String title;
     private final int year;
     private final long authorId;
     private int available;
+    // bumped by every write to the row; an edit is saved only over the version it was made from
+    private final long version;
 
     public Book(long id, String title, int year, long authorId, int available) {
+        this(id, title, year, authorId, available, 0L);
+    }
+
+    private Book(long id, String title, int year, long authorId, int available, long version) {
        if (id < 1)
            throw new IllegalArgumentException("Book id must be positive.");
        if (title.isBlank())
            throw new IllegalArgumentException("Book title cannot be blank.");
-       if (LocalDate.now().getYear() < year || year < 1)
+       if (DomainValidation.currentYear() < year || year < 1)
            throw new IllegalArgumentException("Book year must be less or equal to current year and positive.");
        if (authorId < 1)
            throw new IllegalArgumentException("Author id must be positive.");
@@ -26,6 +30,34 @@ public class Book {
         this.year = year;
         this.authorId = authorId;
         this.available = available;
+        this.version = version;
+    }
+
+    private Book(long id, String title, int year, long authorId, int available, long version, Void trusted) {
+        this.id = id;
+        this.title = title;
+        this.year = year;
+        this.authorId = authorId;
+        this.available = available;
+        this.version = version;
+    }
+
+    /**
+     * Builds a book from a row read back from the database, without validation: every row got there
+     * through the validating constructor or the schema's constraints, so the checks would only repeat.
+     */
+    public static Book load(long id, String title, int year, long authorId, int available, long version) {
+        return new Book(id, title, year, authorId, available, version, null);
+    }
+
+    /** This book with the given values, validated, at the same version: what an edit of it saves. */
+    public Book edited(String title, int year, long authorId, int available) {
+        return new Book(id, title, year, authorId, available, version);
+    }
+
+    /** This book as saving it over its version leaves the row: the same values at the next version. */
+    public Book saved() {
+        return new Book(id, title, year, authorId, available, version + 1, null);
     }
 
     public long getId() {
@@ -48,6 +80,10 @@ public class Book {
         return available;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
     public void rentBook() {
         if (available < 1) {
             throw new IllegalArgumentException("Book is not available.");
@@ -68,6 +104,7 @@ public class Book {
                 ", year=" + year +
                 ", authorId=" + authorId +
                 ", available=" + available +
+                ", version=" + version +
                 '}';
     }
 }
@@ -0,0 +1,102 @@
+package org.mystudying.booksmarket2.domain;
+
+/**
+ * Filters for a combined book query; a filter left unset (null) is not applied, and the ones set all apply.
+ * Immutable: each with-method returns a copy, e.g.
+ * {@code BookCriteria.any().withAuthorName("Tolkien").withYears(1950, 1960).withAvailable(true)}.
+ */
+public final class BookCriteria {
+    private static final BookCriteria ANY = new BookCriteria(null, null, null, null, null, null);
+
+    private final Integer yearFrom;
+    private final Integer yearTo;
+    private final Long authorId;
+    private final String authorName;
+    private final Boolean available;
+    private final String titlePrefix;
+
+    private BookCriteria(Integer yearFrom, Integer yearTo, Long authorId, String authorName, Boolean available,
+                         String titlePrefix) {
+        if (yearFrom != null && yearTo != null && yearFrom > yearTo)
+            throw new IllegalArgumentException("The first year must not be after the last year.");
+        if (authorId != null && authorName != null)
+            throw new IllegalArgumentException("Filter by author id or by author name, not both.");
+        if (authorName != null && authorName.isBlank())
+            throw new IllegalArgumentException("Author name must not be blank.");
+
+        this.yearFrom = yearFrom;
+        this.yearTo = yearTo;
+        this.authorId = authorId;
+        this.authorName = authorName;
+        this.available = available;
+        this.titlePrefix = titlePrefix == null || titlePrefix.isEmpty() ? null : titlePrefix;
+    }
+
+    /** No filter: every book. */
+    public static BookCriteria any() {
+        return ANY;
+    }
+
+    /** Books from the years from to to, both included; either may be null for an open range. */
+    public BookCriteria withYears(Integer from, Integer to) {
+        return new BookCriteria(from, to, authorId, authorName, available, titlePrefix);
+    }
+
+    public BookCriteria withYear(int year) {
+        return withYears(year, year);
+    }
+
+    public BookCriteria withAuthorId(long authorId) {
+        return new BookCriteria(yearFrom, yearTo, authorId, null, available, titlePrefix);
+    }
+
+    public BookCriteria withAuthorName(String authorName) {
+        return new BookCriteria(yearFrom, yearTo, null, authorName, available, titlePrefix);
+    }
+
+    /** Books with copies available (true) or with none left (false). */
+    public BookCriteria withAvailable(boolean available) {
+        return new BookCriteria(yearFrom, yearTo, authorId, authorName, available, titlePrefix);
+    }
+
+    /** Books whose title starts with the prefix, compared as the title column's collation compares. */
+    public BookCriteria withTitlePrefix(String titlePrefix) {
+        return new BookCriteria(yearFrom, yearTo, authorId, authorName, available, titlePrefix);
+    }
+
+    public Integer getYearFrom() {
+        return yearFrom;
+    }
+
+    public Integer getYearTo() {
+        return yearTo;
+    }
+
+    public Long getAuthorId() {
+        return authorId;
+    }
+
+    public String getAuthorName() {
+        return authorName;
+    }
+
+    public Boolean getAvailable() {
+        return available;
+    }
+
+    public String getTitlePrefix() {
+        return titlePrefix;
+    }
+
+    @Override
+    public String toString() {
+        return "BookCriteria{" +
+                "yearFrom=" + yearFrom +
+                ", yearTo=" + yearTo +
+                ", authorId=" + authorId +
+                ", authorName='" + authorName + '\'' +
+                ", available=" + available +
+                ", titlePrefix='" + titlePrefix + '\'' +
+                '}';
+    }
+}
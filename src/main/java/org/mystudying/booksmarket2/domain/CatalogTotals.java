@@ -0,0 +1,11 @@
+package org.mystudying.booksmarket2.domain;
+
+/** Row counts of the catalog, the books on loan and the copies available to rent. */
+public record CatalogTotals(long authors, long books, long users, long loans, long availableCopies) {
+
+    @Override
+    public String toString() {
+        return String.format("%d authors, %d books, %d users, %d books on loan, %d copies available",
+                authors, books, users, loans, availableCopies);
+    }
+}
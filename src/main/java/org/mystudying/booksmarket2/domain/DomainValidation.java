@@ -0,0 +1,81 @@
+package org.mystudying.booksmarket2.domain;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+/**
+ * The checks the domain constructors share, written so that a check allocates nothing: the email format is
+ * scanned by hand instead of through a regex, and today's date is read from a cache that is refreshed when
+ * the system clock passes midnight, instead of asking the clock and the time zone rules on every call.
+ */
+public final class DomainValidation {
+    private static volatile Today today = Today.of(Instant.now());
+
+    private DomainValidation() {
+    }
+
+    private record Today(LocalDate date, long nextMidnightMillis) {
+        static Today of(Instant now) {
+            var zone = ZoneId.systemDefault();
+            var date = LocalDate.ofInstant(now, zone);
+            return new Today(date, date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli());
+        }
+    }
+
+    public static LocalDate today() {
+        var current = today;
+        long now = System.currentTimeMillis();
+        if (now >= current.nextMidnightMillis) {
+            // racing threads compute the same value, so the last write wins harmlessly
+            current = Today.of(Instant.ofEpochMilli(now));
+            today = current;
+        }
+        return current.date;
+    }
+
+    public static int currentYear() {
+        return today().getYear();
+    }
+
+    /**
+     * Matches exactly what the regex {@code [-.\w]+@([\w-]+\.)+[\w-]+} matches: a local part of letters, digits,
+     * '_', '-' and '.', then a domain of at least two non-empty labels of letters, digits, '_' and '-'.
+     */
+    public static boolean isEmail(String email) {
+        if (email == null) {
+            return false;
+        }
+        int at = email.indexOf('@');
+        if (at < 1) {
+            return false;
+        }
+        for (int i = 0; i < at; i++) {
+            char c = email.charAt(i);
+            if (!isWordChar(c) && c != '-' && c != '.') {
+                return false;
+            }
+        }
+        int labels = 0;
+        int labelLength = 0;
+        for (int i = at + 1; i < email.length(); i++) {
+            char c = email.charAt(i);
+            if (c == '.') {
+                if (labelLength == 0) {
+                    return false;
+                }
+                labels++;
+                labelLength = 0;
+            } else if (isWordChar(c) || c == '-') {
+                labelLength++;
+            } else {
+                return false;
+            }
+        }
+        return labels > 0 && labelLength > 0;
+    }
+
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+}
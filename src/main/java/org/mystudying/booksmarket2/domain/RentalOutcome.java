@@ -0,0 +1,17 @@
+package org.mystudying.booksmarket2.domain;
+
+public enum RentalOutcome {
+    RENTED,
+    RETURNED,
+    // no copy was left, the user joined the book's waitlist
+    RESERVED,
+    USER_NOT_FOUND,
+    BOOK_NOT_FOUND,
+    NOT_AVAILABLE,
+    ALREADY_BORROWED,
+    NOT_BORROWED;
+
+    public boolean isSuccess() {
+        return this == RENTED || this == RETURNED || this == RESERVED;
+    }
+}
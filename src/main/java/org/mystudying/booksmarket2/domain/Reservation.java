@@ -0,0 +1,42 @@
+package org.mystudying.booksmarket2.domain;
+
+/**
+ * A user waiting for a copy of a book; the lower id is served first.
+ */
+public class Reservation {
+    private final long id;
+    private final long userId;
+    private final long bookId;
+
+    public Reservation(long id, long userId, long bookId) {
+        if (id < 1)
+            throw new IllegalArgumentException("Id must be positive.");
+        if (userId <= 0 || bookId <= 0)
+            throw new IllegalArgumentException("userId and bookId must be greater than 0.");
+
+        this.id = id;
+        this.userId = userId;
+        this.bookId = bookId;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public long getBookId() {
+        return bookId;
+    }
+
+    @Override
+    public String toString() {
+        return "Reservation{" +
+                "id=" + id +
+                ", userId=" + userId +
+                ", bookId=" + bookId +
+                '}';
+    }
+}
@@ -0,0 +1,13 @@
+package org.mystudying.booksmarket2.domain;
+
+/**
+ * A count per author, user or book, e.g. the books an author wrote; name is the author's or user's name
+ * or the book's title. Rankings order tallies by count, highest first, then by id.
+ */
+public record Tally(long id, String name, long count) {
+
+    @Override
+    public String toString() {
+        return String.format("%s (id %d): %d", name, id, count);
+    }
+}
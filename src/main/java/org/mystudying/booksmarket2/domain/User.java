@@ -1,21 +1,17 @@
 package org.mystudying.booksmarket2.domain;
 
-import java.util.regex.Pattern;
-
 public class User {
     private final long id;
     private final String name;
     private final String email;
 
-    private static final String EMAIL_REGEXP = "[-.\\w]+@([\\w-]+\\.)+[\\w-]+";
-
     public User(long id, String name, String email) {
 
         if (id < 1)
             throw new IllegalArgumentException("Id must be positive.");
         if (name.isBlank())
             throw new IllegalArgumentException("Name must not be blank.");
-        if (email == null || !Pattern.matches(EMAIL_REGEXP, email))
+        if (!DomainValidation.isEmail(email))
             throw new IllegalArgumentException("Wrong format of email!");
 
         this.id = id;
@@ -23,6 +19,20 @@ public class User {
         this.email = email;
     }
 
+    private User(long id, String name, String email, Void trusted) {
+        this.id = id;
+        this.name = name;
+        this.email = email;
+    }
+
+    /**
+     * Builds a user from a row of the users table, which only ever receives users that passed the
+     * constructor's checks; skips them, the email pattern in particular.
+     */
+    public static User load(long id, String name, String email) {
+        return new User(id, name, email, null);
+    }
+
     public long getId() {
         return id;
     }
@@ -0,0 +1,38 @@
+package org.mystudying.booksmarket2.domain;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+public class UserLoans {
+    private final long userId;
+    private final Set<Long> bookIds;
+
+    public UserLoans(long userId, Collection<Long> bookIds) {
+        if (userId <= 0)
+            throw new IllegalArgumentException("User id must be positive.");
+
+        this.userId = userId;
+        this.bookIds = Set.copyOf(bookIds);
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public Set<Long> getBookIds() {
+        return bookIds;
+    }
+
+    public UserLoans withBooks(Collection<Long> rented) {
+        var ids = new HashSet<>(bookIds);
+        ids.addAll(rented);
+        return new UserLoans(userId, ids);
+    }
+
+    public UserLoans withoutBooks(Collection<Long> returned) {
+        var ids = new HashSet<>(bookIds);
+        ids.removeAll(returned);
+        return new UserLoans(userId, ids);
+    }
+}
@@ -0,0 +1,10 @@
+package org.mystudying.booksmarket2.domain;
+
+/** The books published in one year: how many there are, the copies available to rent and how many are sold out. */
+public record YearAvailability(int year, long books, long availableCopies, long soldOut) {
+
+    @Override
+    public String toString() {
+        return String.format("%d: %d books, %d copies available, %d sold out", year, books, availableCopies, soldOut);
+    }
+}
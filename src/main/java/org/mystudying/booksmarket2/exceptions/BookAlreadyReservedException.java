@@ -0,0 +1,7 @@
+package org.mystudying.booksmarket2.exceptions;
+
+public class BookAlreadyReservedException extends RuntimeException {
+    public BookAlreadyReservedException() {
+        super("Book is already reserved by this user.");
+    }
+}
@@ -0,0 +1,7 @@
+package org.mystudying.booksmarket2.exceptions;
+
+public class BookUpdateConflictException extends RuntimeException {
+    public BookUpdateConflictException(long id) {
+        super("Book was changed concurrently, the edit was not saved. Please try again. Id: " + id);
+    }
+}
@@ -0,0 +1,18 @@
+package org.mystudying.booksmarket2.exports;
+
+public enum ExportFormat {
+    /** RFC 4180 CSV with a header line, as read by the imports. */
+    CSV(".csv"),
+    /** One JSON object per line, keyed by column name. */
+    NDJSON(".ndjson");
+
+    private final String extension;
+
+    ExportFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String extension() {
+        return extension;
+    }
+}
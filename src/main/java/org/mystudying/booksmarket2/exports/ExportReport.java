@@ -0,0 +1,49 @@
+package org.mystudying.booksmarket2.exports;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Outcome of a catalog export: one entry per table, in the order asked for.
+ *
+ * @param elapsed wall time of the whole export; with tables exported in parallel, less than the sum of theirs
+ */
+public record ExportReport(Path directory, List<Table> tables, Duration elapsed) {
+
+    /**
+     * @param bytes size of the file as written, after compression
+     */
+    public record Table(ExportTable table, Path file, long rows, long bytes, Duration elapsed) {
+
+        public double rowsPerSecond() {
+            return ExportReport.rowsPerSecond(rows, elapsed);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %,d rows, %,d bytes in %.1f s (%,.0f rows/s)",
+                    file.getFileName(), rows, bytes, elapsed.toMillis() / 1000.0, rowsPerSecond());
+        }
+    }
+
+    public long rows() {
+        return tables.stream().mapToLong(Table::rows).sum();
+    }
+
+    public double rowsPerSecond() {
+        return rowsPerSecond(rows(), elapsed);
+    }
+
+    private static double rowsPerSecond(long rows, Duration elapsed) {
+        return elapsed.isZero() ? 0 : rows * 1_000_000_000.0 / elapsed.toNanos();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%,d rows exported to %s in %.1f s (%,.0f rows/s)%n", rows(), directory,
+                elapsed.toMillis() / 1000.0, rowsPerSecond())
+                + tables.stream().map(table -> "  " + table).collect(Collectors.joining(System.lineSeparator()));
+    }
+}
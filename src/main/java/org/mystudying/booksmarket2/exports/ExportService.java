@@ -0,0 +1,135 @@
+package org.mystudying.booksmarket2.exports;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streaming export of the catalog tables to CSV or NDJSON files, optionally gzipped.
+ * <p>
+ * Memory stays flat whatever the size of the catalog: rows go from the database cursor straight into
+ * a buffered file channel, one fetch and one buffer per table. Up to parallelism tables are exported
+ * at once, each on its own thread with its own connection and transaction; a table's file therefore
+ * reflects one moment, but different tables may not (a booking may refer to a book added after the
+ * books were read). A file is written under a temporary name and moved into place once complete,
+ * so an export that fails never leaves a truncated file behind.
+ */
+@Service
+public class ExportService {
+    private final TableExporter tableExporter;
+    private final int parallelism;
+    private final int bufferSize;
+
+    public ExportService(TableExporter tableExporter,
+                         @Value("${booksmarket.export.parallelism:4}") int parallelism,
+                         @Value("${booksmarket.export.buffer-size:65536}") int bufferSize) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive.");
+        if (bufferSize < 1)
+            throw new IllegalArgumentException("Buffer size must be positive.");
+        this.tableExporter = tableExporter;
+        this.parallelism = parallelism;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Writes each table to {@code directory/<table><extension>[.gz]}, replacing an earlier export.
+     *
+     * @throws UncheckedIOException when a file cannot be written; the other tables are still exported
+     */
+    public ExportReport export(Path directory, Collection<ExportTable> tables, ExportFormat format, boolean gzip) {
+        long started = System.nanoTime();
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        var reports = new ArrayList<ExportReport.Table>(tables.size());
+        if (parallelism == 1 || tables.size() < 2) {
+            for (var table : tables) {
+                reports.add(exportTable(directory, table, format, gzip));
+            }
+        } else {
+            try (var pool = Executors.newFixedThreadPool(Math.min(parallelism, tables.size()),
+                    Thread.ofPlatform().name("booksmarket-export-", 0).factory())) {
+                var exports = new ArrayList<CompletableFuture<ExportReport.Table>>(tables.size());
+                for (var table : tables) {
+                    exports.add(CompletableFuture.supplyAsync(() -> exportTable(directory, table, format, gzip), pool));
+                }
+                join(exports, reports);
+            }
+        }
+        return new ExportReport(directory, List.copyOf(reports), Duration.ofNanos(System.nanoTime() - started));
+    }
+
+    /** Waits for every export, then rethrows the first failure, so no export is abandoned half way. */
+    private static void join(List<CompletableFuture<ExportReport.Table>> exports, List<ExportReport.Table> reports) {
+        RuntimeException failure = null;
+        for (var export : exports) {
+            try {
+                reports.add(export.join());
+            } catch (CompletionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException cause ? cause : e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private ExportReport.Table exportTable(Path directory, ExportTable table, ExportFormat format, boolean gzip) {
+        long started = System.nanoTime();
+        var file = directory.resolve(table.fileName(format, gzip));
+        var partial = directory.resolve(file.getFileName() + ".part");
+        try {
+            long rows;
+            try (var channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+                 var out = RowWriter.open(format, table.columns(), writer(Channels.newOutputStream(channel), gzip))) {
+                rows = tableExporter.export(table, out);
+            }
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new ExportReport.Table(table, file, rows, Files.size(file), Duration.ofNanos(System.nanoTime() - started));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            try {
+                Files.deleteIfExists(partial);
+            } catch (IOException ignored) {
+                // the export's own outcome matters more than a leftover temporary file
+            }
+        }
+    }
+
+    private BufferedWriter writer(OutputStream channel, boolean gzip) throws IOException {
+        OutputStream out = new BufferedOutputStream(channel, bufferSize);
+        if (gzip) {
+            out = new GZIPOutputStream(out, bufferSize);
+        }
+        // the encoder in between has a buffer of its own; this one spares it a call per value
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 8192);
+    }
+}
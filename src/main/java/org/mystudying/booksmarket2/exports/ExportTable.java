@@ -0,0 +1,28 @@
+package org.mystudying.booksmarket2.exports;
+
+import java.util.List;
+
+/**
+ * A table of the catalog and the columns exported from it, in file order. Rows are written in primary key order.
+ */
+public enum ExportTable {
+    AUTHORS(List.of("id", "name", "birthdate")),
+    USERS(List.of("id", "name", "email")),
+    BOOKS(List.of("id", "title", "year", "author_id", "available")),
+    BOOKINGS(List.of("user_id", "book_id"));
+
+    private final List<String> columns;
+
+    ExportTable(List<String> columns) {
+        this.columns = columns;
+    }
+
+    public List<String> columns() {
+        return columns;
+    }
+
+    /** The file name of the table's export, such as {@code books.csv.gz}. */
+    public String fileName(ExportFormat format, boolean gzip) {
+        return name().toLowerCase() + format.extension() + (gzip ? ".gz" : "");
+    }
+}
@@ -0,0 +1,151 @@
+package org.mystudying.booksmarket2.exports;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Writes rows one value at a time, so that no row is built as an object or a string first.
+ * A row is {@link #beginRow()}, one {@code value} per column in column order, then {@link #endRow()}.
+ */
+abstract class RowWriter implements Closeable {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    final List<String> columns;
+    int column;
+
+    RowWriter(List<String> columns) {
+        this.columns = columns;
+    }
+
+    static RowWriter open(ExportFormat format, List<String> columns, Writer out) throws IOException {
+        return switch (format) {
+            case CSV -> new Csv(columns, out);
+            case NDJSON -> new Ndjson(columns, JSON_FACTORY.createGenerator(out));
+        };
+    }
+
+    void beginRow() throws IOException {
+        column = 0;
+    }
+
+    abstract void value(long value) throws IOException;
+
+    abstract void value(String value) throws IOException;
+
+    void value(LocalDate value) throws IOException {
+        value(value == null ? null : value.toString());
+    }
+
+    abstract void endRow() throws IOException;
+
+    private static final class Csv extends RowWriter {
+        private final Writer out;
+
+        Csv(List<String> columns, Writer out) throws IOException {
+            super(columns);
+            this.out = out;
+            beginRow();
+            for (var name : columns) {
+                value(name);
+            }
+            endRow();
+        }
+
+        private void separator() throws IOException {
+            if (column++ > 0) {
+                out.write(',');
+            }
+        }
+
+        @Override
+        void value(long value) throws IOException {
+            separator();
+            out.write(Long.toString(value));
+        }
+
+        @Override
+        void value(String value) throws IOException {
+            separator();
+            if (value == null) {
+                return;
+            }
+            if (!needsQuotes(value)) {
+                out.write(value);
+                return;
+            }
+            out.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    out.write('"');
+                }
+                out.write(c);
+            }
+            out.write('"');
+        }
+
+        private static boolean needsQuotes(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        void endRow() throws IOException {
+            out.write("\r\n");
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static final class Ndjson extends RowWriter {
+        private final JsonGenerator json;
+
+        Ndjson(List<String> columns, JsonGenerator json) {
+            super(columns);
+            this.json = json;
+            // objects are separated by the line breaks endRow writes
+            json.setRootValueSeparator(null);
+        }
+
+        @Override
+        void beginRow() throws IOException {
+            super.beginRow();
+            json.writeStartObject();
+        }
+
+        @Override
+        void value(long value) throws IOException {
+            json.writeNumberField(columns.get(column++), value);
+        }
+
+        @Override
+        void value(String value) throws IOException {
+            json.writeStringField(columns.get(column++), value);
+        }
+
+        @Override
+        void endRow() throws IOException {
+            json.writeEndObject();
+            json.writeRaw('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            json.close();
+        }
+    }
+}
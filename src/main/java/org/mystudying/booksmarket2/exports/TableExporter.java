@@ -0,0 +1,77 @@
+package org.mystudying.booksmarket2.exports;
+
+import org.mystudying.booksmarket2.repositories.AuthorRepositoryInt;
+import org.mystudying.booksmarket2.repositories.BookRepositoryInt;
+import org.mystudying.booksmarket2.repositories.BookingRepositoryInt;
+import org.mystudying.booksmarket2.repositories.UserRepositoryInt;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.util.stream.Stream;
+
+/**
+ * Reads one table through its repository's cursor and hands the rows to a {@link RowWriter} as they arrive,
+ * so a table of any size is held in memory one fetch at a time. Each table is read in its own read-only
+ * transaction, on the thread that exports it.
+ */
+@Component
+class TableExporter {
+    private final BookRepositoryInt bookRepository;
+    private final UserRepositoryInt userRepository;
+    private final AuthorRepositoryInt authorRepository;
+    private final BookingRepositoryInt bookingRepository;
+
+    public TableExporter(BookRepositoryInt bookRepository, UserRepositoryInt userRepository,
+                         AuthorRepositoryInt authorRepository, BookingRepositoryInt bookingRepository) {
+        this.bookRepository = bookRepository;
+        this.userRepository = userRepository;
+        this.authorRepository = authorRepository;
+        this.bookingRepository = bookingRepository;
+    }
+
+    private interface Fields<T> {
+        void write(T row, RowWriter out) throws IOException;
+    }
+
+    /** Returns the number of rows written. */
+    @Transactional(readOnly = true)
+    public long export(ExportTable table, RowWriter out) throws IOException {
+        return switch (table) {
+            case AUTHORS -> write(authorRepository.streamAll(), out, (author, row) -> {
+                row.value(author.getId());
+                row.value(author.getName());
+                row.value(author.getBirthdate());
+            });
+            case USERS -> write(userRepository.streamAll(), out, (user, row) -> {
+                row.value(user.getId());
+                row.value(user.getName());
+                row.value(user.getEmail());
+            });
+            case BOOKS -> write(bookRepository.streamAll(), out, (book, row) -> {
+                row.value(book.getId());
+                row.value(book.getTitle());
+                row.value(book.getYear());
+                row.value(book.getAuthorId());
+                row.value(book.getAvailable());
+            });
+            case BOOKINGS -> write(bookingRepository.streamAll(), out, (booking, row) -> {
+                row.value(booking.getUserId());
+                row.value(booking.getBookId());
+            });
+        };
+    }
+
+    private static <T> long write(Stream<T> rows, RowWriter out, Fields<T> fields) throws IOException {
+        long written = 0;
+        try (rows) {
+            // an iterator rather than forEach, so that IOException reaches the caller unwrapped
+            for (var iterator = rows.iterator(); iterator.hasNext(); written++) {
+                out.beginRow();
+                fields.write(iterator.next(), out);
+                out.endRow();
+            }
+        }
+        return written;
+    }
+}
@@ -0,0 +1,23 @@
+package org.mystudying.booksmarket2.imports;
+
+import java.util.List;
+
+final class ColumnMapping {
+
+    private ColumnMapping() {
+    }
+
+    /**
+     * For each source column, its index in {@link ImportKind#columns()}, or -1 when the import does not read it.
+     *
+     * @throws IllegalArgumentException when a required column is missing
+     */
+    static int[] of(ImportKind kind, List<String> sourceColumns) {
+        for (var required : kind.requiredColumns()) {
+            if (!sourceColumns.contains(required))
+                throw new IllegalArgumentException("Missing column '" + required + "' for an import of "
+                        + kind.name().toLowerCase() + ", expected " + kind.columns() + ".");
+        }
+        return sourceColumns.stream().mapToInt(kind.columns()::indexOf).toArray();
+    }
+}
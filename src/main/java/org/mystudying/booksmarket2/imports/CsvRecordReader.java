@@ -0,0 +1,114 @@
+package org.mystudying.booksmarket2.imports;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * RFC 4180 CSV: comma separated, fields optionally in double quotes, where a quoted field may contain commas,
+ * line breaks and doubled quotes. The first line names the columns; blank lines are skipped.
+ */
+final class CsvRecordReader implements RecordReader {
+    private final Reader in;
+    private final ImportKind kind;
+    private final int[] columnOf;
+    private final StringBuilder field = new StringBuilder();
+    // read in blocks: Reader.read() per character would take the reader's lock per character
+    private final char[] buffer = new char[1 << 16];
+    private int position;
+    private int limit;
+    private long number;
+    private int pushedBack = -1;
+
+    CsvRecordReader(Reader in, ImportKind kind) throws IOException {
+        this.in = in;
+        this.kind = kind;
+        var header = readFields();
+        if (header == null)
+            throw new IllegalArgumentException("The CSV file is empty, expected a header line.");
+        this.columnOf = ColumnMapping.of(kind, header.stream().map(name -> name.strip().toLowerCase(Locale.ROOT)).toList());
+    }
+
+    @Override
+    public SourceRecord next() throws IOException {
+        var fields = readFields();
+        if (fields == null) {
+            return null;
+        }
+        var values = new String[kind.columns().size()];
+        Arrays.fill(values, "");
+        for (int i = 0; i < fields.size() && i < columnOf.length; i++) {
+            if (columnOf[i] >= 0) {
+                values[columnOf[i]] = fields.get(i);
+            }
+        }
+        return new SourceRecord(++number, values);
+    }
+
+    /** The fields of the next non-blank line, or null at the end of the input. */
+    private List<String> readFields() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == '\r' || c == '\n');
+        if (c == -1) {
+            return null;
+        }
+        var fields = new ArrayList<String>();
+        field.setLength(0);
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1)
+                    throw new IllegalArgumentException("Unterminated quoted field after record " + number + ".");
+                if (c == '"') {
+                    int next = read();
+                    if (next == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        pushedBack = next;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.isEmpty()) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == '\r' || c == -1) {
+                fields.add(field.toString());
+                return fields;
+            } else {
+                field.append((char) c);
+            }
+            c = read();
+        }
+    }
+
+    private int read() throws IOException {
+        if (pushedBack != -1) {
+            int c = pushedBack;
+            pushedBack = -1;
+            return c;
+        }
+        if (position == limit) {
+            limit = in.read(buffer);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
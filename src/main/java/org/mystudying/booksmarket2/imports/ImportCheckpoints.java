@@ -0,0 +1,40 @@
+package org.mystudying.booksmarket2.imports;
+
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+/**
+ * The import_checkpoints rows: per import, how many records of its source are committed.
+ */
+@Repository
+public class ImportCheckpoints {
+    private final JdbcClient jdbcClient;
+
+    public ImportCheckpoints(JdbcClient jdbcClient) {
+        this.jdbcClient = jdbcClient;
+    }
+
+    public record Checkpoint(long records, boolean completed) {
+    }
+
+    public Optional<Checkpoint> find(String importId) {
+        var sql = "SELECT records, completed FROM import_checkpoints WHERE import_id = ?";
+        return jdbcClient.sql(sql).param(importId)
+                .query((rs, rowNum) -> new Checkpoint(rs.getLong(1), rs.getBoolean(2)))
+                .optional();
+    }
+
+    public void save(String importId, long records, boolean completed) {
+        var update = "UPDATE import_checkpoints SET records = ?, completed = ?, updated_at = CURRENT_TIMESTAMP WHERE import_id = ?";
+        if (jdbcClient.sql(update).params(records, completed, importId).update() == 0) {
+            var insert = "INSERT INTO import_checkpoints(import_id, records, completed) VALUES (?, ?, ?)";
+            jdbcClient.sql(insert).params(importId, records, completed).update();
+        }
+    }
+
+    public void delete(String importId) {
+        jdbcClient.sql("DELETE FROM import_checkpoints WHERE import_id = ?").param(importId).update();
+    }
+}
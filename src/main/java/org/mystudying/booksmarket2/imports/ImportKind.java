@@ -0,0 +1,36 @@
+package org.mystudying.booksmarket2.imports;
+
+import java.util.List;
+
+/**
+ * What a source file holds, and the columns (CSV header names or JSON field names) read from each record.
+ * Other columns are ignored, and optional columns a source lacks read as empty.
+ */
+public enum ImportKind {
+    /** {@code name, birthdate} (YYYY-MM-DD). Authors whose name is already known are skipped. */
+    AUTHORS(List.of("name", "birthdate"), 2),
+    /** {@code name, email}. Users whose email is already taken are rejected. */
+    USERS(List.of("name", "email"), 2),
+    /**
+     * {@code title, year, author, available}, plus an optional {@code author_birthdate}: the author is looked up
+     * by name and, when unknown, created once from that birthdate; without it the book is rejected.
+     */
+    BOOKS(List.of("title", "year", "author", "available", "author_birthdate"), 4);
+
+    private final List<String> columns;
+    private final int requiredColumns;
+
+    ImportKind(List<String> columns, int requiredColumns) {
+        this.columns = columns;
+        this.requiredColumns = requiredColumns;
+    }
+
+    public List<String> columns() {
+        return columns;
+    }
+
+    /** The columns a source must have; the rest are optional. */
+    public List<String> requiredColumns() {
+        return columns.subList(0, requiredColumns);
+    }
+}
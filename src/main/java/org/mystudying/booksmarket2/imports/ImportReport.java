@@ -0,0 +1,31 @@
+package org.mystudying.booksmarket2.imports;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Progress and outcome of an import.
+ *
+ * @param resumedFrom records of the source committed by earlier runs, and skipped by this one
+ * @param read        records this run read past the checkpoint
+ * @param duplicates  authors skipped because an author of that name exists
+ * @param rejections  the first rejected records, as "record N: reason"
+ * @param completed   whether the whole source is imported
+ */
+public record ImportReport(ImportKind kind, Path source, long resumedFrom, long read, long imported, long duplicates,
+                           long rejected, List<String> rejections, Duration elapsed, boolean completed) {
+    static final int MAX_REJECTIONS = 100;
+
+    public double recordsPerSecond() {
+        return elapsed.isZero() ? 0 : read * 1_000_000_000.0 / elapsed.toNanos();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s: %,d records read in %.1f s (%,.0f records/s), %,d imported, %,d duplicates skipped, "
+                        + "%,d rejected%s",
+                kind.name().toLowerCase(), source.getFileName(), read, elapsed.toMillis() / 1000.0, recordsPerSecond(),
+                imported, duplicates, rejected, resumedFrom > 0 ? String.format(", resumed after record %,d", resumedFrom) : "");
+    }
+}
@@ -0,0 +1,153 @@
+package org.mystudying.booksmarket2.imports;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Bulk import of authors, users or books from a CSV or JSON file.
+ * <p>
+ * The source is read one chunk of records at a time. While a chunk is written, the next one is read and
+ * validated in parallel, so reading, validation and writing overlap. Each chunk commits together with the
+ * import's checkpoint: an import that stops half way continues after its last committed chunk when started
+ * again with the same file, and an import that completed does nothing when started again.
+ * Authors are resolved by name through a map loaded once and extended with the authors each chunk creates.
+ */
+@Service
+public class ImportService {
+    private final ImportWriter writer;
+    private final ImportCheckpoints checkpoints;
+    private final int chunkSize;
+    private final int parallelism;
+
+    public ImportService(ImportWriter writer, ImportCheckpoints checkpoints,
+                         @Value("${booksmarket.import.chunk-size:10000}") int chunkSize,
+                         @Value("${booksmarket.import.parallelism:0}") int parallelism) {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("Chunk size must be positive.");
+        this.writer = writer;
+        this.checkpoints = checkpoints;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    public ImportReport importFile(ImportKind kind, Path file, boolean restart) {
+        return importFile(kind, file, restart, report -> {
+        });
+    }
+
+    /**
+     * @param restart  forget the checkpoint of an earlier run and import the whole file again
+     * @param progress called after every committed chunk
+     */
+    public ImportReport importFile(ImportKind kind, Path file, boolean restart, Consumer<ImportReport> progress) {
+        var importId = kind.name().toLowerCase() + ":" + file.toAbsolutePath().normalize();
+        if (restart) {
+            checkpoints.delete(importId);
+        }
+        var checkpoint = checkpoints.find(importId).orElse(new ImportCheckpoints.Checkpoint(0, false));
+        var run = new Run(kind, file, checkpoint.records(), System.nanoTime());
+        if (checkpoint.completed()) {
+            return run.report(true);
+        }
+        Map<String, Long> authorIds = kind == ImportKind.USERS ? new HashMap<>() : new HashMap<>(writer.authorIdsByName());
+        try (var reader = RecordReader.open(file, kind);
+             var validators = Executors.newFixedThreadPool(parallelism, Thread.ofPlatform().name("booksmarket-import-", 0).factory())) {
+            for (long skipped = 0; skipped < checkpoint.records() && reader.next() != null; skipped++) {
+                // committed by an earlier run
+            }
+            var validated = readAndValidate(kind, reader, validators);
+            while (validated != null) {
+                var records = validated.join();
+                // the next chunk is read and validated while this one is written
+                validated = readAndValidate(kind, reader, validators);
+                var result = writer.write(kind, importId, records, authorIds, run.position() + records.size());
+                authorIds.putAll(result.newAuthors());
+                run.add(records.size(), result);
+                progress.accept(run.report(false));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        checkpoints.save(importId, run.position(), true);
+        return run.report(true);
+    }
+
+    /** The next chunk, validated on the pool; null at the end of the source. */
+    private CompletableFuture<List<ValidatedRecord>> readAndValidate(ImportKind kind, RecordReader reader,
+                                                                    ExecutorService validators) throws IOException {
+        var chunk = new ArrayList<SourceRecord>(chunkSize);
+        for (SourceRecord record; chunk.size() < chunkSize && (record = reader.next()) != null; ) {
+            chunk.add(record);
+        }
+        if (chunk.isEmpty()) {
+            return null;
+        }
+        int sliceSize = Math.max(1, (chunk.size() + parallelism - 1) / parallelism);
+        var slices = new ArrayList<CompletableFuture<List<ValidatedRecord>>>();
+        for (int from = 0; from < chunk.size(); from += sliceSize) {
+            var slice = chunk.subList(from, Math.min(chunk.size(), from + sliceSize));
+            slices.add(CompletableFuture.supplyAsync(
+                    () -> slice.stream().map(record -> RecordValidator.validate(kind, record)).toList(), validators));
+        }
+        return CompletableFuture.allOf(slices.toArray(CompletableFuture[]::new)).thenApply(done -> {
+            var records = new ArrayList<ValidatedRecord>(chunk.size());
+            slices.forEach(slice -> records.addAll(slice.join()));
+            return records;
+        });
+    }
+
+    /** Counters of one run; only touched by the thread that runs the import. */
+    private static final class Run {
+        private final ImportKind kind;
+        private final Path file;
+        private final long resumedFrom;
+        private final long started;
+        private final List<String> rejections = new ArrayList<>();
+        private long read;
+        private long imported;
+        private long duplicates;
+        private long rejected;
+
+        Run(ImportKind kind, Path file, long resumedFrom, long started) {
+            this.kind = kind;
+            this.file = file;
+            this.resumedFrom = resumedFrom;
+            this.started = started;
+        }
+
+        long position() {
+            return resumedFrom + read;
+        }
+
+        void add(int records, ImportWriter.ChunkResult result) {
+            read += records;
+            imported += result.imported();
+            duplicates += result.duplicates();
+            rejected += result.rejected().size();
+            for (var record : result.rejected()) {
+                if (rejections.size() == ImportReport.MAX_REJECTIONS) {
+                    break;
+                }
+                rejections.add("record " + record.number() + ": " + record.error());
+            }
+        }
+
+        ImportReport report(boolean completed) {
+            return new ImportReport(kind, file, resumedFrom, read, imported, duplicates, rejected, List.copyOf(rejections),
+                    Duration.ofNanos(System.nanoTime() - started), completed);
+        }
+    }
+}
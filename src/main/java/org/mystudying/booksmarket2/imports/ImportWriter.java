@@ -0,0 +1,214 @@
+package org.mystudying.booksmarket2.imports;
+
+import org.mystudying.booksmarket2.domain.Author;
+import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.domain.User;
+import org.mystudying.booksmarket2.search.CatalogSearch;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes one chunk of validated records and its checkpoint in one transaction, with multi-row
+ * {@code INSERT ... VALUES (...), (...)} statements of at most rows-per-statement rows each.
+ */
+@Component
+class ImportWriter {
+    private final JdbcClient jdbcClient;
+    private final JdbcTemplate jdbcTemplate;
+    private final ImportCheckpoints checkpoints;
+    private final CatalogSearch catalogSearch;
+    private final int rowsPerStatement;
+
+    public ImportWriter(JdbcClient jdbcClient, JdbcTemplate jdbcTemplate, ImportCheckpoints checkpoints,
+                        CatalogSearch catalogSearch,
+                        @Value("${booksmarket.import.rows-per-statement:1000}") int rowsPerStatement) {
+        if (rowsPerStatement < 1)
+            throw new IllegalArgumentException("Rows per statement must be positive.");
+        this.jdbcClient = jdbcClient;
+        this.jdbcTemplate = jdbcTemplate;
+        this.checkpoints = checkpoints;
+        this.catalogSearch = catalogSearch;
+        this.rowsPerStatement = rowsPerStatement;
+    }
+
+    /**
+     * What a chunk did. {@code newAuthors} are the authors it created, by name; the caller adds them
+     * to its map once the chunk has committed.
+     */
+    record ChunkResult(int imported, int duplicates, List<ValidatedRecord> rejected, Map<String, Long> newAuthors) {
+    }
+
+    /** The ids of all authors by name; for names used more than once, the oldest author. */
+    @Transactional(readOnly = true)
+    Map<String, Long> authorIdsByName() {
+        var ids = new HashMap<String, Long>();
+        jdbcClient.sql("SELECT id, name FROM authors ORDER BY id")
+                .query((RowCallbackHandler) rs -> ids.putIfAbsent(rs.getString(2), rs.getLong(1)));
+        return ids;
+    }
+
+    /**
+     * @param authorIds the authors known before this chunk, by name; not changed
+     * @param position  the number of source records consumed once this chunk is written
+     */
+    @Transactional
+    ChunkResult write(ImportKind kind, String importId, List<ValidatedRecord> records, Map<String, Long> authorIds,
+                      long position) {
+        var rejected = new ArrayList<ValidatedRecord>();
+        var valid = new ArrayList<ValidatedRecord>(records.size());
+        for (var record : records) {
+            (record.isValid() ? valid : rejected).add(record);
+        }
+        var result = switch (kind) {
+            case AUTHORS -> writeAuthors(valid, authorIds, rejected);
+            case USERS -> writeUsers(valid, rejected);
+            case BOOKS -> writeBooks(valid, authorIds, rejected);
+        };
+        checkpoints.save(importId, position, false);
+        return result;
+    }
+
+    private ChunkResult writeAuthors(List<ValidatedRecord> records, Map<String, Long> authorIds,
+                                     List<ValidatedRecord> rejected) {
+        var authors = new LinkedHashMap<String, Author>();
+        for (var record : records) {
+            var author = (Author) record.value();
+            if (!authorIds.containsKey(author.getName())) {
+                authors.putIfAbsent(author.getName(), author);
+            }
+        }
+        var newAuthors = insertAuthors(authors.values());
+        return new ChunkResult(authors.size(), records.size() - authors.size(), rejected, newAuthors);
+    }
+
+    private ChunkResult writeUsers(List<ValidatedRecord> records, List<ValidatedRecord> rejected) {
+        var taken = takenEmails(records.stream().map(record -> ((User) record.value()).getEmail()).toList());
+        var users = new ArrayList<Object[]>(records.size());
+        for (var record : records) {
+            var user = (User) record.value();
+            // the unique index compares emails without case, and would fail the whole chunk on a duplicate
+            if (taken.add(user.getEmail().toLowerCase(Locale.ROOT))) {
+                users.add(new Object[]{user.getName(), user.getEmail()});
+            } else {
+                rejected.add(ValidatedRecord.rejected(record.number(), "Email " + user.getEmail() + " already exists."));
+            }
+        }
+        insert("users", List.of("name", "email"), users, false);
+        return new ChunkResult(users.size(), 0, rejected, Map.of());
+    }
+
+    private ChunkResult writeBooks(List<ValidatedRecord> records, Map<String, Long> authorIds,
+                                   List<ValidatedRecord> rejected) {
+        var missingAuthors = new LinkedHashMap<String, Author>();
+        for (var record : records) {
+            if (!authorIds.containsKey(record.authorName()) && record.authorBirthdate() != null) {
+                missingAuthors.putIfAbsent(record.authorName(), new Author(1, record.authorName(), record.authorBirthdate()));
+            }
+        }
+        var newAuthors = insertAuthors(missingAuthors.values());
+        var books = new ArrayList<Object[]>(records.size());
+        for (var record : records) {
+            var authorId = authorIds.getOrDefault(record.authorName(), newAuthors.get(record.authorName()));
+            if (authorId == null) {
+                rejected.add(ValidatedRecord.rejected(record.number(), "Unknown author " + record.authorName()
+                        + " and no author_birthdate to create it."));
+            } else {
+                var book = (Book) record.value();
+                books.add(new Object[]{book.getTitle(), book.getYear(), authorId, book.getAvailable()});
+            }
+        }
+        var ids = insert("books", List.of("title", "year", "author_id", "available"), books, true);
+        var titles = new HashMap<Long, String>();
+        for (int i = 0; i < ids.size(); i++) {
+            titles.put(ids.get(i), (String) books.get(i)[0]);
+        }
+        catalogSearch.booksAdded(titles);
+        return new ChunkResult(books.size(), 0, rejected, newAuthors);
+    }
+
+    private Map<String, Long> insertAuthors(Collection<Author> authors) {
+        var rows = authors.stream()
+                .map(author -> new Object[]{author.getName(), Date.valueOf(author.getBirthdate())})
+                .toList();
+        var ids = insert("authors", List.of("name", "birthdate"), rows, true);
+        var newAuthors = new HashMap<String, Long>();
+        int i = 0;
+        for (var author : authors) {
+            newAuthors.put(author.getName(), ids.get(i++));
+        }
+        var names = new HashMap<Long, String>();
+        newAuthors.forEach((name, id) -> names.put(id, name));
+        catalogSearch.authorsAdded(names);
+        return newAuthors;
+    }
+
+    /** The given emails that exist already, in lower case. */
+    private HashSet<String> takenEmails(List<String> emails) {
+        var taken = new HashSet<String>();
+        for (int from = 0; from < emails.size(); from += rowsPerStatement) {
+            var slice = emails.subList(from, Math.min(emails.size(), from + rowsPerStatement));
+            jdbcClient.sql("SELECT email FROM users WHERE email IN (:emails)")
+                    .param("emails", slice)
+                    .query((RowCallbackHandler) rs -> taken.add(rs.getString(1).toLowerCase(Locale.ROOT)));
+        }
+        return taken;
+    }
+
+    /**
+     * Inserts the rows with as few statements as rows-per-statement allows.
+     *
+     * @return the generated ids in the order of the rows, when asked for
+     */
+    private List<Long> insert(String table, List<String> columns, List<Object[]> rows, boolean returnKeys) {
+        if (rows.isEmpty()) {
+            return List.of();
+        }
+        var ids = new ArrayList<Long>(rows.size());
+        for (int from = 0; from < rows.size(); from += rowsPerStatement) {
+            var slice = rows.subList(from, Math.min(rows.size(), from + rowsPerStatement));
+            var sql = "INSERT INTO " + table + "(" + String.join(", ", columns) + ") VALUES "
+                    + String.join(", ", Collections.nCopies(slice.size(),
+                    "(" + String.join(", ", Collections.nCopies(columns.size(), "?")) + ")"));
+            if (!returnKeys) {
+                jdbcTemplate.update(sql, statement -> bind(statement, slice));
+                continue;
+            }
+            var keys = new GeneratedKeyHolder();
+            jdbcTemplate.update(connection -> {
+                var statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                bind(statement, slice);
+                return statement;
+            }, keys);
+            keys.getKeyList().forEach(key -> ids.add(((Number) key.values().iterator().next()).longValue()));
+        }
+        return ids;
+    }
+
+    private static void bind(PreparedStatement statement, List<Object[]> rows) throws SQLException {
+        int index = 1;
+        for (var row : rows) {
+            for (var value : row) {
+                statement.setObject(index++, value);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.mystudying.booksmarket2.imports;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * JSON records with a streaming parser: either one array of objects or objects one after the other
+ * (newline-delimited JSON). Field values may be strings, numbers or null; nested values are skipped.
+ */
+final class JsonRecordReader implements RecordReader {
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private final JsonParser parser;
+    private final ImportKind kind;
+    private final boolean array;
+    private long number;
+
+    JsonRecordReader(Reader in, ImportKind kind) throws IOException {
+        this.parser = FACTORY.createParser(in);
+        this.kind = kind;
+        var first = parser.nextToken();
+        this.array = first == JsonToken.START_ARRAY;
+        if (!array && first != null && first != JsonToken.START_OBJECT)
+            throw new IllegalArgumentException("Expected a JSON array or objects, found " + first + ".");
+    }
+
+    @Override
+    public SourceRecord next() throws IOException {
+        // in an array the parser stands before the next element, otherwise on the object's start or past it
+        var token = array || number > 0 ? parser.nextToken() : parser.currentToken();
+        if (token == null || token == JsonToken.END_ARRAY) {
+            return null;
+        }
+        if (token != JsonToken.START_OBJECT)
+            throw new IllegalArgumentException("Expected a JSON object as record " + (number + 1) + ", found " + token + ".");
+        var values = new String[kind.columns().size()];
+        Arrays.fill(values, "");
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            int column = kind.columns().indexOf(parser.currentName());
+            var value = parser.nextToken();
+            if (value.isStructStart()) {
+                parser.skipChildren();
+            } else if (column >= 0) {
+                values[column] = value == JsonToken.VALUE_NULL ? "" : parser.getText();
+            }
+        }
+        // a record that leaves out a field keeps it empty: a bad record, not a bad file
+        return new SourceRecord(++number, values);
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+}
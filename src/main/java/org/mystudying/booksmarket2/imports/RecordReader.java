@@ -0,0 +1,42 @@
+package org.mystudying.booksmarket2.imports;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Reads the records of a source file one at a time, so a file of any size is imported in constant memory.
+ */
+interface RecordReader extends AutoCloseable {
+
+    /** The next record, or null at the end of the file. */
+    SourceRecord next() throws IOException;
+
+    @Override
+    void close() throws IOException;
+
+    /**
+     * Opens a CSV file ({@code .csv}, with a header line) or a JSON file ({@code .json}, {@code .ndjson},
+     * {@code .jsonl}: one array of objects, or objects one after the other).
+     */
+    static RecordReader open(Path file, ImportKind kind) throws IOException {
+        var name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+        try {
+            if (name.endsWith(".csv")) {
+                return new CsvRecordReader(in, kind);
+            }
+            if (name.endsWith(".json") || name.endsWith(".ndjson") || name.endsWith(".jsonl")) {
+                return new JsonRecordReader(in, kind);
+            }
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+        in.close();
+        throw new IllegalArgumentException("Unsupported file type: " + file.getFileName() + " (expected .csv or .json).");
+    }
+}
@@ -0,0 +1,46 @@
+package org.mystudying.booksmarket2.imports;
+
+import org.mystudying.booksmarket2.domain.Author;
+import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.domain.User;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Turns a source record into the domain object it describes, through the domain constructors, so an import
+ * accepts exactly what the services accept. Stateless, so records are validated on any number of threads.
+ */
+final class RecordValidator {
+
+    private RecordValidator() {
+    }
+
+    static ValidatedRecord validate(ImportKind kind, SourceRecord record) {
+        try {
+            return switch (kind) {
+                case AUTHORS -> ValidatedRecord.valid(record.number(),
+                        new Author(1, record.value(0).strip(), LocalDate.parse(record.value(1).strip())));
+                case USERS -> ValidatedRecord.valid(record.number(),
+                        new User(1, record.value(0).strip(), record.value(1).strip()));
+                case BOOKS -> book(record);
+            };
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return ValidatedRecord.rejected(record.number(), e.getMessage());
+        }
+    }
+
+    private static ValidatedRecord book(SourceRecord record) {
+        var authorName = record.value(2).strip();
+        if (authorName.isEmpty())
+            throw new IllegalArgumentException("Author name must not be blank.");
+        var book = new Book(1, record.value(0).strip(), Integer.parseInt(record.value(1).strip()), 1,
+                Integer.parseInt(record.value(3).strip()));
+        var birthdate = record.value(4).isBlank() ? null : LocalDate.parse(record.value(4).strip());
+        if (birthdate != null) {
+            // the author may have to be created from it
+            new Author(1, authorName, birthdate);
+        }
+        return ValidatedRecord.book(record.number(), book, authorName, birthdate);
+    }
+}
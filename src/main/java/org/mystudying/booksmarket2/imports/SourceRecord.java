@@ -0,0 +1,12 @@
+package org.mystudying.booksmarket2.imports;
+
+/**
+ * One record of a source file: its position (1 for the first record) and its values in the order
+ * of {@link ImportKind#columns()}, empty strings for the missing ones.
+ */
+record SourceRecord(long number, String[] values) {
+
+    String value(int column) {
+        return values[column];
+    }
+}
@@ -0,0 +1,26 @@
+package org.mystudying.booksmarket2.imports;
+
+import java.time.LocalDate;
+
+/**
+ * A record after validation: the domain object to write (with a placeholder id), or why the record is rejected.
+ * A book also carries the name of its author and, optionally, the birthdate to create that author with.
+ */
+record ValidatedRecord(long number, Object value, String authorName, LocalDate authorBirthdate, String error) {
+
+    static ValidatedRecord valid(long number, Object value) {
+        return new ValidatedRecord(number, value, null, null, null);
+    }
+
+    static ValidatedRecord book(long number, Object book, String authorName, LocalDate authorBirthdate) {
+        return new ValidatedRecord(number, book, authorName, authorBirthdate, null);
+    }
+
+    static ValidatedRecord rejected(long number, String error) {
+        return new ValidatedRecord(number, null, null, null, error);
+    }
+
+    boolean isValid() {
+        return error == null;
+    }
+}
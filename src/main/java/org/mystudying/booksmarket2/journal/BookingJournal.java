@@ -0,0 +1,358 @@
+package org.mystudying.booksmarket2.journal;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.mystudying.booksmarket2.domain.UserLoans;
+import org.mystudying.booksmarket2.repositories.BookingRepository;
+import org.mystudying.booksmarket2.services.AvailabilityEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind for rentals and returns: once the transaction that made a change commits, the change is appended
+ * to a memory-mapped journal file and acknowledged when the file is forced to disk, and a background writer applies
+ * the journal to bookings and books.available in batches. Callers that force at the same time share one fsync:
+ * the first forces everything written so far while the others wait for it. A change whose transaction rolls back
+ * never reaches the journal; until its transaction completes, any other change of the same user and book is refused.
+ * <p>
+ * Until a change is applied it is kept per user in memory, and {@link #findBookIds} and {@link #withPending}
+ * lay it over what the database holds. The writer stores the last applied sequence number in the same transaction
+ * as the changes, so at startup the entries after it are applied once before anything else runs.
+ * <p>
+ * Works with the {@link AvailabilityEngine}, which admits the rentals, and is bound by its single-instance limit.
+ */
+@Component
+@ConditionalOnProperty(name = "booksmarket.write-behind.enabled", havingValue = "true")
+public class BookingJournal {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BookingJournal.class);
+    private static final int USER_LOCKS = 64;
+
+    private final BookingRepository bookingRepository;
+    private final JournalWriter writer;
+    private final JournalSegments segments;
+    private final Path directory;
+    private final int batchSize;
+
+    // held while checking what a user holds and marking the change uncommitted, so two changes of a user cannot
+    // both pass
+    private final ReentrantLock[] userLocks = new ReentrantLock[USER_LOCKS];
+    // guards segments, nextSeq, unapplied, appliedSeq and the changes of pending
+    private final ReentrantLock appendLock = new ReentrantLock();
+    // guards durableSeq and syncing
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition synced = syncLock.newCondition();
+    // only one batch is applied at a time
+    private final ReentrantLock applyLock = new ReentrantLock();
+
+    private final ArrayDeque<JournalEntry> unapplied = new ArrayDeque<>();
+    // per user and book, the last change not yet applied
+    private final ConcurrentHashMap<Long, ConcurrentHashMap<Long, JournalEntry>> pending = new ConcurrentHashMap<>();
+    // per user, the books of changes whose transaction has not completed yet
+    private final ConcurrentHashMap<Long, Set<Long>> uncommitted = new ConcurrentHashMap<>();
+    private long nextSeq;
+    private long appliedSeq;
+    private long durableSeq;
+    private boolean syncing;
+
+    public BookingJournal(BookingRepository bookingRepository, JournalWriter writer,
+                          @Value("${booksmarket.write-behind.dir:journal}") Path directory,
+                          @Value("${booksmarket.write-behind.segment-size:67108864}") int segmentSize,
+                          @Value("${booksmarket.write-behind.batch-size:10000}") int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be positive.");
+        this.bookingRepository = bookingRepository;
+        this.writer = writer;
+        this.segments = new JournalSegments(directory, segmentSize);
+        this.directory = directory;
+        this.batchSize = batchSize;
+        for (int i = 0; i < USER_LOCKS; i++) {
+            userLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /** Applies the entries a crash left unapplied, then starts a new segment. */
+    @PostConstruct
+    void recover() {
+        long applied = writer.appliedSeq();
+        var tail = JournalSegments.read(directory).stream()
+                .filter(entry -> entry.seq() > applied)
+                .toList();
+        for (int from = 0; from < tail.size(); from += batchSize) {
+            writer.apply(tail.subList(from, Math.min(from + batchSize, tail.size())));
+        }
+        if (!tail.isEmpty()) {
+            LOGGER.info("Applied {} journal entries left from the last run", tail.size());
+        }
+        appliedSeq = tail.isEmpty() ? applied : tail.getLast().seq();
+        durableSeq = appliedSeq;
+        nextSeq = appliedSeq + 1;
+        segments.deleteAll();
+        segments.start(nextSeq);
+    }
+
+    /**
+     * Appends a rental of each book once the current transaction commits, unless the user holds one of them
+     * already, or one of them has a change whose transaction has not completed yet; then nothing is appended.
+     * Durable when the commit returns.
+     */
+    public boolean rent(long userId, Collection<Long> bookIds) {
+        if (bookIds.isEmpty()) {
+            return true;
+        }
+        var ids = new LinkedHashSet<>(bookIds);
+        var lock = userLock(userId);
+        lock.lock();
+        try {
+            if (isUncommitted(userId, ids) || !findBookIds(userId, ids).isEmpty()) {
+                return false;
+            }
+            appendOnCommit(userId, ids, JournalEntry.Type.RENT);
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Appends a return of each of the books the user holds once the current transaction commits. A book with
+     * a change whose transaction has not completed yet counts as not held. Durable when the commit returns.
+     *
+     * @return the books returned
+     */
+    public List<Long> returnBooks(long userId, Collection<Long> bookIds) {
+        List<Long> held;
+        var lock = userLock(userId);
+        lock.lock();
+        try {
+            held = findBookIds(userId, bookIds);
+            held.removeIf(bookId -> isUncommitted(userId, List.of(bookId)));
+            if (!held.isEmpty()) {
+                appendOnCommit(userId, held, JournalEntry.Type.RETURN);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return held;
+    }
+
+    /** Which of the books the user holds, counting the changes not yet applied. */
+    public List<Long> findBookIds(long userId, Collection<Long> bookIds) {
+        var changes = pending.getOrDefault(userId, new ConcurrentHashMap<>());
+        var held = new ArrayList<Long>();
+        var unchanged = new ArrayList<Long>();
+        for (long bookId : new LinkedHashSet<>(bookIds)) {
+            var change = changes.get(bookId);
+            if (change == null) {
+                unchanged.add(bookId);
+            } else if (change.type() == JournalEntry.Type.RENT) {
+                held.add(bookId);
+            }
+        }
+        // read committed: an entry leaves pending only after the transaction applying it has committed
+        if (!unchanged.isEmpty()) {
+            held.addAll(bookingRepository.findBookIds(userId, unchanged));
+        }
+        return held;
+    }
+
+    /** The loans with the user's changes that are not yet applied. */
+    public UserLoans withPending(UserLoans loans) {
+        var changes = pending.get(loans.getUserId());
+        if (changes == null || changes.isEmpty()) {
+            return loans;
+        }
+        var rented = new HashSet<Long>();
+        var returned = new HashSet<Long>();
+        changes.forEach((bookId, change) -> (change.type() == JournalEntry.Type.RENT ? rented : returned).add(bookId));
+        return loans.withoutBooks(returned).withBooks(rented);
+    }
+
+    /** Entries acknowledged but not yet applied. */
+    public int backlog() {
+        appendLock.lock();
+        try {
+            return unapplied.size();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /** Applies the durable entries, batch by batch, until none is left. */
+    @Scheduled(fixedDelayString = "${booksmarket.write-behind.apply-interval-ms:200}")
+    public void applyPending() {
+        applyLock.lock();
+        try {
+            List<JournalEntry> batch;
+            while (!(batch = durableBatch()).isEmpty()) {
+                // on failure the batch stays queued and is applied again on the next run
+                writer.apply(batch);
+                applied(batch);
+            }
+        } finally {
+            applyLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void applyOnShutdown() {
+        applyPending();
+    }
+
+    // Under the user's lock.
+    private void appendOnCommit(long userId, Collection<Long> bookIds, JournalEntry.Type type) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("The journal must be used inside a transaction.");
+        }
+        var changed = List.copyOf(bookIds);
+        uncommitted.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet()).addAll(changed);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                var appended = new ArrayList<Long>(changed.size());
+                try {
+                    awaitDurable(append(userId, changed, type, appended));
+                } catch (RuntimeException e) {
+                    // not thrown: the caller's transaction has committed. Appended entries are applied even if
+                    // their force failed; the others are lost, and the engine gets back what it admitted for them.
+                    var lost = changed.stream().filter(bookId -> !appended.contains(bookId)).toList();
+                    writer.lost(type, lost);
+                    LOGGER.error("Journaling {} of books {} by user {} failed after its transaction committed, "
+                            + "lost for books {}", type, changed, userId, lost, e);
+                }
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                // appended by now if committed: pending answers for the change from here on
+                uncommitted.computeIfPresent(userId, (id, books) -> {
+                    changed.forEach(books::remove);
+                    return books.isEmpty() ? null : books;
+                });
+            }
+        });
+    }
+
+    private boolean isUncommitted(long userId, Collection<Long> bookIds) {
+        var books = uncommitted.get(userId);
+        return books != null && bookIds.stream().anyMatch(books::contains);
+    }
+
+    // Adds each book to appended once its entry is written.
+    private long append(long userId, Collection<Long> bookIds, JournalEntry.Type type, List<Long> appended) {
+        appendLock.lock();
+        try {
+            // under the lock, so applied cannot remove the map once it is empty and leave these changes in it
+            var changes = pending.computeIfAbsent(userId, id -> new ConcurrentHashMap<>());
+            for (long bookId : bookIds) {
+                var entry = new JournalEntry(nextSeq, type, userId, bookId);
+                segments.append(entry);
+                // only once written: the segments hold consecutive sequence numbers
+                nextSeq++;
+                unapplied.addLast(entry);
+                changes.put(bookId, entry);
+                appended.add(bookId);
+            }
+            return nextSeq - 1;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // Group commit: one caller forces everything written so far, the ones arriving meanwhile wait for the
+    // next force, which then covers all of them.
+    private void awaitDurable(long seq) {
+        syncLock.lock();
+        try {
+            while (durableSeq < seq) {
+                if (syncing) {
+                    synced.awaitUninterruptibly();
+                    continue;
+                }
+                syncing = true;
+                JournalSegments.Sync sync;
+                syncLock.unlock();
+                try {
+                    appendLock.lock();
+                    try {
+                        sync = segments.takeSync();
+                    } finally {
+                        appendLock.unlock();
+                    }
+                    sync.force();
+                } finally {
+                    syncLock.lock();
+                    syncing = false;
+                    synced.signalAll();
+                }
+                durableSeq = Math.max(durableSeq, sync.lastSeq());
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private List<JournalEntry> durableBatch() {
+        long durable;
+        syncLock.lock();
+        try {
+            durable = durableSeq;
+        } finally {
+            syncLock.unlock();
+        }
+        var batch = new ArrayList<JournalEntry>();
+        appendLock.lock();
+        try {
+            for (var entry : unapplied) {
+                if (entry.seq() > durable || batch.size() == batchSize) {
+                    break;
+                }
+                batch.add(entry);
+            }
+        } finally {
+            appendLock.unlock();
+        }
+        return batch;
+    }
+
+    private void applied(List<JournalEntry> batch) {
+        appendLock.lock();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                unapplied.removeFirst();
+            }
+            appliedSeq = batch.getLast().seq();
+            segments.deleteAppliedUpTo(appliedSeq);
+            for (var entry : batch) {
+                var changes = pending.get(entry.userId());
+                // a later change of the same book stays
+                if (changes != null && changes.remove(entry.bookId(), entry) && changes.isEmpty()) {
+                    pending.remove(entry.userId());
+                }
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private ReentrantLock userLock(long userId) {
+        return userLocks[Math.floorMod(Long.hashCode(userId), USER_LOCKS)];
+    }
+}
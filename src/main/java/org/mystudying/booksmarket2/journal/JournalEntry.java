@@ -0,0 +1,12 @@
+package org.mystudying.booksmarket2.journal;
+
+/**
+ * One acknowledged booking change: a user rented or returned one copy of a book. Sequence numbers
+ * are consecutive, in the order the changes were acknowledged.
+ */
+record JournalEntry(long seq, Type type, long userId, long bookId) {
+
+    enum Type {
+        RENT, RETURN
+    }
+}
@@ -0,0 +1,179 @@
+package org.mystudying.booksmarket2.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * The journal files: a directory of fixed-size, memory-mapped segments named after the sequence number of
+ * their first entry. Entries are {@value #ENTRY_SIZE} bytes: seq, type, user id, book id and a CRC32C of the rest,
+ * so a torn write at the end of the last segment is recognised and ignored when the journal is read back.
+ * <p>
+ * Not thread safe: the journal appends under its own lock. {@link Sync} only holds a mapped buffer and a range,
+ * so it can be forced without that lock while later entries are appended behind it.
+ */
+final class JournalSegments {
+    static final int ENTRY_SIZE = 32;
+    private static final String PREFIX = "bookings-";
+    private static final String SUFFIX = ".journal";
+
+    private final Path directory;
+    private final int segmentSize;
+    // full segments still on disk, oldest first
+    private final ArrayDeque<Segment> full = new ArrayDeque<>();
+    private Path current;
+    private MappedByteBuffer buffer;
+    private long currentLastSeq;
+    private int position;
+    private int unforced;
+
+    private record Segment(Path path, long lastSeq) {
+    }
+
+    /** A range of a segment written but not yet forced to disk, up to the entry lastSeq. */
+    record Sync(MappedByteBuffer buffer, int from, int to, long lastSeq) {
+        void force() {
+            if (to > from) {
+                buffer.force(from, to - from);
+            }
+        }
+    }
+
+    JournalSegments(Path directory, int segmentSize) {
+        if (segmentSize < ENTRY_SIZE)
+            throw new IllegalArgumentException("Segment size must hold at least one entry.");
+        this.directory = directory;
+        this.segmentSize = segmentSize - segmentSize % ENTRY_SIZE;
+    }
+
+    /** Every valid entry of every segment in the directory, in sequence order. */
+    static List<JournalEntry> read(Path directory) {
+        var entries = new ArrayList<JournalEntry>();
+        for (var path : segmentFiles(directory)) {
+            try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                var bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                for (int at = 0; at + ENTRY_SIZE <= bytes.limit(); at += ENTRY_SIZE) {
+                    var entry = decode(bytes, at);
+                    long expected = entries.isEmpty() ? -1 : entries.getLast().seq() + 1;
+                    if (entry == null || (expected != -1 && entry.seq() != expected)) {
+                        // the end of what was written, or a write torn by a crash
+                        break;
+                    }
+                    entries.add(entry);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return entries;
+    }
+
+    /** Removes every segment from the directory; call before the first one is opened. */
+    void deleteAll() {
+        for (var path : segmentFiles(directory)) {
+            delete(path);
+        }
+    }
+
+    /** Opens a new segment for the entries from firstSeq on. */
+    void start(long firstSeq) {
+        try {
+            Files.createDirectories(directory);
+            current = directory.resolve(PREFIX + "%019d".formatted(firstSeq) + SUFFIX);
+            try (var channel = FileChannel.open(current, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // the mapping stays valid after the channel is closed
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            }
+            position = 0;
+            unforced = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void append(JournalEntry entry) {
+        if (position == segmentSize) {
+            // a full segment is forced before the next one is written, so a sync never spans two segments
+            buffer.force();
+            full.addLast(new Segment(current, currentLastSeq));
+            start(entry.seq());
+        }
+        encode(buffer, position, entry);
+        position += ENTRY_SIZE;
+        currentLastSeq = entry.seq();
+    }
+
+    /** Takes the entries written since the last call; force the result to make them durable. */
+    Sync takeSync() {
+        var sync = new Sync(buffer, unforced, position, currentLastSeq);
+        unforced = position;
+        return sync;
+    }
+
+    /** Deletes the full segments whose entries are all applied. */
+    void deleteAppliedUpTo(long appliedSeq) {
+        while (!full.isEmpty() && full.peekFirst().lastSeq() <= appliedSeq) {
+            delete(full.removeFirst().path());
+        }
+    }
+
+    private static List<Path> segmentFiles(Path directory) {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            // the zero padded first sequence number makes name order sequence order
+            return files.filter(path -> {
+                        var name = path.getFileName().toString();
+                        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+                    })
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void encode(ByteBuffer bytes, int at, JournalEntry entry) {
+        bytes.putLong(at, entry.seq());
+        bytes.putInt(at + 8, entry.type().ordinal());
+        bytes.putLong(at + 12, entry.userId());
+        bytes.putLong(at + 20, entry.bookId());
+        bytes.putInt(at + 28, checksum(bytes, at));
+    }
+
+    private static JournalEntry decode(ByteBuffer bytes, int at) {
+        long seq = bytes.getLong(at);
+        int type = bytes.getInt(at + 8);
+        if (seq <= 0 || type < 0 || type >= JournalEntry.Type.values().length
+                || bytes.getInt(at + 28) != checksum(bytes, at)) {
+            return null;
+        }
+        return new JournalEntry(seq, JournalEntry.Type.values()[type], bytes.getLong(at + 12), bytes.getLong(at + 20));
+    }
+
+    private static int checksum(ByteBuffer bytes, int at) {
+        var crc = new CRC32C();
+        crc.update(bytes.slice(at, ENTRY_SIZE - 4));
+        return (int) crc.getValue();
+    }
+}
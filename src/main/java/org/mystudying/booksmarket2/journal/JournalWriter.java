@@ -0,0 +1,119 @@
+package org.mystudying.booksmarket2.journal;
+
+import org.mystudying.booksmarket2.cache.EntityCache;
+import org.mystudying.booksmarket2.cache.EntityCaches;
+import org.mystudying.booksmarket2.domain.UserLoans;
+import org.mystudying.booksmarket2.repositories.BookingShards;
+import org.mystudying.booksmarket2.services.AvailabilityEngine;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Applies a batch of journal entries to the database in one transaction: the bookings with one batched
+ * {@code INSERT IGNORE} and one batched {@code DELETE} per shard, the availability of each book with one conditional
+ * update through the {@link AvailabilityEngine}, and the sequence number of the last entry in journal_checkpoints.
+ * Availability changes by the bookings actually inserted and deleted: a rental of a booking the table holds already,
+ * or a return of one it does not, leaves it alone.
+ */
+@Component
+@ConditionalOnProperty(name = "booksmarket.write-behind.enabled", havingValue = "true")
+class JournalWriter {
+    static final String JOURNAL = "bookings";
+
+    private final JdbcClient jdbcClient;
+    private final JdbcTemplate jdbcTemplate;
+    private final AvailabilityEngine availabilityEngine;
+    private final EntityCache<UserLoans> loanCache;
+    private final BookingShards shards;
+    private final BookingShards.Sql insert;
+    private final BookingShards.Sql delete;
+
+    public JournalWriter(JdbcClient jdbcClient, JdbcTemplate jdbcTemplate,
+                         Optional<AvailabilityEngine> availabilityEngine, EntityCaches caches, BookingShards shards) {
+        this.availabilityEngine = availabilityEngine.orElseThrow(() -> new IllegalStateException(
+                "The write-behind journal needs booksmarket.availability-engine.enabled=true."));
+        this.jdbcClient = jdbcClient;
+        this.jdbcTemplate = jdbcTemplate;
+        this.loanCache = caches.loans();
+        this.shards = shards;
+        this.insert = shards.sql("INSERT IGNORE INTO {bookings}(user_id, book_id) VALUES (?, ?)");
+        this.delete = shards.sql("DELETE FROM {bookings} WHERE user_id = ? AND book_id = ?");
+    }
+
+    private record Loan(long userId, long bookId) {
+    }
+
+    /** The sequence number of the last entry applied, 0 when none was. */
+    @Transactional(readOnly = true)
+    public long appliedSeq() {
+        var sql = "SELECT applied_seq FROM journal_checkpoints WHERE journal = ?";
+        return jdbcClient.sql(sql).param(JOURNAL).query(Long.class).optional().orElse(0L);
+    }
+
+    /**
+     * @param entries consecutive entries, oldest first, all after the applied sequence number
+     * @return the books whose availability the database refused to change, as it would have gone negative;
+     * the availability engine writes those changes later
+     */
+    @Transactional
+    public List<Long> apply(List<JournalEntry> entries) {
+        // only the last change of each user and book matters, for the bookings and so for availability
+        var held = new LinkedHashMap<Loan, Boolean>();
+        for (var entry : entries) {
+            held.put(new Loan(entry.userId(), entry.bookId()), entry.type() == JournalEntry.Type.RENT);
+        }
+        // per shard, in key order within each
+        var inserts = new TreeMap<Integer, List<Object[]>>();
+        var deletes = new TreeMap<Integer, List<Object[]>>();
+        held.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey(Comparator.comparingLong(Loan::userId).thenComparingLong(Loan::bookId)))
+                .forEach(loan -> (loan.getValue() ? inserts : deletes)
+                        .computeIfAbsent(shards.shard(loan.getKey().userId()), shard -> new ArrayList<>())
+                        .add(new Object[]{loan.getKey().userId(), loan.getKey().bookId()}));
+        var deltas = new HashMap<Long, Integer>();
+        inserts.forEach((shard, args) ->
+                countChanged(jdbcTemplate.batchUpdate(insert.perShard().get(shard), args), args, -1, deltas));
+        deletes.forEach((shard, args) ->
+                countChanged(jdbcTemplate.batchUpdate(delete.perShard().get(shard), args), args, 1, deltas));
+        var refused = availabilityEngine.writeJournaled(deltas);
+        saveAppliedSeq(entries.getLast().seq());
+        held.forEach((loan, rented) -> loanCache.update(loan.userId(), loans -> rented
+                ? loans.withBooks(List.of(loan.bookId()))
+                : loans.withoutBooks(List.of(loan.bookId()))));
+        return refused;
+    }
+
+    /** Gives the availability engine back what it admitted for changes that never reached the journal. */
+    void lost(JournalEntry.Type type, Collection<Long> bookIds) {
+        bookIds.forEach(bookId -> availabilityEngine.undoAdmitted(bookId, type == JournalEntry.Type.RENT ? 1 : -1));
+    }
+
+    private static void countChanged(int[] counts, List<Object[]> args, int delta, Map<Long, Integer> deltas) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                deltas.merge((Long) args.get(i)[1], delta, Integer::sum);
+            }
+        }
+    }
+
+    private void saveAppliedSeq(long seq) {
+        var update = "UPDATE journal_checkpoints SET applied_seq = ?, updated_at = CURRENT_TIMESTAMP WHERE journal = ?";
+        if (jdbcClient.sql(update).params(seq, JOURNAL).update() == 0) {
+            var insert = "INSERT INTO journal_checkpoints(journal, applied_seq) VALUES (?, ?)";
+            jdbcClient.sql(insert).params(JOURNAL, seq).update();
+        }
+    }
+}
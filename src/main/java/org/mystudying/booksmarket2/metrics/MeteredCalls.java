@@ -0,0 +1,129 @@
+package org.mystudying.booksmarket2.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.mystudying.booksmarket2.domain.RentalOutcome;
+import org.springframework.aop.support.AopUtils;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every call into a repository or service, tagged by the class, the method and the outcome:
+ * "success", the simple name of the exception thrown, the {@link RentalOutcome} a rental returned, or
+ * "updated" / "conflict" for an optimistic {@code compareAnd*} write.
+ * <p>
+ * Meters:
+ * <ul>
+ *     <li>{@code booksmarket.repository} and {@code booksmarket.service}: timers with a percentile histogram;
+ *     their count is the number of calls per outcome</li>
+ *     <li>{@code booksmarket.repository.rows}: histogram of the rows a repository method returned as a list</li>
+ *     <li>{@code booksmarket.lock.wait}: time spent in the {@code findAndLock*} methods, which is mostly
+ *     the wait for the row locks</li>
+ *     <li>{@code booksmarket.rentals}: counter of rent and return outcomes</li>
+ *     <li>{@code booksmarket.optimistic.updates}: counter of optimistic writes, updated or lost to a
+ *     concurrent write; every conflict is one retry, or one give-up when the service runs out of attempts</li>
+ * </ul>
+ * A {@code stream*} method is timed until its cursor is open, not until the stream is consumed.
+ */
+class MeteredCalls implements MethodInterceptor {
+    static final String SUCCESS = "success";
+    static final String UPDATED = "updated";
+    static final String CONFLICT = "conflict";
+
+    private final MeterRegistry registry;
+    private final String layer;
+    private final ConcurrentHashMap<Key, Meters> meters = new ConcurrentHashMap<>();
+
+    MeteredCalls(MeterRegistry registry, String layer) {
+        this.registry = registry;
+        this.layer = layer;
+    }
+
+    private record Key(Class<?> type, Method method, String outcome) {
+    }
+
+    private record Meters(Timer calls, DistributionSummary rows, Timer lockWait, Counter outcomes) {
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        long start = System.nanoTime();
+        try {
+            var result = invocation.proceed();
+            var outcome = result instanceof RentalOutcome rental ? rental.name()
+                    : optimistic(invocation.getMethod()) ? (Boolean.TRUE.equals(result) ? UPDATED : CONFLICT)
+                    : SUCCESS;
+            var meters = meters(invocation, outcome);
+            record(meters, System.nanoTime() - start);
+            if (meters.rows != null && result instanceof Collection<?> rows) {
+                meters.rows.record(rows.size());
+            }
+            return result;
+        } catch (Throwable e) {
+            record(meters(invocation, e.getClass().getSimpleName()), System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    private static void record(Meters meters, long nanos) {
+        meters.calls.record(nanos, TimeUnit.NANOSECONDS);
+        if (meters.lockWait != null) {
+            meters.lockWait.record(nanos, TimeUnit.NANOSECONDS);
+        }
+        if (meters.outcomes != null) {
+            meters.outcomes.increment();
+        }
+    }
+
+    private static boolean optimistic(Method method) {
+        return method.getName().startsWith("compareAnd") && method.getReturnType() == boolean.class;
+    }
+
+    private Meters meters(MethodInvocation invocation, String outcome) {
+        var type = invocation.getThis() == null ? invocation.getMethod().getDeclaringClass()
+                : AopUtils.getTargetClass(invocation.getThis());
+        return meters.computeIfAbsent(new Key(type, invocation.getMethod(), outcome), this::register);
+    }
+
+    private Meters register(Key key) {
+        var name = key.type.getSimpleName();
+        var operation = key.method.getName();
+        var calls = Timer.builder("booksmarket." + layer)
+                .tag(layer, name)
+                .tag("operation", operation)
+                .tag("outcome", key.outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+        var repository = layer.equals("repository");
+        var rows = repository && Collection.class.isAssignableFrom(key.method.getReturnType())
+                ? DistributionSummary.builder("booksmarket.repository.rows")
+                        .tag(layer, name)
+                        .tag("operation", operation)
+                        .publishPercentileHistogram()
+                        .register(registry)
+                : null;
+        var lockWait = repository && operation.startsWith("findAndLock")
+                ? Timer.builder("booksmarket.lock.wait")
+                        .tag("operation", operation)
+                        .publishPercentileHistogram()
+                        .register(registry)
+                : null;
+        var outcomes = !repository ? null
+                : key.method.getReturnType() == RentalOutcome.class ? "booksmarket.rentals"
+                : optimistic(key.method) ? "booksmarket.optimistic.updates"
+                : null;
+        var counter = outcomes == null ? null
+                : Counter.builder(outcomes)
+                        .tag("operation", operation)
+                        .tag("outcome", key.outcome)
+                        .register(registry);
+        return new Meters(calls, rows, lockWait, counter);
+    }
+}
@@ -0,0 +1,84 @@
+package org.mystudying.booksmarket2.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.mystudying.booksmarket2.repositories.AuthorRepositoryInt;
+import org.mystudying.booksmarket2.repositories.BookRepositoryInt;
+import org.mystudying.booksmarket2.repositories.BookingRepositoryInt;
+import org.mystudying.booksmarket2.repositories.StatisticsRepositoryInt;
+import org.mystudying.booksmarket2.repositories.UserRepositoryInt;
+import org.mystudying.booksmarket2.services.AuthorService;
+import org.mystudying.booksmarket2.services.BookService;
+import org.mystudying.booksmarket2.services.StatisticsService;
+import org.mystudying.booksmarket2.services.UserService;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.support.StaticMethodMatcherPointcutAdvisor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Role;
+import org.springframework.core.Ordered;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.function.SingletonSupplier;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+/**
+ * Puts {@link MeteredCalls} around the JDBC repositories and the services. The advisors are infrastructure
+ * beans, so the proxy creator that already applies {@code @Transactional} applies them too, outermost:
+ * a service timer includes the commit and sees the exceptions it throws.
+ */
+@Configuration
+@ConditionalOnProperty(name = "booksmarket.metrics.enabled", havingValue = "true", matchIfMissing = true)
+public class MetricsConfig {
+    static final List<Class<?>> REPOSITORIES = List.of(
+            BookRepositoryInt.class, UserRepositoryInt.class, AuthorRepositoryInt.class, BookingRepositoryInt.class,
+            StatisticsRepositoryInt.class);
+    static final List<Class<?>> SERVICES = List.of(UserService.class, BookService.class, AuthorService.class,
+            StatisticsService.class);
+
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    static Advisor repositoryMetricsAdvisor(ObjectProvider<MeterRegistry> registry) {
+        return advisor(registry, "repository", MetricsConfig::isRepositoryMethod);
+    }
+
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    static Advisor serviceMetricsAdvisor(ObjectProvider<MeterRegistry> registry) {
+        return advisor(registry, "service", MetricsConfig::isServiceMethod);
+    }
+
+    static boolean isRepositoryMethod(Method method, Class<?> targetClass) {
+        return REPOSITORIES.stream().anyMatch(repository -> repository.isAssignableFrom(targetClass)
+                && ReflectionUtils.findMethod(repository, method.getName(), method.getParameterTypes()) != null);
+    }
+
+    static boolean isServiceMethod(Method method, Class<?> targetClass) {
+        return SERVICES.stream().anyMatch(service -> service.isAssignableFrom(targetClass))
+                && SERVICES.contains(method.getDeclaringClass())
+                && Modifier.isPublic(method.getModifiers())
+                && !Modifier.isStatic(method.getModifiers());
+    }
+
+    private static Advisor advisor(ObjectProvider<MeterRegistry> registry, String layer,
+                                   BiPredicate<Method, Class<?>> filter) {
+        // the registry is resolved on the first call: advisors are created before the beans they advise,
+        // and fetching the registry that early would keep it from being post-processed
+        var calls = SingletonSupplier.of(() -> new MeteredCalls(registry.getObject(), layer));
+        MethodInterceptor interceptor = invocation -> calls.obtain().invoke(invocation);
+        var advisor = new StaticMethodMatcherPointcutAdvisor(interceptor) {
+            @Override
+            public boolean matches(Method method, Class<?> targetClass) {
+                return filter.test(method, targetClass);
+            }
+        };
+        advisor.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return advisor;
+    }
+}
@@ -0,0 +1,54 @@
+package org.mystudying.booksmarket2.metrics;
+
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Writes all meters in the Prometheus text format to a file every export interval and once more on shutdown,
+ * for the node exporter's textfile collector or any scraper that reads files. The console application has
+ * no HTTP server to offer a scrape endpoint.
+ * <p>
+ * Each export is written next to the file and moved over it, so a reader never sees half a scrape.
+ */
+@Component
+@ConditionalOnProperty(name = "booksmarket.metrics.file")
+public class PrometheusFileExporter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PrometheusFileExporter.class);
+
+    private final PrometheusMeterRegistry registry;
+    private final Path file;
+
+    public PrometheusFileExporter(PrometheusMeterRegistry registry, @Value("${booksmarket.metrics.file}") Path file) {
+        this.registry = registry;
+        this.file = file.toAbsolutePath();
+    }
+
+    @Scheduled(fixedDelayString = "${booksmarket.metrics.file-interval-ms:15000}")
+    public void export() {
+        try {
+            Files.createDirectories(file.getParent());
+            var next = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(next, registry.scrape(), StandardCharsets.UTF_8);
+            Files.move(next, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Could not export metrics to {}", file, e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        export();
+    }
+}
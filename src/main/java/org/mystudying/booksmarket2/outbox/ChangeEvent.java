@@ -0,0 +1,17 @@
+package org.mystudying.booksmarket2.outbox;
+
+import java.time.Instant;
+
+/**
+ * A committed change, as stored in the outbox and given to the sinks.
+ *
+ * @param id       position in the stream; ids grow in the order the events were written
+ * @param entityId the book, user or author changed; the user for bookings
+ * @param payload  the changed entity as a JSON object
+ */
+public record ChangeEvent(long id, Type type, long entityId, String payload, Instant createdAt) {
+
+    public enum Type {
+        BOOK_UPDATED, USER_CREATED, AUTHOR_CREATED, BOOK_RENTED, BOOK_RETURNED
+    }
+}
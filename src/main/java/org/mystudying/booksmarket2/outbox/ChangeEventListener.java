@@ -0,0 +1,9 @@
+package org.mystudying.booksmarket2.outbox;
+
+/**
+ * In-process consumer of the change events, called by the relay after the changes committed.
+ */
+public interface ChangeEventListener {
+
+    void changed(ChangeEvent event);
+}
@@ -0,0 +1,16 @@
+package org.mystudying.booksmarket2.outbox;
+
+import java.util.List;
+
+/**
+ * Where the {@link OutboxRelay} publishes the change events. Each sink is a consumer with its own offset:
+ * a batch that throws is offered again on the next run, so a sink sees every event at least once, in id order,
+ * and may see a batch twice.
+ */
+public interface ChangeEventSink {
+
+    /** Names the sink's offset, so it must stay the same across restarts. */
+    String name();
+
+    void publish(List<ChangeEvent> events);
+}
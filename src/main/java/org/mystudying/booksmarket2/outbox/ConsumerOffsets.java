@@ -0,0 +1,36 @@
+package org.mystudying.booksmarket2.outbox;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.stereotype.Repository;
+
+/**
+ * The outbox_offsets rows: per sink, the id of the last change event it was given.
+ */
+@Repository
+@ConditionalOnProperty(name = "booksmarket.outbox.enabled", havingValue = "true")
+public class ConsumerOffsets {
+    private final JdbcClient jdbcClient;
+
+    public ConsumerOffsets(JdbcClient jdbcClient) {
+        this.jdbcClient = jdbcClient;
+    }
+
+    /** 0 for a consumer that was never given an event. */
+    public long find(String consumer) {
+        var sql = "SELECT last_event_id FROM outbox_offsets WHERE consumer = ?";
+        return jdbcClient.sql(sql).param(consumer).query(Long.class).optional().orElse(0L);
+    }
+
+    public void save(String consumer, long lastEventId) {
+        // never backwards, should two relays overlap
+        var update = """
+                UPDATE outbox_offsets SET last_event_id = GREATEST(last_event_id, ?), updated_at = CURRENT_TIMESTAMP
+                WHERE consumer = ?
+                """;
+        if (jdbcClient.sql(update).params(lastEventId, consumer).update() == 0) {
+            var insert = "INSERT INTO outbox_offsets(consumer, last_event_id) VALUES (?, ?)";
+            jdbcClient.sql(insert).params(consumer, lastEventId).update();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.mystudying.booksmarket2.outbox;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Appends the change events to a file, one JSON object per line, and forces each batch to disk before the
+ * relay moves the offset. A batch offered again after a crash is appended again: readers skip ids they have seen.
+ */
+@Component
+@ConditionalOnProperty(prefix = "booksmarket.outbox", name = {"enabled", "file"})
+class FileSink implements ChangeEventSink {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final Path file;
+
+    FileSink(@Value("${booksmarket.outbox.file}") Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public String name() {
+        return "file";
+    }
+
+    @Override
+    public void publish(List<ChangeEvent> events) {
+        var bytes = new ByteArrayOutputStream();
+        try {
+            try (var json = JSON_FACTORY.createGenerator(bytes)) {
+                // objects are separated by the line breaks written below
+                json.setRootValueSeparator(null);
+                for (var event : events) {
+                    json.writeStartObject();
+                    json.writeNumberField("id", event.id());
+                    json.writeStringField("type", event.type().name());
+                    json.writeNumberField("entityId", event.entityId());
+                    json.writeStringField("createdAt", event.createdAt().toString());
+                    json.writeFieldName("payload");
+                    json.writeRawValue(event.payload());
+                    json.writeEndObject();
+                    json.writeRaw('\n');
+                }
+            }
+            var parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND)) {
+                var buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
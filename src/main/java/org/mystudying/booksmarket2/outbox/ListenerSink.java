@@ -0,0 +1,36 @@
+package org.mystudying.booksmarket2.outbox;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Hands the change events to the {@link ChangeEventListener} beans. When a listener throws, the batch is offered
+ * again to all of them.
+ */
+@Component
+@ConditionalOnProperty(name = "booksmarket.outbox.enabled", havingValue = "true")
+class ListenerSink implements ChangeEventSink {
+    private final ObjectProvider<ChangeEventListener> listeners;
+
+    ListenerSink(ObjectProvider<ChangeEventListener> listeners) {
+        this.listeners = listeners;
+    }
+
+    @Override
+    public String name() {
+        return "listeners";
+    }
+
+    @Override
+    public void publish(List<ChangeEvent> events) {
+        var all = listeners.orderedStream().toList();
+        for (var event : events) {
+            for (var listener : all) {
+                listener.changed(event);
+            }
+        }
+    }
+}
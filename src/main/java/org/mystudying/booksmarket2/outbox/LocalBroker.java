@@ -0,0 +1,85 @@
+package org.mystudying.booksmarket2.outbox;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An in-memory stand-in for a message broker topic: keeps the last retention change events, and consumers poll
+ * from their committed offset and commit what they processed, so each follows the stream at its own pace.
+ * Events offered twice by the relay are kept once. Nothing survives a restart.
+ */
+@Component
+@ConditionalOnProperty(name = "booksmarket.outbox.enabled", havingValue = "true")
+public class LocalBroker implements ChangeEventSink {
+    private final int retention;
+    // guards publishing; polls read the map without it
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ConcurrentSkipListMap<Long, ChangeEvent> events = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, Long> committed = new ConcurrentHashMap<>();
+    private int size;
+    private long lastId;
+
+    public LocalBroker(@Value("${booksmarket.outbox.broker.retention:100000}") int retention) {
+        if (retention < 1)
+            throw new IllegalArgumentException("Retention must be positive.");
+        this.retention = retention;
+    }
+
+    @Override
+    public String name() {
+        return "broker";
+    }
+
+    @Override
+    public void publish(List<ChangeEvent> published) {
+        lock.lock();
+        try {
+            for (var event : published) {
+                if (event.id() <= lastId) {
+                    continue;
+                }
+                if (size == retention) {
+                    events.pollFirstEntry();
+                } else {
+                    size++;
+                }
+                events.put(event.id(), event);
+                lastId = event.id();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Up to max events after the consumer's committed offset, oldest first. A consumer that fell behind the
+     * retention continues with the oldest event kept.
+     */
+    public List<ChangeEvent> poll(String consumer, int max) {
+        var polled = new ArrayList<ChangeEvent>();
+        for (var event : events.tailMap(offset(consumer), false).values()) {
+            if (polled.size() == max) {
+                break;
+            }
+            polled.add(event);
+        }
+        return polled;
+    }
+
+    /** Marks the events up to the id as processed by the consumer. */
+    public void commit(String consumer, long eventId) {
+        committed.merge(consumer, eventId, Math::max);
+    }
+
+    /** The id of the last event the consumer committed, 0 if none. */
+    public long offset(String consumer) {
+        return committed.getOrDefault(consumer, 0L);
+    }
+}
@@ -0,0 +1,155 @@
+package org.mystudying.booksmarket2.outbox;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.mystudying.booksmarket2.domain.Author;
+import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.domain.User;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The outbox_events rows. Changes are recorded in the transaction that makes them, which must exist,
+ * so an event is stored exactly when its change commits; the {@link OutboxRelay} reads them back in id order.
+ */
+@Repository
+@ConditionalOnProperty(name = "booksmarket.outbox.enabled", havingValue = "true")
+public class Outbox {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final String INSERT = "INSERT INTO outbox_events(type, entity_id, payload, created_at) VALUES (?, ?, ?, ?)";
+    private static final RowMapper<ChangeEvent> EVENT = (rs, rowNum) -> new ChangeEvent(rs.getLong(1),
+            ChangeEvent.Type.valueOf(rs.getString(2)), rs.getLong(3), rs.getString(4), rs.getTimestamp(5).toInstant());
+
+    private final JdbcClient jdbcClient;
+    private final JdbcTemplate jdbcTemplate;
+
+    public Outbox(JdbcClient jdbcClient, JdbcTemplate jdbcTemplate) {
+        this.jdbcClient = jdbcClient;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void bookUpdated(Book book) {
+        insert(ChangeEvent.Type.BOOK_UPDATED, book.getId(), json(out -> {
+            out.writeNumberField("id", book.getId());
+            out.writeStringField("title", book.getTitle());
+            out.writeNumberField("year", book.getYear());
+            out.writeNumberField("authorId", book.getAuthorId());
+            out.writeNumberField("available", book.getAvailable());
+            out.writeNumberField("version", book.getVersion());
+        }));
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void userCreated(User user) {
+        insert(ChangeEvent.Type.USER_CREATED, user.getId(), json(out -> {
+            out.writeNumberField("id", user.getId());
+            out.writeStringField("name", user.getName());
+            out.writeStringField("email", user.getEmail());
+        }));
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void authorCreated(Author author) {
+        insert(ChangeEvent.Type.AUTHOR_CREATED, author.getId(), json(out -> {
+            out.writeNumberField("id", author.getId());
+            out.writeStringField("name", author.getName());
+            out.writeStringField("birthdate", author.getBirthdate().toString());
+        }));
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void booksRented(long userId, Collection<Long> bookIds) {
+        insertBookings(ChangeEvent.Type.BOOK_RENTED, userId, bookIds);
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void booksReturned(long userId, Collection<Long> bookIds) {
+        insertBookings(ChangeEvent.Type.BOOK_RETURNED, userId, bookIds);
+    }
+
+    /** Up to limit events after the id, in id order. */
+    public List<ChangeEvent> findAfter(long afterId, int limit) {
+        var sql = """
+                SELECT id, type, entity_id, payload, created_at
+                FROM outbox_events
+                WHERE id > ?
+                ORDER BY id
+                LIMIT ?
+                """;
+        return jdbcClient.sql(sql).params(afterId, limit).query(EVENT).list();
+    }
+
+    /** The events among the ids that exist, in id order. */
+    public List<ChangeEvent> findByIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        var sql = """
+                SELECT id, type, entity_id, payload, created_at
+                FROM outbox_events
+                WHERE id IN (:ids)
+                ORDER BY id
+                """;
+        return jdbcClient.sql(sql).param("ids", ids).query(EVENT).list();
+    }
+
+    /** Deletes the events every sink has been given. */
+    public int deleteUpTo(long id) {
+        return jdbcClient.sql("DELETE FROM outbox_events WHERE id <= ?").param(id).update();
+    }
+
+    private void insert(ChangeEvent.Type type, long entityId, String payload) {
+        jdbcClient.sql(INSERT).params(type.name(), entityId, payload, Timestamp.from(Instant.now())).update();
+    }
+
+    private void insertBookings(ChangeEvent.Type type, long userId, Collection<Long> bookIds) {
+        if (bookIds.isEmpty()) {
+            return;
+        }
+        var createdAt = Timestamp.from(Instant.now());
+        var rows = new ArrayList<Object[]>(bookIds.size());
+        for (long bookId : bookIds) {
+            rows.add(new Object[]{type.name(), userId, bookingPayload(userId, bookId), createdAt});
+        }
+        jdbcTemplate.batchUpdate(INSERT, rows);
+    }
+
+    static String bookingPayload(long userId, long bookId) {
+        return json(out -> {
+            out.writeNumberField("userId", userId);
+            out.writeNumberField("bookId", bookId);
+        });
+    }
+
+    @FunctionalInterface
+    private interface Fields {
+        void write(JsonGenerator out) throws IOException;
+    }
+
+    private static String json(Fields fields) {
+        var text = new StringWriter();
+        try (var out = JSON_FACTORY.createGenerator(text)) {
+            out.writeStartObject();
+            fields.write(out);
+            out.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return text.toString();
+    }
+}
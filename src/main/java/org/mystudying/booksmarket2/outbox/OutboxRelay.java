@@ -0,0 +1,136 @@
+package org.mystudying.booksmarket2.outbox;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Publishes the outbox to every {@link ChangeEventSink} in batches, in id order. A sink's offset is saved after
+ * it took a batch, so a failure or a crash in between offers the batch again: at least once. Events all sinks
+ * were given are deleted.
+ * <p>
+ * Ids are handed out when an event is inserted but the event is only read once its transaction commits, so a
+ * missing id usually is a transaction still running. The relay waits for it, up to the gap timeout after the
+ * event behind the gap was written; a gap older than that is most likely an insert rolled back and is passed over.
+ * The ids passed over are looked up again on every run for the gap retention, and an event that shows up late,
+ * from a transaction that committed after the timeout, is published then, behind the events after it. Events are
+ * kept until no sink waits for such an id. The ids are only remembered in memory: a restart of the application
+ * rolls back the transactions that could still fill them.
+ */
+@Component
+@ConditionalOnProperty(name = "booksmarket.outbox.enabled", havingValue = "true")
+public class OutboxRelay {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutboxRelay.class);
+
+    private final Outbox outbox;
+    private final ConsumerOffsets offsets;
+    private final ObjectProvider<ChangeEventSink> sinks;
+    private final int batchSize;
+    private final Duration gapTimeout;
+    private final Duration gapRetention;
+    // the scheduler and explicit calls never relay at the same time; guards passedOver too
+    private final ReentrantLock lock = new ReentrantLock();
+    // per sink, the ids passed over below its offset and when they were
+    private final Map<String, TreeMap<Long, Instant>> passedOver = new HashMap<>();
+
+    public OutboxRelay(Outbox outbox, ConsumerOffsets offsets, ObjectProvider<ChangeEventSink> sinks,
+                       @Value("${booksmarket.outbox.batch-size:1000}") int batchSize,
+                       @Value("${booksmarket.outbox.gap-timeout-ms:10000}") long gapTimeoutMs,
+                       @Value("${booksmarket.outbox.gap-retention-ms:3600000}") long gapRetentionMs) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be positive.");
+        this.outbox = outbox;
+        this.offsets = offsets;
+        this.sinks = sinks;
+        this.batchSize = batchSize;
+        this.gapTimeout = Duration.ofMillis(gapTimeoutMs);
+        this.gapRetention = Duration.ofMillis(gapRetentionMs);
+    }
+
+    @Scheduled(fixedDelayString = "${booksmarket.outbox.relay-interval-ms:500}")
+    public void relay() {
+        lock.lock();
+        try {
+            long delivered = Long.MAX_VALUE;
+            for (var sink : sinks.orderedStream().toList()) {
+                var gaps = passedOver.computeIfAbsent(sink.name(), name -> new TreeMap<>());
+                delivered = Math.min(delivered, relay(sink, gaps));
+                if (!gaps.isEmpty()) {
+                    // an event may still fill the lowest gap
+                    delivered = Math.min(delivered, gaps.firstKey() - 1);
+                }
+            }
+            if (delivered != Long.MAX_VALUE && delivered > 0) {
+                outbox.deleteUpTo(delivered);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Publishes the events that filled a gap passed over, then batches until the sink has caught up or fails,
+    // and returns its offset.
+    private long relay(ChangeEventSink sink, TreeMap<Long, Instant> gaps) {
+        long offset = offsets.find(sink.name());
+        try {
+            var now = Instant.now();
+            gaps.values().removeIf(passed -> !passed.isAfter(now.minus(gapRetention)));
+            var late = outbox.findByIds(List.copyOf(gaps.keySet()));
+            if (!late.isEmpty()) {
+                sink.publish(late);
+                late.forEach(event -> gaps.remove(event.id()));
+            }
+            while (true) {
+                var events = outbox.findAfter(offset, batchSize);
+                var batch = deliverable(offset, events, now.minus(gapTimeout));
+                if (batch.isEmpty()) {
+                    return offset;
+                }
+                sink.publish(batch);
+                long expected = offset + 1;
+                for (var event : batch) {
+                    for (long missing = expected; missing < event.id(); missing++) {
+                        gaps.put(missing, now);
+                    }
+                    expected = event.id() + 1;
+                }
+                offset = batch.getLast().id();
+                offsets.save(sink.name(), offset);
+                if (batch.size() < batchSize) {
+                    return offset;
+                }
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn("Change event sink {} failed after event {}, the events are offered again on the next run",
+                    sink.name(), offset, e);
+            return offset;
+        }
+    }
+
+    /** The events from the offset on up to the first gap that may still be filled. */
+    static List<ChangeEvent> deliverable(long offset, List<ChangeEvent> events, Instant settledBefore) {
+        var batch = new ArrayList<ChangeEvent>(events.size());
+        long expected = offset + 1;
+        for (var event : events) {
+            if (event.id() != expected && event.createdAt().isAfter(settledBefore)) {
+                break;
+            }
+            batch.add(event);
+            expected = event.id() + 1;
+        }
+        return batch;
+    }
+}
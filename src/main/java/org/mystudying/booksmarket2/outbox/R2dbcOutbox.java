@@ -0,0 +1,64 @@
+package org.mystudying.booksmarket2.outbox;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.IllegalTransactionStateException;
+import org.springframework.transaction.NoTransactionException;
+import org.springframework.transaction.reactive.TransactionSynchronizationManager;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+
+/**
+ * Non-blocking counterpart of {@link Outbox} for the rentals and returns of the reactive services
+ * (profile "reactive"): the same outbox_events rows, inserted in the reactive transaction of the change,
+ * which must exist.
+ */
+@Repository
+@Profile("reactive")
+@ConditionalOnProperty(name = "booksmarket.outbox.enabled", havingValue = "true")
+public class R2dbcOutbox {
+    private static final String INSERT = """
+            INSERT INTO outbox_events(type, entity_id, payload, created_at)
+            VALUES (:type, :entityId, :payload, :createdAt)""";
+
+    private final DatabaseClient client;
+
+    public R2dbcOutbox(DatabaseClient client) {
+        this.client = client;
+    }
+
+    public Mono<Void> booksRented(long userId, Collection<Long> bookIds) {
+        return insertBookings(ChangeEvent.Type.BOOK_RENTED, userId, bookIds);
+    }
+
+    public Mono<Void> booksReturned(long userId, Collection<Long> bookIds) {
+        return insertBookings(ChangeEvent.Type.BOOK_RETURNED, userId, bookIds);
+    }
+
+    private Mono<Void> insertBookings(ChangeEvent.Type type, long userId, Collection<Long> bookIds) {
+        var createdAt = LocalDateTime.now();
+        return mandatoryTransaction().thenMany(Flux.fromIterable(bookIds))
+                .concatMap(bookId -> client.sql(INSERT)
+                        .bind("type", type.name())
+                        .bind("entityId", userId)
+                        .bind("payload", Outbox.bookingPayload(userId, bookId))
+                        .bind("createdAt", createdAt)
+                        .then())
+                .then();
+    }
+
+    // Like @Transactional(propagation = MANDATORY) on the blocking outbox.
+    private static Mono<Void> mandatoryTransaction() {
+        return TransactionSynchronizationManager.forCurrentTransaction()
+                .onErrorResume(NoTransactionException.class, e -> Mono.empty())
+                .filter(TransactionSynchronizationManager::isActualTransactionActive)
+                .switchIfEmpty(Mono.error(() -> new IllegalTransactionStateException(
+                        "Change events must be recorded in the transaction of their change.")))
+                .then();
+    }
+}
@@ -0,0 +1,68 @@
+package org.mystudying.booksmarket2.replicas;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read replicas for the read-only transactions (booksmarket.replicas.enabled). The application data source then
+ * hands out a connection only at the first statement, once the transaction has said whether it is read-only:
+ * read-only transactions get theirs from {@link Replicas}, everything else, Flyway included, from the primary
+ * configured under spring.datasource. The replicas use the primary's credentials.
+ */
+@Configuration
+@ConditionalOnProperty(name = "booksmarket.replicas.enabled", havingValue = "true")
+public class ReplicaConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean(destroyMethod = "close")
+    Replicas replicas(HikariDataSource primaryDataSource, DataSourceProperties properties,
+                      @Value("${booksmarket.replicas.urls}") List<String> urls,
+                      @Value("${booksmarket.replicas.pool-size:${spring.datasource.hikari.maximum-pool-size:10}}") int poolSize,
+                      @Value("${booksmarket.replicas.balancing:ROUND_ROBIN}") Replicas.Balancing balancing,
+                      @Value("${booksmarket.replicas.max-lag-ms:5000}") long maxLagMs,
+                      @Value("${booksmarket.replicas.read-your-writes:true}") boolean readYourWrites) {
+        var pools = new ArrayList<HikariDataSource>();
+        for (var url : urls) {
+            var pool = new HikariDataSource();
+            pool.setPoolName("replica-" + (pools.size() + 1));
+            pool.setJdbcUrl(url);
+            pool.setUsername(properties.determineUsername());
+            pool.setPassword(properties.determinePassword());
+            pool.setDriverClassName(properties.determineDriverClassName());
+            pool.setTransactionIsolation(primaryDataSource.getTransactionIsolation());
+            pool.setMaximumPoolSize(poolSize);
+            pool.setReadOnly(true);
+            // a replica that is down at startup is left to the heartbeat, the primary serves meanwhile
+            pool.setInitializationFailTimeout(-1);
+            pools.add(pool);
+        }
+        return new Replicas(primaryDataSource, pools, balancing, Duration.ofMillis(maxLagMs), readYourWrites,
+                Clock.systemUTC());
+    }
+
+    @Bean
+    @Primary
+    DataSource dataSource(HikariDataSource primaryDataSource, Replicas replicas) {
+        var dataSource = new LazyConnectionDataSourceProxy(replicas.writing(primaryDataSource));
+        dataSource.setReadOnlyDataSource(replicas);
+        return dataSource;
+    }
+}
@@ -0,0 +1,231 @@
+package org.mystudying.booksmarket2.replicas;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.mystudying.booksmarket2.cache.EntityCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The data source of the read-only transactions: one of the read replicas, or the primary when none is current.
+ * A replica is current while the heartbeat it shows, written to the primary every heartbeat interval, is at most
+ * max-lag old; an unreachable replica shows none. Among the current replicas a connection goes round-robin or to
+ * the one with the fewest active connections.
+ * <p>
+ * With read-your-writes, a thread that committed a write reads from the primary until a replica shows a heartbeat
+ * written after that commit, so it sees its own rental or new user. The console is one thread; calls through
+ * {@code VirtualThreadServices} each run on a thread of their own and do not carry their writes over.
+ * What a transaction reads from a replica is kept out of the entity caches, which are shared by all threads;
+ * a transaction marked with {@link #readFromPrimary} never gets a replica.
+ */
+public class Replicas extends AbstractDataSource implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Replicas.class);
+    private static final String BEAT = "UPDATE replica_heartbeat SET beat = ? WHERE id = 1";
+    private static final String SEEN = "SELECT beat FROM replica_heartbeat WHERE id = 1";
+    // when the thread last committed a write, null if it never did
+    private static final ThreadLocal<Instant> WRITTEN_AT = new ThreadLocal<>();
+    // bound while the current transaction must read from the primary
+    private static final Object PRIMARY_ONLY = new Object();
+
+    public enum Balancing {
+        ROUND_ROBIN, LEAST_CONNECTIONS
+    }
+
+    private static final class Replica {
+        private final HikariDataSource pool;
+        private final JdbcTemplate jdbcTemplate;
+        private volatile Instant seen; // the last heartbeat read back, null while unreachable
+
+        private Replica(HikariDataSource pool) {
+            this.pool = pool;
+            this.jdbcTemplate = new JdbcTemplate(pool);
+            // a replica that hangs must not hold up the heartbeat of the others
+            this.jdbcTemplate.setQueryTimeout(1);
+        }
+
+        private boolean current(Instant now, Duration maxLag, Instant writtenAt) {
+            var seen = this.seen;
+            return seen != null && !seen.isBefore(now.minus(maxLag)) && (writtenAt == null || !seen.isBefore(writtenAt));
+        }
+
+        private int activeConnections() {
+            var pool = this.pool.getHikariPoolMXBean();
+            return pool == null ? 0 : pool.getActiveConnections();
+        }
+    }
+
+    private final DataSource primary;
+    private final JdbcTemplate primaryTemplate;
+    private final List<Replica> replicas;
+    private final Balancing balancing;
+    private final Duration maxLag;
+    private final boolean readYourWrites;
+    private final Clock clock;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public Replicas(DataSource primary, List<HikariDataSource> pools, Balancing balancing, Duration maxLag,
+                    boolean readYourWrites, Clock clock) {
+        if (pools.isEmpty())
+            throw new IllegalArgumentException("At least one replica is needed.");
+        if (!maxLag.isPositive())
+            throw new IllegalArgumentException("Max lag must be positive.");
+        this.primary = primary;
+        this.primaryTemplate = new JdbcTemplate(primary);
+        this.replicas = pools.stream().map(Replica::new).toList();
+        this.balancing = balancing;
+        this.maxLag = maxLag;
+        this.readYourWrites = readYourWrites;
+        this.clock = clock;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return chooseForTransaction().getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return chooseForTransaction().getConnection(username, password);
+    }
+
+    /**
+     * Sends the current transaction to the primary, for a read whose result outlives the transaction and would
+     * miss rows a replica has not caught up with. Only connections the transaction gets afterwards are affected;
+     * outside a transaction it does nothing, since reads outside a transaction go to the primary anyway.
+     */
+    public static void readFromPrimary() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()
+                || TransactionSynchronizationManager.hasResource(PRIMARY_ONLY)) {
+            return;
+        }
+        TransactionSynchronizationManager.bindResource(PRIMARY_ONLY, Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(PRIMARY_ONLY);
+            }
+        });
+    }
+
+    // What a replica returns may be older than a write another thread just committed; it must not fill the
+    // entity caches, which the writes only invalidate once.
+    private DataSource chooseForTransaction() {
+        var chosen = TransactionSynchronizationManager.hasResource(PRIMARY_ONLY) ? primary : choose();
+        if (chosen != primary) {
+            EntityCache.skipLoadsOfCurrentTransaction();
+        }
+        return chosen;
+    }
+
+    DataSource choose() {
+        var now = clock.instant();
+        var writtenAt = readYourWrites ? WRITTEN_AT.get() : null;
+        var current = replicas.stream().filter(replica -> replica.current(now, maxLag, writtenAt)).toList();
+        if (current.isEmpty()) {
+            return primary;
+        }
+        return switch (balancing) {
+            case ROUND_ROBIN -> current.get(Math.floorMod(next.getAndIncrement(), current.size())).pool;
+            case LEAST_CONNECTIONS -> current.stream().min(Comparator.comparingInt(Replica::activeConnections))
+                    .orElseThrow().pool;
+        };
+    }
+
+    /**
+     * The primary for the read-write transactions; with read-your-writes it notes the commit time of each one
+     * on the thread that committed it.
+     */
+    public DataSource writing(DataSource primary) {
+        if (!readYourWrites) {
+            return primary;
+        }
+        return new DelegatingDataSource(primary) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                        @Override
+                        public void afterCommit() {
+                            WRITTEN_AT.set(now());
+                        }
+                    });
+                }
+                return super.getConnection();
+            }
+        };
+    }
+
+    @Scheduled(fixedDelayString = "${booksmarket.replicas.heartbeat-interval-ms:1000}")
+    public void heartbeat() {
+        try {
+            primaryTemplate.update(BEAT, Timestamp.from(now()));
+        } catch (DataAccessException e) {
+            LOGGER.warn("Could not write the replica heartbeat to the primary", e);
+        }
+        for (int i = 0; i < replicas.size(); i++) {
+            Instant seen;
+            try {
+                seen = replicas.get(i).jdbcTemplate.queryForObject(SEEN, Timestamp.class).toInstant();
+            } catch (DataAccessException e) {
+                seen = null;
+            }
+            seen(i, seen);
+        }
+    }
+
+    // Records the heartbeat a replica shows and logs when it stops or starts serving reads.
+    void seen(int replica, Instant seen) {
+        var now = clock.instant();
+        var target = replicas.get(replica);
+        boolean wasCurrent = target.current(now, maxLag, null);
+        target.seen = seen;
+        boolean isCurrent = target.current(now, maxLag, null);
+        if (wasCurrent && !isCurrent) {
+            LOGGER.warn("Replica {} is {}, its reads go elsewhere", target.pool.getPoolName(),
+                    seen == null ? "unreachable" : "behind by " + Duration.between(seen, now).toMillis() + " ms");
+        } else if (!wasCurrent && isCurrent) {
+            LOGGER.info("Replica {} serves reads", target.pool.getPoolName());
+        }
+    }
+
+    /** How far each replica is behind the primary, by pool name; null while it is unreachable. */
+    public Map<String, Duration> lags() {
+        var now = clock.instant();
+        var lags = new LinkedHashMap<String, Duration>();
+        for (var replica : replicas) {
+            var seen = replica.seen;
+            lags.put(replica.pool.getPoolName(), seen == null ? null : Duration.between(seen, now));
+        }
+        return lags;
+    }
+
+    // millisecond precision, as stored in replica_heartbeat
+    private Instant now() {
+        return clock.instant().truncatedTo(ChronoUnit.MILLIS);
+    }
+
+    @Override
+    public void close() {
+        replicas.forEach(replica -> replica.pool.close());
+    }
+}
@@ -2,19 +2,29 @@ package org.mystudying.booksmarket2.repositories;
 
 
 import org.mystudying.booksmarket2.domain.Author;
+import org.mystudying.booksmarket2.domain.AuthorBooks;
+import org.mystudying.booksmarket2.domain.Book;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.simple.JdbcClient;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.stereotype.Repository;
 
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public class AuthorRepository implements AuthorRepositoryInt {
     private final JdbcClient jdbcClient;
+    private final JdbcClient cursorClient;
 
-    public AuthorRepository(JdbcClient jdbcClient) {
+    public AuthorRepository(JdbcClient jdbcClient, DataSource dataSource,
+                            @Value("${booksmarket.jdbc.cursor-fetch-size:1000}") int cursorFetchSize) {
         this.jdbcClient = jdbcClient;
+        this.cursorClient = CursorClients.create(dataSource, cursorFetchSize);
     }
 
 
@@ -22,19 +32,54 @@ public class AuthorRepository implements AuthorRepositoryInt {
     @Override
     public List<Author> findAll() {
         var sql = "SELECT id, name, birthdate FROM authors ORDER BY name";
-        return jdbcClient.sql(sql).query(Author.class).list();
+        return jdbcClient.sql(sql).query(RowMappers.AUTHOR).list();
     }
 
     @Override
     public Optional<Author> findById(long id) {
         var sql = "SELECT id, name, birthdate FROM authors WHERE id = ?";
-        return jdbcClient.sql(sql).param(id).query(Author.class).optional();
+        return jdbcClient.sql(sql).param(id).query(RowMappers.AUTHOR).optional();
+    }
+
+    @Override
+    public List<Author> findByIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        var sql = "SELECT id, name, birthdate FROM authors WHERE id IN (:ids)";
+        return jdbcClient.sql(sql).param("ids", ids).query(RowMappers.AUTHOR).list();
     }
 
     @Override
     public Optional<Author> findByName(String name) {
         var sql = "SELECT id, name, birthdate FROM authors WHERE name = ?";
-        return jdbcClient.sql(sql).param(name).query(Author.class).optional();
+        return jdbcClient.sql(sql).param(name).query(RowMappers.AUTHOR).optional();
+    }
+
+    @Override
+    public Optional<AuthorBooks> findWithBooksById(long id) {
+        var sql = """
+                  SELECT a.id, a.name, a.birthdate, b.id AS book_id, b.title, b.year, b.available, b.version
+                  FROM authors a
+                  LEFT JOIN books b ON b.author_id = a.id
+                  WHERE a.id = ?
+                  ORDER BY b.title
+                  """;
+        return jdbcClient.sql(sql).param(id).query(rs -> {
+            if (!rs.next()) {
+                return Optional.empty();
+            }
+            var author = RowMappers.AUTHOR.mapRow(rs, 0);
+            var books = new ArrayList<Book>();
+            do {
+                long bookId = rs.getLong(4);
+                if (!rs.wasNull()) {
+                    books.add(Book.load(bookId, rs.getString(5), rs.getInt(6), author.getId(), rs.getInt(7),
+                            rs.getLong(8)));
+                }
+            } while (rs.next());
+            return Optional.of(new AuthorBooks(author, books));
+        });
     }
 
     @Override
@@ -46,4 +91,27 @@ public class AuthorRepository implements AuthorRepositoryInt {
                 .update(keyHolder);
         return keyHolder.getKey().longValue();
     }
+
+    @Override
+    public List<Author> findAll(String afterName, long afterId, int limit) {
+        var sql = "SELECT id, name, birthdate FROM authors ORDER BY name, id LIMIT :limit";
+        if (afterName != null) {
+            sql = """
+                  SELECT id, name, birthdate FROM authors
+                  WHERE name > :afterName OR (name = :afterName AND id > :afterId)
+                  ORDER BY name, id LIMIT :limit
+                  """;
+        }
+        return jdbcClient.sql(sql)
+                .param("afterName", afterName)
+                .param("afterId", afterId)
+                .param("limit", limit)
+                .query(RowMappers.AUTHOR).list();
+    }
+
+    @Override
+    public Stream<Author> streamAll() {
+        var sql = "SELECT id, name, birthdate FROM authors ORDER BY id";
+        return cursorClient.sql(sql).query(RowMappers.AUTHOR).stream();
+    }
 }
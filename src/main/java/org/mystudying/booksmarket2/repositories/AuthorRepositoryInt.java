@@ -1,13 +1,25 @@
 package org.mystudying.booksmarket2.repositories;
 
 import org.mystudying.booksmarket2.domain.Author;
+import org.mystudying.booksmarket2.domain.AuthorBooks;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface AuthorRepositoryInt {
     List<Author> findAll();
     Optional<Author> findById(long id);
     Optional<Author> findByName(String name);
+    // In no particular order; ids without an author are left out.
+    List<Author> findByIds(Collection<Long> ids);
+    // The author and their books (ordered by title) in one query; empty if the author does not exist.
+    Optional<AuthorBooks> findWithBooksById(long id);
     long create(Author author);
+
+    // Keyset pagination ordered by (name, id): null afterName for the first page.
+    List<Author> findAll(String afterName, long afterId, int limit);
+    // Forward-only cursor ordered by id; the caller must close the stream.
+    Stream<Author> streamAll();
 }
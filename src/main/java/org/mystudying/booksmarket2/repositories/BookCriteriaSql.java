@@ -0,0 +1,147 @@
+package org.mystudying.booksmarket2.repositories;
+
+import org.mystudying.booksmarket2.domain.BookCriteria;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The statement for a {@link BookCriteria} page, and its parameters.
+ * <p>
+ * The SQL depends only on which filters are set (the shape of the criteria), never on their values, so there
+ * are fewer than two hundred distinct statements. Each is built once and cached by shape; the same text every time
+ * also lets JdbcClient reuse its parsed form and the driver its prepared statement.
+ * <p>
+ * Every predicate compares a bare column, so each one can use an index: an author narrows to
+ * {@code (author_id, title)}, a single year to {@code (year, title)}, a title prefix to a {@code (title)} range,
+ * and all of these already deliver the rows in the page order {@code (title, id)}. Predicates are written
+ * most selective first, the keyset condition last. The repository resolves an author name to its id first;
+ * only a name shared by several authors reaches the subquery, and is sorted.
+ */
+final class BookCriteriaSql {
+    private static final int AUTHOR_ID = 1;
+    private static final int AUTHOR_NAME = 1 << 1;
+    private static final int YEAR = 1 << 2;
+    private static final int YEAR_FROM = 1 << 3;
+    private static final int YEAR_TO = 1 << 4;
+    private static final int TITLE_PREFIX = 1 << 5;
+    private static final int AVAILABLE = 1 << 6;
+    private static final int UNAVAILABLE = 1 << 7;
+    private static final int AFTER = 1 << 8;
+
+    private final Map<Integer, String> statements = new ConcurrentHashMap<>();
+
+    String sql(BookCriteria criteria, boolean after) {
+        return statements.computeIfAbsent(shape(criteria, after), BookCriteriaSql::build);
+    }
+
+    /** The number of statements built so far. */
+    int cachedStatements() {
+        return statements.size();
+    }
+
+    static int shape(BookCriteria criteria, boolean after) {
+        int shape = 0;
+        if (criteria.getAuthorId() != null) {
+            shape |= AUTHOR_ID;
+        }
+        if (criteria.getAuthorName() != null) {
+            shape |= AUTHOR_NAME;
+        }
+        var from = criteria.getYearFrom();
+        var to = criteria.getYearTo();
+        if (from != null && from.equals(to)) {
+            shape |= YEAR;
+        } else {
+            shape |= (from != null ? YEAR_FROM : 0) | (to != null ? YEAR_TO : 0);
+        }
+        if (criteria.getTitlePrefix() != null) {
+            shape |= TITLE_PREFIX;
+        }
+        if (criteria.getAvailable() != null) {
+            shape |= criteria.getAvailable() ? AVAILABLE : UNAVAILABLE;
+        }
+        return after ? shape | AFTER : shape;
+    }
+
+    private static String build(int shape) {
+        var sql = new StringBuilder("SELECT b.id, b.title, b.year, b.author_id, b.available, b.version FROM books b");
+        var where = new StringBuilder();
+        if ((shape & AUTHOR_ID) != 0) {
+            and(where, "b.author_id = :authorId");
+        }
+        if ((shape & AUTHOR_NAME) != 0) {
+            and(where, "b.author_id IN (SELECT a.id FROM authors a WHERE a.name = :authorName)");
+        }
+        if ((shape & YEAR) != 0) {
+            and(where, "b.year = :yearFrom");
+        }
+        if ((shape & TITLE_PREFIX) != 0) {
+            and(where, "b.title LIKE :titlePrefix");
+        }
+        if ((shape & YEAR_FROM) != 0) {
+            and(where, "b.year >= :yearFrom");
+        }
+        if ((shape & YEAR_TO) != 0) {
+            and(where, "b.year <= :yearTo");
+        }
+        if ((shape & AVAILABLE) != 0) {
+            and(where, "b.available > 0");
+        }
+        if ((shape & UNAVAILABLE) != 0) {
+            and(where, "b.available = 0");
+        }
+        if ((shape & AFTER) != 0) {
+            and(where, "(b.title > :afterTitle OR (b.title = :afterTitle AND b.id > :afterId))");
+        }
+        if (!where.isEmpty()) {
+            sql.append(" WHERE ").append(where);
+        }
+        return sql.append(" ORDER BY b.title, b.id LIMIT :limit").toString();
+    }
+
+    private static void and(StringBuilder where, String predicate) {
+        if (!where.isEmpty()) {
+            where.append(" AND ");
+        }
+        where.append(predicate);
+    }
+
+    /** The values of the filters that are set, under the names the statement uses. */
+    static Map<String, Object> params(BookCriteria criteria, String afterTitle, long afterId, int limit) {
+        var params = new HashMap<String, Object>();
+        putIfSet(params, "authorId", criteria.getAuthorId());
+        putIfSet(params, "authorName", criteria.getAuthorName());
+        putIfSet(params, "yearFrom", criteria.getYearFrom());
+        putIfSet(params, "yearTo", criteria.getYearTo());
+        if (criteria.getTitlePrefix() != null) {
+            params.put("titlePrefix", escapeLike(criteria.getTitlePrefix()) + "%");
+        }
+        if (afterTitle != null) {
+            params.put("afterTitle", afterTitle);
+            params.put("afterId", afterId);
+        }
+        params.put("limit", limit);
+        return params;
+    }
+
+    private static void putIfSet(Map<String, Object> params, String name, Object value) {
+        if (value != null) {
+            params.put(name, value);
+        }
+    }
+
+    /** The text with LIKE's wildcards and escape character escaped, so that it only matches itself. */
+    static String escapeLike(String text) {
+        var escaped = new StringBuilder(text.length() + 8);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' || c == '%' || c == '_') {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+}
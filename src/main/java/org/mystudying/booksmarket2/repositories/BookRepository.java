@@ -1,90 +1,285 @@
 package org.mystudying.booksmarket2.repositories;
 
 
+import org.mystudying.booksmarket2.cache.EntityCache;
+import org.mystudying.booksmarket2.cache.EntityCaches;
 import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.domain.BookCriteria;
+import org.mystudying.booksmarket2.outbox.Outbox;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.simple.JdbcClient;
 import org.springframework.stereotype.Repository;
 
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public class BookRepository implements BookRepositoryInt {
     private final JdbcClient jdbcClient;
+    private final JdbcClient cursorClient;
+    private final JdbcTemplate batchTemplate;
+    private final EntityCache<Book> bookCache;
+    private final BookCriteriaSql criteriaSql = new BookCriteriaSql();
+    private final Outbox outbox; // null unless booksmarket.outbox.enabled
+    private final BookingShards.Sql findBooksByUserId;
 
-    public BookRepository(JdbcClient jdbcClient) {
+    public BookRepository(JdbcClient jdbcClient, DataSource dataSource, EntityCaches caches,
+                          @Value("${booksmarket.jdbc.cursor-fetch-size:1000}") int cursorFetchSize,
+                          BookingShards shards, Optional<Outbox> outbox) {
         this.jdbcClient = jdbcClient;
+        this.cursorClient = CursorClients.create(dataSource, cursorFetchSize);
+        this.batchTemplate = new JdbcTemplate(dataSource);
+        this.bookCache = caches.books();
+        this.outbox = outbox.orElse(null);
+        this.findBooksByUserId = shards.sql("""
+                SELECT b.id, b.title, b.year, b.author_id, b.available, b.version
+                FROM books b
+                JOIN {bookings} bk ON b.id = bk.book_id
+                WHERE bk.user_id = ?
+                ORDER BY b.title
+                """);
     }
 
     @Override
     public List<Book> findAll() {
-        var sql = "SELECT id, title, year, author_id, available FROM books ORDER BY title";
-        return jdbcClient.sql(sql).query(Book.class).list();
+        var sql = "SELECT id, title, year, author_id, available, version FROM books ORDER BY title";
+        return jdbcClient.sql(sql).query(RowMappers.BOOK).list();
     }
 
     @Override
     public List<Book> findByYear(int year) {
-        var sql = "SELECT id, title, year, author_id, available FROM books WHERE year = :year ORDER BY title";
-        return jdbcClient.sql(sql).param("year", year).query(Book.class).list();
+        var sql = "SELECT id, title, year, author_id, available, version FROM books WHERE year = :year ORDER BY title";
+        return jdbcClient.sql(sql).param("year", year).query(RowMappers.BOOK).list();
     }
 
     @Override
     public List<Book> findByAuthorName(String authorName) {
         var sql = """
-                  SELECT b.id, b.title, b.year, b.author_id, b.available
+                  SELECT b.id, b.title, b.year, b.author_id, b.available, b.version
                   FROM books b
                   JOIN authors a ON b.author_id = a.id
                   WHERE a.name = ?
                   ORDER BY b.title
                   """;
-        return jdbcClient.sql(sql).param(authorName).query(Book.class).list();
+        return jdbcClient.sql(sql).param(authorName).query(RowMappers.BOOK).list();
+    }
+
+    @Override
+    public List<Book> findByAuthorId(long authorId) {
+        var sql = "SELECT id, title, year, author_id, available, version FROM books WHERE author_id = ? ORDER BY title";
+        return jdbcClient.sql(sql).param(authorId).query(RowMappers.BOOK).list();
     }
 
     @Override
     public List<Book> findByAvailability(boolean available) {
-        var sql = "SELECT id, title, year, author_id, available FROM books WHERE available > 0 ORDER BY title";
+        var sql = "SELECT id, title, year, author_id, available, version FROM books WHERE available > 0 ORDER BY title";
         if (!available) {
-            sql = "SELECT id, title, year, author_id, available FROM books WHERE available = 0 ORDER BY title";
+            sql = "SELECT id, title, year, author_id, available, version FROM books WHERE available = 0 ORDER BY title";
         }
-        return jdbcClient.sql(sql).query(Book.class).list();
+        return jdbcClient.sql(sql).query(RowMappers.BOOK).list();
     }
 
     @Override
     public Optional<Book> findById(long id) {
-        var sql = "SELECT id, title, year, author_id, available FROM books WHERE id = :id";
-        return jdbcClient.sql(sql).param("id", id).query(Book.class).optional();
+        var sql = "SELECT id, title, year, author_id, available, version FROM books WHERE id = :id";
+        return jdbcClient.sql(sql).param("id", id).query(RowMappers.BOOK).optional();
+    }
+
+    @Override
+    public List<Book> findAndLockByIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        var sql = "SELECT id, title, year, author_id, available, version FROM books WHERE id IN (:ids) ORDER BY id for update";
+        return jdbcClient.sql(sql).param("ids", ids).query(RowMappers.BOOK).list();
     }
 
     @Override
     public Optional<Book> findByTitle(String title) {
-        var sql = "SELECT id, title, year, author_id, available FROM books WHERE title = :title";
-        return jdbcClient.sql(sql).param("title", title).query(Book.class).optional();
+        var sql = "SELECT id, title, year, author_id, available, version FROM books WHERE title = :title";
+        return jdbcClient.sql(sql).param("title", title).query(RowMappers.BOOK).optional();
+    }
+
+    @Override
+    public List<Book> findByIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        var sql = "SELECT id, title, year, author_id, available, version FROM books WHERE id IN (:ids)";
+        return jdbcClient.sql(sql).param("ids", ids).query(RowMappers.BOOK).list();
     }
 
     @Override
     public void update(Book book) {
-        var sql = "UPDATE books SET title = ?, year = ?, author_id = ?, available = ? WHERE id = ?";
-        jdbcClient.sql(sql)
+        var sql = "UPDATE books SET title = ?, year = ?, author_id = ?, available = ?, version = version + 1 WHERE id = ?";
+        int updated = jdbcClient.sql(sql)
                 .params(book.getTitle(), book.getYear(),  book.getAuthorId(), book.getAvailable(), book.getId())
                 .update();
+        bookCache.invalidate(book);
+        if (outbox != null && updated > 0) {
+            // read back for the version the update gave it; the row stays locked until the commit
+            findById(book.getId()).ifPresent(outbox::bookUpdated);
+        }
     }
 
     @Override
-    public List<Book> findBooksByUserId(long userId) {
+    public boolean compareAndUpdate(Book book) {
         var sql = """
-                SELECT b.id, b.title, b.year, b.author_id, b.available
-                FROM books b
-                JOIN bookings bk ON b.id = bk.book_id
-                WHERE bk.user_id = ?
-                ORDER BY b.title
+                UPDATE books SET title = ?, year = ?, author_id = ?, available = ?, version = version + 1
+                WHERE id = ? AND version = ?
                 """;
-        return jdbcClient.sql(sql).param(userId).query(Book.class).list();
+        int updated = jdbcClient.sql(sql)
+                .params(book.getTitle(), book.getYear(), book.getAuthorId(), book.getAvailable(), book.getId(),
+                        book.getVersion())
+                .update();
+        // on a conflict the cached copy is likely the stale one the edit was made from
+        bookCache.invalidate(book);
+        if (outbox != null && updated > 0) {
+            outbox.bookUpdated(book.saved());
+        }
+        return updated > 0;
+    }
+
+    @Override
+    public List<Book> findBooksByUserId(long userId) {
+        return jdbcClient.sql(findBooksByUserId.forUser(userId)).param(userId).query(RowMappers.BOOK).list();
     }
 
 
     @Override
     public Optional<Book> findAndLockById(long id) {
-        var sql = "SELECT id, title, year, author_id, available FROM books WHERE id = :id for update";
-        return jdbcClient.sql(sql).param("id", id).query(Book.class).optional();
+        var sql = "SELECT id, title, year, author_id, available, version FROM books WHERE id = :id for update";
+        return jdbcClient.sql(sql).param("id", id).query(RowMappers.BOOK).optional();
+    }
+
+    @Override
+    public List<Book> findAll(String afterTitle, long afterId, int limit) {
+        var sql = "SELECT id, title, year, author_id, available, version FROM books ORDER BY title, id LIMIT :limit";
+        if (afterTitle != null) {
+            sql = """
+                  SELECT id, title, year, author_id, available, version FROM books
+                  WHERE title > :afterTitle OR (title = :afterTitle AND id > :afterId)
+                  ORDER BY title, id LIMIT :limit
+                  """;
+        }
+        return jdbcClient.sql(sql)
+                .param("afterTitle", afterTitle)
+                .param("afterId", afterId)
+                .param("limit", limit)
+                .query(RowMappers.BOOK).list();
+    }
+
+    @Override
+    public List<Book> findByYear(int year, String afterTitle, long afterId, int limit) {
+        var sql = "SELECT id, title, year, author_id, available, version FROM books WHERE year = :year ORDER BY title, id LIMIT :limit";
+        if (afterTitle != null) {
+            sql = """
+                  SELECT id, title, year, author_id, available, version FROM books
+                  WHERE year = :year AND (title > :afterTitle OR (title = :afterTitle AND id > :afterId))
+                  ORDER BY title, id LIMIT :limit
+                  """;
+        }
+        return jdbcClient.sql(sql)
+                .param("year", year)
+                .param("afterTitle", afterTitle)
+                .param("afterId", afterId)
+                .param("limit", limit)
+                .query(RowMappers.BOOK).list();
+    }
+
+    @Override
+    public List<Book> findByAvailability(boolean available, String afterTitle, long afterId, int limit) {
+        var condition = available ? "available > 0" : "available = 0";
+        var sql = "SELECT id, title, year, author_id, available, version FROM books WHERE " + condition
+                + " ORDER BY title, id LIMIT :limit";
+        if (afterTitle != null) {
+            sql = "SELECT id, title, year, author_id, available, version FROM books WHERE " + condition
+                    + " AND (title > :afterTitle OR (title = :afterTitle AND id > :afterId))"
+                    + " ORDER BY title, id LIMIT :limit";
+        }
+        return jdbcClient.sql(sql)
+                .param("afterTitle", afterTitle)
+                .param("afterId", afterId)
+                .param("limit", limit)
+                .query(RowMappers.BOOK).list();
+    }
+
+    @Override
+    public List<Book> findBy(BookCriteria criteria, String afterTitle, long afterId, int limit) {
+        if (criteria.getAuthorName() != null) {
+            // joined, authors would drive the plan and the page would be sorted in a temporary table;
+            // an author name almost always names one author, whose (author_id, title) range is already in order
+            var authorIds = jdbcClient.sql("SELECT id FROM authors WHERE name = ?")
+                    .param(criteria.getAuthorName())
+                    .query(Long.class).list();
+            if (authorIds.isEmpty()) {
+                return List.of();
+            }
+            if (authorIds.size() == 1) {
+                criteria = criteria.withAuthorId(authorIds.getFirst());
+            }
+        }
+        return jdbcClient.sql(criteriaSql.sql(criteria, afterTitle != null))
+                .params(BookCriteriaSql.params(criteria, afterTitle, afterId, limit))
+                .query(RowMappers.BOOK).list();
+    }
+
+    @Override
+    public Stream<Book> streamAll() {
+        var sql = "SELECT id, title, year, author_id, available, version FROM books ORDER BY id";
+        return cursorClient.sql(sql).query(RowMappers.BOOK).stream();
+    }
+
+    @Override
+    public Stream<Book> streamByYear(int year) {
+        var sql = "SELECT id, title, year, author_id, available, version FROM books WHERE year = :year ORDER BY id";
+        return cursorClient.sql(sql).param("year", year).query(RowMappers.BOOK).stream();
+    }
+
+    @Override
+    public Stream<Book> streamByAvailability(boolean available) {
+        var sql = "SELECT id, title, year, author_id, available, version FROM books WHERE available > 0 ORDER BY id";
+        if (!available) {
+            sql = "SELECT id, title, year, author_id, available, version FROM books WHERE available = 0 ORDER BY id";
+        }
+        return cursorClient.sql(sql).query(RowMappers.BOOK).stream();
+    }
+
+    @Override
+    public List<Long> addToAvailable(Map<Long, Integer> deltas) {
+        var sql = "UPDATE books SET available = available + ?, version = version + 1 WHERE id = ? AND available + ? >= 0";
+        var ids = new ArrayList<>(deltas.keySet());
+        ids.sort(null); // same lock order as every other batch writer
+        var args = ids.stream()
+                .map(id -> new Object[]{deltas.get(id), id, deltas.get(id)})
+                .toList();
+        int[] counts = batchTemplate.batchUpdate(sql, args);
+        ids.forEach(bookCache::invalidate);
+        var refused = new ArrayList<Long>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                refused.add(ids.get(i));
+            }
+        }
+        return refused;
+    }
+
+    @Override
+    public int addToAvailable(Collection<Long> ids, int delta) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        var sql = "UPDATE books SET available = available + :delta, version = version + 1 WHERE id IN (:ids) AND available + :delta >= 0";
+        ids.forEach(bookCache::invalidate);
+        return jdbcClient.sql(sql)
+                .param("delta", delta)
+                .param("ids", ids)
+                .update();
     }
 }
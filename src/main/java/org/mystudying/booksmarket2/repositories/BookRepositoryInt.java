@@ -2,20 +2,51 @@ package org.mystudying.booksmarket2.repositories;
 
 
 import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.domain.BookCriteria;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface BookRepositoryInt {
     List<Book> findAll();
     List<Book> findByYear(int year);
     List<Book> findByAuthorName(String authorName);
+    List<Book> findByAuthorId(long authorId);
     List<Book> findByAvailability(boolean available);
     Optional<Book> findById(long id);
     Optional<Book> findByTitle(String title);
+    // In no particular order; ids without a book are left out.
+    List<Book> findByIds(Collection<Long> ids);
+    // Unconditional: overwrites whatever was written since the book was read.
     void update(Book book);
+    // Optimistic: saves the book only if its row is still at the book's version, without a row lock held
+    // in between; false when another write came first (or the book is gone).
+    boolean compareAndUpdate(Book book);
     List<Book> findBooksByUserId(long userId);
 
     Optional<Book> findAndLockById(long id);
+    // Locks the rows in id order, so two batches over overlapping books cannot deadlock.
+    List<Book> findAndLockByIds(Collection<Long> ids);
 
+    // Keyset pagination ordered by (title, id): pass null as afterTitle for the first page,
+    // then the title and id of the last book of the previous page.
+    List<Book> findAll(String afterTitle, long afterId, int limit);
+    List<Book> findByYear(int year, String afterTitle, long afterId, int limit);
+    List<Book> findByAvailability(boolean available, String afterTitle, long afterId, int limit);
+    // All the filters set in the criteria, in one statement, paged the same way.
+    List<Book> findBy(BookCriteria criteria, String afterTitle, long afterId, int limit);
+
+    // Forward-only cursors ordered by id; the caller must close the stream.
+    Stream<Book> streamAll();
+    Stream<Book> streamByYear(int year);
+    Stream<Book> streamByAvailability(boolean available);
+
+    // Adds each delta to books.available in one batch; returns the ids whose update was refused
+    // because the book is gone or its availability would become negative.
+    List<Long> addToAvailable(Map<Long, Integer> deltas);
+    // One multi-row update; books whose availability would become negative are left alone.
+    int addToAvailable(Collection<Long> ids, int delta);
 }
@@ -1,46 +1,203 @@
 package org.mystudying.booksmarket2.repositories;
 
 
+import org.mystudying.booksmarket2.cache.EntityCache;
+import org.mystudying.booksmarket2.cache.EntityCaches;
+import org.mystudying.booksmarket2.domain.Book;
 import org.mystudying.booksmarket2.domain.Booking;
+import org.mystudying.booksmarket2.domain.RentalOutcome;
+import org.mystudying.booksmarket2.domain.UserLoans;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.simple.JdbcClient;
 import org.springframework.stereotype.Repository;
 
-import java.util.Map;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public class BookingRepository implements BookingRepositoryInt {
     private final JdbcClient jdbcClient;
+    private final JdbcClient cursorClient;
+    private final JdbcTemplate batchTemplate;
+    private final EntityCache<Book> bookCache;
+    private final EntityCache<UserLoans> loanCache;
+    // every statement on the shard of its user, except the ones by book, which read all shards
+    private final BookingShards.Sql insert;
+    private final BookingShards.Sql delete;
+    private final BookingShards.Sql find;
+    private final BookingShards.Sql findBookIdsByUserId;
+    private final BookingShards.Sql streamAll;
+    private final BookingShards.Sql findBookIds;
+    private final String findUserIdsByBookId;
 
-    public BookingRepository(JdbcClient jdbcClient) {
+    public BookingRepository(JdbcClient jdbcClient, DataSource dataSource, EntityCaches caches,
+                             @Value("${booksmarket.jdbc.cursor-fetch-size:1000}") int cursorFetchSize,
+                             BookingShards shards) {
         this.jdbcClient = jdbcClient;
+        this.cursorClient = CursorClients.create(dataSource, cursorFetchSize);
+        this.batchTemplate = new JdbcTemplate(dataSource);
+        this.bookCache = caches.books();
+        this.loanCache = caches.loans();
+        this.insert = shards.sql("INSERT INTO {bookings}(user_id, book_id) VALUES (?, ?)");
+        this.delete = shards.sql("DELETE FROM {bookings} WHERE user_id = ? AND book_id = ?");
+        this.find = shards.sql("SELECT user_id, book_id FROM {bookings} WHERE user_id = ? AND book_id = ?");
+        this.findBookIdsByUserId = shards.sql("SELECT book_id FROM {bookings} WHERE user_id = ?");
+        this.streamAll = shards.sql("SELECT user_id, book_id FROM {bookings} ORDER BY user_id, book_id");
+        this.findBookIds = shards.sql(
+                "SELECT book_id FROM {bookings} WHERE user_id = :userId AND book_id IN (:bookIds) ORDER BY book_id");
+        this.findUserIdsByBookId = shards.sql("SELECT user_id FROM {bookings} WHERE book_id = :bookId").unionAll()
+                + " ORDER BY user_id";
     }
 
-
-
     @Override
     public void create(Booking booking) {
-        var sql = "INSERT INTO bookings(user_id, book_id) VALUES (:userId, :bookId)";
-        jdbcClient.sql(sql)
-                .params(Map.of("userId", booking.getUserId(),
-                "bookId", booking.getBookId()))
+        jdbcClient.sql(insert.forUser(booking.getUserId()))
+                .params(booking.getUserId(), booking.getBookId())
                 .update();
+        loanCache.update(booking.getUserId(), loans -> loans.withBooks(List.of(booking.getBookId())));
     }
 
     @Override
-    public void delete(Booking booking) {
-        var sql = "DELETE FROM bookings WHERE user_id = ? AND book_id = ?";
-        jdbcClient.sql(sql)
-                .params(booking.getUserId(), booking.getBookId())
-                .update();
+    public boolean delete(Booking booking) {
+        return delete(booking.getUserId(), booking.getBookId());
+    }
+
+    private boolean delete(long userId, long bookId) {
+        if (jdbcClient.sql(delete.forUser(userId)).params(userId, bookId).update() == 0) {
+            return false;
+        }
+        loanCache.update(userId, loans -> loans.withoutBooks(List.of(bookId)));
+        return true;
     }
 
     @Override
     public Optional<Booking> find(long userId, long bookId) {
-        var sql = "SELECT user_id, book_id FROM bookings WHERE user_id = ? AND book_id = ?";
-        return jdbcClient.sql(sql)
+        return jdbcClient.sql(find.forUser(userId))
                 .params(userId, bookId)
-                .query(Booking.class)
+                .query(RowMappers.BOOKING)
                 .optional();
     }
+
+    @Override
+    public List<Long> findBookIdsByUserId(long userId) {
+        return jdbcClient.sql(findBookIdsByUserId.forUser(userId))
+                .param(userId)
+                .query(Long.class)
+                .list();
+    }
+
+    @Override
+    public Stream<Booking> streamAll() {
+        // one shard after the other, each cursor opened when the one before is used up
+        return streamAll.perShard().stream()
+                .flatMap(sql -> cursorClient.sql(sql).query(RowMappers.BOOKING).stream());
+    }
+
+    @Override
+    public List<Long> findUserIdsByBookId(long bookId) {
+        return jdbcClient.sql(findUserIdsByBookId)
+                .param("bookId", bookId)
+                .query(Long.class)
+                .list();
+    }
+
+    @Override
+    public List<Long> findBookIds(long userId, Collection<Long> bookIds) {
+        if (bookIds.isEmpty()) {
+            return List.of();
+        }
+        return jdbcClient.sql(findBookIds.forUser(userId))
+                .param("userId", userId)
+                .param("bookIds", bookIds)
+                .query(Long.class)
+                .list();
+    }
+
+    @Override
+    public void createAll(long userId, Collection<Long> bookIds) {
+        batchTemplate.batchUpdate(insert.forUser(userId), sortedArgs(userId, bookIds));
+        var rented = List.copyOf(bookIds);
+        loanCache.update(userId, loans -> loans.withBooks(rented));
+    }
+
+    @Override
+    public List<Long> deleteAll(long userId, Collection<Long> bookIds) {
+        var args = sortedArgs(userId, bookIds);
+        int[] counts = batchTemplate.batchUpdate(delete.forUser(userId), args);
+        var deleted = new ArrayList<Long>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                deleted.add((Long) args.get(i)[1]);
+            }
+        }
+        loanCache.update(userId, loans -> loans.withoutBooks(deleted));
+        return deleted;
+    }
+
+    private static List<Object[]> sortedArgs(long userId, Collection<Long> bookIds) {
+        return bookIds.stream()
+                .sorted()
+                .map(bookId -> new Object[]{userId, bookId})
+                .toList();
+    }
+
+    @Override
+    public RentalOutcome rent(long userId, long bookId) {
+        // the books row lock is taken first and held for the rest of the transaction only
+        var decrement = "UPDATE books SET available = available - 1, version = version + 1 WHERE id = ? AND available > 0";
+        if (jdbcClient.sql(decrement).param(bookId).update() == 0) {
+            if (!exists("users", userId)) {
+                return RentalOutcome.USER_NOT_FOUND;
+            }
+            return exists("books", bookId) ? RentalOutcome.NOT_AVAILABLE : RentalOutcome.BOOK_NOT_FOUND;
+        }
+        try {
+            jdbcClient.sql(insert.forUser(userId)).params(userId, bookId).update();
+            bookCache.invalidate(bookId);
+            loanCache.update(userId, loans -> loans.withBooks(List.of(bookId)));
+            return RentalOutcome.RENTED;
+        } catch (DuplicateKeyException e) {
+            undoChangeOfAvailable(bookId, -1);
+            return RentalOutcome.ALREADY_BORROWED;
+        } catch (DataIntegrityViolationException e) {
+            // the book exists, it was just updated: the user reference failed
+            undoChangeOfAvailable(bookId, -1);
+            return RentalOutcome.USER_NOT_FOUND;
+        }
+    }
+
+    @Override
+    public RentalOutcome returnBook(long userId, long bookId) {
+        // books row first, like rent, so a rent and a return never lock in opposite order
+        var increment = "UPDATE books SET available = available + 1, version = version + 1 WHERE id = ?";
+        if (jdbcClient.sql(increment).param(bookId).update() == 0) {
+            return exists("users", userId) ? RentalOutcome.BOOK_NOT_FOUND : RentalOutcome.USER_NOT_FOUND;
+        }
+        if (!delete(userId, bookId)) {
+            undoChangeOfAvailable(bookId, 1);
+            return exists("users", userId) ? RentalOutcome.NOT_BORROWED : RentalOutcome.USER_NOT_FOUND;
+        }
+        bookCache.invalidate(bookId);
+        return RentalOutcome.RETURNED;
+    }
+
+    // Reverts this transaction's own change of the row, the version included, so a refused rental or return
+    // leaves the row as it was; still invalidated, as the row was written.
+    private void undoChangeOfAvailable(long bookId, int delta) {
+        var sql = "UPDATE books SET available = available - ?, version = version - 1 WHERE id = ?";
+        jdbcClient.sql(sql).params(delta, bookId).update();
+        bookCache.invalidate(bookId);
+    }
+
+    private boolean exists(String table, long id) {
+        var sql = "SELECT COUNT(*) FROM " + table + " WHERE id = ?";
+        return jdbcClient.sql(sql).param(id).query(Integer.class).single() > 0;
+    }
 }
@@ -1,11 +1,33 @@
 package org.mystudying.booksmarket2.repositories;
 
 import org.mystudying.booksmarket2.domain.Booking;
+import org.mystudying.booksmarket2.domain.RentalOutcome;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface BookingRepositoryInt {
     void create(Booking booking);
-    void delete(Booking booking);
+    boolean delete(Booking booking);
     Optional<Booking> find(long userId, long bookId);
+    // Unordered: a primary key range read, without joining books.
+    List<Long> findBookIdsByUserId(long userId);
+    // Primary key order within each shard, shard after shard, through server-side cursors;
+    // close the stream (inside a transaction).
+    Stream<Booking> streamAll();
+    // The users holding the book, in id order, from all shards at once.
+    List<Long> findUserIdsByBookId(long bookId);
+
+    // Batch variants for one user; statements are sent in book id order.
+    List<Long> findBookIds(long userId, Collection<Long> bookIds);
+    void createAll(long userId, Collection<Long> bookIds);
+    // Returns the book ids whose booking existed and was deleted.
+    List<Long> deleteAll(long userId, Collection<Long> bookIds);
+
+    // Conditional availability update plus the bookings insert/delete, without SELECT ... FOR UPDATE.
+    // Call inside a transaction; whatever a failed outcome had changed is undone before it returns.
+    RentalOutcome rent(long userId, long bookId);
+    RentalOutcome returnBook(long userId, long bookId);
 }
@@ -0,0 +1,145 @@
+package org.mystudying.booksmarket2.repositories;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Spreads the bookings over shard tables by user id: the bookings of user u are in shard u mod n, which is
+ * the bookings table for shard 0 and bookings_k for shard k. All bookings of a user are in one table, so rentals,
+ * returns and loans touch one shard, in the same transaction as books; a query by book reads every shard in one
+ * {@code UNION ALL} statement.
+ * <p>
+ * The count in use is stored in booking_shards. When booksmarket.bookings.shards differs at startup, the missing
+ * tables are created and every booking is moved to its shard before the repositories use them; other instances
+ * must be stopped meanwhile. A move cut short is redone on the next start. Without a JDBC data source (the reactive
+ * profile on its own) the tables are only routed to, never prepared.
+ */
+@Component
+public class BookingShards {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BookingShards.class);
+    private static final String TABLE = "bookings";
+    private static final String PLACEHOLDER = "{bookings}";
+
+    private final JdbcClient jdbcClient; // null without a JDBC data source
+    private final int count;
+    private final List<String> tables;
+
+    @Autowired
+    public BookingShards(ObjectProvider<JdbcClient> jdbcClient, @Value("${booksmarket.bookings.shards:1}") int count) {
+        this(jdbcClient.getIfAvailable(), count);
+    }
+
+    /** Routes to the given number of shards; with no client the tables are expected to be in place. */
+    public BookingShards(JdbcClient jdbcClient, int count) {
+        if (count < 1)
+            throw new IllegalArgumentException("Shard count must be positive.");
+        this.jdbcClient = jdbcClient;
+        this.count = count;
+        this.tables = IntStream.range(0, count).mapToObj(BookingShards::table).toList();
+    }
+
+    /** A statement over the bookings, with {@value #PLACEHOLDER} where the table goes. */
+    public final class Sql {
+        private final List<String> perShard;
+        private final String unionAll;
+
+        private Sql(String sql) {
+            this.perShard = tables.stream().map(table -> sql.replace(PLACEHOLDER, table)).toList();
+            this.unionAll = String.join(" UNION ALL ", perShard);
+        }
+
+        /** The statement on the user's shard. */
+        public String forUser(long userId) {
+            return perShard.get(shard(userId));
+        }
+
+        /** The statement on each shard, shard 0 first. */
+        public List<String> perShard() {
+            return perShard;
+        }
+
+        /** The statement on every shard, as one {@code UNION ALL}; append the ORDER BY of the whole. */
+        public String unionAll() {
+            return unionAll;
+        }
+    }
+
+    public Sql sql(String sql) {
+        return new Sql(sql);
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int shard(long userId) {
+        return (int) Math.floorMod(userId, (long) count);
+    }
+
+    /** The table with the user's bookings. */
+    public String table(long userId) {
+        return tables.get(shard(userId));
+    }
+
+    private static String table(int shard) {
+        return shard == 0 ? TABLE : TABLE + "_" + shard;
+    }
+
+    @PostConstruct
+    void prepare() {
+        if (jdbcClient == null) {
+            return;
+        }
+        int stored = jdbcClient.sql("SELECT shard_count FROM booking_shards WHERE id = 1").query(Integer.class).single();
+        if (stored == count) {
+            return;
+        }
+        for (int shard = 1; shard < count; shard++) {
+            createTable(shard);
+        }
+        LOGGER.info("Moving the bookings from {} to {} shards", stored, count);
+        reshard(stored);
+        jdbcClient.sql("UPDATE booking_shards SET shard_count = ? WHERE id = 1").param(count).update();
+    }
+
+    private void createTable(int shard) {
+        var table = table(shard);
+        jdbcClient.sql("""
+                CREATE TABLE IF NOT EXISTS %1$s (
+                    user_id BIGINT NOT NULL,
+                    book_id BIGINT NOT NULL,
+                    PRIMARY KEY (user_id, book_id),
+                    CONSTRAINT fk_%1$s_user FOREIGN KEY (user_id) REFERENCES users(id),
+                    CONSTRAINT fk_%1$s_book FOREIGN KEY (book_id) REFERENCES books(id)
+                )
+                """.formatted(table)).update();
+    }
+
+    // Copies every booking of the old shards to its new shard, then deletes it where it was. INSERT IGNORE makes
+    // a second run after a crash skip what the first one copied.
+    private void reshard(int stored) {
+        for (int from = 0; from < stored; from++) {
+            var source = table(from);
+            for (int to = 0; to < count; to++) {
+                if (to != from) {
+                    jdbcClient.sql("INSERT IGNORE INTO " + table(to) + "(user_id, book_id) SELECT user_id, book_id FROM "
+                            + source + " WHERE MOD(user_id, ?) = ?").params(count, to).update();
+                }
+            }
+            if (from < count) {
+                jdbcClient.sql("DELETE FROM " + source + " WHERE MOD(user_id, ?) <> ?").params(count, from).update();
+            } else {
+                jdbcClient.sql("DELETE FROM " + source).update();
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.mystudying.booksmarket2.repositories;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.simple.JdbcClient;
+
+import javax.sql.DataSource;
+
+/**
+ * JdbcClient for forward-only cursor queries. The fetch size makes the driver read rows in chunks
+ * instead of loading the whole result set (MySQL needs useCursorFetch=true in the URL for that).
+ */
+final class CursorClients {
+
+    private CursorClients() {
+    }
+
+    static JdbcClient create(DataSource dataSource, int fetchSize) {
+        var jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.setFetchSize(fetchSize);
+        return JdbcClient.create(jdbcTemplate);
+    }
+}
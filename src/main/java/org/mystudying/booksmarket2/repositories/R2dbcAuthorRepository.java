@@ -0,0 +1,102 @@
+package org.mystudying.booksmarket2.repositories;
+
+import org.mystudying.booksmarket2.domain.Author;
+import org.mystudying.booksmarket2.domain.AuthorBooks;
+import org.mystudying.booksmarket2.domain.Book;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Optional;
+
+@Repository
+@Profile("reactive")
+public class R2dbcAuthorRepository implements ReactiveAuthorRepositoryInt {
+    private final DatabaseClient client;
+
+    public R2dbcAuthorRepository(DatabaseClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public Flux<Author> findAll() {
+        var sql = "SELECT id, name, birthdate FROM authors ORDER BY name";
+        return client.sql(sql).map(R2dbcRows::author).all();
+    }
+
+    @Override
+    public Mono<Author> findById(long id) {
+        var sql = "SELECT id, name, birthdate FROM authors WHERE id = :id";
+        return client.sql(sql).bind("id", id).map(R2dbcRows::author).one();
+    }
+
+    @Override
+    public Mono<Author> findByName(String name) {
+        var sql = "SELECT id, name, birthdate FROM authors WHERE name = :name";
+        return client.sql(sql).bind("name", name).map(R2dbcRows::author).one();
+    }
+
+    @Override
+    public Mono<AuthorBooks> findWithBooksById(long id) {
+        var sql = """
+                  SELECT a.id, a.name, a.birthdate, b.id AS book_id, b.title, b.year, b.available, b.version
+                  FROM authors a
+                  LEFT JOIN books b ON b.author_id = a.id
+                  WHERE a.id = :id
+                  ORDER BY b.title
+                  """;
+        record Row(Author author, Optional<Book> book) {
+        }
+        return client.sql(sql).bind("id", id)
+                .map(row -> {
+                    var author = R2dbcRows.author(row);
+                    var bookId = row.get("book_id", Long.class);
+                    var book = bookId == null ? Optional.<Book>empty() : Optional.of(Book.load(bookId,
+                            row.get("title", String.class), row.get("year", Integer.class), author.getId(),
+                            row.get("available", Integer.class), row.get("version", Long.class)));
+                    return new Row(author, book);
+                })
+                .all()
+                .collectList()
+                .filter(rows -> !rows.isEmpty())
+                .map(rows -> new AuthorBooks(rows.get(0).author(),
+                        rows.stream().flatMap(row -> row.book().stream()).toList()));
+    }
+
+    @Override
+    public Mono<Long> create(Author author) {
+        var sql = "INSERT INTO authors(name, birthdate) VALUES (:name, :birthdate)";
+        return client.sql(sql)
+                .bind("name", author.getName())
+                .bind("birthdate", author.getBirthdate())
+                .filter(statement -> statement.returnGeneratedValues("id"))
+                .map(row -> row.get("id", Long.class))
+                .one();
+    }
+
+    @Override
+    public Flux<Author> findAll(String afterName, long afterId, int limit) {
+        if (afterName == null) {
+            var sql = "SELECT id, name, birthdate FROM authors ORDER BY name, id LIMIT :limit";
+            return client.sql(sql).bind("limit", limit).map(R2dbcRows::author).all();
+        }
+        var sql = """
+                  SELECT id, name, birthdate FROM authors
+                  WHERE name > :afterName OR (name = :afterName AND id > :afterId)
+                  ORDER BY name, id LIMIT :limit
+                  """;
+        return client.sql(sql)
+                .bind("afterName", afterName)
+                .bind("afterId", afterId)
+                .bind("limit", limit)
+                .map(R2dbcRows::author).all();
+    }
+
+    @Override
+    public Flux<Author> streamAll() {
+        var sql = "SELECT id, name, birthdate FROM authors ORDER BY id";
+        return client.sql(sql).map(R2dbcRows::author).all();
+    }
+}
@@ -0,0 +1,165 @@
+package org.mystudying.booksmarket2.repositories;
+
+
+import org.mystudying.booksmarket2.domain.Book;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@Repository
+@Profile("reactive")
+public class R2dbcBookRepository implements ReactiveBookRepositoryInt {
+    private final DatabaseClient client;
+    private final BookingShards.Sql findBooksByUserId;
+
+    public R2dbcBookRepository(DatabaseClient client, BookingShards shards) {
+        this.client = client;
+        this.findBooksByUserId = shards.sql("""
+                SELECT b.id, b.title, b.year, b.author_id, b.available, b.version
+                FROM books b
+                JOIN {bookings} bk ON b.id = bk.book_id
+                WHERE bk.user_id = :userId
+                ORDER BY b.title
+                """);
+    }
+
+    @Override
+    public Flux<Book> findAll() {
+        var sql = "SELECT id, title, year, author_id, available, version FROM books ORDER BY title";
+        return client.sql(sql).map(R2dbcRows::book).all();
+    }
+
+    @Override
+    public Flux<Book> findByYear(int year) {
+        var sql = "SELECT id, title, year, author_id, available, version FROM books WHERE year = :year ORDER BY title";
+        return client.sql(sql).bind("year", year).map(R2dbcRows::book).all();
+    }
+
+    @Override
+    public Flux<Book> findByAuthorName(String authorName) {
+        var sql = """
+                  SELECT b.id, b.title, b.year, b.author_id, b.available, b.version
+                  FROM books b
+                  JOIN authors a ON b.author_id = a.id
+                  WHERE a.name = :authorName
+                  ORDER BY b.title
+                  """;
+        return client.sql(sql).bind("authorName", authorName).map(R2dbcRows::book).all();
+    }
+
+    @Override
+    public Flux<Book> findByAuthorId(long authorId) {
+        var sql = "SELECT id, title, year, author_id, available, version FROM books WHERE author_id = :authorId ORDER BY title";
+        return client.sql(sql).bind("authorId", authorId).map(R2dbcRows::book).all();
+    }
+
+    @Override
+    public Flux<Book> findByAvailability(boolean available) {
+        var sql = "SELECT id, title, year, author_id, available, version FROM books WHERE available > 0 ORDER BY title";
+        if (!available) {
+            sql = "SELECT id, title, year, author_id, available, version FROM books WHERE available = 0 ORDER BY title";
+        }
+        return client.sql(sql).map(R2dbcRows::book).all();
+    }
+
+    @Override
+    public Mono<Book> findById(long id) {
+        var sql = "SELECT id, title, year, author_id, available, version FROM books WHERE id = :id";
+        return client.sql(sql).bind("id", id).map(R2dbcRows::book).one();
+    }
+
+    @Override
+    public Mono<Book> findByTitle(String title) {
+        var sql = "SELECT id, title, year, author_id, available, version FROM books WHERE title = :title";
+        return client.sql(sql).bind("title", title).map(R2dbcRows::book).one();
+    }
+
+    @Override
+    public Mono<Void> update(Book book) {
+        var sql = """
+                UPDATE books SET title = :title, year = :year, author_id = :authorId, available = :available,
+                version = version + 1 WHERE id = :id
+                """;
+        return client.sql(sql)
+                .bind("title", book.getTitle())
+                .bind("year", book.getYear())
+                .bind("authorId", book.getAuthorId())
+                .bind("available", book.getAvailable())
+                .bind("id", book.getId())
+                .then();
+    }
+
+    @Override
+    public Flux<Book> findBooksByUserId(long userId) {
+        return client.sql(findBooksByUserId.forUser(userId)).bind("userId", userId).map(R2dbcRows::book).all();
+    }
+
+    @Override
+    public Mono<Book> findAndLockById(long id) {
+        var sql = "SELECT id, title, year, author_id, available, version FROM books WHERE id = :id for update";
+        return client.sql(sql).bind("id", id).map(R2dbcRows::book).one();
+    }
+
+    @Override
+    public Flux<Book> findAll(String afterTitle, long afterId, int limit) {
+        if (afterTitle == null) {
+            var sql = "SELECT id, title, year, author_id, available, version FROM books ORDER BY title, id LIMIT :limit";
+            return client.sql(sql).bind("limit", limit).map(R2dbcRows::book).all();
+        }
+        var sql = """
+                  SELECT id, title, year, author_id, available, version FROM books
+                  WHERE title > :afterTitle OR (title = :afterTitle AND id > :afterId)
+                  ORDER BY title, id LIMIT :limit
+                  """;
+        return client.sql(sql)
+                .bind("afterTitle", afterTitle)
+                .bind("afterId", afterId)
+                .bind("limit", limit)
+                .map(R2dbcRows::book).all();
+    }
+
+    @Override
+    public Flux<Book> findByYear(int year, String afterTitle, long afterId, int limit) {
+        if (afterTitle == null) {
+            var sql = "SELECT id, title, year, author_id, available, version FROM books WHERE year = :year ORDER BY title, id LIMIT :limit";
+            return client.sql(sql).bind("year", year).bind("limit", limit).map(R2dbcRows::book).all();
+        }
+        var sql = """
+                  SELECT id, title, year, author_id, available, version FROM books
+                  WHERE year = :year AND (title > :afterTitle OR (title = :afterTitle AND id > :afterId))
+                  ORDER BY title, id LIMIT :limit
+                  """;
+        return client.sql(sql)
+                .bind("year", year)
+                .bind("afterTitle", afterTitle)
+                .bind("afterId", afterId)
+                .bind("limit", limit)
+                .map(R2dbcRows::book).all();
+    }
+
+    @Override
+    public Flux<Book> findByAvailability(boolean available, String afterTitle, long afterId, int limit) {
+        var condition = available ? "available > 0" : "available = 0";
+        if (afterTitle == null) {
+            var sql = "SELECT id, title, year, author_id, available, version FROM books WHERE " + condition
+                    + " ORDER BY title, id LIMIT :limit";
+            return client.sql(sql).bind("limit", limit).map(R2dbcRows::book).all();
+        }
+        var sql = "SELECT id, title, year, author_id, available, version FROM books WHERE " + condition
+                + " AND (title > :afterTitle OR (title = :afterTitle AND id > :afterId))"
+                + " ORDER BY title, id LIMIT :limit";
+        return client.sql(sql)
+                .bind("afterTitle", afterTitle)
+                .bind("afterId", afterId)
+                .bind("limit", limit)
+                .map(R2dbcRows::book).all();
+    }
+
+    @Override
+    public Flux<Book> streamAll() {
+        var sql = "SELECT id, title, year, author_id, available, version FROM books ORDER BY id";
+        return client.sql(sql).map(R2dbcRows::book).all();
+    }
+}
@@ -0,0 +1,112 @@
+package org.mystudying.booksmarket2.repositories;
+
+
+import org.mystudying.booksmarket2.domain.Booking;
+import org.mystudying.booksmarket2.domain.RentalOutcome;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@Repository
+@Profile("reactive")
+public class R2dbcBookingRepository implements ReactiveBookingRepositoryInt {
+    private final DatabaseClient client;
+    private final BookingShards.Sql insert;
+    private final BookingShards.Sql delete;
+    private final BookingShards.Sql find;
+    private final BookingShards.Sql findBookIdsByUserId;
+
+    public R2dbcBookingRepository(DatabaseClient client, BookingShards shards) {
+        this.client = client;
+        this.insert = shards.sql("INSERT INTO {bookings}(user_id, book_id) VALUES (:userId, :bookId)");
+        this.delete = shards.sql("DELETE FROM {bookings} WHERE user_id = :userId AND book_id = :bookId");
+        this.find = shards.sql("SELECT user_id, book_id FROM {bookings} WHERE user_id = :userId AND book_id = :bookId");
+        this.findBookIdsByUserId = shards.sql("SELECT book_id FROM {bookings} WHERE user_id = :userId");
+    }
+
+    @Override
+    public Mono<Void> create(Booking booking) {
+        return client.sql(insert.forUser(booking.getUserId()))
+                .bind("userId", booking.getUserId())
+                .bind("bookId", booking.getBookId())
+                .then();
+    }
+
+    @Override
+    public Mono<Boolean> delete(Booking booking) {
+        return delete(booking.getUserId(), booking.getBookId());
+    }
+
+    private Mono<Boolean> delete(long userId, long bookId) {
+        return client.sql(delete.forUser(userId))
+                .bind("userId", userId)
+                .bind("bookId", bookId)
+                .fetch().rowsUpdated()
+                .map(deleted -> deleted > 0);
+    }
+
+    @Override
+    public Mono<Booking> find(long userId, long bookId) {
+        return client.sql(find.forUser(userId))
+                .bind("userId", userId)
+                .bind("bookId", bookId)
+                .map(row -> new Booking(row.get("user_id", Long.class), row.get("book_id", Long.class)))
+                .one();
+    }
+
+    @Override
+    public Flux<Long> findBookIdsByUserId(long userId) {
+        return client.sql(findBookIdsByUserId.forUser(userId)).bind("userId", userId).map(row -> row.get("book_id", Long.class)).all();
+    }
+
+    @Override
+    public Mono<RentalOutcome> rent(long userId, long bookId) {
+        // the books row lock is taken first and held for the rest of the transaction only
+        var decrement = "UPDATE books SET available = available - 1, version = version + 1 WHERE id = :bookId AND available > 0";
+        return client.sql(decrement).bind("bookId", bookId).fetch().rowsUpdated().flatMap(updated -> {
+            if (updated == 0) {
+                return exists("users", userId).flatMap(userExists -> userExists
+                        ? exists("books", bookId).map(bookExists -> bookExists ? RentalOutcome.NOT_AVAILABLE : RentalOutcome.BOOK_NOT_FOUND)
+                        : Mono.just(RentalOutcome.USER_NOT_FOUND));
+            }
+            return client.sql(insert.forUser(userId)).bind("userId", userId).bind("bookId", bookId)
+                    .then()
+                    .thenReturn(RentalOutcome.RENTED)
+                    .onErrorResume(DataIntegrityViolationException.class, e -> undoChangeOfAvailable(bookId, -1)
+                            // otherwise the book exists, it was just updated: the user reference failed
+                            .thenReturn(e instanceof DuplicateKeyException
+                                    ? RentalOutcome.ALREADY_BORROWED : RentalOutcome.USER_NOT_FOUND));
+        });
+    }
+
+    @Override
+    public Mono<RentalOutcome> returnBook(long userId, long bookId) {
+        // books row first, like rent, so a rent and a return never lock in opposite order
+        var increment = "UPDATE books SET available = available + 1, version = version + 1 WHERE id = :bookId";
+        return client.sql(increment).bind("bookId", bookId).fetch().rowsUpdated().flatMap(updated -> {
+            if (updated == 0) {
+                return exists("users", userId)
+                        .map(userExists -> userExists ? RentalOutcome.BOOK_NOT_FOUND : RentalOutcome.USER_NOT_FOUND);
+            }
+            return delete(userId, bookId).flatMap(deleted -> deleted
+                    ? Mono.just(RentalOutcome.RETURNED)
+                    : undoChangeOfAvailable(bookId, 1).then(exists("users", userId))
+                            .map(userExists -> userExists ? RentalOutcome.NOT_BORROWED : RentalOutcome.USER_NOT_FOUND));
+        });
+    }
+
+    // Reverts this transaction's own change of the row, the version included, like BookingRepository.
+    private Mono<Void> undoChangeOfAvailable(long bookId, int delta) {
+        var sql = "UPDATE books SET available = available - :delta, version = version - 1 WHERE id = :bookId";
+        return client.sql(sql).bind("delta", delta).bind("bookId", bookId).then();
+    }
+
+    private Mono<Boolean> exists(String table, long id) {
+        var sql = "SELECT COUNT(*) AS found FROM " + table + " WHERE id = :id";
+        return client.sql(sql).bind("id", id).map(row -> row.get("found", Long.class) > 0).one();
+    }
+}
@@ -0,0 +1,33 @@
+package org.mystudying.booksmarket2.repositories;
+
+import io.r2dbc.spi.Readable;
+import org.mystudying.booksmarket2.domain.Author;
+import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.domain.User;
+
+import java.time.LocalDate;
+
+/**
+ * Maps R2DBC rows to the domain classes, by the column names the JDBC repositories select.
+ * Like {@link RowMappers}, builds them through the unvalidated {@code load} methods.
+ */
+final class R2dbcRows {
+
+    private R2dbcRows() {
+    }
+
+    static Book book(Readable row) {
+        return Book.load(row.get("id", Long.class), row.get("title", String.class), row.get("year", Integer.class),
+                row.get("author_id", Long.class), row.get("available", Integer.class),
+                row.get("version", Long.class));
+    }
+
+    static User user(Readable row) {
+        return User.load(row.get("id", Long.class), row.get("name", String.class), row.get("email", String.class));
+    }
+
+    static Author author(Readable row) {
+        return Author.load(row.get("id", Long.class), row.get("name", String.class),
+                row.get("birthdate", LocalDate.class));
+    }
+}
@@ -0,0 +1,78 @@
+package org.mystudying.booksmarket2.repositories;
+
+
+import org.mystudying.booksmarket2.domain.User;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@Repository
+@Profile("reactive")
+public class R2dbcUserRepository implements ReactiveUserRepositoryInt {
+    private final DatabaseClient client;
+
+    public R2dbcUserRepository(DatabaseClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public Flux<User> findAll() {
+        var sql = "SELECT id, name, email FROM users ORDER BY name";
+        return client.sql(sql).map(R2dbcRows::user).all();
+    }
+
+    @Override
+    public Mono<User> findById(long id) {
+        var sql = "SELECT id, name, email FROM users WHERE id = :id";
+        return client.sql(sql).bind("id", id).map(R2dbcRows::user).one();
+    }
+
+    @Override
+    public Mono<User> findByName(String name) {
+        var sql = "SELECT id, name, email FROM users WHERE name = :name";
+        return client.sql(sql).bind("name", name).map(R2dbcRows::user).one();
+    }
+
+    @Override
+    public Mono<User> findByEmail(String email) {
+        var sql = "SELECT id, name, email FROM users WHERE email = :email";
+        return client.sql(sql).bind("email", email).map(R2dbcRows::user).one();
+    }
+
+    @Override
+    public Mono<Long> create(User user) {
+        var sql = "INSERT INTO users(name, email) VALUES (:name, :email)";
+        return client.sql(sql)
+                .bind("name", user.getName())
+                .bind("email", user.getEmail())
+                .filter(statement -> statement.returnGeneratedValues("id"))
+                .map(row -> row.get("id", Long.class))
+                .one();
+    }
+
+    @Override
+    public Flux<User> findAll(String afterName, long afterId, int limit) {
+        if (afterName == null) {
+            var sql = "SELECT id, name, email FROM users ORDER BY name, id LIMIT :limit";
+            return client.sql(sql).bind("limit", limit).map(R2dbcRows::user).all();
+        }
+        var sql = """
+                  SELECT id, name, email FROM users
+                  WHERE name > :afterName OR (name = :afterName AND id > :afterId)
+                  ORDER BY name, id LIMIT :limit
+                  """;
+        return client.sql(sql)
+                .bind("afterName", afterName)
+                .bind("afterId", afterId)
+                .bind("limit", limit)
+                .map(R2dbcRows::user).all();
+    }
+
+    @Override
+    public Flux<User> streamAll() {
+        var sql = "SELECT id, name, email FROM users ORDER BY id";
+        return client.sql(sql).map(R2dbcRows::user).all();
+    }
+}
@@ -0,0 +1,21 @@
+package org.mystudying.booksmarket2.repositories;
+
+import org.mystudying.booksmarket2.domain.Author;
+import org.mystudying.booksmarket2.domain.AuthorBooks;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Non-blocking counterpart of AuthorRepositoryInt.
+public interface ReactiveAuthorRepositoryInt {
+    Flux<Author> findAll();
+    Mono<Author> findById(long id);
+    Mono<Author> findByName(String name);
+    // The author and their books (ordered by title) in one query; empty if the author does not exist.
+    Mono<AuthorBooks> findWithBooksById(long id);
+    Mono<Long> create(Author author);
+
+    // Keyset pagination ordered by (name, id): null afterName for the first page.
+    Flux<Author> findAll(String afterName, long afterId, int limit);
+    // All authors ordered by id.
+    Flux<Author> streamAll();
+}
@@ -0,0 +1,29 @@
+package org.mystudying.booksmarket2.repositories;
+
+
+import org.mystudying.booksmarket2.domain.Book;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Non-blocking counterpart of BookRepositoryInt; a Flux emits rows as the subscriber requests them.
+public interface ReactiveBookRepositoryInt {
+    Flux<Book> findAll();
+    Flux<Book> findByYear(int year);
+    Flux<Book> findByAuthorName(String authorName);
+    Flux<Book> findByAuthorId(long authorId);
+    Flux<Book> findByAvailability(boolean available);
+    Mono<Book> findById(long id);
+    Mono<Book> findByTitle(String title);
+    Mono<Void> update(Book book);
+    Flux<Book> findBooksByUserId(long userId);
+
+    Mono<Book> findAndLockById(long id);
+
+    // Keyset pagination ordered by (title, id): pass null as afterTitle for the first page.
+    Flux<Book> findAll(String afterTitle, long afterId, int limit);
+    Flux<Book> findByYear(int year, String afterTitle, long afterId, int limit);
+    Flux<Book> findByAvailability(boolean available, String afterTitle, long afterId, int limit);
+
+    // The whole catalog ordered by id, for consumers that read it at their own pace.
+    Flux<Book> streamAll();
+}
@@ -0,0 +1,19 @@
+package org.mystudying.booksmarket2.repositories;
+
+import org.mystudying.booksmarket2.domain.Booking;
+import org.mystudying.booksmarket2.domain.RentalOutcome;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Non-blocking counterpart of BookingRepositoryInt.
+public interface ReactiveBookingRepositoryInt {
+    Mono<Void> create(Booking booking);
+    Mono<Boolean> delete(Booking booking);
+    Mono<Booking> find(long userId, long bookId);
+    // Unordered: a primary key range read, without joining books.
+    Flux<Long> findBookIdsByUserId(long userId);
+
+    // Same statements as BookingRepositoryInt.rent/returnBook; subscribe inside a reactive transaction.
+    Mono<RentalOutcome> rent(long userId, long bookId);
+    Mono<RentalOutcome> returnBook(long userId, long bookId);
+}
@@ -0,0 +1,20 @@
+package org.mystudying.booksmarket2.repositories;
+
+
+import org.mystudying.booksmarket2.domain.User;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Non-blocking counterpart of UserRepositoryInt.
+public interface ReactiveUserRepositoryInt {
+    Flux<User> findAll();
+    Mono<User> findById(long id);
+    Mono<User> findByName(String name);
+    Mono<User> findByEmail(String email);
+    Mono<Long> create(User user);
+
+    // Keyset pagination ordered by (name, id): null afterName for the first page.
+    Flux<User> findAll(String afterName, long afterId, int limit);
+    // All users ordered by id.
+    Flux<User> streamAll();
+}
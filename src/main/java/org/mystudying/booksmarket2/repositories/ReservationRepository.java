@@ -0,0 +1,70 @@
+package org.mystudying.booksmarket2.repositories;
+
+import org.mystudying.booksmarket2.domain.Reservation;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public class ReservationRepository implements ReservationRepositoryInt {
+    private final JdbcClient jdbcClient;
+
+    public ReservationRepository(JdbcClient jdbcClient) {
+        this.jdbcClient = jdbcClient;
+    }
+
+    @Override
+    public long create(Reservation reservation) {
+        var sql = "INSERT INTO reservations(user_id, book_id) VALUES (?, ?)";
+        var keyHolder = new GeneratedKeyHolder();
+        jdbcClient.sql(sql)
+                .params(reservation.getUserId(), reservation.getBookId())
+                .update(keyHolder);
+        return keyHolder.getKey().longValue();
+    }
+
+    @Override
+    public boolean delete(long userId, long bookId) {
+        var sql = "DELETE FROM reservations WHERE user_id = ? AND book_id = ?";
+        return jdbcClient.sql(sql).params(userId, bookId).update() > 0;
+    }
+
+    @Override
+    public Optional<Reservation> findAndLockFirstByBookId(long bookId) {
+        // a locking read sees the latest committed line, not the transaction's snapshot
+        var sql = "SELECT id, user_id, book_id FROM reservations WHERE book_id = ? ORDER BY id LIMIT 1 for update";
+        return jdbcClient.sql(sql)
+                .param(bookId)
+                .query(RowMappers.RESERVATION)
+                .optional();
+    }
+
+    @Override
+    public List<Reservation> findByBookId(long bookId) {
+        var sql = "SELECT id, user_id, book_id FROM reservations WHERE book_id = ? ORDER BY id";
+        return jdbcClient.sql(sql)
+                .param(bookId)
+                .query(RowMappers.RESERVATION)
+                .list();
+    }
+
+    @Override
+    public List<Reservation> findByUserId(long userId) {
+        var sql = "SELECT id, user_id, book_id FROM reservations WHERE user_id = ? ORDER BY book_id";
+        return jdbcClient.sql(sql)
+                .param(userId)
+                .query(RowMappers.RESERVATION)
+                .list();
+    }
+
+    @Override
+    public List<Reservation> findAll() {
+        var sql = "SELECT id, user_id, book_id FROM reservations ORDER BY book_id, id";
+        return jdbcClient.sql(sql)
+                .query(RowMappers.RESERVATION)
+                .list();
+    }
+}
@@ -0,0 +1,20 @@
+package org.mystudying.booksmarket2.repositories;
+
+import org.mystudying.booksmarket2.domain.Reservation;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface ReservationRepositoryInt {
+    // The id of the reservation is ignored; returns the new one. A second reservation of the same book
+    // by the same user throws DuplicateKeyException.
+    long create(Reservation reservation);
+    boolean delete(long userId, long bookId);
+    // The reservation first in line for the book, locked for the rest of the transaction.
+    Optional<Reservation> findAndLockFirstByBookId(long bookId);
+    // In line order.
+    List<Reservation> findByBookId(long bookId);
+    List<Reservation> findByUserId(long userId);
+    // Every waitlist, each in line order.
+    List<Reservation> findAll();
+}
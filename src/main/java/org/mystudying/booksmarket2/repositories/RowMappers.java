@@ -0,0 +1,34 @@
+package org.mystudying.booksmarket2.repositories;
+
+import org.mystudying.booksmarket2.domain.Author;
+import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.domain.Booking;
+import org.mystudying.booksmarket2.domain.Reservation;
+import org.mystudying.booksmarket2.domain.User;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.time.LocalDate;
+
+/**
+ * Maps rows by column index, in the order the repositories select the columns:
+ * {@code id, title, year, author_id, available, version} for books, {@code id, name, email} for users,
+ * {@code id, name, birthdate} for authors, {@code user_id, book_id} for bookings and
+ * {@code id, user_id, book_id} for reservations.
+ * <p>
+ * {@code query(Book.class)} would look up the constructor and the column names, and convert every value
+ * reflectively, for each row; these read the columns directly and build the objects through the
+ * domain classes' trusted {@code load} methods.
+ */
+final class RowMappers {
+    static final RowMapper<Book> BOOK = (rs, rowNum) ->
+            Book.load(rs.getLong(1), rs.getString(2), rs.getInt(3), rs.getLong(4), rs.getInt(5), rs.getLong(6));
+    static final RowMapper<User> USER = (rs, rowNum) -> User.load(rs.getLong(1), rs.getString(2), rs.getString(3));
+    static final RowMapper<Author> AUTHOR = (rs, rowNum) ->
+            Author.load(rs.getLong(1), rs.getString(2), rs.getObject(3, LocalDate.class));
+    static final RowMapper<Booking> BOOKING = (rs, rowNum) -> new Booking(rs.getLong(1), rs.getLong(2));
+    static final RowMapper<Reservation> RESERVATION = (rs, rowNum) ->
+            new Reservation(rs.getLong(1), rs.getLong(2), rs.getLong(3));
+
+    private RowMappers() {
+    }
+}
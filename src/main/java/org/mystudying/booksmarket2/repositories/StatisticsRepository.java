@@ -0,0 +1,97 @@
+package org.mystudying.booksmarket2.repositories;
+
+import org.mystudying.booksmarket2.domain.CatalogTotals;
+import org.mystudying.booksmarket2.domain.Tally;
+import org.mystudying.booksmarket2.domain.YearAvailability;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Every statistic is one statement that groups and counts in the database, so only the page of results
+ * crosses the wire. Loans are counted on each bookings shard and the per-shard counts combined: a user's
+ * loans are all on one shard, the loans of a book may be on several.
+ */
+@Repository
+public class StatisticsRepository implements StatisticsRepositoryInt {
+    private static final RowMapper<Tally> TALLY = (rs, rowNum) -> new Tally(rs.getLong(1), rs.getString(2), rs.getLong(3));
+    private static final RowMapper<YearAvailability> YEAR_AVAILABILITY = (rs, rowNum) ->
+            new YearAvailability(rs.getInt(1), rs.getLong(2), rs.getLong(3), rs.getLong(4));
+    // appended after the grouping: the rows past the last tally of the previous page, in (count desc, id) order
+    private static final String AFTER_TALLY = " WHERE total < :afterCount OR (total = :afterCount AND id > :afterId)";
+
+    private final JdbcClient jdbcClient;
+    private final BookingShards shards;
+
+    public StatisticsRepository(JdbcClient jdbcClient, BookingShards shards) {
+        this.jdbcClient = jdbcClient;
+        this.shards = shards;
+    }
+
+    @Override
+    public List<Tally> booksPerAuthor(Tally after, int limit) {
+        var counts = """
+                SELECT a.id, a.name, COUNT(*) AS total FROM authors a JOIN books b ON b.author_id = a.id
+                GROUP BY a.id, a.name
+                """;
+        return ranking(counts, after, limit);
+    }
+
+    @Override
+    public List<Tally> loansPerUser(Tally after, int limit) {
+        var perShard = shards.sql("SELECT user_id, COUNT(*) AS total FROM {bookings} GROUP BY user_id").unionAll();
+        var counts = "SELECT u.id, u.name, l.total FROM (" + perShard + ") l JOIN users u ON u.id = l.user_id";
+        return ranking(counts, after, limit);
+    }
+
+    @Override
+    public List<Tally> mostBorrowedBooks(Tally after, int limit) {
+        var perShard = shards.sql("SELECT book_id, COUNT(*) AS total FROM {bookings} GROUP BY book_id").unionAll();
+        var counts = """
+                SELECT b.id, b.title AS name, l.total
+                FROM (SELECT book_id, SUM(total) AS total FROM (%s) s GROUP BY book_id) l
+                JOIN books b ON b.id = l.book_id
+                """.formatted(perShard);
+        return ranking(counts, after, limit);
+    }
+
+    private List<Tally> ranking(String counts, Tally after, int limit) {
+        var sql = "SELECT id, name, total FROM (" + counts + ") t"
+                + (after == null ? "" : AFTER_TALLY)
+                + " ORDER BY total DESC, id LIMIT :limit";
+        return jdbcClient.sql(sql)
+                .param("afterCount", after == null ? 0 : after.count())
+                .param("afterId", after == null ? 0 : after.id())
+                .param("limit", limit)
+                .query(TALLY).list();
+    }
+
+    @Override
+    public List<YearAvailability> availabilityPerYear(YearAvailability after, int limit) {
+        var sql = """
+                SELECT year, COUNT(*), COALESCE(SUM(available), 0), SUM(CASE WHEN available = 0 THEN 1 ELSE 0 END)
+                FROM books %s GROUP BY year ORDER BY year DESC LIMIT :limit
+                """.formatted(after == null ? "" : "WHERE year < :afterYear");
+        return jdbcClient.sql(sql)
+                .param("afterYear", after == null ? 0 : after.year())
+                .param("limit", limit)
+                .query(YEAR_AVAILABILITY).list();
+    }
+
+    @Override
+    public CatalogTotals totals() {
+        var loans = shards.sql("(SELECT COUNT(*) FROM {bookings})").perShard().stream()
+                .collect(Collectors.joining(" + "));
+        var sql = """
+                SELECT (SELECT COUNT(*) FROM authors), (SELECT COUNT(*) FROM books), (SELECT COUNT(*) FROM users),
+                %s, (SELECT COALESCE(SUM(available), 0) FROM books)
+                """.formatted(loans);
+        return jdbcClient.sql(sql)
+                .query((rs, rowNum) -> new CatalogTotals(rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getLong(4),
+                        rs.getLong(5)))
+                .single();
+    }
+}
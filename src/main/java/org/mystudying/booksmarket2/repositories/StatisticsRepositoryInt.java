@@ -0,0 +1,21 @@
+package org.mystudying.booksmarket2.repositories;
+
+import org.mystudying.booksmarket2.domain.CatalogTotals;
+import org.mystudying.booksmarket2.domain.Tally;
+import org.mystudying.booksmarket2.domain.YearAvailability;
+
+import java.util.List;
+
+// Aggregates over the whole catalog, computed by the database. The rankings are keyset paged by
+// (count descending, id): null after for the first page, else the last tally of the previous page.
+public interface StatisticsRepositoryInt {
+    // Authors with at least one book.
+    List<Tally> booksPerAuthor(Tally after, int limit);
+    // Users with at least one book on loan.
+    List<Tally> loansPerUser(Tally after, int limit);
+    // Books with at least one copy on loan, by the copies on loan.
+    List<Tally> mostBorrowedBooks(Tally after, int limit);
+    // Newest year first: null after for the first page.
+    List<YearAvailability> availabilityPerYear(YearAvailability after, int limit);
+    CatalogTotals totals();
+}
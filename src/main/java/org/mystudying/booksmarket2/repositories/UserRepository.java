@@ -2,43 +2,49 @@ package org.mystudying.booksmarket2.repositories;
 
 
 import org.mystudying.booksmarket2.domain.User;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.simple.JdbcClient;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.stereotype.Repository;
 
+import javax.sql.DataSource;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public class UserRepository implements UserRepositoryInt {
     private final JdbcClient jdbcClient;
+    private final JdbcClient cursorClient;
 
-    public UserRepository(JdbcClient jdbcClient) {
+    public UserRepository(JdbcClient jdbcClient, DataSource dataSource,
+                          @Value("${booksmarket.jdbc.cursor-fetch-size:1000}") int cursorFetchSize) {
         this.jdbcClient = jdbcClient;
+        this.cursorClient = CursorClients.create(dataSource, cursorFetchSize);
     }
 
     @Override
     public List<User> findAll() {
         var sql = "SELECT id, name, email FROM users ORDER BY name";
-        return jdbcClient.sql(sql).query(User.class).list();
+        return jdbcClient.sql(sql).query(RowMappers.USER).list();
     }
 
     @Override
     public Optional<User> findById(long id) {
         var sql = "SELECT id, name, email FROM users WHERE id = ?";
-        return jdbcClient.sql(sql).param(id).query(User.class).optional();
+        return jdbcClient.sql(sql).param(id).query(RowMappers.USER).optional();
     }
 
     @Override
     public Optional<User> findByName(String name) {
         var sql = "SELECT id, name, email FROM users WHERE name = ?";
-        return jdbcClient.sql(sql).param(name).query(User.class).optional();
+        return jdbcClient.sql(sql).param(name).query(RowMappers.USER).optional();
     }
 
     @Override
     public Optional<User> findByEmail(String email) {
         var sql = "SELECT id, name, email FROM users WHERE email = ?";
-        return jdbcClient.sql(sql).param(email).query(User.class).optional();
+        return jdbcClient.sql(sql).param(email).query(RowMappers.USER).optional();
     }
 
     @Override
@@ -50,4 +56,27 @@ public class UserRepository implements UserRepositoryInt {
                 .update(keyHolder);
         return keyHolder.getKey().longValue();
     }
+
+    @Override
+    public List<User> findAll(String afterName, long afterId, int limit) {
+        var sql = "SELECT id, name, email FROM users ORDER BY name, id LIMIT :limit";
+        if (afterName != null) {
+            sql = """
+                  SELECT id, name, email FROM users
+                  WHERE name > :afterName OR (name = :afterName AND id > :afterId)
+                  ORDER BY name, id LIMIT :limit
+                  """;
+        }
+        return jdbcClient.sql(sql)
+                .param("afterName", afterName)
+                .param("afterId", afterId)
+                .param("limit", limit)
+                .query(RowMappers.USER).list();
+    }
+
+    @Override
+    public Stream<User> streamAll() {
+        var sql = "SELECT id, name, email FROM users ORDER BY id";
+        return cursorClient.sql(sql).query(RowMappers.USER).stream();
+    }
 }
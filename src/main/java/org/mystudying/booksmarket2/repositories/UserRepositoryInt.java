@@ -5,6 +5,7 @@ import org.mystudying.booksmarket2.domain.User;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface UserRepositoryInt {
     List<User> findAll();
@@ -12,4 +13,9 @@ public interface UserRepositoryInt {
     Optional<User> findByName(String name);
     Optional<User> findByEmail(String email);
     long create(User user);
+
+    // Keyset pagination ordered by (name, id): null afterName for the first page.
+    List<User> findAll(String afterName, long afterId, int limit);
+    // Forward-only cursor ordered by id; the caller must close the stream.
+    Stream<User> streamAll();
 }
@@ -0,0 +1,177 @@
+package org.mystudying.booksmarket2.search;
+
+import org.mystudying.booksmarket2.cache.EntityCache;
+import org.mystudying.booksmarket2.domain.Author;
+import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.repositories.AuthorRepositoryInt;
+import org.mystudying.booksmarket2.repositories.BookRepositoryInt;
+import org.mystudying.booksmarket2.replicas.Replicas;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+/**
+ * Search over book titles and author names, in memory (see {@link TextIndex} for the matching and ranking).
+ * <p>
+ * Each index is built on its first search, from a cursor over the whole table inside the caller's
+ * transaction, and kept up to date afterwards by the writers, which report the rows they insert and the
+ * titles they change.
+ * Like the entity caches, an index only learns about a row once the transaction that wrote it has committed.
+ * Rows written while an index is being built are applied once the build is done, so none is lost.
+ * The build reads from the primary, as a replica may lack rows committed before it began; a build that still
+ * ran on a replica, because its transaction had one already, serves only its own search and is done again.
+ */
+@Component
+public class CatalogSearch {
+    private final Index<Book> titles;
+    private final Index<Author> authorNames;
+
+    public CatalogSearch(BookRepositoryInt bookRepository, AuthorRepositoryInt authorRepository) {
+        this.titles = new Index<>(bookRepository::streamAll, Book::getId, Book::getTitle);
+        this.authorNames = new Index<>(authorRepository::streamAll, Author::getId, Author::getName);
+    }
+
+    /** Ids of the books whose titles match best, best first. */
+    public List<Long> searchBooks(String query, int offset, int limit) {
+        return titles.get().search(query, offset, limit);
+    }
+
+    /** Ids of the authors whose names match best, best first. */
+    public List<Long> searchAuthors(String query, int offset, int limit) {
+        return authorNames.get().search(query, offset, limit);
+    }
+
+    /** The rows in the order of the ids; ids without a row are left out. */
+    public static <T> List<T> inOrder(List<Long> ids, List<T> rows, ToLongFunction<T> id) {
+        var byId = new HashMap<Long, T>();
+        rows.forEach(row -> byId.put(id.applyAsLong(row), row));
+        var ordered = new ArrayList<T>(ids.size());
+        for (var rowId : ids) {
+            var row = byId.get(rowId);
+            if (row != null) {
+                ordered.add(row);
+            }
+        }
+        return ordered;
+    }
+
+    /** Adds books by id and title once the current transaction commits. */
+    public void booksAdded(Map<Long, String> titlesById) {
+        afterCommit(() -> titlesById.forEach(titles::put));
+    }
+
+    /** Replaces the title of an edited book once the current transaction commits. */
+    public void bookRetitled(long id, String title) {
+        afterCommit(() -> titles.put(id, title));
+    }
+
+    /** Adds authors by id and name once the current transaction commits. */
+    public void authorsAdded(Map<Long, String> namesById) {
+        afterCommit(() -> namesById.forEach(authorNames::put));
+    }
+
+    private static void afterCommit(Runnable change) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        change.run();
+                    }
+                }
+            });
+        } else {
+            change.run();
+        }
+    }
+
+    private static final class Index<T> {
+        private final Supplier<Stream<T>> rows;
+        private final ToLongFunction<T> id;
+        private final Function<T, String> text;
+        // held for a whole build, so that concurrent first searches wait for one build
+        private final ReentrantLock buildLock = new ReentrantLock();
+        // guards index and pending
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile TextIndex index;
+        private List<Consumer<TextIndex>> pending;
+
+        Index(Supplier<Stream<T>> rows, ToLongFunction<T> id, Function<T, String> text) {
+            this.rows = rows;
+            this.id = id;
+            this.text = text;
+        }
+
+        TextIndex get() {
+            var built = index;
+            if (built != null) {
+                return built;
+            }
+            buildLock.lock();
+            try {
+                if (index != null) {
+                    return index;
+                }
+                lock.lock();
+                try {
+                    pending = new ArrayList<>();
+                } finally {
+                    lock.unlock();
+                }
+                var fresh = new TextIndex();
+                Replicas.readFromPrimary();
+                try (var all = rows.get()) {
+                    all.forEach(row -> fresh.put(id.applyAsLong(row), text.apply(row)));
+                } catch (RuntimeException e) {
+                    lock.lock();
+                    try {
+                        pending = null;
+                    } finally {
+                        lock.unlock();
+                    }
+                    throw e;
+                }
+                lock.lock();
+                try {
+                    // rows the build read already are put again with the same text, which changes nothing
+                    pending.forEach(change -> change.accept(fresh));
+                    pending = null;
+                    // a replica may lack rows committed before the build began, which nobody reports again
+                    if (!EntityCache.loadsOfCurrentTransactionSkipped()) {
+                        index = fresh;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                return fresh;
+            } finally {
+                buildLock.unlock();
+            }
+        }
+
+        void put(long rowId, String rowText) {
+            lock.lock();
+            try {
+                if (index != null) {
+                    index.put(rowId, rowText);
+                } else if (pending != null) {
+                    pending.add(built -> built.put(rowId, rowText));
+                }
+                // not built and not building: the build will read the row
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
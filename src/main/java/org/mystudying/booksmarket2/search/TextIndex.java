@@ -0,0 +1,380 @@
+package org.mystudying.booksmarket2.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An inverted index over short texts such as titles and names, each stored under the id of its row.
+ * <p>
+ * A text is split into lower case terms of letters and digits, without accents. Every query term must match
+ * a term of the text: exactly, as the start of a longer term (shortest completions first, at most
+ * {@value #MAX_COMPLETIONS} of them), or, for words of {@value #MIN_TYPO_LENGTH} letters or more, with one typo
+ * ({@value #MIN_TWO_TYPOS_LENGTH} letters or more: two); numbers are not guessed at. Matches score in that order,
+ * a completion the less the more it adds, weighted by how rare the query term is; texts that start with the
+ * query's first term score higher, and shorter texts win ties. Candidates come from the posting lists of the
+ * most selective query term only, and the other terms are checked against each candidate's own terms.
+ * <p>
+ * Searches run in parallel under a read lock; {@link #put} takes the write lock.
+ */
+final class TextIndex {
+    static final int MAX_COMPLETIONS = 64;
+    static final int MIN_TYPO_LENGTH = 4;
+    static final int MIN_TWO_TYPOS_LENGTH = 8;
+    private static final double EXACT = 1.0;
+    private static final double PREFIX = 0.7;
+    private static final double ONE_TYPO = 0.5;
+    private static final double TWO_TYPOS = 0.3;
+    private static final double LEADING_BOOST = 1.1;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Vocabulary vocabulary = new Vocabulary();
+    private final IdOrdinals ordinals = new IdOrdinals();
+    // by term number: the ordinals of the texts containing the term, ascending; may hold replaced texts
+    private int[][] postings = new int[1024][];
+    private int[] postingSizes = new int[1024];
+    private int[] frequencies = new int[1024];
+    // by ordinal: the id, the terms of each text in text order (null once replaced) and their number
+    private long[] ids = new long[1024];
+    private int[][] texts = new int[1024][];
+    private int[] lengths = new int[1024];
+    private int ordinalCount;
+    private int size;
+
+    /** Adds the text under the id, replacing the text the id had. */
+    void put(long id, String text) {
+        var terms = tokens(text);
+        lock.writeLock().lock();
+        try {
+            int previous = ordinals.get(id);
+            var termNumbers = new int[terms.size()];
+            for (int i = 0; i < termNumbers.length; i++) {
+                termNumbers[i] = vocabulary.add(terms.get(i));
+            }
+            if (previous >= 0) {
+                if (Arrays.equals(texts[previous], termNumbers)) {
+                    return;
+                }
+                remove(previous);
+            }
+            add(id, termNumbers);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** The number of texts. */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void add(long id, int[] terms) {
+        if (ordinalCount == ids.length) {
+            ids = Arrays.copyOf(ids, ordinalCount * 2);
+            texts = Arrays.copyOf(texts, ordinalCount * 2);
+            lengths = Arrays.copyOf(lengths, ordinalCount * 2);
+        }
+        int ordinal = ordinalCount++;
+        ids[ordinal] = id;
+        texts[ordinal] = terms;
+        lengths[ordinal] = terms.length;
+        ordinals.put(id, ordinal);
+        size++;
+        int vocabularySize = vocabulary.size();
+        if (vocabularySize > postings.length) {
+            int capacity = Math.max(vocabularySize, postings.length * 2);
+            postings = Arrays.copyOf(postings, capacity);
+            postingSizes = Arrays.copyOf(postingSizes, capacity);
+            frequencies = Arrays.copyOf(frequencies, capacity);
+        }
+        for (int i = 0; i < terms.length; i++) {
+            int term = terms[i];
+            if (indexOf(terms, term) < i) {
+                continue; // a term repeated in the text is posted once
+            }
+            var posting = postings[term];
+            if (posting == null) {
+                posting = postings[term] = new int[2];
+            } else if (postingSizes[term] == posting.length) {
+                posting = postings[term] = Arrays.copyOf(posting, posting.length * 2);
+            }
+            posting[postingSizes[term]++] = ordinal;
+            frequencies[term]++;
+        }
+    }
+
+    private void remove(int ordinal) {
+        var terms = texts[ordinal];
+        for (int i = 0; i < terms.length; i++) {
+            if (indexOf(terms, terms[i]) == i) {
+                frequencies[terms[i]]--;
+            }
+        }
+        // the posting lists keep the ordinal; searches skip it
+        texts[ordinal] = null;
+        size--;
+    }
+
+    private static int indexOf(int[] terms, int term) {
+        for (int i = 0; i < terms.length; i++) {
+            if (terms[i] == term) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The terms of a query token, with the weight of matching each, sorted by term for binary search;
+     * the weights include the rarity of the token, from the number of texts its terms are posted for.
+     */
+    private record Matches(int[] terms, double[] weights, long postings) {
+
+        double weight(int term) {
+            int i = Arrays.binarySearch(terms, term);
+            return i >= 0 ? weights[i] : 0;
+        }
+
+        double maxWeight() {
+            return Arrays.stream(weights).max().orElse(0);
+        }
+    }
+
+    private record Hit(double score, int length, long id) {
+
+        /** Whether a text with this score at best, this length and this id could rank above the hit. */
+        boolean beatenBy(double bestScore, int length, long id) {
+            if (bestScore != score) {
+                return bestScore > score;
+            }
+            return length != this.length ? length < this.length : id < this.id;
+        }
+    }
+
+    // worst first, so that the head of the bounded queue is the hit to drop
+    private static final Comparator<Hit> WORST_FIRST = Comparator.comparingDouble(Hit::score)
+            .thenComparing(Comparator.comparingInt(Hit::length).reversed())
+            .thenComparing(Comparator.comparingLong(Hit::id).reversed());
+
+    /**
+     * The ids of the best matching texts, best first, skipping the first offset matches.
+     */
+    List<Long> search(String query, int offset, int limit) {
+        if (offset < 0 || limit < 1)
+            throw new IllegalArgumentException("Offset must not be negative and limit must be positive.");
+        var tokens = tokens(query).stream().distinct().toList();
+        if (tokens.isEmpty()) {
+            return List.of();
+        }
+        lock.readLock().lock();
+        try {
+            var matches = new Matches[tokens.size()];
+            int driver = 0;
+            for (int i = 0; i < matches.length; i++) {
+                matches[i] = matches(tokens.get(i));
+                if (matches[i].terms().length == 0) {
+                    return List.of();
+                }
+                if (matches[i].postings() < matches[driver].postings()) {
+                    driver = i;
+                }
+            }
+            int wanted = offset + limit;
+            var best = new PriorityQueue<>(Math.min(wanted, 1024) + 1, WORST_FIRST);
+            // the score of a text that matches every query term in the best way; summed as score() sums
+            double bound = 0;
+            for (var match : matches) {
+                bound += match.maxWeight();
+            }
+            bound *= LEADING_BOOST;
+            // an ordinal is posted once per term, but may be reached through several matched terms
+            var seen = matches[driver].terms().length > 1 ? new BitSet(ordinalCount) : null;
+            for (int term : matches[driver].terms()) {
+                var posting = postings[term];
+                for (int p = 0, end = postingSizes[term]; p < end; p++) {
+                    int ordinal = posting[p];
+                    if (seen != null) {
+                        if (seen.get(ordinal)) {
+                            continue;
+                        }
+                        seen.set(ordinal);
+                    }
+                    // once the queue is full, a text that cannot beat its worst hit is not even looked at,
+                    // which keeps queries matching most of the index from scoring every text
+                    if (best.size() == wanted && !best.peek().beatenBy(bound, lengths[ordinal], ids[ordinal])) {
+                        continue;
+                    }
+                    double score = score(texts[ordinal], matches);
+                    if (score > 0) {
+                        var hit = new Hit(score, lengths[ordinal], ids[ordinal]);
+                        if (best.size() < wanted) {
+                            best.add(hit);
+                        } else if (best.peek().beatenBy(score, hit.length(), hit.id())) {
+                            best.poll();
+                            best.add(hit);
+                        }
+                    }
+                }
+            }
+            var found = new ArrayList<Long>(best.size());
+            while (best.size() > offset) {
+                found.add(best.poll().id());
+            }
+            return found.reversed();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** The sum over the query tokens of their best weighted match in the text; 0 when a token has none. */
+    private double score(int[] text, Matches[] matches) {
+        if (text == null) {
+            return 0; // replaced
+        }
+        double score = 0;
+        for (var match : matches) {
+            double tokenScore = 0;
+            for (int term : text) {
+                tokenScore = Math.max(tokenScore, match.weight(term));
+            }
+            if (tokenScore == 0) {
+                return 0;
+            }
+            score += tokenScore;
+        }
+        return text.length > 0 && matches[0].weight(text[0]) > 0 ? score * LEADING_BOOST : score;
+    }
+
+    private Matches matches(String token) {
+        var weights = new HashMap<Integer, Double>();
+        int exact = vocabulary.find(token);
+        if (exact >= 0) {
+            weights.put(exact, EXACT);
+        }
+        // "lor" is closer to "lord" than to "lorde"
+        vocabulary.completions(token, MAX_COMPLETIONS,
+                (term, length) -> weights.putIfAbsent(term, PREFIX * (0.5 + 0.5 * token.length() / length)));
+        if (token.length() >= MIN_TYPO_LENGTH && !hasDigit(token)) {
+            int maxDistance = token.length() >= MIN_TWO_TYPOS_LENGTH ? 2 : 1;
+            vocabulary.similar(token, maxDistance,
+                    (term, distance) -> weights.merge(term, distance == 1 ? ONE_TYPO : TWO_TYPOS, Math::max));
+        }
+        var terms = new int[weights.size()];
+        int i = 0;
+        for (int term : weights.keySet()) {
+            terms[i++] = term;
+        }
+        Arrays.sort(terms);
+        long postingCount = 0;
+        for (int term : terms) {
+            postingCount += frequencies[term];
+        }
+        double rarity = Math.log(1 + (double) size / Math.max(1, postingCount));
+        var termWeights = new double[terms.length];
+        for (i = 0; i < terms.length; i++) {
+            termWeights[i] = weights.get(terms[i]) * rarity;
+        }
+        return new Matches(terms, termWeights, postingCount);
+    }
+
+    private static boolean hasDigit(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            if (Character.isDigit(token.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** The lower case terms of letters and digits of the text, with accents removed. */
+    static List<String> tokens(String text) {
+        if (text == null) {
+            return List.of();
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 127) {
+                text = Normalizer.normalize(text, Normalizer.Form.NFD);
+                break;
+            }
+        }
+        var tokens = new ArrayList<String>();
+        var token = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                token.append(c);
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK && !token.isEmpty()) {
+                tokens.add(token.toString().toLowerCase(Locale.ROOT));
+                token.setLength(0);
+            }
+        }
+        if (!token.isEmpty()) {
+            tokens.add(token.toString().toLowerCase(Locale.ROOT));
+        }
+        return tokens;
+    }
+
+    /** Ids to ordinals in an open addressing table of primitives, a fraction of the size of a HashMap. */
+    private static final class IdOrdinals {
+        private long[] keys = new long[1024];
+        // ordinal + 1, 0 for a free slot
+        private int[] values = new int[1024];
+        private int count;
+
+        int get(long id) {
+            int mask = keys.length - 1;
+            for (int slot = hash(id) & mask; values[slot] != 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == id) {
+                    return values[slot] - 1;
+                }
+            }
+            return -1;
+        }
+
+        void put(long id, int ordinal) {
+            if (count * 2 >= keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int slot = hash(id) & mask;
+            while (values[slot] != 0 && keys[slot] != id) {
+                slot = (slot + 1) & mask;
+            }
+            if (values[slot] == 0) {
+                count++;
+            }
+            keys[slot] = id;
+            values[slot] = ordinal + 1;
+        }
+
+        private void grow() {
+            var oldKeys = keys;
+            var oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldValues.length * 2];
+            count = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != 0) {
+                    put(oldKeys[i], oldValues[i] - 1);
+                }
+            }
+        }
+
+        private static int hash(long id) {
+            long h = id * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
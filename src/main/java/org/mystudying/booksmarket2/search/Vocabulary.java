@@ -0,0 +1,151 @@
+package org.mystudying.booksmarket2.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The distinct terms of an index in a trie, each numbered in the order it was first added.
+ * Finds a term, the terms that start with a prefix, and the terms within a few typos of a word.
+ * Not thread-safe; {@link TextIndex} guards it.
+ */
+final class Vocabulary {
+    private static final char[] NO_LABELS = {};
+    private static final Node[] NO_CHILDREN = {};
+
+    /** Reports a term found, with its length ({@link #completions}) or its distance ({@link #similar}). */
+    interface TermFound {
+        void accept(int term, int value);
+    }
+
+    private static final class Node {
+        // children sorted by label, for binary search
+        char[] labels = NO_LABELS;
+        Node[] children = NO_CHILDREN;
+        int term = -1;
+
+        Node child(char label) {
+            int i = Arrays.binarySearch(labels, label);
+            return i >= 0 ? children[i] : null;
+        }
+
+        Node addChild(char label) {
+            int i = Arrays.binarySearch(labels, label);
+            if (i >= 0) {
+                return children[i];
+            }
+            int at = -i - 1;
+            var node = new Node();
+            labels = insert(labels, at, label);
+            var grown = new Node[children.length + 1];
+            System.arraycopy(children, 0, grown, 0, at);
+            grown[at] = node;
+            System.arraycopy(children, at, grown, at + 1, children.length - at);
+            children = grown;
+            return node;
+        }
+
+        private static char[] insert(char[] labels, int at, char label) {
+            var grown = new char[labels.length + 1];
+            System.arraycopy(labels, 0, grown, 0, at);
+            grown[at] = label;
+            System.arraycopy(labels, at, grown, at + 1, labels.length - at);
+            return grown;
+        }
+    }
+
+    private final Node root = new Node();
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    /** The number of the term, added when new. */
+    int add(String term) {
+        var node = root;
+        for (int i = 0; i < term.length(); i++) {
+            node = node.addChild(term.charAt(i));
+        }
+        if (node.term < 0) {
+            node.term = size++;
+        }
+        return node.term;
+    }
+
+    /** The number of the term, or -1 when unknown. */
+    int find(String term) {
+        var node = root;
+        for (int i = 0; i < term.length() && node != null; i++) {
+            node = node.child(term.charAt(i));
+        }
+        return node == null ? -1 : node.term;
+    }
+
+    /**
+     * Up to max terms that are longer than the prefix and start with it, shortest first,
+     * so that a short prefix does not expand to the whole vocabulary.
+     */
+    void completions(String prefix, int max, TermFound found) {
+        var node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.child(prefix.charAt(i));
+        }
+        if (node == null) {
+            return;
+        }
+        int count = 0;
+        var level = new ArrayList<>(Arrays.asList(node.children));
+        for (int length = prefix.length() + 1; !level.isEmpty() && count < max; length++) {
+            var next = new ArrayList<Node>();
+            for (int i = 0; i < level.size() && count < max; i++) {
+                var completion = level.get(i);
+                if (completion.term >= 0) {
+                    found.accept(completion.term, length);
+                    count++;
+                }
+                next.addAll(Arrays.asList(completion.children));
+            }
+            level = next;
+        }
+    }
+
+    /**
+     * The terms within maxDistance edits of the word, counting an insertion, a deletion, a substitution and
+     * a swap of two adjacent characters as one edit each (optimal string alignment distance). The trie is walked
+     * with one row of the distance matrix per node, and a branch is left as soon as no cell of its row is
+     * within reach, so the cost depends on the distance rather than on the size of the vocabulary.
+     */
+    void similar(String word, int maxDistance, TermFound found) {
+        var first = new int[word.length() + 1];
+        for (int i = 0; i < first.length; i++) {
+            first[i] = i;
+        }
+        for (int i = 0; i < root.labels.length; i++) {
+            similar(root.children[i], root.labels[i], (char) 0, null, first, word, maxDistance, found);
+        }
+    }
+
+    private static void similar(Node node, char label, char parentLabel, int[] grandparentRow, int[] parentRow,
+                                String word, int maxDistance, TermFound found) {
+        var row = new int[parentRow.length];
+        row[0] = parentRow[0] + 1;
+        int best = row[0];
+        for (int i = 1; i < row.length; i++) {
+            char c = word.charAt(i - 1);
+            int distance = Math.min(Math.min(row[i - 1] + 1, parentRow[i] + 1), parentRow[i - 1] + (c == label ? 0 : 1));
+            if (grandparentRow != null && i > 1 && c == parentLabel && word.charAt(i - 2) == label) {
+                distance = Math.min(distance, grandparentRow[i - 2] + 1);
+            }
+            row[i] = distance;
+            best = Math.min(best, distance);
+        }
+        if (node.term >= 0 && row[row.length - 1] <= maxDistance) {
+            found.accept(node.term, row[row.length - 1]);
+        }
+        if (best <= maxDistance) {
+            for (int i = 0; i < node.labels.length; i++) {
+                similar(node.children[i], node.labels[i], label, parentRow, row, word, maxDistance, found);
+            }
+        }
+    }
+}
@@ -1,49 +1,99 @@
 package org.mystudying.booksmarket2.services;
 
 
+import org.mystudying.booksmarket2.cache.EntityCache;
+import org.mystudying.booksmarket2.cache.EntityCaches;
 import org.mystudying.booksmarket2.domain.Author;
 import org.mystudying.booksmarket2.domain.Book;
 import org.mystudying.booksmarket2.exceptions.AuthorNotFoundException;
+import org.mystudying.booksmarket2.outbox.Outbox;
 import org.mystudying.booksmarket2.repositories.AuthorRepository;
 import org.mystudying.booksmarket2.repositories.BookRepository;
+import org.mystudying.booksmarket2.search.CatalogSearch;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 @Service
 @Transactional(readOnly = true)
 public class AuthorService {
     private final AuthorRepository authorRepository;
     private final BookRepository bookRepository;
+    private final EntityCache<Author> authorCache;
+    private final CatalogSearch catalogSearch;
+    private final Outbox outbox; // null unless booksmarket.outbox.enabled
 
-    public AuthorService(AuthorRepository authorRepository, BookRepository bookRepository) {
+    public AuthorService(AuthorRepository authorRepository, BookRepository bookRepository, EntityCaches caches,
+                         CatalogSearch catalogSearch, Optional<Outbox> outbox) {
         this.authorRepository = authorRepository;
         this.bookRepository = bookRepository;
+        this.authorCache = caches.authors();
+        this.catalogSearch = catalogSearch;
+        this.outbox = outbox.orElse(null);
     }
 
     public List<Author> findAll() {
         return authorRepository.findAll();
     }
 
+    public List<Author> findAll(String afterName, long afterId, int limit) {
+        if (limit < 1)
+            throw new IllegalArgumentException("Page size must be positive.");
+        return authorRepository.findAll(afterName, afterId, limit);
+    }
+
+    // Like BookService.streamAll: the authors are read through a cursor that is closed when the callback returns.
+    public <R> R streamAll(Function<Stream<Author>, R> action) {
+        try (var authors = authorRepository.streamAll()) {
+            return action.apply(authors);
+        }
+    }
+
     public Optional<Author> findById(long id) {
-        return authorRepository.findById(id);
+        return authorCache.get(id, authorRepository::findById);
     }
 
     public Optional<Author> findByName(String name) {
-        return authorRepository.findByName(name);
+        return authorCache.getBy(EntityCaches.NAME, name, authorRepository::findByName);
+    }
+
+    // Like BookService.search, over author names.
+    public List<Author> search(String query, int limit) {
+        return search(query, 0, limit);
+    }
+
+    public List<Author> search(String query, int offset, int limit) {
+        var ids = catalogSearch.searchAuthors(query, offset, limit);
+        return CatalogSearch.inOrder(ids, authorRepository.findByIds(ids), Author::getId);
     }
 
+    // A cached author only needs the books; otherwise one query checks the author and returns them.
     public List<Book> findBooksByAuthor(long authorId) {
-        var author = authorRepository.findById(authorId).orElseThrow(() -> new AuthorNotFoundException(authorId));
-        return bookRepository.findByAuthorName(author.getName());
+        if (authorCache.getIfPresent(authorId).isPresent()) {
+            return bookRepository.findByAuthorId(authorId);
+        }
+        return authorRepository.findWithBooksById(authorId)
+                .orElseThrow(() -> new AuthorNotFoundException(authorId))
+                .getBooks();
     }
 
     @Transactional
     public long create(String name, LocalDate birthdate) {
         Author author = new Author(1, name, birthdate);
-        return authorRepository.create(author);
+        long id = authorRepository.create(author);
+        // drops a cached author that the name pointed to before
+        var created = new Author(id, name, birthdate);
+        authorCache.invalidate(created);
+        catalogSearch.authorsAdded(Map.of(id, name));
+        if (outbox != null) {
+            outbox.authorCreated(created);
+        }
+        return id;
     }
 }
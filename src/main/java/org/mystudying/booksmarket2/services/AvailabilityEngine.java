@@ -0,0 +1,315 @@
+package org.mystudying.booksmarket2.services;
+
+import jakarta.annotation.PreDestroy;
+import org.mystudying.booksmarket2.exceptions.BookNotFoundException;
+import org.mystudying.booksmarket2.repositories.BookRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory admission control for renting: keeps the available copies of every book in an atomic
+ * counter, so renters of the same book compete on a CAS instead of the books row lock.
+ * <p>
+ * Counters are loaded from books.available on first use. Committed rentals and returns are collected
+ * per book and written back in one batch every flush interval. Each counter remembers what it last saw
+ * in books.available; {@link #reconcile} adds whatever else changed the column (an edit of the book) to the
+ * counter in place, so the column always wins without losing changes not yet written. A change the column
+ * refuses, or one whose transaction rolls back, is kept for the next flush, which first reconciles the books
+ * whose column refused a change.
+ * With the write-behind journal the journal writes books.available along with the bookings through
+ * {@link #writeJournaled}, so the engine only writes back the changes the column refused.
+ * Single instance only: see booksmarket.availability-engine.enabled in application.properties.
+ */
+@Component
+@ConditionalOnProperty(name = "booksmarket.availability-engine.enabled", havingValue = "true")
+public class AvailabilityEngine {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AvailabilityEngine.class);
+
+    private final BookRepository bookRepository;
+    private final ConcurrentHashMap<Long, Counter> counters = new ConcurrentHashMap<>();
+    // books whose column refused a change, reconciled by the next flush
+    private final Set<Long> refusedBooks = ConcurrentHashMap.newKeySet();
+    private final boolean journaled;
+
+    public AvailabilityEngine(BookRepository bookRepository) {
+        this(bookRepository, false);
+    }
+
+    @Autowired
+    public AvailabilityEngine(BookRepository bookRepository,
+                              @Value("${booksmarket.write-behind.enabled:false}") boolean journaled) {
+        this.bookRepository = bookRepository;
+        this.journaled = journaled;
+    }
+
+    /**
+     * Takes one copy of the book for the current transaction. The copy is written back as rented when
+     * the transaction commits and given back to the counter when it rolls back.
+     *
+     * @return false when no copy is available
+     */
+    public boolean acquire(long bookId) {
+        var counter = counter(bookId);
+        if (!counter.tryDecrement()) {
+            return false;
+        }
+        afterCompletion(committed -> {
+            if (committed) {
+                if (!journaled) {
+                    counter.pending.decrementAndGet();
+                }
+            } else {
+                counter.available.incrementAndGet();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Puts one copy of the book back once the current transaction commits.
+     */
+    public void release(long bookId) {
+        var counter = counter(bookId);
+        afterCompletion(committed -> {
+            if (committed) {
+                counter.available.incrementAndGet();
+                if (!journaled) {
+                    counter.pending.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds copies to the counter alone, undoing a committed rental (1) or return (-1) the engine admitted whose
+     * change will never reach books.available, as the write-behind journal lost it.
+     */
+    public void undoAdmitted(long bookId, int copies) {
+        var counter = counters.get(bookId);
+        // no counter: the next one is loaded from the column
+        if (counter != null) {
+            counter.available.addAndGet(copies);
+        }
+    }
+
+    public int available(long bookId) {
+        return counter(bookId).available.get();
+    }
+
+    @Scheduled(fixedDelayString = "${booksmarket.availability-engine.flush-interval-ms:200}")
+    @Transactional
+    public void flush() {
+        // here rather than when the refusing transaction completes, where a read may see no committed data
+        for (var refused = refusedBooks.iterator(); refused.hasNext(); ) {
+            long bookId = refused.next();
+            refused.remove();
+            reconcile(bookId);
+        }
+        var bookIds = new TreeSet<Long>();
+        counters.forEach((bookId, counter) -> {
+            if (counter.pending.get() != 0) {
+                bookIds.add(bookId);
+            }
+        });
+        if (bookIds.isEmpty()) {
+            return;
+        }
+        var guarded = guard(bookIds);
+        var deltas = new HashMap<Long, Integer>();
+        guarded.forEach((bookId, counter) -> {
+            int delta = counter.pending.getAndSet(0);
+            if (delta != 0) {
+                deltas.put(bookId, delta);
+            }
+        });
+        write(guarded, deltas, true);
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+    /**
+     * Writes the changes of applied journal entries to books.available, keeping the counters in step.
+     * Must run inside the transaction that applies the entries; when it rolls back the entries are applied again,
+     * so nothing is kept here.
+     *
+     * @return the books whose availability the database refused to change; the engine writes those changes later
+     */
+    public List<Long> writeJournaled(Map<Long, Integer> deltas) {
+        return write(guard(new TreeSet<>(deltas.keySet())), deltas, false);
+    }
+
+    /**
+     * Adds to the counter what changed books.available since the engine last saw it, keeping the copies
+     * in flight and the changes not yet written.
+     */
+    public void reconcile(long bookId) {
+        var counter = counters.get(bookId);
+        if (counter == null) {
+            return;
+        }
+        counter.lock.lock();
+        try {
+            var book = bookRepository.findById(bookId);
+            if (book.isEmpty()) {
+                counters.remove(bookId, counter);
+                return;
+            }
+            int drift = book.get().getAvailable() - counter.stored;
+            counter.stored += drift;
+            counter.available.addAndGet(drift);
+        } finally {
+            counter.lock.unlock();
+        }
+    }
+
+    // Locks the counters in id order, the same order for every writer. They stay locked until the writing
+    // transaction completes, so a reconcile never reads the column between a write and its commit.
+    private SortedMap<Long, Counter> guard(SortedSet<Long> bookIds) {
+        var guarded = new TreeMap<Long, Counter>();
+        for (long bookId : bookIds) {
+            var counter = counters.get(bookId);
+            // no counter: nothing in memory to keep in step
+            if (counter != null) {
+                counter.lock.lock();
+                guarded.put(bookId, counter);
+            }
+        }
+        return guarded;
+    }
+
+    private List<Long> write(SortedMap<Long, Counter> guarded, Map<Long, Integer> deltas, boolean keepOnRollback) {
+        var refused = new ArrayList<Long>();
+        CompletionCallback written = committed -> {
+            try {
+                deltas.forEach((bookId, delta) -> {
+                    var counter = guarded.get(bookId);
+                    if (committed && !refused.contains(bookId)) {
+                        if (counter != null) {
+                            counter.stored += delta;
+                        }
+                    } else if (committed || keepOnRollback) {
+                        keep(bookId, counter, delta);
+                    }
+                });
+                if (committed) {
+                    for (long bookId : refused) {
+                        LOGGER.warn("books.available of book {} refused a change of {}, "
+                                + "reconciling it on the next flush", bookId, deltas.get(bookId));
+                        refusedBooks.add(bookId);
+                    }
+                }
+            } finally {
+                guarded.values().forEach(counter -> counter.lock.unlock());
+            }
+        };
+        // flushOnShutdown runs outside a transaction, every update commits on its own
+        boolean inTransaction = TransactionSynchronizationManager.isSynchronizationActive();
+        if (inTransaction) {
+            afterCompletion(written);
+        }
+        try {
+            if (!deltas.isEmpty()) {
+                refused.addAll(bookRepository.addToAvailable(deltas));
+            }
+        } catch (RuntimeException e) {
+            if (!inTransaction) {
+                written.completed(false);
+            }
+            throw e;
+        }
+        if (!inTransaction) {
+            written.completed(true);
+        }
+        return refused;
+    }
+
+    // Puts a change back into pending, for the next flush.
+    private void keep(long bookId, Counter counter, int delta) {
+        if (counter == null) {
+            // a journaled change of a book not used since the start: the loaded counter has not admitted it
+            counter = counter(bookId);
+            counter.available.addAndGet(delta);
+        }
+        counter.pending.addAndGet(delta);
+    }
+
+    private Counter counter(long bookId) {
+        var counter = counters.get(bookId);
+        if (counter != null) {
+            return counter;
+        }
+        // loaded outside the map, so a slow query does not block other books
+        var book = bookRepository.findById(bookId).orElseThrow(() -> new BookNotFoundException(bookId));
+        var loaded = new Counter(book.getAvailable());
+        var existing = counters.putIfAbsent(bookId, loaded);
+        return existing != null ? existing : loaded;
+    }
+
+    private static void afterCompletion(CompletionCallback callback) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("The availability engine must be used inside a transaction.");
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                callback.completed(status == STATUS_COMMITTED);
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface CompletionCallback {
+        void completed(boolean committed);
+    }
+
+    private static final class Counter {
+        // copies that can still be rented
+        private final AtomicInteger available;
+        // committed change not yet written to books.available
+        private final AtomicInteger pending = new AtomicInteger();
+        // held while the column is written until the transaction completes, and while reconciling
+        private final ReentrantLock lock = new ReentrantLock();
+        // books.available as the engine last saw it, guarded by lock
+        private int stored;
+
+        private Counter(int available) {
+            this.available = new AtomicInteger(available);
+            this.stored = available;
+        }
+
+        private boolean tryDecrement() {
+            int current;
+            do {
+                current = available.get();
+                if (current <= 0) {
+                    return false;
+                }
+            } while (!available.compareAndSet(current, current - 1));
+            return true;
+        }
+    }
+}
@@ -1,21 +1,53 @@
 package org.mystudying.booksmarket2.services;
 
 
+import org.mystudying.booksmarket2.cache.EntityCache;
+import org.mystudying.booksmarket2.cache.EntityCaches;
 import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.domain.BookCriteria;
+import org.mystudying.booksmarket2.exceptions.BookNotFoundException;
+import org.mystudying.booksmarket2.exceptions.BookUpdateConflictException;
 import org.mystudying.booksmarket2.repositories.BookRepository;
+import org.mystudying.booksmarket2.search.CatalogSearch;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
 
 @Service
 @Transactional(readOnly = true)
 public class BookService {
     private final BookRepository bookRepository;
+    private final EntityCache<Book> bookCache;
+    private final CatalogSearch catalogSearch;
+    private final UserService userService;
+    private final AvailabilityEngine availabilityEngine; // null unless booksmarket.availability-engine.enabled
+    private final TransactionTemplate attempt;
+    private final RetryPolicy updateRetries;
 
-    public BookService(BookRepository bookRepository) {
+    public BookService(BookRepository bookRepository, EntityCaches caches, CatalogSearch catalogSearch,
+                       UserService userService, Optional<AvailabilityEngine> availabilityEngine,
+                       PlatformTransactionManager transactionManager,
+                       @Value("${booksmarket.book-updates.max-attempts:5}") int maxAttempts,
+                       @Value("${booksmarket.book-updates.base-backoff-ms:10}") long baseBackoffMs,
+                       @Value("${booksmarket.book-updates.max-backoff-ms:200}") long maxBackoffMs) {
         this.bookRepository = bookRepository;
+        this.bookCache = caches.books();
+        this.catalogSearch = catalogSearch;
+        this.userService = userService;
+        this.availabilityEngine = availabilityEngine.orElse(null);
+        this.attempt = new TransactionTemplate(transactionManager);
+        this.updateRetries = new RetryPolicy(maxAttempts, Duration.ofMillis(baseBackoffMs), Duration.ofMillis(maxBackoffMs));
     }
 
     public List<Book> findAll() {
@@ -35,10 +67,116 @@ public class BookService {
     }
 
     public Optional<Book> findById(long id) {
-        return bookRepository.findById(id);
+        return bookCache.get(id, bookRepository::findById);
     }
 
     public Optional<Book> findByTitle(String title) {
-        return bookRepository.findByTitle(title);
+        return bookCache.getBy(EntityCaches.TITLE, title, bookRepository::findByTitle);
+    }
+
+    // Prefix, word and typo tolerant title search, best match first; see CatalogSearch.
+    public List<Book> search(String query, int limit) {
+        return search(query, 0, limit);
+    }
+
+    public List<Book> search(String query, int offset, int limit) {
+        var ids = catalogSearch.searchBooks(query, offset, limit);
+        return CatalogSearch.inOrder(ids, bookRepository.findByIds(ids), Book::getId);
+    }
+
+    public List<Book> findAll(String afterTitle, long afterId, int limit) {
+        checkPageSize(limit);
+        return bookRepository.findAll(afterTitle, afterId, limit);
+    }
+
+    public List<Book> findByYear(int year, String afterTitle, long afterId, int limit) {
+        checkPageSize(limit);
+        return bookRepository.findByYear(year, afterTitle, afterId, limit);
+    }
+
+    public List<Book> findByAvailability(boolean available, String afterTitle, long afterId, int limit) {
+        checkPageSize(limit);
+        return bookRepository.findByAvailability(available, afterTitle, afterId, limit);
+    }
+
+    // One query for any combination of filters, e.g. the available books of an author from the 1950s.
+    public List<Book> findBy(BookCriteria criteria, String afterTitle, long afterId, int limit) {
+        checkPageSize(limit);
+        return bookRepository.findBy(criteria, afterTitle, afterId, limit);
+    }
+
+    // The stream is only valid inside the callback: it is read within this (read-only) transaction
+    // and closed afterwards.
+    public <R> R streamAll(Function<Stream<Book>, R> action) {
+        try (var books = bookRepository.streamAll()) {
+            return action.apply(books);
+        }
+    }
+
+    public <R> R streamByYear(int year, Function<Stream<Book>, R> action) {
+        try (var books = bookRepository.streamByYear(year)) {
+            return action.apply(books);
+        }
+    }
+
+    public <R> R streamByAvailability(boolean available, Function<Stream<Book>, R> action) {
+        try (var books = bookRepository.streamByAvailability(available)) {
+            return action.apply(books);
+        }
+    }
+
+    /**
+     * Applies the edit to the current state of the book and saves the result if no other write came in between,
+     * retrying with a fresh read after a jittered backoff otherwise. No row lock is held while the edit is made;
+     * each attempt is a short transaction of its own, so the backoff does not keep a connection busy.
+     * The edit may run several times and must only derive the new book from the one it is given,
+     * e.g. {@code book -> book.edited(title, book.getYear(), book.getAuthorId(), book.getAvailable())}.
+     * Once saved, a new title is searchable, the availability engine takes over the new count and copies
+     * the edit added go to the users waiting for the book.
+     *
+     * @throws BookNotFoundException if there is no book with the id
+     * @throws BookUpdateConflictException if every attempt lost to a concurrent write
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void update(long id, UnaryOperator<Book> edit) {
+        for (int tried = 1; ; tried++) {
+            // the copies the edit added, null when another write came first
+            Integer added = attempt.execute(status -> {
+                // by primary key, not from the cache: the edit must start from the version in the table
+                var book = bookRepository.findById(id).orElseThrow(() -> new BookNotFoundException(id));
+                var edited = edit.apply(book);
+                if (!bookRepository.compareAndUpdate(edited)) {
+                    return null;
+                }
+                if (!edited.getTitle().equals(book.getTitle())) {
+                    catalogSearch.bookRetitled(id, edited.getTitle());
+                }
+                return edited.getAvailable() - book.getAvailable();
+            });
+            if (added != null) {
+                // committed: the engine reads the new count, and hand-offs rent from it
+                if (availabilityEngine != null) {
+                    availabilityEngine.reconcile(id);
+                }
+                if (added > 0) {
+                    userService.handOffAddedCopies(id, added);
+                }
+                return;
+            }
+            if (tried == updateRetries.maxAttempts()) {
+                throw new BookUpdateConflictException(id);
+            }
+            try {
+                Thread.sleep(updateRetries.backoff(tried, ThreadLocalRandom.current()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BookUpdateConflictException(id);
+            }
+        }
+    }
+
+    private static void checkPageSize(int limit) {
+        if (limit < 1)
+            throw new IllegalArgumentException("Page size must be positive.");
     }
 }
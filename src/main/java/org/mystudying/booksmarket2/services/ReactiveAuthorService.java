@@ -0,0 +1,72 @@
+package org.mystudying.booksmarket2.services;
+
+
+import org.mystudying.booksmarket2.cache.EntityCache;
+import org.mystudying.booksmarket2.cache.EntityCaches;
+import org.mystudying.booksmarket2.domain.Author;
+import org.mystudying.booksmarket2.domain.AuthorBooks;
+import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.exceptions.AuthorNotFoundException;
+import org.mystudying.booksmarket2.repositories.ReactiveAuthorRepositoryInt;
+import org.mystudying.booksmarket2.search.CatalogSearch;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+/**
+ * Non-blocking counterpart of {@link AuthorService} (profile "reactive").
+ */
+@Service
+@Profile("reactive")
+public class ReactiveAuthorService {
+    private final ReactiveAuthorRepositoryInt authorRepository;
+    private final EntityCache<Author> authorCache;
+    private final CatalogSearch catalogSearch;
+
+    public ReactiveAuthorService(ReactiveAuthorRepositoryInt authorRepository, EntityCaches caches,
+                                 CatalogSearch catalogSearch) {
+        this.authorRepository = authorRepository;
+        this.authorCache = caches.authors();
+        this.catalogSearch = catalogSearch;
+    }
+
+    public Flux<Author> findAll() {
+        return authorRepository.findAll();
+    }
+
+    public Flux<Author> findAll(String afterName, long afterId, int limit) {
+        return ReactiveBookService.page(limit, () -> authorRepository.findAll(afterName, afterId, limit));
+    }
+
+    public Flux<Author> streamAll() {
+        return authorRepository.streamAll();
+    }
+
+    public Mono<Author> findById(long id) {
+        return authorRepository.findById(id);
+    }
+
+    public Mono<Author> findByName(String name) {
+        return authorRepository.findByName(name);
+    }
+
+    public Flux<Book> findBooksByAuthor(long authorId) {
+        return authorRepository.findWithBooksById(authorId)
+                .switchIfEmpty(Mono.error(() -> new AuthorNotFoundException(authorId)))
+                .flatMapIterable(AuthorBooks::getBooks);
+    }
+
+    public Mono<Long> create(String name, LocalDate birthdate) {
+        return Mono.fromCallable(() -> new Author(1, name, birthdate))
+                .flatMap(authorRepository::create)
+                // drops a cached author that the name pointed to before, for the blocking services
+                .doOnNext(id -> {
+                    authorCache.invalidate(new Author(id, name, birthdate));
+                    catalogSearch.authorsAdded(Map.of(id, name));
+                });
+    }
+}
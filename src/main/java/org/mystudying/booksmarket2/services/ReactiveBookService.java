@@ -0,0 +1,71 @@
+package org.mystudying.booksmarket2.services;
+
+
+import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.repositories.ReactiveBookRepositoryInt;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking counterpart of {@link BookService} (profile "reactive"). Reads go straight to R2DBC,
+ * without the entity caches, whose loaders block.
+ */
+@Service
+@Profile("reactive")
+public class ReactiveBookService {
+    private final ReactiveBookRepositoryInt bookRepository;
+
+    public ReactiveBookService(ReactiveBookRepositoryInt bookRepository) {
+        this.bookRepository = bookRepository;
+    }
+
+    public Flux<Book> findAll() {
+        return bookRepository.findAll();
+    }
+
+    public Flux<Book> findByYear(int year) {
+        return bookRepository.findByYear(year);
+    }
+
+    public Flux<Book> findByAuthorName(String authorName) {
+        return bookRepository.findByAuthorName(authorName);
+    }
+
+    public Flux<Book> findByAvailability(boolean available) {
+        return bookRepository.findByAvailability(available);
+    }
+
+    public Mono<Book> findById(long id) {
+        return bookRepository.findById(id);
+    }
+
+    public Mono<Book> findByTitle(String title) {
+        return bookRepository.findByTitle(title);
+    }
+
+    public Flux<Book> findAll(String afterTitle, long afterId, int limit) {
+        return page(limit, () -> bookRepository.findAll(afterTitle, afterId, limit));
+    }
+
+    public Flux<Book> findByYear(int year, String afterTitle, long afterId, int limit) {
+        return page(limit, () -> bookRepository.findByYear(year, afterTitle, afterId, limit));
+    }
+
+    public Flux<Book> findByAvailability(boolean available, String afterTitle, long afterId, int limit) {
+        return page(limit, () -> bookRepository.findByAvailability(available, afterTitle, afterId, limit));
+    }
+
+    // Rows are read as the subscriber requests them, so a slow consumer holds back the query instead of
+    // buffering the catalog.
+    public Flux<Book> streamAll() {
+        return bookRepository.streamAll();
+    }
+
+    static <T> Flux<T> page(int limit, Supplier<Flux<T>> query) {
+        return limit < 1 ? Flux.error(new IllegalArgumentException("Page size must be positive.")) : Flux.defer(query);
+    }
+}
@@ -0,0 +1,137 @@
+package org.mystudying.booksmarket2.services;
+
+
+import org.mystudying.booksmarket2.cache.EntityCache;
+import org.mystudying.booksmarket2.cache.EntityCaches;
+import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.domain.RentalOutcome;
+import org.mystudying.booksmarket2.domain.User;
+import org.mystudying.booksmarket2.domain.UserLoans;
+import org.mystudying.booksmarket2.exceptions.EmailAlreadyExistsException;
+import org.mystudying.booksmarket2.exceptions.UserNotFoundException;
+import org.mystudying.booksmarket2.outbox.R2dbcOutbox;
+import org.mystudying.booksmarket2.repositories.ReactiveBookRepositoryInt;
+import org.mystudying.booksmarket2.repositories.ReactiveBookingRepositoryInt;
+import org.mystudying.booksmarket2.repositories.ReactiveUserRepositoryInt;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking counterpart of {@link UserService} (profile "reactive"). Rentals run in a reactive transaction;
+ * once it has committed, the book and loans caches of the blocking services are brought up to date,
+ * because their transaction hooks do not see reactive transactions. For the same reason a returned copy
+ * is handed to the next user on the book's waitlist by {@link UserService#handOffReturnedCopy} in a transaction
+ * of its own, after the return: a renter who comes in between can take the copy first. Change events for the
+ * outbox go into the reactive transaction itself, through {@link R2dbcOutbox}.
+ * Rentals and returns write books.available directly, so the {@link AvailabilityEngine}, whose counters would
+ * not see them, cannot be enabled with this profile.
+ */
+@Service
+@Profile("reactive")
+public class ReactiveUserService {
+    private final ReactiveUserRepositoryInt userRepository;
+    private final ReactiveBookRepositoryInt bookRepository;
+    private final ReactiveBookingRepositoryInt bookingRepository;
+    private final TransactionalOperator transactionalOperator;
+    private final UserService userService;
+    private final R2dbcOutbox outbox; // null unless booksmarket.outbox.enabled
+    private final EntityCache<User> userCache;
+    private final EntityCache<Book> bookCache;
+    private final EntityCache<UserLoans> loanCache;
+
+    public ReactiveUserService(ReactiveUserRepositoryInt userRepository, ReactiveBookRepositoryInt bookRepository,
+                               ReactiveBookingRepositoryInt bookingRepository, TransactionalOperator transactionalOperator,
+                               UserService userService, EntityCaches caches, Optional<R2dbcOutbox> outbox,
+                               Optional<AvailabilityEngine> availabilityEngine) {
+        if (availabilityEngine.isPresent()) {
+            throw new IllegalStateException(
+                    "The reactive profile cannot run with booksmarket.availability-engine.enabled=true.");
+        }
+        this.userRepository = userRepository;
+        this.bookRepository = bookRepository;
+        this.bookingRepository = bookingRepository;
+        this.transactionalOperator = transactionalOperator;
+        this.userService = userService;
+        this.userCache = caches.users();
+        this.bookCache = caches.books();
+        this.loanCache = caches.loans();
+        this.outbox = outbox.orElse(null);
+    }
+
+    public Flux<User> findAll() {
+        return userRepository.findAll();
+    }
+
+    public Flux<User> findAll(String afterName, long afterId, int limit) {
+        return ReactiveBookService.page(limit, () -> userRepository.findAll(afterName, afterId, limit));
+    }
+
+    public Flux<User> streamAll() {
+        return userRepository.streamAll();
+    }
+
+    public Mono<User> findById(long id) {
+        return userRepository.findById(id);
+    }
+
+    public Mono<User> findByName(String name) {
+        return userRepository.findByName(name);
+    }
+
+    public Mono<User> findByEmail(String email) {
+        return userRepository.findByEmail(email);
+    }
+
+    public Flux<Book> findBooksByUserId(long userId) {
+        return findById(userId)
+                .switchIfEmpty(Mono.error(() -> new UserNotFoundException(userId)))
+                .thenMany(Flux.defer(() -> bookRepository.findBooksByUserId(userId)));
+    }
+
+    public Mono<Long> create(String name, String email) {
+        return Mono.fromCallable(() -> new User(1, name, email))
+                .flatMap(userRepository::create)
+                .onErrorMap(DuplicateKeyException.class, e -> new EmailAlreadyExistsException(email))
+                // drops a cached user that the name pointed to before, for the blocking services
+                .doOnNext(id -> userCache.invalidate(new User(id, name, email)));
+    }
+
+    // Fails with the exceptions of UserService.rentBook.
+    public Mono<Void> rentBook(long userId, long bookId) {
+        return bookingRepository.rent(userId, bookId)
+                .flatMap(outcome -> record(outcome, RentalOutcome.RENTED, () -> outbox.booksRented(userId, List.of(bookId))))
+                .as(transactionalOperator::transactional)
+                // the books row was written whatever the outcome
+                .doOnNext(outcome -> bookCache.invalidate(bookId))
+                .doOnNext(outcome -> UserService.throwIfFailed(outcome, userId, bookId))
+                .doOnNext(outcome -> loanCache.update(userId, loans -> loans.withBooks(List.of(bookId))))
+                .then();
+    }
+
+    public Mono<Void> returnBook(long userId, long bookId) {
+        return bookingRepository.returnBook(userId, bookId)
+                .flatMap(outcome -> record(outcome, RentalOutcome.RETURNED, () -> outbox.booksReturned(userId, List.of(bookId))))
+                .as(transactionalOperator::transactional)
+                // the books row was written whatever the outcome
+                .doOnNext(outcome -> bookCache.invalidate(bookId))
+                .doOnNext(outcome -> UserService.throwIfFailed(outcome, userId, bookId))
+                .doOnNext(outcome -> loanCache.update(userId, loans -> loans.withoutBooks(List.of(bookId))))
+                // the waitlist is blocking
+                .then(Mono.<Void>fromRunnable(() -> userService.handOffReturnedCopy(bookId))
+                        .subscribeOn(Schedulers.boundedElastic()));
+    }
+
+    // The change event, in the reactive transaction of the change, when it succeeded.
+    private Mono<RentalOutcome> record(RentalOutcome outcome, RentalOutcome success, Supplier<Mono<Void>> event) {
+        return outbox == null || outcome != success ? Mono.just(outcome) : event.get().thenReturn(outcome);
+    }
+}
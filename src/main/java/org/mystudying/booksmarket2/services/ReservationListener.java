@@ -0,0 +1,9 @@
+package org.mystudying.booksmarket2.services;
+
+/**
+ * Told when a returned copy went straight to a user on the book's waitlist. Beans implementing it are
+ * called after the hand-off has committed, on the thread that returned the book.
+ */
+public interface ReservationListener {
+    void bookHandedOver(long userId, long bookId);
+}
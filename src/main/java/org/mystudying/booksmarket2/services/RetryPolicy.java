@@ -0,0 +1,25 @@
+package org.mystudying.booksmarket2.services;
+
+import java.time.Duration;
+import java.util.random.RandomGenerator;
+
+/**
+ * How often an optimistic write is tried before giving up, and how long to wait between tries: a random time
+ * between zero and a cap that doubles with every failed try, up to the max backoff ("full jitter"), so writers
+ * that collided spread out instead of colliding again in step.
+ */
+record RetryPolicy(int maxAttempts, Duration baseBackoff, Duration maxBackoff) {
+
+    RetryPolicy {
+        if (maxAttempts < 1)
+            throw new IllegalArgumentException("Max attempts must be positive.");
+        if (baseBackoff.isNegative() || maxBackoff.isNegative())
+            throw new IllegalArgumentException("Backoff must not be negative.");
+    }
+
+    // The wait after the given failed attempt, counting from 1.
+    Duration backoff(int attempt, RandomGenerator random) {
+        long cap = Math.min(maxBackoff.toMillis(), baseBackoff.toMillis() << Math.min(attempt - 1, 20));
+        return Duration.ofMillis(cap == 0 ? 0 : random.nextLong(cap + 1));
+    }
+}
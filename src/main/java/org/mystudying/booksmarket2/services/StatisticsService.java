@@ -0,0 +1,101 @@
+package org.mystudying.booksmarket2.services;
+
+import org.mystudying.booksmarket2.cache.CacheStats;
+import org.mystudying.booksmarket2.cache.SnapshotCache;
+import org.mystudying.booksmarket2.domain.CatalogTotals;
+import org.mystudying.booksmarket2.domain.Tally;
+import org.mystudying.booksmarket2.domain.YearAvailability;
+import org.mystudying.booksmarket2.repositories.StatisticsRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Counts and rankings for dashboards, aggregated by the database and cached for the refresh interval
+ * (booksmarket.statistics.refresh-seconds): a dashboard polling every few seconds costs a lookup in memory,
+ * and at most one aggregation per statistic and interval reaches the database. A ranking is cached whole and
+ * paged in memory, so the pages a caller walks through come from the same aggregation as long as it is fresh.
+ * The figures may therefore be up to one interval old; rentals still in the write-behind journal are counted
+ * once they are applied.
+ */
+@Service
+@Transactional(readOnly = true)
+public class StatisticsService {
+    // the order of the rankings, in which the keyset of a page is looked up
+    private static final Comparator<Tally> BY_RANK =
+            Comparator.comparingLong(Tally::count).reversed().thenComparingLong(Tally::id);
+    private static final Comparator<YearAvailability> BY_YEAR_DESC =
+            Comparator.comparingInt(YearAvailability::year).reversed();
+
+    private final StatisticsRepository statisticsRepository;
+    // by statistic: the totals or a whole ranking
+    private final SnapshotCache<String, Object> snapshots;
+
+    public StatisticsService(StatisticsRepository statisticsRepository,
+                             @Value("${booksmarket.statistics.cache-size:1000}") int cacheSize,
+                             @Value("${booksmarket.statistics.refresh-seconds:60}") long refreshSeconds) {
+        this.statisticsRepository = statisticsRepository;
+        this.snapshots = new SnapshotCache<>("statistics", cacheSize, Duration.ofSeconds(refreshSeconds));
+    }
+
+    public CatalogTotals totals() {
+        return cached("totals", statisticsRepository::totals);
+    }
+
+    // The rankings: null after for the top page, else the last tally of the previous page.
+    public List<Tally> booksPerAuthor(Tally after, int limit) {
+        checkPageSize(limit);
+        List<Tally> ranking = cached("booksPerAuthor", () -> statisticsRepository.booksPerAuthor(null, Integer.MAX_VALUE));
+        return page(ranking, after, BY_RANK, limit);
+    }
+
+    public List<Tally> loansPerUser(Tally after, int limit) {
+        checkPageSize(limit);
+        List<Tally> ranking = cached("loansPerUser", () -> statisticsRepository.loansPerUser(null, Integer.MAX_VALUE));
+        return page(ranking, after, BY_RANK, limit);
+    }
+
+    public List<Tally> mostBorrowedBooks(Tally after, int limit) {
+        checkPageSize(limit);
+        List<Tally> ranking = cached("mostBorrowedBooks",
+                () -> statisticsRepository.mostBorrowedBooks(null, Integer.MAX_VALUE));
+        return page(ranking, after, BY_RANK, limit);
+    }
+
+    // Newest year first: null after for the first page.
+    public List<YearAvailability> availabilityPerYear(YearAvailability after, int limit) {
+        checkPageSize(limit);
+        List<YearAvailability> years = cached("availabilityPerYear",
+                () -> statisticsRepository.availabilityPerYear(null, Integer.MAX_VALUE));
+        return page(years, after, BY_YEAR_DESC, limit);
+    }
+
+    public CacheStats cacheStats() {
+        return snapshots.stats();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T cached(String statistic, Supplier<T> compute) {
+        return (T) snapshots.get(statistic, key -> compute.get());
+    }
+
+    // The entries of the sorted list that come after the given one, the same page the keyset query would return.
+    private static <T> List<T> page(List<T> sorted, T after, Comparator<T> order, int limit) {
+        int from = 0;
+        if (after != null) {
+            int found = Collections.binarySearch(sorted, after, order);
+            from = found >= 0 ? found + 1 : -found - 1;
+        }
+        return sorted.subList(from, Math.min(sorted.size(), from + limit));
+    }
+    private static void checkPageSize(int limit) {
+        if (limit < 1)
+            throw new IllegalArgumentException("Page size must be positive.");
+    }
+}
@@ -1,10 +1,17 @@
 package org.mystudying.booksmarket2.services;
 
 
+import org.mystudying.booksmarket2.cache.EntityCache;
+import org.mystudying.booksmarket2.cache.EntityCaches;
 import org.mystudying.booksmarket2.domain.Book;
 import org.mystudying.booksmarket2.domain.Booking;
+import org.mystudying.booksmarket2.domain.RentalOutcome;
+import org.mystudying.booksmarket2.domain.Reservation;
 import org.mystudying.booksmarket2.domain.User;
+import org.mystudying.booksmarket2.domain.UserLoans;
 import org.mystudying.booksmarket2.exceptions.*;
+import org.mystudying.booksmarket2.journal.BookingJournal;
+import org.mystudying.booksmarket2.outbox.Outbox;
 import org.mystudying.booksmarket2.repositories.BookRepository;
 import org.mystudying.booksmarket2.repositories.BookingRepository;
 import org.mystudying.booksmarket2.repositories.UserRepository;
@@ -12,8 +19,18 @@ import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @Transactional(readOnly = true)
@@ -21,39 +38,95 @@ public class UserService {
     private final UserRepository userRepository;
     private final BookRepository bookRepository;
     private final BookingRepository bookingRepository;
+    private final EntityCache<User> userCache;
+    private final EntityCache<Book> bookCache;
+    private final EntityCache<UserLoans> loanCache;
+    private final Waitlist waitlist;
+    private final AvailabilityEngine availabilityEngine; // null unless booksmarket.availability-engine.enabled
+    private final BookingJournal bookingJournal; // null unless booksmarket.write-behind.enabled
+    private final Outbox outbox; // null unless booksmarket.outbox.enabled
 
-    public UserService(UserRepository userRepository, BookRepository bookRepository, BookingRepository bookingRepository) {
+    public UserService(UserRepository userRepository, BookRepository bookRepository, BookingRepository bookingRepository,
+                       EntityCaches caches, Waitlist waitlist, Optional<AvailabilityEngine> availabilityEngine,
+                       Optional<BookingJournal> bookingJournal, Optional<Outbox> outbox) {
         this.userRepository = userRepository;
         this.bookRepository = bookRepository;
         this.bookingRepository = bookingRepository;
+        this.userCache = caches.users();
+        this.bookCache = caches.books();
+        this.loanCache = caches.loans();
+        this.waitlist = waitlist;
+        this.availabilityEngine = availabilityEngine.orElse(null);
+        this.bookingJournal = bookingJournal.orElse(null);
+        this.outbox = outbox.orElse(null);
     }
 
     public List<User> findAll() {
         return userRepository.findAll();
     }
 
+    public List<User> findAll(String afterName, long afterId, int limit) {
+        if (limit < 1)
+            throw new IllegalArgumentException("Page size must be positive.");
+        return userRepository.findAll(afterName, afterId, limit);
+    }
+
+    // Like BookService.streamAll: the users are read through a cursor that is closed when the callback returns.
+    public <R> R streamAll(Function<Stream<User>, R> action) {
+        try (var users = userRepository.streamAll()) {
+            return action.apply(users);
+        }
+    }
+
     public Optional<User> findById(long id) {
-        return userRepository.findById(id);
+        return userCache.get(id, userRepository::findById);
     }
 
     public Optional<User> findByName(String name) {
-        return userRepository.findByName(name);
+        return userCache.getBy(EntityCaches.NAME, name, userRepository::findByName);
     }
 
     public Optional<User> findByEmail(String email) {
-        return userRepository.findByEmail(email);
+        return userCache.getBy(EntityCaches.EMAIL, email, userRepository::findByEmail);
     }
 
+    // The book ids come from the loans projection, which the booking writes keep current, so a warm lookup
+    // reads the user's bookings with no query; the books themselves are read in one query by primary key,
+    // not from the book cache, so their availability is current.
     public List<Book> findBooksByUserId(long userId) {
-        userRepository.findById(userId).orElseThrow(() -> new UserNotFoundException(userId));
-        return bookRepository.findBooksByUserId(userId);
+        findById(userId).orElseThrow(() -> new UserNotFoundException(userId));
+        var loans = loanCache.get(userId, id -> Optional.of(new UserLoans(id, bookingRepository.findBookIdsByUserId(id))))
+                .orElseThrow();
+        if (bookingJournal != null) {
+            loans = bookingJournal.withPending(loans);
+        }
+        return bookRepository.findByIds(loans.getBookIds()).stream()
+                .sorted(Comparator.comparing(Book::getTitle).thenComparing(Book::getId))
+                .toList();
+    }
+
+    // The borrowers of a book, from every bookings shard at once; rentals still in the write-behind
+    // journal show up once they are applied.
+    public List<User> findUsersByBookId(long bookId) {
+        bookCache.get(bookId, bookRepository::findById).orElseThrow(() -> new BookNotFoundException(bookId));
+        return bookingRepository.findUserIdsByBookId(bookId).stream()
+                .map(this::findById)
+                .flatMap(Optional::stream)
+                .toList();
     }
 
     @Transactional
     public long create(String name, String email) {
         try {
             User user = new User(1, name, email);
-            return userRepository.create(user);
+            long id = userRepository.create(user);
+            // drops a cached user that the name pointed to before
+            var created = new User(id, name, email);
+            userCache.invalidate(created);
+            if (outbox != null) {
+                outbox.userCreated(created);
+            }
+            return id;
         } catch (DuplicateKeyException e) {
             throw new EmailAlreadyExistsException(email);
         }
@@ -61,33 +134,347 @@ public class UserService {
 
     @Transactional
     public void rentBook(long userId, long bookId) {
-        User user = userRepository.findById(userId).orElseThrow(() -> new UserNotFoundException(userId));
-        Book book = bookRepository.findAndLockById(bookId).orElseThrow(() -> new BookNotFoundException(bookId));
+        if (availabilityEngine != null) {
+            rentWithEngine(userId, bookId);
+            return;
+        }
+        throwIfFailed(bookingRepository.rent(userId, bookId), userId, bookId);
+        recordRented(userId, List.of(bookId));
+    }
 
-        if (book.getAvailable() <= 0) {
-            throw new BookNotFoundException("Book is not available for rent.");
+    @Transactional
+    public void returnBook(long userId, long bookId) {
+        if (availabilityEngine != null) {
+            returnWithEngine(userId, bookId);
+            return;
         }
+        throwIfFailed(bookingRepository.returnBook(userId, bookId), userId, bookId);
+        recordReturned(userId, List.of(bookId));
+        handOff(bookId);
+    }
 
-        if (bookingRepository.find(user.getId(), book.getId()).isPresent()) {
+    // Rents the book, or when no copy is left puts the user on its waitlist: the next copy returned goes
+    // to the first user in line, in the returning transaction, instead of to whoever retries first.
+    @Transactional
+    public RentalOutcome reserve(long userId, long bookId) {
+        if (availabilityEngine != null) {
+            return reserveWithEngine(userId, bookId);
+        }
+        // the books row lock orders this after any return of the book that could have missed the reservation
+        var book = bookRepository.findAndLockById(bookId).orElseThrow(() -> new BookNotFoundException(bookId));
+        findById(userId).orElseThrow(() -> new UserNotFoundException(userId));
+        if (bookingRepository.find(userId, bookId).isPresent()) {
             throw new BookAlreadyBorrowedException();
         }
+        if (book.getAvailable() > 0) {
+            throwIfFailed(bookingRepository.rent(userId, bookId), userId, bookId);
+            recordRented(userId, List.of(bookId));
+            return RentalOutcome.RENTED;
+        }
+        waitlist.join(userId, bookId);
+        return RentalOutcome.RESERVED;
+    }
 
-        bookingRepository.create(new Booking(user.getId(), book.getId()));
-        book.rentBook();
-        bookRepository.update(book);
+    @Transactional
+    public boolean cancelReservation(long userId, long bookId) {
+        return waitlist.leave(userId, bookId);
+    }
+
+    public List<Reservation> findReservationsByUserId(long userId) {
+        findById(userId).orElseThrow(() -> new UserNotFoundException(userId));
+        return waitlist.findByUserId(userId);
     }
 
+    // Hands a copy returned by ReactiveUserService, whose transaction has committed, to the next user in line.
+    // The books row is locked first, like in a blocking return; when the copy was rented meanwhile there is
+    // nothing to hand off and the reservations stay.
     @Transactional
-    public void returnBook(long userId, long bookId) {
-        User user = userRepository.findById(userId).orElseThrow(() -> new UserNotFoundException(userId));
-        Book book = bookRepository.findAndLockById(bookId).orElseThrow(() -> new BookNotFoundException(bookId));
+    public void handOffReturnedCopy(long bookId) {
+        if (waitlist.waiting(bookId).isEmpty()) {
+            return;
+        }
+        handOffAvailable(bookId, 1);
+    }
+
+    // Hands copies an edit of the book added, once it has committed, to the users waiting for it, one copy each
+    // in line order; copies nobody takes stay available.
+    @Transactional
+    public void handOffAddedCopies(long bookId, int copies) {
+        if (waitlist.waiting(bookId).isEmpty()) {
+            return;
+        }
+        if (availabilityEngine != null) {
+            // the engine has reconciled the added copies into its counter
+            for (int i = 0; i < copies && availabilityEngine.acquire(bookId); i++) {
+                if (!handOffOrRelease(bookId)) {
+                    return;
+                }
+            }
+            return;
+        }
+        handOffAvailable(bookId, copies);
+    }
 
-        if (bookingRepository.find(user.getId(), book.getId()).isEmpty()) {
+    // No more copies than the locked books row still shows available.
+    private void handOffAvailable(long bookId, int copies) {
+        int available = bookRepository.findAndLockById(bookId).map(Book::getAvailable).orElse(0);
+        for (int i = 0; i < Math.min(copies, available); i++) {
+            if (!handOff(bookId)) {
+                return;
+            }
+        }
+    }
+
+    // Bulk checkout: the books are locked in id order before anything else is read, then the bookings
+    // and the availability of the whole batch are written with one batch insert and one multi-row update.
+    // The result holds an outcome per distinct book id, in the order the ids were given.
+    @Transactional
+    public Map<Long, RentalOutcome> rentBooks(long userId, Collection<Long> bookIds) {
+        var ids = new LinkedHashSet<>(bookIds);
+        if (availabilityEngine != null) {
+            return rentBooksWithEngine(userId, ids);
+        }
+        var available = bookRepository.findAndLockByIds(ids).stream()
+                .collect(Collectors.toMap(Book::getId, Book::getAvailable));
+        findById(userId).orElseThrow(() -> new UserNotFoundException(userId));
+        var borrowed = new HashSet<>(bookingRepository.findBookIds(userId, ids));
+        var results = new LinkedHashMap<Long, RentalOutcome>();
+        var rented = new ArrayList<Long>();
+        for (long bookId : ids) {
+            RentalOutcome outcome;
+            if (!available.containsKey(bookId)) {
+                outcome = RentalOutcome.BOOK_NOT_FOUND;
+            } else if (borrowed.contains(bookId)) {
+                outcome = RentalOutcome.ALREADY_BORROWED;
+            } else if (available.get(bookId) <= 0) {
+                outcome = RentalOutcome.NOT_AVAILABLE;
+            } else {
+                outcome = RentalOutcome.RENTED;
+                rented.add(bookId);
+            }
+            results.put(bookId, outcome);
+        }
+        createBookings(userId, rented);
+        bookRepository.addToAvailable(rented, -1);
+        return results;
+    }
+
+    @Transactional
+    public Map<Long, RentalOutcome> returnBooks(long userId, Collection<Long> bookIds) {
+        var ids = new LinkedHashSet<>(bookIds);
+        if (availabilityEngine != null) {
+            return returnBooksWithEngine(userId, ids);
+        }
+        var found = bookRepository.findAndLockByIds(ids).stream()
+                .map(Book::getId)
+                .collect(Collectors.toSet());
+        findById(userId).orElseThrow(() -> new UserNotFoundException(userId));
+        var returned = new HashSet<>(bookingRepository.deleteAll(userId, found));
+        bookRepository.addToAvailable(returned, 1);
+        recordReturned(userId, returned);
+        returned.forEach(this::handOff);
+        var results = new LinkedHashMap<Long, RentalOutcome>();
+        for (long bookId : ids) {
+            if (!found.contains(bookId)) {
+                results.put(bookId, RentalOutcome.BOOK_NOT_FOUND);
+            } else {
+                results.put(bookId, returned.contains(bookId) ? RentalOutcome.RETURNED : RentalOutcome.NOT_BORROWED);
+            }
+        }
+        return results;
+    }
+
+    private void createBookings(long userId, Collection<Long> bookIds) {
+        try {
+            bookingRepository.createAll(userId, bookIds);
+        } catch (DuplicateKeyException e) {
+            // a concurrent rental of the same book by the same user won the race
+            throw new BookAlreadyBorrowedException();
+        }
+        recordRented(userId, bookIds);
+    }
+
+    // The books row is locked and the returned copy counted as available: renting it to the next user in line
+    // takes it again, and an outcome other than RENTED (that user got a copy meanwhile) has undone itself.
+    private boolean handOff(long bookId) {
+        return waitlist.handOff(bookId, nextUserId -> {
+            if (bookingRepository.rent(nextUserId, bookId) != RentalOutcome.RENTED) {
+                return false;
+            }
+            recordRented(nextUserId, List.of(bookId));
+            return true;
+        }).isPresent();
+    }
+
+    static void throwIfFailed(RentalOutcome outcome, long userId, long bookId) {
+        switch (outcome) {
+            case RENTED, RETURNED, RESERVED -> {
+            }
+            case USER_NOT_FOUND -> throw new UserNotFoundException(userId);
+            case BOOK_NOT_FOUND -> throw new BookNotFoundException(bookId);
+            case NOT_AVAILABLE -> throw new BookNotFoundException("Book is not available for rent.");
+            case ALREADY_BORROWED -> throw new BookAlreadyBorrowedException();
+            case NOT_BORROWED -> throw new BookNotBorrowedException();
+        }
+    }
+
+    // No books row lock: the engine admits the rental, the bookings primary key rejects a second copy
+    // for the same user, and books.available is written back later in a batch.
+    private void rentWithEngine(long userId, long bookId) {
+        findById(userId).orElseThrow(() -> new UserNotFoundException(userId));
+        if (!availabilityEngine.acquire(bookId)) {
+            throw new BookNotFoundException("Book is not available for rent.");
+        }
+        if (bookingJournal != null) {
+            createBookingsWithEngine(userId, List.of(bookId));
+            return;
+        }
+        try {
+            bookingRepository.create(new Booking(userId, bookId));
+        } catch (DuplicateKeyException e) {
+            throw new BookAlreadyBorrowedException();
+        }
+        recordRented(userId, List.of(bookId));
+    }
+
+    private void returnWithEngine(long userId, long bookId) {
+        findById(userId).orElseThrow(() -> new UserNotFoundException(userId));
+        bookCache.get(bookId, bookRepository::findById).orElseThrow(() -> new BookNotFoundException(bookId));
+        // the delete decides, so two concurrent returns cannot both give the copy back
+        boolean deleted = bookingJournal != null
+                ? !bookingJournal.returnBooks(userId, List.of(bookId)).isEmpty()
+                : bookingRepository.delete(new Booking(userId, bookId));
+        if (!deleted) {
             throw new BookNotBorrowedException();
         }
+        recordReturned(userId, List.of(bookId));
+        handOffOrRelease(bookId);
+    }
+
+    private RentalOutcome reserveWithEngine(long userId, long bookId) {
+        findById(userId).orElseThrow(() -> new UserNotFoundException(userId));
+        if (!findBookIdsWithEngine(userId, List.of(bookId)).isEmpty()) {
+            throw new BookAlreadyBorrowedException();
+        }
+        if (availabilityEngine.acquire(bookId)) {
+            createBookingsWithEngine(userId, List.of(bookId));
+            return RentalOutcome.RENTED;
+        }
+        waitlist.join(userId, bookId);
+        // without the books row lock a return can commit between the two; a copy it released before the
+        // reservation was visible is taken here, one released while this runs stays with the next renter
+        if (availabilityEngine.acquire(bookId)) {
+            waitlist.leave(userId, bookId);
+            createBookingsWithEngine(userId, List.of(bookId));
+            return RentalOutcome.RENTED;
+        }
+        return RentalOutcome.RESERVED;
+    }
 
-        bookingRepository.delete(new Booking(user.getId(), book.getId()));
-        book.returnBook();
-        bookRepository.update(book);
+    // The copy moves from the returning user to the next one in line, so the counter does not change.
+    private boolean handOffOrRelease(long bookId) {
+        var handedOver = waitlist.handOff(bookId, nextUserId -> {
+            if (bookingJournal != null) {
+                if (!bookingJournal.rent(nextUserId, List.of(bookId))) {
+                    return false;
+                }
+                recordRented(nextUserId, List.of(bookId));
+                return true;
+            }
+            try {
+                bookingRepository.create(new Booking(nextUserId, bookId));
+            } catch (DuplicateKeyException e) {
+                return false;
+            }
+            recordRented(nextUserId, List.of(bookId));
+            return true;
+        });
+        if (handedOver.isEmpty()) {
+            availabilityEngine.release(bookId);
+        }
+        return handedOver.isPresent();
+    }
+
+    private Map<Long, RentalOutcome> rentBooksWithEngine(long userId, Collection<Long> bookIds) {
+        findById(userId).orElseThrow(() -> new UserNotFoundException(userId));
+        var borrowed = new HashSet<>(findBookIdsWithEngine(userId, bookIds));
+        var results = new LinkedHashMap<Long, RentalOutcome>();
+        var rented = new ArrayList<Long>();
+        for (long bookId : bookIds) {
+            RentalOutcome outcome;
+            try {
+                if (borrowed.contains(bookId)) {
+                    outcome = RentalOutcome.ALREADY_BORROWED;
+                } else if (availabilityEngine.acquire(bookId)) {
+                    outcome = RentalOutcome.RENTED;
+                    rented.add(bookId);
+                } else {
+                    outcome = RentalOutcome.NOT_AVAILABLE;
+                }
+            } catch (BookNotFoundException e) {
+                outcome = RentalOutcome.BOOK_NOT_FOUND;
+            }
+            results.put(bookId, outcome);
+        }
+        createBookingsWithEngine(userId, rented);
+        return results;
+    }
+
+    private Map<Long, RentalOutcome> returnBooksWithEngine(long userId, Collection<Long> bookIds) {
+        findById(userId).orElseThrow(() -> new UserNotFoundException(userId));
+        var returned = new HashSet<>(deleteBookingsWithEngine(userId, bookIds));
+        recordReturned(userId, returned);
+        var results = new LinkedHashMap<Long, RentalOutcome>();
+        for (long bookId : bookIds) {
+            if (returned.contains(bookId)) {
+                handOffOrRelease(bookId);
+                results.put(bookId, RentalOutcome.RETURNED);
+            } else {
+                // only failures pay for the lookup that tells a missing book from a missing booking
+                results.put(bookId, bookCache.get(bookId, bookRepository::findById).isPresent()
+                        ? RentalOutcome.NOT_BORROWED : RentalOutcome.BOOK_NOT_FOUND);
+            }
+        }
+        return results;
+    }
+
+    // With the write-behind journal the bookings are appended to it instead of written, once the transaction
+    // commits, and the journal answers for the changes it has not applied yet.
+    private List<Long> findBookIdsWithEngine(long userId, Collection<Long> bookIds) {
+        return bookingJournal != null
+                ? bookingJournal.findBookIds(userId, bookIds)
+                : bookingRepository.findBookIds(userId, bookIds);
+    }
+
+    private void createBookingsWithEngine(long userId, Collection<Long> bookIds) {
+        if (bookingJournal == null) {
+            createBookings(userId, bookIds);
+            return;
+        }
+        // recorded first: a refused append rolls the events back with the transaction
+        recordRented(userId, bookIds);
+        if (!bookingJournal.rent(userId, bookIds)) {
+            throw new BookAlreadyBorrowedException();
+        }
+    }
+
+    private List<Long> deleteBookingsWithEngine(long userId, Collection<Long> bookIds) {
+        return bookingJournal != null
+                ? bookingJournal.returnBooks(userId, bookIds)
+                : bookingRepository.deleteAll(userId, bookIds);
+    }
+
+    // Change events for the outbox, in the transaction of the change. Through the journal, returns and hand-offs
+    // are only known once appended, so their events follow the append.
+    private void recordRented(long userId, Collection<Long> bookIds) {
+        if (outbox != null) {
+            outbox.booksRented(userId, bookIds);
+        }
+    }
+
+    private void recordReturned(long userId, Collection<Long> bookIds) {
+        if (outbox != null) {
+            outbox.booksReturned(userId, bookIds);
+        }
     }
 }
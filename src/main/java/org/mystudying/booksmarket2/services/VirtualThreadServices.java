@@ -0,0 +1,106 @@
+package org.mystudying.booksmarket2.services;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs service calls on virtual threads, one thread per call, with at most max-concurrency calls inside
+ * the services at a time. The limit defaults to the connection pool size, so callers queue on the semaphore,
+ * where a waiting virtual thread costs next to nothing, instead of on the pool or on platform threads.
+ * <p>
+ * A call runs its whole transaction on its own virtual thread. The code below it takes locks with
+ * ReentrantLock or atomics, never synchronized (the MySQL driver since 9.0 and Hikari do the same),
+ * so a call blocked on the database unmounts from its carrier thread instead of pinning it.
+ */
+@Component
+@ConditionalOnProperty(name = "booksmarket.virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadServices {
+    private final UserService userService;
+    private final BookService bookService;
+    private final AuthorService authorService;
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("booksmarket-vt-", 0).factory());
+    private final int maxConcurrency;
+    private final Semaphore permits;
+
+    public VirtualThreadServices(UserService userService, BookService bookService, AuthorService authorService,
+                                 @Value("${booksmarket.virtual-threads.max-concurrency:${spring.datasource.hikari.maximum-pool-size:10}}")
+                                 int maxConcurrency) {
+        if (maxConcurrency < 1)
+            throw new IllegalArgumentException("Max concurrency must be positive.");
+        this.userService = userService;
+        this.bookService = bookService;
+        this.authorService = authorService;
+        this.maxConcurrency = maxConcurrency;
+        // fair, so calls enter in the order they arrived
+        this.permits = new Semaphore(maxConcurrency, true);
+    }
+
+    public <R> CompletableFuture<R> users(Function<UserService, R> call) {
+        return submit(() -> call.apply(userService));
+    }
+
+    public <R> CompletableFuture<R> books(Function<BookService, R> call) {
+        return submit(() -> call.apply(bookService));
+    }
+
+    public <R> CompletableFuture<R> authors(Function<AuthorService, R> call) {
+        return submit(() -> call.apply(authorService));
+    }
+
+    public CompletableFuture<Void> rentBook(long userId, long bookId) {
+        return submit(() -> {
+            userService.rentBook(userId, bookId);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> returnBook(long userId, long bookId) {
+        return submit(() -> {
+            userService.returnBook(userId, bookId);
+            return null;
+        });
+    }
+
+    /** Calls waiting for a permit. */
+    public int queued() {
+        return permits.getQueueLength();
+    }
+
+    /** Calls running inside the services. */
+    public int inFlight() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    private <R> CompletableFuture<R> submit(Supplier<R> call) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+            try {
+                return call.get();
+            } finally {
+                permits.release();
+            }
+        }, executor);
+    }
+
+    @PreDestroy
+    public void close() {
+        // waits for the calls already submitted
+        executor.close();
+    }
+}
@@ -0,0 +1,203 @@
+package org.mystudying.booksmarket2.services;
+
+import jakarta.annotation.PostConstruct;
+import org.mystudying.booksmarket2.domain.Reservation;
+import org.mystudying.booksmarket2.exceptions.BookAlreadyReservedException;
+import org.mystudying.booksmarket2.repositories.ReservationRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongPredicate;
+
+/**
+ * The waitlists of books with no copy left: the reservations table, mirrored in memory as a FIFO of the
+ * waiting users per book.
+ * <p>
+ * The table decides who is next; the queues let the return of a book nobody waits for skip it entirely.
+ * A user enters the queue as soon as the reservation is written and leaves it only once the hand-off or
+ * cancellation has committed, so a queue may briefly name a user the table no longer holds (costing one
+ * query) but never misses a committed reservation. The queues are loaded from the table at startup.
+ * The queues are per process, with the same single-instance limit as the {@link AvailabilityEngine}.
+ */
+@Component
+public class Waitlist {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Waitlist.class);
+
+    private final ReservationRepository reservationRepository;
+    private final ObjectProvider<ReservationListener> listeners;
+    // guards queues
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Long, ArrayDeque<Long>> queues = new HashMap<>();
+
+    public Waitlist(ReservationRepository reservationRepository, ObjectProvider<ReservationListener> listeners) {
+        this.reservationRepository = reservationRepository;
+        this.listeners = listeners;
+    }
+
+    @PostConstruct
+    void load() {
+        var reservations = reservationRepository.findAll();
+        lock.lock();
+        try {
+            queues.clear();
+            reservations.forEach(reservation -> enqueue(reservation.getBookId(), reservation.getUserId()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Puts the user at the end of the book's waitlist, in the current transaction.
+     *
+     * @throws BookAlreadyReservedException when the user already waits for the book
+     */
+    public void join(long userId, long bookId) {
+        try {
+            reservationRepository.create(new Reservation(1, userId, bookId));
+        } catch (DuplicateKeyException e) {
+            throw new BookAlreadyReservedException();
+        }
+        withLock(() -> enqueue(bookId, userId));
+        afterCompletion(committed -> {
+            if (!committed) {
+                withLock(() -> dequeue(bookId, userId));
+            }
+        });
+    }
+
+    /**
+     * Takes the user off the book's waitlist, in the current transaction.
+     *
+     * @return false when the user was not waiting for the book
+     */
+    public boolean leave(long userId, long bookId) {
+        if (!reservationRepository.delete(userId, bookId)) {
+            return false;
+        }
+        afterCompletion(committed -> {
+            if (committed) {
+                withLock(() -> dequeue(bookId, userId));
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Gives a copy of the book that was just returned to the first user in line who can take it, in the
+     * current transaction. Each reservation tried is used up, whether rent took the copy or not.
+     *
+     * @param rent rents the book to the given user in the current transaction; false when that user cannot have it
+     * @return the user who got the copy; empty when nobody waits for the book and the copy stays available
+     */
+    public OptionalLong handOff(long bookId, LongPredicate rent) {
+        if (!isWaitedFor(bookId)) {
+            return OptionalLong.empty();
+        }
+        for (var next = reservationRepository.findAndLockFirstByBookId(bookId); next.isPresent();
+             next = reservationRepository.findAndLockFirstByBookId(bookId)) {
+            long userId = next.get().getUserId();
+            reservationRepository.delete(userId, bookId);
+            boolean rented = rent.test(userId);
+            afterCompletion(committed -> {
+                if (committed) {
+                    withLock(() -> dequeue(bookId, userId));
+                    if (rented) {
+                        notifyHandedOver(userId, bookId);
+                    }
+                }
+            });
+            if (rented) {
+                return OptionalLong.of(userId);
+            }
+        }
+        return OptionalLong.empty();
+    }
+
+    /** The users waiting for the book, first in line first, as far as this instance knows. */
+    public List<Long> waiting(long bookId) {
+        lock.lock();
+        try {
+            var queue = queues.get(bookId);
+            return queue == null ? List.of() : List.copyOf(queue);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<Reservation> findByUserId(long userId) {
+        return reservationRepository.findByUserId(userId);
+    }
+
+    private boolean isWaitedFor(long bookId) {
+        lock.lock();
+        try {
+            var queue = queues.get(bookId);
+            return queue != null && !queue.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(long bookId, long userId) {
+        var queue = queues.computeIfAbsent(bookId, id -> new ArrayDeque<>());
+        if (!queue.contains(userId)) {
+            queue.addLast(userId);
+        }
+    }
+
+    private void dequeue(long bookId, long userId) {
+        var queue = queues.get(bookId);
+        if (queue != null && queue.remove(userId) && queue.isEmpty()) {
+            queues.remove(bookId);
+        }
+    }
+
+    private void withLock(Runnable change) {
+        lock.lock();
+        try {
+            change.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void notifyHandedOver(long userId, long bookId) {
+        LOGGER.info("Book {} handed over to user {} from the waitlist", bookId, userId);
+        listeners.orderedStream().forEach(listener -> {
+            try {
+                listener.bookHandedOver(userId, bookId);
+            } catch (RuntimeException e) {
+                // the hand-off has committed; one failing listener must not keep the others from hearing of it
+                LOGGER.warn("Reservation listener {} failed", listener, e);
+            }
+        });
+    }
+
+    private static void afterCompletion(CompletionCallback callback) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("The waitlist must be used inside a transaction.");
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                callback.completed(status == STATUS_COMMITTED);
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface CompletionCallback {
+        void completed(boolean committed);
+    }
+}
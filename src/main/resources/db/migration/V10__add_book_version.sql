@@ -0,0 +1,4 @@
+-- Flyway migration: a version per book, bumped by every write to the row. An edit is saved only if the row is
+-- still at the version the edit was made from (optimistic concurrency), so it never overwrites a rental or
+-- another edit that came in between.
+ALTER TABLE books ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
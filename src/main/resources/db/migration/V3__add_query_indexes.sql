@@ -0,0 +1,12 @@
+-- Flyway migration: indexes for the lookups and orderings of the repositories
+-- InnoDB appends the primary key to every secondary index, so (title) also serves ORDER BY title, id.
+
+-- books: by title, by year ordered by title, by author ordered by title
+CREATE INDEX idx_books_title ON books (title);
+CREATE INDEX idx_books_year_title ON books (year, title);
+-- also serves the foreign key; InnoDB then drops the index it created for fk_books_author
+CREATE INDEX idx_books_author_title ON books (author_id, title);
+
+-- users and authors: by name, ordered by name
+CREATE INDEX idx_users_name ON users (name);
+CREATE INDEX idx_authors_name ON authors (name);
@@ -0,0 +1,8 @@
+-- Flyway migration: progress of the bulk imports, as the number of records of a source committed so far
+-- It is written in the same transaction as the rows, so a resumed import neither skips nor repeats records.
+CREATE TABLE IF NOT EXISTS import_checkpoints (
+    import_id VARCHAR(512) PRIMARY KEY,
+    records BIGINT NOT NULL,
+    completed BOOLEAN NOT NULL DEFAULT FALSE,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
@@ -0,0 +1,13 @@
+-- Flyway migration: the waitlists of books with no copy left, one row per waiting user and book.
+-- Ids grow with every reservation, so (book_id, id) orders each book's waitlist first come, first served.
+CREATE TABLE IF NOT EXISTS reservations (
+    id BIGINT PRIMARY KEY AUTO_INCREMENT,
+    user_id BIGINT NOT NULL,
+    book_id BIGINT NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT uq_reservations_user_book UNIQUE (user_id, book_id),
+    CONSTRAINT fk_reservations_user FOREIGN KEY (user_id) REFERENCES users(id),
+    CONSTRAINT fk_reservations_book FOREIGN KEY (book_id) REFERENCES books(id)
+);
+
+CREATE INDEX idx_reservations_book ON reservations(book_id, id);
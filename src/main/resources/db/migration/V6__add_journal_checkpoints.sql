@@ -0,0 +1,7 @@
+-- Flyway migration: how far the write-behind booking journal has been applied, as the last sequence number written.
+-- It is written in the same transaction as the entries it covers, so a replay after a crash applies each entry once.
+CREATE TABLE IF NOT EXISTS journal_checkpoints (
+    journal VARCHAR(64) PRIMARY KEY,
+    applied_seq BIGINT NOT NULL,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
@@ -0,0 +1,16 @@
+-- Flyway migration: the transactional outbox. Every change event is inserted in the transaction that makes the change,
+-- so an event exists exactly when its change committed; the relay publishes events in id order.
+CREATE TABLE IF NOT EXISTS outbox_events (
+    id BIGINT PRIMARY KEY AUTO_INCREMENT,
+    type VARCHAR(32) NOT NULL,
+    entity_id BIGINT NOT NULL,
+    payload VARCHAR(2000) NOT NULL,
+    created_at TIMESTAMP(3) NOT NULL
+);
+
+-- How far each sink of the relay got, as the id of the last event it was given.
+CREATE TABLE IF NOT EXISTS outbox_offsets (
+    consumer VARCHAR(64) PRIMARY KEY,
+    last_event_id BIGINT NOT NULL,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
@@ -0,0 +1,9 @@
+-- Flyway migration: how many tables the bookings are spread over (booksmarket.bookings.shards).
+-- Shard 0 is the bookings table itself; the application creates bookings_1 .. bookings_<n-1> and moves the
+-- bookings between them when the configured count changes.
+CREATE TABLE IF NOT EXISTS booking_shards (
+    id INT PRIMARY KEY,
+    shard_count INT NOT NULL
+);
+
+INSERT INTO booking_shards(id, shard_count) VALUES (1, 1);
@@ -0,0 +1,8 @@
+-- Flyway migration: the heartbeat the application writes to the primary and reads back from each read replica.
+-- The time a replica shows is how far it got; its distance from now is the replica's lag.
+CREATE TABLE IF NOT EXISTS replica_heartbeat (
+    id INT PRIMARY KEY,
+    beat TIMESTAMP(3) NOT NULL
+);
+
+INSERT INTO replica_heartbeat(id, beat) VALUES (1, CURRENT_TIMESTAMP(3));
@@ -0,0 +1,208 @@
+package org.mystudying.booksmarket2.cache;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mystudying.booksmarket2.domain.User;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EntityCacheTest {
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger loads = new AtomicInteger();
+    private final EntityCache<User> cache = new EntityCache<>("users", 2, Duration.ofNanos(100), User::getId,
+            Map.of("email", User::getEmail), now::get);
+
+    private Optional<User> load(long id) {
+        loads.incrementAndGet();
+        return Optional.of(new User(id, "User " + id, "user" + id + "@example.com"));
+    }
+
+    private Optional<User> loadByEmail(String email) {
+        loads.incrementAndGet();
+        return load(Long.parseLong(email.substring(4, email.indexOf('@'))));
+    }
+
+    @AfterEach
+    void afterEach() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void secondLookupIsAHit() {
+        cache.get(1, this::load);
+        assertThat(cache.get(1, this::load)).map(User::getName).hasValue("User 1");
+        assertThat(loads).hasValue(1);
+        assertThat(cache.stats()).extracting(CacheStats::hits, CacheStats::misses).containsExactly(1L, 1L);
+    }
+
+    @Test
+    void lookupByKeyAndByIdShareTheEntry() {
+        cache.getBy("email", "user1@example.com", this::loadByEmail);
+        cache.get(1, this::load);
+        cache.getBy("email", "user1@example.com", this::loadByEmail);
+        assertThat(cache.stats().hits()).isEqualTo(2);
+        assertThat(cache.stats().size()).isOne();
+    }
+
+    @Test
+    void notFoundIsNotCached() {
+        cache.get(1, id -> Optional.empty());
+        assertThat(cache.get(1, this::load)).isPresent();
+        assertThat(cache.stats().size()).isOne();
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvictedWithItsKeys() {
+        cache.get(1, this::load);
+        cache.get(2, this::load);
+        cache.get(1, this::load);
+        cache.get(3, this::load);
+        assertThat(cache.stats()).extracting(CacheStats::evictions, CacheStats::size).containsExactly(1L, 2);
+        loads.set(0);
+        cache.get(1, this::load);
+        cache.getBy("email", "user2@example.com", this::loadByEmail);
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void expiredEntryIsLoadedAgain() {
+        cache.get(1, this::load);
+        now.addAndGet(100);
+        cache.get(1, this::load);
+        assertThat(loads).hasValue(2);
+        assertThat(cache.stats().evictions()).isOne();
+    }
+
+    @Test
+    void invalidatingAnEntityRemovesWhatItsKeysPointTo() {
+        cache.get(1, this::load);
+        cache.invalidate(new User(7, "New", "user1@example.com"));
+        assertThat(cache.stats().size()).isZero();
+    }
+
+    private void completeTransaction(int status) {
+        var synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        synchronizations.forEach(sync -> sync.afterCompletion(status));
+    }
+
+    @Test
+    void invalidationInsideATransactionIsRepeatedWhenItCompletes() {
+        TransactionSynchronizationManager.initSynchronization();
+        cache.invalidate(1);
+        var writer = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        cache.get(1, this::load); // another transaction reading the old row before the commit
+        assertThat(cache.stats().size()).isOne();
+        writer.forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        assertThat(cache.stats().size()).isZero();
+    }
+
+    @Test
+    void loadInsideATransactionIsStoredOnlyOnCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        cache.get(1, this::load);
+        assertThat(cache.stats().size()).isZero();
+        completeTransaction(TransactionSynchronization.STATUS_ROLLED_BACK);
+        assertThat(cache.stats().size()).isZero();
+
+        TransactionSynchronizationManager.initSynchronization();
+        cache.get(1, this::load);
+        completeTransaction(TransactionSynchronization.STATUS_COMMITTED);
+        assertThat(cache.stats().size()).isOne();
+    }
+
+    @Test
+    void loadOfATransactionBehindThePrimaryIsNotStored() {
+        TransactionSynchronizationManager.initSynchronization();
+        EntityCache.skipLoadsOfCurrentTransaction();
+        cache.get(1, this::load);
+        completeTransaction(TransactionSynchronization.STATUS_COMMITTED);
+        assertThat(cache.stats().size()).isZero();
+
+        // only that transaction
+        TransactionSynchronizationManager.initSynchronization();
+        cache.get(1, this::load);
+        completeTransaction(TransactionSynchronization.STATUS_COMMITTED);
+        assertThat(cache.stats().size()).isOne();
+    }
+
+    @Test
+    void loadOverlappingAnInvalidationIsNotStored() {
+        cache.get(1, id -> {
+            cache.invalidate(id);
+            return load(id);
+        });
+        assertThat(cache.stats().size()).isZero();
+    }
+
+    @Test
+    void invalidationOfAnotherIdDoesNotStopALoad() {
+        cache.get(1, id -> {
+            cache.invalidate(2);
+            return load(id);
+        });
+        assertThat(cache.stats().size()).isOne();
+    }
+
+    private static User renamed(User user) {
+        return new User(user.getId(), "Renamed", user.getEmail());
+    }
+
+    @Test
+    void updateChangesTheCachedEntityInPlace() {
+        cache.get(1, this::load);
+        cache.update(1, EntityCacheTest::renamed);
+        assertThat(cache.get(1, this::load)).map(User::getName).hasValue("Renamed");
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void updateOfAnAbsentEntityCachesNothing() {
+        cache.update(1, EntityCacheTest::renamed);
+        assertThat(cache.stats().size()).isZero();
+    }
+
+    @Test
+    void updateInsideATransactionIsAppliedOnlyOnCommit() {
+        cache.get(1, this::load);
+        TransactionSynchronizationManager.initSynchronization();
+        cache.update(1, EntityCacheTest::renamed);
+        assertThat(cache.getIfPresent(1)).map(User::getName).hasValue("User 1");
+        completeTransaction(TransactionSynchronization.STATUS_ROLLED_BACK);
+        assertThat(cache.getIfPresent(1)).map(User::getName).hasValue("User 1");
+
+        TransactionSynchronizationManager.initSynchronization();
+        cache.update(1, EntityCacheTest::renamed);
+        completeTransaction(TransactionSynchronization.STATUS_COMMITTED);
+        assertThat(cache.getIfPresent(1)).map(User::getName).hasValue("Renamed");
+    }
+
+    @Test
+    void loadOverlappingAnUpdateIsNotStored() {
+        cache.get(1, id -> {
+            cache.update(id, EntityCacheTest::renamed);
+            return load(id);
+        });
+        assertThat(cache.stats().size()).isZero();
+    }
+
+    @Test
+    void sizeZeroCachesNothing() {
+        var disabled = new EntityCache<User>("users", 0, Duration.ofMinutes(1), User::getId, Map.of());
+        disabled.get(1, this::load);
+        disabled.get(1, this::load);
+        assertThat(loads).hasValue(2);
+        assertThat(disabled.stats().misses()).isEqualTo(2);
+    }
+}
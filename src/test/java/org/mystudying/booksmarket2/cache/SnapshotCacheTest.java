@@ -0,0 +1,50 @@
+package org.mystudying.booksmarket2.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SnapshotCacheTest {
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger loads = new AtomicInteger();
+    private final SnapshotCache<String, String> cache = new SnapshotCache<>("statistics", 2, Duration.ofNanos(100), now::get);
+
+    private String load(String key) {
+        return key + " #" + loads.incrementAndGet();
+    }
+
+    @Test
+    void aResultIsServedUntilTheRefreshIntervalPassed() {
+        cache.get("totals", this::load);
+        now.set(99);
+        assertThat(cache.get("totals", this::load)).isEqualTo("totals #1");
+        now.set(100);
+        assertThat(cache.get("totals", this::load)).isEqualTo("totals #2");
+        assertThat(cache.stats()).extracting(CacheStats::hits, CacheStats::misses, CacheStats::evictions)
+                .containsExactly(1L, 2L, 1L);
+    }
+
+    @Test
+    void leastRecentlyUsedGoesFirst() {
+        cache.get("a", this::load);
+        cache.get("b", this::load);
+        cache.get("a", this::load);
+        cache.get("c", this::load);
+        assertThat(cache.get("a", this::load)).isEqualTo("a #1");
+        assertThat(cache.get("b", this::load)).isEqualTo("b #4");
+        assertThat(cache.stats().size()).isEqualTo(2);
+    }
+
+    @Test
+    void sizeZeroComputesEveryTime() {
+        var disabled = new SnapshotCache<String, String>("statistics", 0, Duration.ofHours(1), now::get);
+        disabled.get("totals", this::load);
+        disabled.get("totals", this::load);
+        assertThat(loads).hasValue(2);
+        assertThat(disabled.stats().size()).isZero();
+    }
+}
@@ -49,6 +49,12 @@ class AuthorTest {
 
     }
 
+    @Test
+    void loadKeepsAMissingBirthdate() {
+        var author = Author.load(1, "Isaac Asimov", null);
+        assertThat(author.getBirthdate()).isNull();
+    }
+
 
 
 }
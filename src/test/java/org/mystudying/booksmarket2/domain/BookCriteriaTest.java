@@ -0,0 +1,63 @@
+package org.mystudying.booksmarket2.domain;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class BookCriteriaTest {
+    @Test
+    void anyHasNoFilter() {
+        var criteria = BookCriteria.any();
+        assertThat(criteria.getYearFrom()).isNull();
+        assertThat(criteria.getYearTo()).isNull();
+        assertThat(criteria.getAuthorId()).isNull();
+        assertThat(criteria.getAuthorName()).isNull();
+        assertThat(criteria.getAvailable()).isNull();
+        assertThat(criteria.getTitlePrefix()).isNull();
+    }
+
+    @Test
+    void withMethodsReturnACopyAndKeepTheOtherFilters() {
+        var years = BookCriteria.any().withYears(1950, 1960);
+        var combined = years.withAuthorId(7).withAvailable(true).withTitlePrefix("Found");
+        assertThat(years.getAuthorId()).isNull();
+        assertThat(combined.getYearFrom()).isEqualTo(1950);
+        assertThat(combined.getYearTo()).isEqualTo(1960);
+        assertThat(combined.getAuthorId()).isEqualTo(7);
+        assertThat(combined.getAvailable()).isTrue();
+        assertThat(combined.getTitlePrefix()).isEqualTo("Found");
+    }
+
+    @Test
+    void withYearIsARangeOfOneYear() {
+        var criteria = BookCriteria.any().withYear(1951);
+        assertThat(criteria.getYearFrom()).isEqualTo(1951);
+        assertThat(criteria.getYearTo()).isEqualTo(1951);
+    }
+
+    @Test
+    void authorIdAndAuthorNameReplaceEachOther() {
+        var byName = BookCriteria.any().withAuthorId(7).withAuthorName("Isaac Asimov");
+        assertThat(byName.getAuthorId()).isNull();
+        assertThat(byName.getAuthorName()).isEqualTo("Isaac Asimov");
+        var byId = byName.withAuthorId(7);
+        assertThat(byId.getAuthorId()).isEqualTo(7);
+        assertThat(byId.getAuthorName()).isNull();
+    }
+
+    @Test
+    void emptyTitlePrefixIsNoFilter() {
+        assertThat(BookCriteria.any().withTitlePrefix("").getTitlePrefix()).isNull();
+    }
+
+    @Test
+    void firstYearAfterLastYearFails() {
+        assertThatIllegalArgumentException().isThrownBy(() -> BookCriteria.any().withYears(1960, 1950));
+    }
+
+    @Test
+    void blankAuthorNameFails() {
+        assertThatIllegalArgumentException().isThrownBy(() -> BookCriteria.any().withAuthorName(" "));
+    }
+}
@@ -83,4 +83,22 @@ class BookTest {
         assertThatIllegalArgumentException().isThrownBy(book::rentBook);
     }
 
+    @Test
+    void loadKeepsTheRowWithoutValidatingIt() {
+        var book = Book.load(1, "Foundation", 1951, 101, 3, 7);
+        assertThat(book.getTitle()).isEqualTo("Foundation");
+        assertThat(book.getAvailable()).isEqualTo(3);
+        assertThat(book.getVersion()).isEqualTo(7);
+        assertThatNoException().isThrownBy(() -> Book.load(1, "Future", LocalDate.now().getYear() + 1, 101, 3, 0));
+    }
+
+    @Test
+    void editedKeepsTheIdAndVersionAndValidates() {
+        var book = Book.load(1, "Foundation", 1951, 101, 3, 7).edited("Foundation and Empire", 1952, 101, 2);
+        assertThat(book.getId()).isOne();
+        assertThat(book.getTitle()).isEqualTo("Foundation and Empire");
+        assertThat(book.getVersion()).isEqualTo(7);
+        assertThatIllegalArgumentException().isThrownBy(() -> book.edited(" ", 1952, 101, 2));
+    }
+
 }
@@ -0,0 +1,56 @@
+package org.mystudying.booksmarket2.domain;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DomainValidationTest {
+    private static final Pattern EMAIL = Pattern.compile("[-.\\w]+@([\\w-]+\\.)+[\\w-]+");
+
+    @ParameterizedTest
+    @ValueSource(strings = {"alice@example.com", "a.b-c_d@mail.example.co.uk", "x@y.z", "-@-.-", "a..b@c.d"})
+    void validEmailsPass(String email) {
+        assertThat(DomainValidation.isEmail(email)).isTrue();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "alice", "@example.com", "alice@", "alice@example", "alice@.com", "alice@example.",
+            "alice@example..com", "alice@@example.com", "al ice@example.com", "alice@exa+mple.com", "élise@example.com"})
+    void invalidEmailsFail(String email) {
+        assertThat(DomainValidation.isEmail(email)).isFalse();
+    }
+
+    @Test
+    void nullIsNoEmail() {
+        assertThat(DomainValidation.isEmail(null)).isFalse();
+    }
+
+    @Test
+    void scannerAgreesWithTheRegexItReplaces() {
+        var random = new Random(42);
+        var alphabet = "ab_-.@+ 9Z";
+        for (int n = 0; n < 100_000; n++) {
+            var email = new StringBuilder();
+            for (int length = random.nextInt(12); length > 0; length--) {
+                email.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertThat(DomainValidation.isEmail(email.toString()))
+                    .as(email.toString())
+                    .isEqualTo(EMAIL.matcher(email).matches());
+        }
+    }
+
+    @Test
+    void todayIsTheCurrentDate() {
+        var before = LocalDate.now();
+        var today = DomainValidation.today();
+        assertThat(today).isBetween(before, LocalDate.now());
+        assertThat(DomainValidation.currentYear()).isEqualTo(today.getYear());
+    }
+}
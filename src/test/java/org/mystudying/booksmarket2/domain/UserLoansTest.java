@@ -0,0 +1,26 @@
+package org.mystudying.booksmarket2.domain;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class UserLoansTest {
+    @ParameterizedTest
+    @ValueSource(longs = {0, -10})
+    void createUserLoansWithIncorrectUserIdFail(long userId) {
+        assertThatIllegalArgumentException().isThrownBy(() -> new UserLoans(userId, List.of()));
+    }
+
+    @Test
+    void withBooksAndWithoutBooksLeaveTheOriginalUnchanged() {
+        var loans = new UserLoans(1, List.of(10L, 20L));
+        assertThat(loans.withBooks(List.of(30L)).getBookIds()).containsExactlyInAnyOrder(10L, 20L, 30L);
+        assertThat(loans.withoutBooks(List.of(10L, 40L)).getBookIds()).containsExactly(20L);
+        assertThat(loans.getBookIds()).containsExactlyInAnyOrder(10L, 20L);
+    }
+}
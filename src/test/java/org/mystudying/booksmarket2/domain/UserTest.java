@@ -44,6 +44,12 @@ class UserTest {
 
     }
 
+    @Test
+    void loadSkipsTheEmailCheck() {
+        var user = User.load(1, "Alice Johnson", "alice@localhost");
+        assertThat(user.getEmail()).isEqualTo("alice@localhost");
+    }
+
 
 
 }
@@ -0,0 +1,154 @@
+package org.mystudying.booksmarket2.exports;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mystudying.booksmarket2.cache.EntityCaches;
+import org.mystudying.booksmarket2.repositories.AuthorRepository;
+import org.mystudying.booksmarket2.repositories.BookRepository;
+import org.mystudying.booksmarket2.repositories.BookingRepository;
+import org.mystudying.booksmarket2.repositories.BookingShards;
+import org.mystudying.booksmarket2.repositories.UserRepository;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.jdbc.JdbcTestUtils;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+@JdbcTest
+@Import({ExportService.class, TableExporter.class, BookRepository.class, UserRepository.class, AuthorRepository.class,
+        BookingRepository.class, BookingShards.class, EntityCaches.class})
+// sequential, on the test's thread, so the exports read the test records inside the test transaction
+@TestPropertySource(properties = {"booksmarket.export.parallelism=1", "booksmarket.export.buffer-size=16"})
+@Sql("/insertTestRecords.sql")
+class ExportServiceTest {
+    private final ExportService exportService;
+    private final TableExporter tableExporter;
+    private final JdbcClient jdbcClient;
+    private final JdbcTemplate jdbcTemplate;
+    @TempDir
+    private Path directory;
+
+    public ExportServiceTest(ExportService exportService, TableExporter tableExporter, JdbcClient jdbcClient,
+                             JdbcTemplate jdbcTemplate) {
+        this.exportService = exportService;
+        this.tableExporter = tableExporter;
+        this.jdbcClient = jdbcClient;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    private long id(String sql) {
+        return jdbcClient.sql(sql).query(Long.class).single();
+    }
+
+    private static List<String> lines(Path file) throws IOException {
+        if (file.getFileName().toString().endsWith(".gz")) {
+            try (var in = new GZIPInputStream(Files.newInputStream(file))) {
+                return new String(in.readAllBytes(), StandardCharsets.UTF_8).lines().toList();
+            }
+        }
+        return Files.readAllLines(file);
+    }
+
+    @Test
+    void csvExportHasAHeaderAndEveryRow() throws IOException {
+        var report = exportService.export(directory, List.of(ExportTable.values()), ExportFormat.CSV, false);
+
+        assertThat(report.tables()).extracting(ExportReport.Table::table).containsExactly(ExportTable.values());
+        for (var table : report.tables()) {
+            var lines = lines(table.file());
+            assertThat(lines.getFirst()).isEqualTo(String.join(",", table.table().columns()));
+            assertThat(lines).hasSize(JdbcTestUtils.countRowsInTable(jdbcTemplate, table.table().name().toLowerCase()) + 1);
+            assertThat(table.rows()).isEqualTo(lines.size() - 1);
+            assertThat(table.bytes()).isEqualTo(Files.size(table.file()));
+        }
+        long authorId = id("SELECT id FROM authors WHERE name = 'Test Author 1'");
+        long bookId = id("SELECT id FROM books WHERE title = 'Test Book 1'");
+        long userId = id("SELECT id FROM users WHERE email = 'test1@example.com'");
+        assertThat(lines(directory.resolve("books.csv"))).contains(bookId + ",Test Book 1,2001," + authorId + ",5");
+        assertThat(lines(directory.resolve("authors.csv"))).contains(authorId + ",Test Author 1,1901-01-01");
+        assertThat(lines(directory.resolve("bookings.csv"))).contains(userId + "," + bookId);
+        try (var files = Files.list(directory)) {
+            assertThat(files).noneMatch(file -> file.toString().endsWith(".part"));
+        }
+    }
+
+    @Test
+    void csvQuotesValuesWithSeparatorsAndQuotes() throws IOException {
+        jdbcClient.sql("INSERT INTO authors(name, birthdate) VALUES ('Doe, \"JD\" John', '1950-05-05')").update();
+        long authorId = id("SELECT id FROM authors WHERE name LIKE 'Doe, %'");
+
+        exportService.export(directory, List.of(ExportTable.AUTHORS), ExportFormat.CSV, false);
+
+        assertThat(lines(directory.resolve("authors.csv"))).contains(authorId + ",\"Doe, \"\"JD\"\" John\",1950-05-05");
+    }
+
+    @Test
+    void ndjsonExportWritesOneObjectPerLineAndCanBeGzipped() throws IOException {
+        var report = exportService.export(directory, List.of(ExportTable.USERS, ExportTable.BOOKINGS),
+                ExportFormat.NDJSON, true);
+
+        var users = report.tables().getFirst();
+        assertThat(users.file()).isEqualTo(directory.resolve("users.ndjson.gz"));
+        long userId = id("SELECT id FROM users WHERE email = 'test1@example.com'");
+        assertThat(lines(users.file()))
+                .hasSize(JdbcTestUtils.countRowsInTable(jdbcTemplate, "users"))
+                .contains("{\"id\":" + userId + ",\"name\":\"Test User 1\",\"email\":\"test1@example.com\"}")
+                .allMatch(line -> line.startsWith("{\"id\":") && line.endsWith("}"));
+        assertThat(lines(directory.resolve("bookings.ndjson.gz")))
+                .contains("{\"user_id\":" + userId + ",\"book_id\":" + id("SELECT id FROM books WHERE title = 'Test Book 1'") + "}");
+    }
+
+    @Test
+    void exportReplacesAnEarlierExport() throws IOException {
+        Files.writeString(directory.resolve("authors.csv"), "stale");
+
+        exportService.export(directory, List.of(ExportTable.AUTHORS), ExportFormat.CSV, false);
+
+        assertThat(lines(directory.resolve("authors.csv"))).doesNotContain("stale");
+    }
+
+    @Test
+    void exportToAFileInsteadOfADirectoryFails() throws IOException {
+        var file = Files.writeString(directory.resolve("not-a-directory"), "");
+
+        assertThatExceptionOfType(UncheckedIOException.class)
+                .isThrownBy(() -> exportService.export(file, List.of(ExportTable.AUTHORS), ExportFormat.CSV, false));
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void tablesExportedInParallelAreComplete() throws IOException {
+        // outside a transaction the test records are committed, so the export threads see them
+        try {
+            var parallel = new ExportService(tableExporter, 4, 1024);
+            var report = parallel.export(directory, List.of(ExportTable.values()), ExportFormat.CSV, true);
+
+            assertThat(report.tables()).extracting(ExportReport.Table::table).containsExactly(ExportTable.values());
+            for (var table : report.tables()) {
+                assertThat(lines(table.file())).hasSize((int) table.rows() + 1);
+            }
+            assertThat(report.rows()).isEqualTo(report.tables().stream().mapToLong(ExportReport.Table::rows).sum());
+            assertThat(lines(directory.resolve("books.csv.gz"))).anyMatch(line -> line.contains(",Test Book 2,2002,"));
+        } finally {
+            jdbcTemplate.update("DELETE FROM bookings WHERE user_id IN (SELECT id FROM users WHERE email IN ('test1@example.com', 'test2@example.com'))");
+            jdbcTemplate.update("DELETE FROM books WHERE title IN ('Test Book 1', 'Test Book 2')");
+            jdbcTemplate.update("DELETE FROM users WHERE email IN ('test1@example.com', 'test2@example.com')");
+            jdbcTemplate.update("DELETE FROM authors WHERE name IN ('Test Author 1', 'Test Author 2')");
+        }
+    }
+}
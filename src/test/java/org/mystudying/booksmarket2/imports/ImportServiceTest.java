@@ -0,0 +1,149 @@
+package org.mystudying.booksmarket2.imports;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mystudying.booksmarket2.cache.EntityCaches;
+import org.mystudying.booksmarket2.repositories.AuthorRepository;
+import org.mystudying.booksmarket2.repositories.BookRepository;
+import org.mystudying.booksmarket2.repositories.BookingShards;
+import org.mystudying.booksmarket2.search.CatalogSearch;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.jdbc.Sql;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@JdbcTest
+@Import({ImportService.class, ImportWriter.class, ImportCheckpoints.class, CatalogSearch.class, BookRepository.class,
+        BookingShards.class, AuthorRepository.class, EntityCaches.class})
+@TestPropertySource(properties = {"booksmarket.import.chunk-size=2", "booksmarket.import.rows-per-statement=1"})
+@Sql("/insertTestRecords.sql")
+class ImportServiceTest {
+    private final ImportService importService;
+    private final ImportCheckpoints checkpoints;
+    private final JdbcClient jdbcClient;
+    @TempDir
+    private Path directory;
+
+    public ImportServiceTest(ImportService importService, ImportCheckpoints checkpoints, JdbcClient jdbcClient) {
+        this.importService = importService;
+        this.checkpoints = checkpoints;
+        this.jdbcClient = jdbcClient;
+    }
+
+    private Path file(String name, String content) throws IOException {
+        var file = directory.resolve(name);
+        Files.writeString(file, content);
+        return file;
+    }
+
+    private long count(String sql) {
+        return jdbcClient.sql(sql).query(Long.class).single();
+    }
+
+    @Test
+    void importsUsersAndRejectsInvalidRecordsAndTakenEmails() throws IOException {
+        var file = file("users.csv", """
+                name,email
+                New User 1,new1@example.com
+                New User 2,not-an-email
+                Duplicate,TEST1@example.com
+                New User 3,new3@example.com
+                Twice,NEW3@example.com
+                """);
+        var report = importService.importFile(ImportKind.USERS, file, false);
+
+        assertThat(report.read()).isEqualTo(5);
+        assertThat(report.imported()).isEqualTo(2);
+        assertThat(report.rejected()).isEqualTo(3);
+        assertThat(report.rejections()).anyMatch(rejection -> rejection.startsWith("record 2:"));
+        assertThat(report.completed()).isTrue();
+        assertThat(count("SELECT COUNT(*) FROM users WHERE email IN ('new1@example.com', 'new3@example.com')")).isEqualTo(2);
+    }
+
+    @Test
+    void importsAuthorsOnceByName() throws IOException {
+        var file = file("authors.json", """
+                [{"name": "Test Author 1", "birthdate": "1901-01-01"},
+                 {"name": "New Author", "birthdate": "1950-05-05"},
+                 {"name": "New Author", "birthdate": "1950-05-05"},
+                 {"name": "Future Author", "birthdate": "2999-01-01"}]
+                """);
+        var report = importService.importFile(ImportKind.AUTHORS, file, false);
+
+        assertThat(report.imported()).isOne();
+        assertThat(report.duplicates()).isEqualTo(2);
+        assertThat(report.rejected()).isOne();
+        assertThat(count("SELECT COUNT(*) FROM authors WHERE name = 'New Author'")).isOne();
+        assertThat(count("SELECT COUNT(*) FROM authors WHERE name = 'Test Author 1'")).isOne();
+    }
+
+    @Test
+    void importsBooksResolvingAuthorsByNameAndCreatingNewOnesOnce() throws IOException {
+        var file = file("books.csv", """
+                title,year,author,available,author_birthdate
+                Imported 1,2001,Test Author 1,2,
+                Imported 2,2002,Brand New Author,1,1960-06-06
+                Imported 3,2003,Brand New Author,1,1960-06-06
+                Imported 4,2004,Nobody,1,
+                Imported 5,20x4,Test Author 2,1,
+                """);
+        var report = importService.importFile(ImportKind.BOOKS, file, false);
+
+        assertThat(report.imported()).isEqualTo(3);
+        assertThat(report.rejected()).isEqualTo(2);
+        assertThat(count("SELECT COUNT(*) FROM authors WHERE name = 'Brand New Author'")).isOne();
+        assertThat(count("""
+                SELECT COUNT(*) FROM books b JOIN authors a ON a.id = b.author_id
+                WHERE a.name = 'Brand New Author' AND b.title IN ('Imported 2', 'Imported 3')
+                """)).isEqualTo(2);
+        assertThat(count("""
+                SELECT COUNT(*) FROM books b JOIN authors a ON a.id = b.author_id
+                WHERE a.name = 'Test Author 1' AND b.title = 'Imported 1'
+                """)).isOne();
+    }
+
+    @Test
+    void resumesAfterTheCheckpointAndReportsProgressPerChunk() throws IOException {
+        var file = file("users.csv", """
+                name,email
+                Committed 1,committed1@example.com
+                Committed 2,committed2@example.com
+                Pending 1,pending1@example.com
+                Pending 2,pending2@example.com
+                Pending 3,pending3@example.com
+                """);
+        checkpoints.save("users:" + file.toAbsolutePath().normalize(), 2, false);
+        var progress = new ArrayList<ImportReport>();
+
+        var report = importService.importFile(ImportKind.USERS, file, false, progress::add);
+
+        assertThat(report.resumedFrom()).isEqualTo(2);
+        assertThat(report.read()).isEqualTo(3);
+        assertThat(progress).extracting(ImportReport::read).containsExactly(2L, 3L);
+        assertThat(count("SELECT COUNT(*) FROM users WHERE email LIKE 'committed%'")).isZero();
+        assertThat(count("SELECT COUNT(*) FROM users WHERE email LIKE 'pending%'")).isEqualTo(3);
+    }
+
+    @Test
+    void aCompletedImportIsNotRepeatedUnlessRestarted() throws IOException {
+        var file = file("users.csv", "name,email\nOnce,once@example.com\n");
+        importService.importFile(ImportKind.USERS, file, false);
+
+        var again = importService.importFile(ImportKind.USERS, file, false);
+        assertThat(again.read()).isZero();
+        assertThat(again.resumedFrom()).isOne();
+
+        var restarted = importService.importFile(ImportKind.USERS, file, true);
+        assertThat(restarted.read()).isOne();
+        assertThat(restarted.rejected()).isOne();
+        assertThat(count("SELECT COUNT(*) FROM users WHERE email = 'once@example.com'")).isOne();
+    }
+}
@@ -0,0 +1,82 @@
+package org.mystudying.booksmarket2.imports;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class RecordReaderTest {
+    @TempDir
+    private Path directory;
+
+    private List<List<String>> read(String fileName, String content, ImportKind kind) throws IOException {
+        var file = directory.resolve(fileName);
+        Files.writeString(file, content);
+        var records = new ArrayList<List<String>>();
+        try (var reader = RecordReader.open(file, kind)) {
+            for (SourceRecord record; (record = reader.next()) != null; ) {
+                assertThat(record.number()).isEqualTo(records.size() + 1);
+                records.add(Arrays.asList(record.values()));
+            }
+        }
+        return records;
+    }
+
+    @Test
+    void csvColumnsAreMatchedByTheHeader() throws IOException {
+        assertThat(read("users.csv", "email,ignored,name\nalice@example.com,x,Alice\r\n\r\nbob@example.com,y,Bob",
+                ImportKind.USERS))
+                .containsExactly(List.of("Alice", "alice@example.com"), List.of("Bob", "bob@example.com"));
+    }
+
+    @Test
+    void csvQuotedFieldsKeepCommasQuotesAndLineBreaks() throws IOException {
+        assertThat(read("books.csv", "title,year,author,available\n\"Dune, \"\"the\"\" novel\nPart 1\",1965,Frank Herbert,3\n",
+                ImportKind.BOOKS))
+                .containsExactly(List.of("Dune, \"the\" novel\nPart 1", "1965", "Frank Herbert", "3", ""));
+    }
+
+    @Test
+    void csvWithoutARequiredColumnFails() {
+        assertThatIllegalArgumentException()
+                .isThrownBy(() -> read("books.csv", "title,year,available\nDune,1965,3\n", ImportKind.BOOKS))
+                .withMessageContaining("author");
+    }
+
+    @Test
+    void jsonArrayOfObjects() throws IOException {
+        assertThat(read("authors.json",
+                "[{\"name\": \"Isaac Asimov\", \"birthdate\": \"1920-01-02\", \"books\": [1, 2]}, {\"name\": null}]",
+                ImportKind.AUTHORS))
+                .containsExactly(List.of("Isaac Asimov", "1920-01-02"), List.of("", ""));
+    }
+
+    @Test
+    void newlineDelimitedJsonWithNumbers() throws IOException {
+        assertThat(read("books.ndjson", """
+                {"title": "Dune", "year": 1965, "author": "Frank Herbert", "available": 3}
+                {"title": "Emma", "year": 1815, "author": "Jane Austen", "available": 0, "author_birthdate": "1775-12-16"}
+                """, ImportKind.BOOKS))
+                .containsExactly(List.of("Dune", "1965", "Frank Herbert", "3", ""),
+                        List.of("Emma", "1815", "Jane Austen", "0", "1775-12-16"));
+    }
+
+    @Test
+    void emptyJsonHasNoRecords() throws IOException {
+        assertThat(read("users.json", "[]", ImportKind.USERS)).isEmpty();
+        assertThat(read("users.jsonl", "", ImportKind.USERS)).isEmpty();
+    }
+
+    @Test
+    void otherFileTypesAreRefused() {
+        assertThatIllegalArgumentException().isThrownBy(() -> read("users.xml", "<users/>", ImportKind.USERS));
+    }
+}
@@ -0,0 +1,213 @@
+package org.mystudying.booksmarket2.journal;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mystudying.booksmarket2.domain.UserLoans;
+import org.mystudying.booksmarket2.repositories.BookingRepository;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BookingJournalTest {
+    private static final int SEGMENT_SIZE = 1 << 16;
+
+    @TempDir
+    private Path directory;
+    @Mock
+    private BookingRepository bookingRepository;
+    @Mock
+    private JournalWriter writer;
+    private BookingJournal journal;
+
+    private BookingJournal newJournal(int batchSize) {
+        var created = new BookingJournal(bookingRepository, writer, directory, SEGMENT_SIZE, batchSize);
+        created.recover();
+        return created;
+    }
+
+    // runs the change in a transaction that commits
+    private static <T> T committed(Supplier<T> change) {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            var result = change.get();
+            var synchronizations = TransactionSynchronizationManager.getSynchronizations();
+            TransactionSynchronizationUtils.invokeAfterCommit(synchronizations);
+            TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations, TransactionSynchronization.STATUS_COMMITTED);
+            return result;
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @BeforeEach
+    void beforeEach() {
+        journal = newJournal(100);
+    }
+
+    @Test
+    void rentIsRefusedWhenTheUserHoldsOneOfTheBooks() {
+        when(bookingRepository.findBookIds(eq(1L), any())).thenReturn(List.of(3L));
+        assertThat(committed(() -> journal.rent(1L, List.of(2L, 3L)))).isFalse();
+        assertThat(journal.backlog()).isZero();
+    }
+
+    @Test
+    void pendingRentalCountsAsHeldWithoutAskingTheDatabase() {
+        when(bookingRepository.findBookIds(eq(1L), any())).thenReturn(List.of());
+        assertThat(committed(() -> journal.rent(1L, List.of(2L)))).isTrue();
+        assertThat(committed(() -> journal.rent(1L, List.of(2L)))).isFalse();
+        assertThat(journal.findBookIds(1L, List.of(2L))).containsExactly(2L);
+        verify(bookingRepository, times(1)).findBookIds(1L, List.of(2L));
+        assertThat(journal.backlog()).isOne();
+    }
+
+    @Test
+    void changeIsJournaledOnlyOnceItsTransactionCommits() {
+        when(bookingRepository.findBookIds(eq(1L), any())).thenReturn(List.of());
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            assertThat(journal.rent(1L, List.of(2L))).isTrue();
+            assertThat(journal.backlog()).isZero();
+            // uncommitted: neither held nor free
+            assertThat(journal.rent(1L, List.of(2L))).isFalse();
+            assertThat(journal.returnBooks(1L, List.of(2L))).isEmpty();
+            assertThat(journal.findBookIds(1L, List.of(2L))).isEmpty();
+            TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(),
+                    TransactionSynchronization.STATUS_ROLLED_BACK);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertThat(journal.backlog()).isZero();
+        assertThat(JournalSegments.read(directory)).isEmpty();
+        assertThat(committed(() -> journal.rent(1L, List.of(2L)))).isTrue();
+        assertThat(JournalSegments.read(directory)).hasSize(1);
+    }
+
+    @Test
+    void changeLostAfterItsTransactionCommittedGoesBackToTheEngine() throws Exception {
+        when(bookingRepository.findBookIds(eq(1L), any())).thenReturn(List.of());
+        // one entry per segment, and the file of the next segment is in the way
+        journal = new BookingJournal(bookingRepository, writer, directory, JournalSegments.ENTRY_SIZE, 100);
+        journal.recover();
+        assertThat(committed(() -> journal.rent(1L, List.of(2L)))).isTrue();
+        Files.createFile(directory.resolve("bookings-%019d.journal".formatted(2)));
+        assertThat(committed(() -> journal.rent(1L, List.of(3L)))).isTrue();
+        verify(writer).lost(JournalEntry.Type.RENT, List.of(3L));
+        assertThat(journal.backlog()).isOne();
+        assertThat(journal.findBookIds(1L, List.of(2L, 3L))).containsExactly(2L);
+    }
+
+    @Test
+    void changeOutsideTransactionFails() {
+        when(bookingRepository.findBookIds(eq(1L), any())).thenReturn(List.of());
+        assertThatExceptionOfType(IllegalStateException.class).isThrownBy(() -> journal.rent(1L, List.of(2L)));
+    }
+
+    @Test
+    void returnAppendsOnlyTheBooksHeld() {
+        when(bookingRepository.findBookIds(eq(1L), any())).thenReturn(List.of(2L));
+        assertThat(committed(() -> journal.returnBooks(1L, List.of(2L, 3L)))).containsExactly(2L);
+        assertThat(journal.findBookIds(1L, List.of(2L))).isEmpty();
+        assertThat(committed(() -> journal.returnBooks(1L, List.of(2L)))).isEmpty();
+        assertThat(journal.backlog()).isOne();
+    }
+
+    @Test
+    void withPendingLaysTheChangesOverTheLoans() {
+        when(bookingRepository.findBookIds(eq(1L), any())).thenReturn(List.of(), List.of(2L));
+        committed(() -> journal.rent(1L, List.of(3L)));
+        committed(() -> journal.returnBooks(1L, List.of(2L)));
+        assertThat(journal.withPending(new UserLoans(1L, List.of(2L, 4L))).getBookIds()).containsExactlyInAnyOrder(3L, 4L);
+        assertThat(journal.withPending(new UserLoans(5L, List.of(2L))).getBookIds()).containsExactly(2L);
+    }
+
+    @Test
+    void applyPendingWritesTheEntriesAndForgetsThem() {
+        when(bookingRepository.findBookIds(eq(1L), any())).thenReturn(List.of());
+        when(writer.apply(anyList())).thenReturn(List.of(2L));
+        committed(() -> journal.rent(1L, List.of(2L, 3L)));
+        journal.applyPending();
+        verify(writer).apply(List.of(new JournalEntry(1, JournalEntry.Type.RENT, 1, 2),
+                new JournalEntry(2, JournalEntry.Type.RENT, 1, 3)));
+        assertThat(journal.backlog()).isZero();
+        // applied: the database answers again
+        assertThat(journal.findBookIds(1L, List.of(2L))).isEmpty();
+    }
+
+    @Test
+    void applyPendingSplitsTheEntriesIntoBatches() {
+        journal = newJournal(2);
+        when(bookingRepository.findBookIds(eq(1L), any())).thenReturn(List.of());
+        when(writer.apply(anyList())).thenReturn(List.of());
+        committed(() -> journal.rent(1L, List.of(2L, 3L, 4L)));
+        journal.applyPending();
+        verify(writer, times(2)).apply(anyList());
+        assertThat(journal.backlog()).isZero();
+    }
+
+    @Test
+    void failedApplyKeepsTheEntriesForTheNextRun() {
+        when(bookingRepository.findBookIds(eq(1L), any())).thenReturn(List.of());
+        when(writer.apply(anyList())).thenThrow(new QueryTimeoutException("")).thenReturn(List.of());
+        committed(() -> journal.rent(1L, List.of(2L)));
+        assertThatExceptionOfType(QueryTimeoutException.class).isThrownBy(journal::applyPending);
+        assertThat(journal.backlog()).isOne();
+        assertThat(journal.findBookIds(1L, List.of(2L))).containsExactly(2L);
+        journal.applyPending();
+        assertThat(journal.backlog()).isZero();
+    }
+
+    @Test
+    void recoveryAppliesTheEntriesAfterTheCheckpoint() {
+        when(bookingRepository.findBookIds(anyLong(), any())).thenReturn(List.of());
+        committed(() -> journal.rent(1L, List.of(2L)));
+        committed(() -> journal.rent(3L, List.of(4L)));
+        // a crash before anything was applied; the checkpoint says the first entry was
+
+        when(writer.appliedSeq()).thenReturn(1L);
+        when(writer.apply(anyList())).thenReturn(List.of());
+        var recovered = newJournal(100);
+
+        verify(writer).apply(List.of(new JournalEntry(2, JournalEntry.Type.RENT, 3, 4)));
+        assertThat(JournalSegments.read(directory)).isEmpty();
+        committed(() -> recovered.rent(5L, List.of(6L)));
+        assertThat(JournalSegments.read(directory)).containsExactly(new JournalEntry(3, JournalEntry.Type.RENT, 5, 6));
+    }
+
+    @Test
+    void concurrentRentalsAreAllDurable() throws Exception {
+        when(bookingRepository.findBookIds(anyLong(), any())).thenReturn(List.of());
+        var rentals = new ArrayList<CompletableFuture<Boolean>>();
+        try (var executor = Executors.newFixedThreadPool(8)) {
+            for (long userId = 1; userId <= 200; userId++) {
+                long user = userId;
+                rentals.add(CompletableFuture.supplyAsync(() -> committed(() -> journal.rent(user, List.of(1L))), executor));
+            }
+        }
+        assertThat(rentals).allSatisfy(rental -> assertThat(rental.get()).isTrue());
+        assertThat(JournalSegments.read(directory)).hasSize(200);
+        assertThat(journal.backlog()).isEqualTo(200);
+    }
+}
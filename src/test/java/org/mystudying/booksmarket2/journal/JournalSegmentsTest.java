@@ -0,0 +1,102 @@
+package org.mystudying.booksmarket2.journal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class JournalSegmentsTest {
+    private static final int SEGMENT_SIZE = 4 * JournalSegments.ENTRY_SIZE;
+
+    @TempDir
+    private Path directory;
+
+    private static JournalEntry rent(long seq) {
+        return new JournalEntry(seq, JournalEntry.Type.RENT, 10 + seq, 20 + seq);
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    void appendedEntriesAreReadBackInOrder() {
+        var segments = new JournalSegments(directory, SEGMENT_SIZE);
+        segments.start(1);
+        segments.append(rent(1));
+        segments.append(new JournalEntry(2, JournalEntry.Type.RETURN, 11, 21));
+        var sync = segments.takeSync();
+        sync.force();
+        assertThat(sync.lastSeq()).isEqualTo(2);
+        assertThat(JournalSegments.read(directory))
+                .containsExactly(rent(1), new JournalEntry(2, JournalEntry.Type.RETURN, 11, 21));
+    }
+
+    @Test
+    void takeSyncOnlyCoversEntriesWrittenSinceTheLastOne() {
+        var segments = new JournalSegments(directory, SEGMENT_SIZE);
+        segments.start(1);
+        segments.append(rent(1));
+        assertThat(segments.takeSync().to()).isEqualTo(JournalSegments.ENTRY_SIZE);
+        segments.append(rent(2));
+        var sync = segments.takeSync();
+        assertThat(sync.from()).isEqualTo(JournalSegments.ENTRY_SIZE);
+        assertThat(sync.to()).isEqualTo(2 * JournalSegments.ENTRY_SIZE);
+    }
+
+    @Test
+    void fullSegmentRollsOverAndIsDeletedOnceApplied() throws IOException {
+        var segments = new JournalSegments(directory, SEGMENT_SIZE);
+        segments.start(1);
+        for (long seq = 1; seq <= 9; seq++) {
+            segments.append(rent(seq));
+        }
+        assertThat(segmentCount()).isEqualTo(3);
+        assertThat(JournalSegments.read(directory)).hasSize(9).last().isEqualTo(rent(9));
+        segments.deleteAppliedUpTo(7);
+        assertThat(segmentCount()).isEqualTo(2);
+        assertThat(JournalSegments.read(directory)).first().isEqualTo(rent(5));
+    }
+
+    @Test
+    void readStopsAtATornEntry() throws IOException {
+        var segments = new JournalSegments(directory, SEGMENT_SIZE);
+        segments.start(1);
+        segments.append(rent(1));
+        segments.append(rent(2));
+        segments.append(rent(3));
+        segments.takeSync().force();
+        try (var channel = FileChannel.open(directory.resolve("bookings-0000000000000000001.journal"),
+                StandardOpenOption.WRITE)) {
+            // half of the second entry's book id
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), JournalSegments.ENTRY_SIZE + 20);
+        }
+        assertThat(JournalSegments.read(directory)).containsExactly(rent(1));
+    }
+
+    @Test
+    void deleteAllEmptiesTheDirectory() throws IOException {
+        var segments = new JournalSegments(directory, SEGMENT_SIZE);
+        segments.start(1);
+        segments.append(rent(1));
+        new JournalSegments(directory, SEGMENT_SIZE).deleteAll();
+        assertThat(segmentCount()).isZero();
+        assertThat(JournalSegments.read(directory)).isEmpty();
+    }
+
+    @Test
+    void segmentMustHoldAnEntry() {
+        assertThatIllegalArgumentException().isThrownBy(() -> new JournalSegments(directory, JournalSegments.ENTRY_SIZE - 1));
+    }
+}
@@ -0,0 +1,114 @@
+package org.mystudying.booksmarket2.journal;
+
+import org.junit.jupiter.api.Test;
+import org.mystudying.booksmarket2.cache.EntityCaches;
+import org.mystudying.booksmarket2.repositories.BookRepository;
+import org.mystudying.booksmarket2.repositories.BookingShards;
+import org.mystudying.booksmarket2.services.AvailabilityEngine;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.jdbc.JdbcTestUtils;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+@JdbcTest
+@Import({JournalWriter.class, AvailabilityEngine.class, BookRepository.class, BookingShards.class, EntityCaches.class})
+@TestPropertySource(properties = {"booksmarket.write-behind.enabled=true", "booksmarket.availability-engine.enabled=true"})
+@Sql("/insertTestRecords.sql")
+class JournalWriterTest {
+    private static final String BOOKINGS_TABLE = "bookings";
+    private final JournalWriter writer;
+    private final JdbcClient jdbcClient;
+
+    public JournalWriterTest(JournalWriter writer, JdbcClient jdbcClient) {
+        this.writer = writer;
+        this.jdbcClient = jdbcClient;
+    }
+
+    private long id(String sql) {
+        return jdbcClient.sql(sql).query(Long.class).single();
+    }
+
+    private long idOfTestUser1() {
+        return id("SELECT id FROM users WHERE email = 'test1@example.com'");
+    }
+
+    private long idOfTestUser2() {
+        return id("SELECT id FROM users WHERE email = 'test2@example.com'");
+    }
+
+    private long idOfTestBook1() {
+        return id("SELECT id FROM books WHERE title = 'Test Book 1'");
+    }
+
+    private long idOfTestBook2() {
+        return id("SELECT id FROM books WHERE title = 'Test Book 2'");
+    }
+
+    private int available(long bookId) {
+        return jdbcClient.sql("SELECT available FROM books WHERE id = ?").param(bookId).query(Integer.class).single();
+    }
+
+    private int bookings(long userId, long bookId) {
+        return JdbcTestUtils.countRowsInTableWhere(jdbcClient, BOOKINGS_TABLE,
+                "user_id = " + userId + " AND book_id = " + bookId);
+    }
+
+    @Test
+    void applyWritesBookingsAvailabilityAndCheckpoint() {
+        long seq = writer.appliedSeq();
+        writer.apply(List.of(
+                new JournalEntry(seq + 1, JournalEntry.Type.RETURN, idOfTestUser1(), idOfTestBook1()),
+                new JournalEntry(seq + 2, JournalEntry.Type.RENT, idOfTestUser2(), idOfTestBook1()),
+                new JournalEntry(seq + 3, JournalEntry.Type.RENT, idOfTestUser1(), idOfTestBook1())));
+        assertThat(bookings(idOfTestUser1(), idOfTestBook1())).isOne();
+        assertThat(bookings(idOfTestUser2(), idOfTestBook1())).isOne();
+        assertThat(available(idOfTestBook1())).isEqualTo(4);
+        assertThat(writer.appliedSeq()).isEqualTo(seq + 3);
+    }
+
+    @Test
+    void rentAndReturnInTheSameBatchCancelOut() {
+        long seq = writer.appliedSeq();
+        writer.apply(List.of(
+                new JournalEntry(seq + 1, JournalEntry.Type.RENT, idOfTestUser2(), idOfTestBook1()),
+                new JournalEntry(seq + 2, JournalEntry.Type.RETURN, idOfTestUser2(), idOfTestBook1())));
+        assertThat(bookings(idOfTestUser2(), idOfTestBook1())).isZero();
+        assertThat(available(idOfTestBook1())).isEqualTo(5);
+        assertThat(writer.appliedSeq()).isEqualTo(seq + 2);
+    }
+
+    @Test
+    void bookingsLeftAloneDoNotChangeAvailability() {
+        long seq = writer.appliedSeq();
+        // test user 1 holds test book 1 already, test user 2 does not
+        writer.apply(List.of(
+                new JournalEntry(seq + 1, JournalEntry.Type.RENT, idOfTestUser1(), idOfTestBook1()),
+                new JournalEntry(seq + 2, JournalEntry.Type.RETURN, idOfTestUser2(), idOfTestBook1())));
+        assertThat(bookings(idOfTestUser1(), idOfTestBook1())).isOne();
+        assertThat(available(idOfTestBook1())).isEqualTo(5);
+        assertThat(writer.appliedSeq()).isEqualTo(seq + 2);
+    }
+
+    @Test
+    void applyReportsBooksWhoseAvailabilityWouldGoNegative() {
+        long seq = writer.appliedSeq();
+        var refused = writer.apply(List.of(
+                new JournalEntry(seq + 1, JournalEntry.Type.RENT, idOfTestUser2(), idOfTestBook2())));
+        assertThat(refused).containsExactly(idOfTestBook2());
+        assertThat(available(idOfTestBook2())).isZero();
+    }
+
+    @Test
+    void writerNeedsTheAvailabilityEngine() {
+        assertThatExceptionOfType(IllegalStateException.class).isThrownBy(() ->
+                new JournalWriter(jdbcClient, null, Optional.empty(), null, null));
+    }
+}
@@ -0,0 +1,113 @@
+package org.mystudying.booksmarket2.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.domain.RentalOutcome;
+import org.mystudying.booksmarket2.exceptions.BookNotFoundException;
+import org.mystudying.booksmarket2.repositories.BookRepository;
+import org.mystudying.booksmarket2.repositories.BookRepositoryInt;
+import org.mystudying.booksmarket2.repositories.BookingRepositoryInt;
+import org.mystudying.booksmarket2.services.BookService;
+import org.mystudying.booksmarket2.services.VirtualThreadServices;
+import org.springframework.aop.framework.ProxyFactory;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class MeteredCallsTest {
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    @Mock
+    private BookRepositoryInt bookRepository;
+    @Mock
+    private BookingRepositoryInt bookingRepository;
+
+    @SuppressWarnings("unchecked")
+    private <T> T metered(T target, Class<T> type) {
+        var factory = new ProxyFactory(target);
+        factory.setInterfaces(type);
+        factory.addAdvice(new MeteredCalls(registry, "repository"));
+        return (T) factory.getProxy();
+    }
+
+    @Test
+    void callsAreTimedByOperationAndOutcome() {
+        var books = metered(bookRepository, BookRepositoryInt.class);
+        when(bookRepository.findById(1L)).thenReturn(Optional.empty());
+        books.findById(1L);
+        books.findById(1L);
+        assertThat(registry.get("booksmarket.repository").tag("operation", "findById").tag("outcome", "success")
+                .timer().count()).isEqualTo(2);
+    }
+
+    @Test
+    void failedCallsAreTaggedWithTheException() {
+        var books = metered(bookRepository, BookRepositoryInt.class);
+        when(bookRepository.findByTitle("Missing")).thenThrow(new BookNotFoundException("Missing"));
+        assertThatExceptionOfType(BookNotFoundException.class).isThrownBy(() -> books.findByTitle("Missing"));
+        assertThat(registry.get("booksmarket.repository").tag("outcome", "BookNotFoundException").timer().count())
+                .isOne();
+    }
+
+    @Test
+    void listResultsRecordTheirRows() {
+        var books = metered(bookRepository, BookRepositoryInt.class);
+        when(bookRepository.findByYear(2001)).thenReturn(List.of(new Book(1, "A", 2001, 1, 1), new Book(2, "B", 2001, 1, 1)));
+        books.findByYear(2001);
+        var rows = registry.get("booksmarket.repository.rows").tag("operation", "findByYear").summary();
+        assertThat(rows.count()).isOne();
+        assertThat(rows.totalAmount()).isEqualTo(2);
+    }
+
+    @Test
+    void lockingReadsRecordTheLockWait() {
+        var books = metered(bookRepository, BookRepositoryInt.class);
+        when(bookRepository.findAndLockById(1L)).thenReturn(Optional.empty());
+        books.findAndLockById(1L);
+        assertThat(registry.get("booksmarket.lock.wait").tag("operation", "findAndLockById").timer().count()).isOne();
+    }
+
+    @Test
+    void rentalsAreCountedByTheirOutcome() {
+        var bookings = metered(bookingRepository, BookingRepositoryInt.class);
+        when(bookingRepository.rent(1L, 2L)).thenReturn(RentalOutcome.RENTED, RentalOutcome.ALREADY_BORROWED);
+        bookings.rent(1L, 2L);
+        bookings.rent(1L, 2L);
+        assertThat(registry.get("booksmarket.rentals").tag("outcome", "RENTED").counter().count()).isOne();
+        assertThat(registry.get("booksmarket.rentals").tag("outcome", "ALREADY_BORROWED").counter().count()).isOne();
+        assertThat(registry.get("booksmarket.repository").tag("outcome", "ALREADY_BORROWED").timer().count()).isOne();
+    }
+
+    @Test
+    void optimisticUpdatesAreCountedAsUpdatedOrConflict() {
+        var books = metered(bookRepository, BookRepositoryInt.class);
+        var book = new Book(1, "A", 2001, 1, 1);
+        when(bookRepository.compareAndUpdate(book)).thenReturn(false, true);
+        books.compareAndUpdate(book);
+        books.compareAndUpdate(book);
+        assertThat(registry.get("booksmarket.optimistic.updates").tag("outcome", "conflict").counter().count()).isOne();
+        assertThat(registry.get("booksmarket.optimistic.updates").tag("outcome", "updated").counter().count()).isOne();
+        assertThat(registry.get("booksmarket.repository").tag("operation", "compareAndUpdate").tag("outcome", "conflict")
+                .timer().count()).isOne();
+    }
+
+    @Test
+    void advisorsMatchRepositoryInterfaceMethodsAndPublicServiceMethods() throws NoSuchMethodException {
+        assertThat(MetricsConfig.isRepositoryMethod(
+                BookRepository.class.getMethod("findById", long.class), BookRepository.class)).isTrue();
+        assertThat(MetricsConfig.isRepositoryMethod(
+                Object.class.getMethod("toString"), BookRepository.class)).isFalse();
+        assertThat(MetricsConfig.isServiceMethod(
+                BookService.class.getMethod("findById", long.class), BookService.class)).isTrue();
+        assertThat(MetricsConfig.isServiceMethod(
+                VirtualThreadServices.class.getMethod("queued"), VirtualThreadServices.class)).isFalse();
+    }
+}
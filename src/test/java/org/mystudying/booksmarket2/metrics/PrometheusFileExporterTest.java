@@ -0,0 +1,31 @@
+package org.mystudying.booksmarket2.metrics;
+
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PrometheusFileExporterTest {
+
+    @Test
+    void exportWritesTheScrapeAndReplacesThePreviousOne(@TempDir Path directory) throws IOException {
+        var registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        var file = directory.resolve("metrics").resolve("booksmarket.prom");
+        var exporter = new PrometheusFileExporter(registry, file);
+
+        registry.counter("booksmarket.rentals", "outcome", "RENTED").increment();
+        exporter.export();
+        assertThat(Files.readString(file)).contains("booksmarket_rentals_total{outcome=\"RENTED\"} 1.0");
+
+        registry.counter("booksmarket.rentals", "outcome", "RENTED").increment();
+        exporter.close();
+        assertThat(Files.readString(file)).contains("booksmarket_rentals_total{outcome=\"RENTED\"} 2.0");
+        assertThat(Files.list(file.getParent())).containsExactly(file);
+    }
+}
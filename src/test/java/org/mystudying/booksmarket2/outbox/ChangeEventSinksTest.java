@@ -0,0 +1,69 @@
+package org.mystudying.booksmarket2.outbox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChangeEventSinksTest {
+    private static final Instant CREATED_AT = Instant.parse("2026-01-02T03:04:05.678Z");
+
+    @TempDir
+    private Path directory;
+
+    private static ChangeEvent event(long id) {
+        return new ChangeEvent(id, ChangeEvent.Type.BOOK_RENTED, 1, "{\"userId\":1,\"bookId\":" + id + "}", CREATED_AT);
+    }
+
+    @Test
+    void fileSinkAppendsOneLinePerEvent() throws IOException {
+        var file = directory.resolve("changes").resolve("events.ndjson");
+        var sink = new FileSink(file);
+        sink.publish(List.of(event(1), event(2)));
+        sink.publish(List.of(event(3)));
+        assertThat(Files.readAllLines(file)).containsExactly(
+                "{\"id\":1,\"type\":\"BOOK_RENTED\",\"entityId\":1,\"createdAt\":\"2026-01-02T03:04:05.678Z\",\"payload\":{\"userId\":1,\"bookId\":1}}",
+                "{\"id\":2,\"type\":\"BOOK_RENTED\",\"entityId\":1,\"createdAt\":\"2026-01-02T03:04:05.678Z\",\"payload\":{\"userId\":1,\"bookId\":2}}",
+                "{\"id\":3,\"type\":\"BOOK_RENTED\",\"entityId\":1,\"createdAt\":\"2026-01-02T03:04:05.678Z\",\"payload\":{\"userId\":1,\"bookId\":3}}");
+    }
+
+    @Test
+    void listenerSinkCallsEveryListenerForEveryEvent() {
+        var first = new ArrayList<Long>();
+        var second = new ArrayList<Long>();
+        var beans = new StaticListableBeanFactory();
+        beans.addBean("first", (ChangeEventListener) event -> first.add(event.id()));
+        beans.addBean("second", (ChangeEventListener) event -> second.add(event.id()));
+        new ListenerSink(beans.getBeanProvider(ChangeEventListener.class)).publish(List.of(event(1), event(2)));
+        assertThat(first).containsExactly(1L, 2L);
+        assertThat(second).containsExactly(1L, 2L);
+    }
+
+    @Test
+    void brokerConsumersFollowAtTheirOwnOffsets() {
+        var broker = new LocalBroker(10);
+        broker.publish(List.of(event(1), event(2), event(3)));
+        assertThat(broker.poll("a", 2)).extracting(ChangeEvent::id).containsExactly(1L, 2L);
+        broker.commit("a", 2);
+        assertThat(broker.poll("a", 10)).extracting(ChangeEvent::id).containsExactly(3L);
+        assertThat(broker.poll("b", 10)).extracting(ChangeEvent::id).containsExactly(1L, 2L, 3L);
+        broker.commit("a", 1);
+        assertThat(broker.offset("a")).isEqualTo(2);
+    }
+
+    @Test
+    void brokerKeepsRedeliveredEventsOnceAndOnlyTheRetainedOnes() {
+        var broker = new LocalBroker(2);
+        broker.publish(List.of(event(1), event(2)));
+        broker.publish(List.of(event(2), event(3)));
+        assertThat(broker.poll("a", 10)).extracting(ChangeEvent::id).containsExactly(2L, 3L);
+    }
+}
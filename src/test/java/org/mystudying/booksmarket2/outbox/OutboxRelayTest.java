@@ -0,0 +1,173 @@
+package org.mystudying.booksmarket2.outbox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class OutboxRelayTest {
+    @Mock
+    private Outbox outbox;
+    @Mock
+    private ConsumerOffsets offsets;
+    @Mock
+    private ObjectProvider<ChangeEventSink> sinks;
+
+    private static ChangeEvent event(long id, Instant createdAt) {
+        return new ChangeEvent(id, ChangeEvent.Type.BOOK_RENTED, 1, "{}", createdAt);
+    }
+
+    private static ChangeEvent event(long id) {
+        return event(id, Instant.now());
+    }
+
+    private static final class RecordingSink implements ChangeEventSink {
+        private final String name;
+        private final List<List<ChangeEvent>> batches = new ArrayList<>();
+        private boolean failing;
+
+        private RecordingSink(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public void publish(List<ChangeEvent> events) {
+            if (failing) {
+                throw new IllegalStateException("sink down");
+            }
+            batches.add(events);
+        }
+    }
+
+    private OutboxRelay relay(int batchSize, RecordingSink... all) {
+        when(sinks.orderedStream()).thenAnswer(invocation -> Stream.of(all));
+        return new OutboxRelay(outbox, offsets, sinks, batchSize, 10_000, 3_600_000);
+    }
+
+    @Test
+    void deliverableStopsAtAGapThatMayStillBeFilled() {
+        var now = Instant.now();
+        var events = List.of(event(3, now), event(4, now), event(6, now), event(7, now));
+        assertThat(OutboxRelay.deliverable(2, events, now.minusSeconds(10)))
+                .extracting(ChangeEvent::id).containsExactly(3L, 4L);
+        assertThat(OutboxRelay.deliverable(1, events, now.minusSeconds(10))).isEmpty();
+    }
+
+    @Test
+    void deliverablePassesOverAGapOlderThanTheTimeout() {
+        var old = Instant.now().minus(Duration.ofMinutes(1));
+        var events = List.of(event(3, old), event(5, old), event(6, Instant.now()));
+        assertThat(OutboxRelay.deliverable(1, events, Instant.now().minusSeconds(10)))
+                .extracting(ChangeEvent::id).containsExactly(3L, 5L, 6L);
+    }
+
+    @Test
+    void relayPublishesBatchesSavesTheOffsetAndDeletesDeliveredEvents() {
+        var sink = new RecordingSink("sink");
+        var relay = relay(2, sink);
+        when(offsets.find("sink")).thenReturn(0L);
+        when(outbox.findAfter(0, 2)).thenReturn(List.of(event(1), event(2)));
+        when(outbox.findAfter(2, 2)).thenReturn(List.of(event(3)));
+
+        relay.relay();
+
+        assertThat(sink.batches).hasSize(2);
+        assertThat(sink.batches.get(1)).extracting(ChangeEvent::id).containsExactly(3L);
+        verify(offsets).save("sink", 2);
+        verify(offsets).save("sink", 3);
+        verify(outbox).deleteUpTo(3);
+    }
+
+    @Test
+    void eventFillingAGapPassedOverIsPublishedLate() {
+        var sink = new RecordingSink("sink");
+        var relay = relay(10, sink);
+        var old = Instant.now().minus(Duration.ofMinutes(1));
+        when(offsets.find("sink")).thenReturn(2L, 5L);
+        when(outbox.findAfter(2, 10)).thenReturn(List.of(event(3, old), event(5, old)));
+        when(outbox.findAfter(5, 10)).thenReturn(List.of());
+        when(outbox.findByIds(any())).thenReturn(List.of(), List.of(event(4, old)));
+
+        relay.relay();
+        // the transaction of event 4 commits after the gap timeout
+        relay.relay();
+
+        assertThat(sink.batches).extracting(batch -> batch.stream().map(ChangeEvent::id).toList())
+                .containsExactly(List.of(3L, 5L), List.of(4L));
+        verify(outbox).deleteUpTo(3);
+        verify(outbox).deleteUpTo(5);
+    }
+
+    @Test
+    void gapIsForgottenAfterItsRetention() {
+        var sink = new RecordingSink("sink");
+        when(sinks.orderedStream()).thenAnswer(invocation -> Stream.of(sink));
+        var relay = new OutboxRelay(outbox, offsets, sinks, 10, 10_000, 0);
+        var old = Instant.now().minus(Duration.ofMinutes(1));
+        when(offsets.find("sink")).thenReturn(2L, 5L);
+        when(outbox.findAfter(2, 10)).thenReturn(List.of(event(3, old), event(5, old)));
+        when(outbox.findAfter(5, 10)).thenReturn(List.of());
+        when(outbox.findByIds(any())).thenReturn(List.of());
+
+        relay.relay();
+        relay.relay();
+
+        verify(outbox, times(2)).findByIds(List.of());
+        verify(outbox).deleteUpTo(5);
+    }
+
+    @Test
+    void failingSinkKeepsItsOffsetAndHoldsBackTheCleanup() {
+        var working = new RecordingSink("working");
+        var failing = new RecordingSink("failing");
+        failing.failing = true;
+        var relay = relay(10, working, failing);
+        when(offsets.find("working")).thenReturn(4L);
+        when(offsets.find("failing")).thenReturn(2L);
+        when(outbox.findAfter(4, 10)).thenReturn(List.of(event(5)));
+        when(outbox.findAfter(2, 10)).thenReturn(List.of(event(3), event(4), event(5)));
+
+        relay.relay();
+
+        assertThat(working.batches).hasSize(1);
+        verify(offsets).save("working", 5);
+        verify(offsets, never()).save(eq("failing"), anyLong());
+        verify(outbox).deleteUpTo(2);
+    }
+
+    @Test
+    void nothingToRelayWritesNothing() {
+        var sink = new RecordingSink("sink");
+        var relay = relay(10, sink);
+        when(offsets.find("sink")).thenReturn(0L);
+        when(outbox.findAfter(0, 10)).thenReturn(List.of());
+        relay.relay();
+        assertThat(sink.batches).isEmpty();
+        verify(offsets, never()).save(anyString(), anyLong());
+        verify(outbox, never()).deleteUpTo(anyLong());
+    }
+
+    @Test
+    void batchSizeMustBePositive() {
+        assertThatIllegalArgumentException().isThrownBy(() -> new OutboxRelay(outbox, offsets, sinks, 0, 10_000, 3_600_000));
+    }
+}
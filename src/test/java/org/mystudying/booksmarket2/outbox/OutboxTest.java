@@ -0,0 +1,93 @@
+package org.mystudying.booksmarket2.outbox;
+
+import org.junit.jupiter.api.Test;
+import org.mystudying.booksmarket2.domain.Author;
+import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.domain.User;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.IllegalTransactionStateException;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.tuple;
+
+@JdbcTest
+@Import({Outbox.class, ConsumerOffsets.class})
+@TestPropertySource(properties = "booksmarket.outbox.enabled=true")
+class OutboxTest {
+    private final Outbox outbox;
+    private final ConsumerOffsets offsets;
+
+    public OutboxTest(Outbox outbox, ConsumerOffsets offsets) {
+        this.outbox = outbox;
+        this.offsets = offsets;
+    }
+
+    private long lastId() {
+        var events = outbox.findAfter(0, Integer.MAX_VALUE);
+        return events.isEmpty() ? 0 : events.getLast().id();
+    }
+
+    @Test
+    void eventsAreReadBackInTheOrderTheyWereWritten() {
+        long before = lastId();
+        outbox.userCreated(new User(7, "Outbox User", "outbox@example.com"));
+        outbox.authorCreated(new Author(8, "Outbox Author", LocalDate.of(1950, 1, 2)));
+        outbox.bookUpdated(new Book(9, "Outbox \"Book\"", 2001, 8, 3));
+        outbox.booksRented(7, List.of(9L, 10L));
+        outbox.booksReturned(7, List.of(9L));
+
+        var events = outbox.findAfter(before, 10);
+        assertThat(events).extracting(ChangeEvent::type, ChangeEvent::entityId, ChangeEvent::payload).containsExactly(
+                tuple(ChangeEvent.Type.USER_CREATED, 7L, "{\"id\":7,\"name\":\"Outbox User\",\"email\":\"outbox@example.com\"}"),
+                tuple(ChangeEvent.Type.AUTHOR_CREATED, 8L, "{\"id\":8,\"name\":\"Outbox Author\",\"birthdate\":\"1950-01-02\"}"),
+                tuple(ChangeEvent.Type.BOOK_UPDATED, 9L,
+                        "{\"id\":9,\"title\":\"Outbox \\\"Book\\\"\",\"year\":2001,\"authorId\":8,\"available\":3,\"version\":0}"),
+                tuple(ChangeEvent.Type.BOOK_RENTED, 7L, "{\"userId\":7,\"bookId\":9}"),
+                tuple(ChangeEvent.Type.BOOK_RENTED, 7L, "{\"userId\":7,\"bookId\":10}"),
+                tuple(ChangeEvent.Type.BOOK_RETURNED, 7L, "{\"userId\":7,\"bookId\":9}"));
+        assertThat(events).extracting(ChangeEvent::id).isSorted().doesNotHaveDuplicates();
+        assertThat(outbox.findAfter(before, 2)).hasSize(2);
+    }
+
+    @Test
+    void deleteUpToRemovesDeliveredEvents() {
+        outbox.booksRented(7, List.of(9L, 10L));
+        long last = lastId();
+        outbox.deleteUpTo(last - 1);
+        assertThat(outbox.findAfter(0, 10)).extracting(ChangeEvent::id).containsExactly(last);
+    }
+
+    @Test
+    void findByIdsReturnsTheEventsThatExist() {
+        outbox.booksRented(7, List.of(9L, 10L));
+        long last = lastId();
+        assertThat(outbox.findByIds(List.of(last, last + 1, last - 1))).extracting(ChangeEvent::id)
+                .containsExactly(last - 1, last);
+        assertThat(outbox.findByIds(List.of())).isEmpty();
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void eventsNeedTheTransactionOfTheirChange() {
+        assertThatExceptionOfType(IllegalTransactionStateException.class)
+                .isThrownBy(() -> outbox.booksRented(7, List.of(9L)));
+    }
+
+    @Test
+    void offsetsStartAtZeroAndNeverMoveBack() {
+        assertThat(offsets.find("test-sink")).isZero();
+        offsets.save("test-sink", 5);
+        offsets.save("test-sink", 3);
+        assertThat(offsets.find("test-sink")).isEqualTo(5);
+        offsets.save("test-sink", 8);
+        assertThat(offsets.find("test-sink")).isEqualTo(8);
+    }
+}
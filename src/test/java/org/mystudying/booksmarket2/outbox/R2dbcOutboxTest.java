@@ -0,0 +1,51 @@
+package org.mystudying.booksmarket2.outbox;
+
+import org.junit.jupiter.api.Test;
+import org.mystudying.booksmarket2.repositories.R2dbcConfig;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.IllegalTransactionStateException;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+
+@JdbcTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@ActiveProfiles("reactive")
+@Import({R2dbcConfig.class, R2dbcOutbox.class})
+@TestPropertySource(properties = "booksmarket.outbox.enabled=true")
+class R2dbcOutboxTest {
+    private final R2dbcOutbox outbox;
+    private final DatabaseClient client;
+    private final TransactionalOperator transactionalOperator;
+
+    public R2dbcOutboxTest(R2dbcOutbox outbox, DatabaseClient client, TransactionalOperator transactionalOperator) {
+        this.outbox = outbox;
+        this.client = client;
+        this.transactionalOperator = transactionalOperator;
+    }
+
+    @Test
+    void eventsAreInsertedInTheReactiveTransaction() {
+        var sql = "SELECT payload FROM outbox_events WHERE type = 'BOOK_RENTED' AND entity_id = :userId ORDER BY id";
+        StepVerifier.create(transactionalOperator.execute(status -> {
+                    status.setRollbackOnly();
+                    return outbox.booksRented(Long.MAX_VALUE, List.of(2L, 3L))
+                            .thenMany(client.sql(sql).bind("userId", Long.MAX_VALUE)
+                                    .map(row -> row.get("payload", String.class)).all());
+                }).collectList())
+                .expectNext(List.of(Outbox.bookingPayload(Long.MAX_VALUE, 2L), Outbox.bookingPayload(Long.MAX_VALUE, 3L)))
+                .verifyComplete();
+    }
+
+    @Test
+    void eventsNeedTheTransactionOfTheirChange() {
+        StepVerifier.create(outbox.booksReturned(1L, List.of(2L))).verifyError(IllegalTransactionStateException.class);
+    }
+}
@@ -0,0 +1,65 @@
+package org.mystudying.booksmarket2.replicas;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// the replica is the test database itself, seen through a pool of its own
+@JdbcTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import(ReplicaConfig.class)
+@TestPropertySource(properties = {
+        "booksmarket.replicas.enabled=true",
+        "booksmarket.replicas.urls=${spring.datasource.url}",
+        "booksmarket.replicas.heartbeat-interval-ms=3600000"})
+class ReplicaConfigTest {
+    private final HikariDataSource primaryDataSource;
+    private final Replicas replicas;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readWrite;
+    private final TransactionTemplate readOnly;
+
+    public ReplicaConfigTest(HikariDataSource primaryDataSource, Replicas replicas, JdbcTemplate jdbcTemplate,
+                             PlatformTransactionManager transactionManager) {
+        this.primaryDataSource = primaryDataSource;
+        this.replicas = replicas;
+        this.jdbcTemplate = jdbcTemplate;
+        this.readWrite = new TransactionTemplate(transactionManager);
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setReadOnly(true);
+    }
+
+    // whether the transaction's statements run on a connection of the primary pool, which it holds until it ends
+    private boolean onPrimary(TransactionTemplate transaction) {
+        return transaction.execute(status -> {
+            jdbcTemplate.queryForObject("SELECT COUNT(*) FROM replica_heartbeat", Integer.class);
+            return primaryDataSource.getHikariPoolMXBean().getActiveConnections() > 0;
+        });
+    }
+
+    @Test
+    void readOnlyTransactionsRunOnTheReplicaAndTheOthersOnThePrimary() {
+        replicas.heartbeat();
+        assertThat(onPrimary(readOnly)).isFalse();
+        assertThat(onPrimary(readWrite)).isTrue();
+    }
+
+    @Test
+    void aThreadReadsItsOwnWriteFromThePrimaryUntilTheReplicaShowsIt() {
+        replicas.heartbeat();
+        readWrite.executeWithoutResult(status ->
+                jdbcTemplate.update("UPDATE replica_heartbeat SET beat = beat WHERE id = 1"));
+        assertThat(onPrimary(readOnly)).isTrue();
+        replicas.heartbeat();
+        assertThat(onPrimary(readOnly)).isFalse();
+    }
+}
@@ -0,0 +1,191 @@
+package org.mystudying.booksmarket2.replicas;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mystudying.booksmarket2.cache.EntityCache;
+import org.mystudying.booksmarket2.cache.EntityCaches;
+import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.repositories.AuthorRepositoryInt;
+import org.mystudying.booksmarket2.repositories.BookRepositoryInt;
+import org.mystudying.booksmarket2.search.CatalogSearch;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ReplicasTest {
+    // in the past, so that the write this test notes for its thread never holds back a later test on it
+    private static final Instant NOW = Instant.parse("2020-01-01T00:00:00Z");
+    private static final Duration MAX_LAG = Duration.ofSeconds(5);
+
+    @Mock
+    private DataSource primary;
+    @Mock
+    private HikariDataSource replica1;
+    @Mock
+    private HikariDataSource replica2;
+    @Mock
+    private Clock clock;
+
+    private Replicas replicas(Replicas.Balancing balancing, boolean readYourWrites) {
+        when(clock.instant()).thenReturn(NOW);
+        return new Replicas(primary, List.of(replica1, replica2), balancing, MAX_LAG, readYourWrites, clock);
+    }
+
+    @Test
+    void readsGoToThePrimaryUntilAReplicaShowsAHeartbeat() {
+        var replicas = replicas(Replicas.Balancing.ROUND_ROBIN, false);
+        assertThat(replicas.choose()).isSameAs(primary);
+        replicas.seen(1, NOW);
+        assertThat(replicas.choose()).isSameAs(replica2);
+    }
+
+    @Test
+    void roundRobinTakesTheCurrentReplicasInTurn() {
+        var replicas = replicas(Replicas.Balancing.ROUND_ROBIN, false);
+        replicas.seen(0, NOW);
+        replicas.seen(1, NOW.minusSeconds(1));
+        assertThat(List.of(replicas.choose(), replicas.choose(), replicas.choose(), replicas.choose()))
+                .containsExactly(replica1, replica2, replica1, replica2);
+    }
+
+    @Test
+    void leastConnectionsTakesTheReplicaWithFewestActiveConnections() {
+        var replicas = replicas(Replicas.Balancing.LEAST_CONNECTIONS, false);
+        var pool1 = mock(HikariPoolMXBean.class);
+        var pool2 = mock(HikariPoolMXBean.class);
+        when(replica1.getHikariPoolMXBean()).thenReturn(pool1);
+        when(replica2.getHikariPoolMXBean()).thenReturn(pool2);
+        when(pool1.getActiveConnections()).thenReturn(3);
+        when(pool2.getActiveConnections()).thenReturn(1);
+        replicas.seen(0, NOW);
+        replicas.seen(1, NOW);
+        assertThat(replicas.choose()).isSameAs(replica2);
+    }
+
+    @Test
+    void laggingOrUnreachableReplicasAreLeftOut() {
+        var replicas = replicas(Replicas.Balancing.ROUND_ROBIN, false);
+        when(replica1.getPoolName()).thenReturn("replica-1");
+        when(replica2.getPoolName()).thenReturn("replica-2");
+        replicas.seen(0, NOW.minus(MAX_LAG).minusMillis(1));
+        replicas.seen(1, null);
+        assertThat(replicas.choose()).isSameAs(primary);
+        assertThat(replicas.lags()).containsEntry("replica-1", MAX_LAG.plusMillis(1)).containsEntry("replica-2", null);
+        replicas.seen(0, NOW.minus(MAX_LAG));
+        assertThat(replicas.choose()).isSameAs(replica1);
+    }
+
+    @Test
+    void afterACommittedWriteTheThreadReadsFromThePrimaryUntilAReplicaCaughtUp() throws Exception {
+        var replicas = replicas(Replicas.Balancing.ROUND_ROBIN, true);
+        replicas.seen(0, NOW.minusSeconds(1));
+        replicas.seen(1, NOW.minusSeconds(1));
+        assertThat(replicas.choose()).isSameAs(replica1);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            replicas.writing(primary).getConnection();
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertThat(replicas.choose()).isSameAs(primary);
+        replicas.seen(1, NOW);
+        assertThat(replicas.choose()).isSameAs(replica2);
+    }
+
+    @Test
+    void readsFromAReplicaAreKeptOutOfTheEntityCaches() throws Exception {
+        var replicas = replicas(Replicas.Balancing.ROUND_ROBIN, false);
+        var books = new EntityCaches(10, 300).books();
+        readInTransaction(replicas, books, 1);
+        assertThat(books.getIfPresent(1)).isPresent();
+
+        replicas.seen(0, NOW);
+        readInTransaction(replicas, books, 2);
+        assertThat(books.getIfPresent(2)).isEmpty();
+    }
+
+    private void readInTransaction(Replicas replicas, EntityCache<Book> books, long id) throws Exception {
+        inTransaction(() -> {
+            replicas.getConnection();
+            return books.get(id, bookId -> Optional.of(new Book(bookId, "Book", 2000, 1, 1)));
+        });
+    }
+
+    @Test
+    void searchIndexIsBuiltFromThePrimaryWhileTheReplicasLag() throws Exception {
+        var replicas = replicas(Replicas.Balancing.ROUND_ROBIN, false);
+        replicas.seen(0, NOW);
+        replicas.seen(1, NOW);
+        var books = mock(BookRepositoryInt.class);
+        var replicated = new Book(1, "The Hobbit", 1937, 1, 1);
+        var committed = new Book(2, "The Two Towers", 1954, 1, 1);
+        var onPrimary = mock(Connection.class);
+        when(primary.getConnection()).thenReturn(onPrimary);
+        // the replicas lack the book committed last
+        when(books.streamAll()).thenAnswer(invocation -> replicas.getConnection() == onPrimary
+                ? Stream.of(replicated, committed) : Stream.of(replicated));
+        var catalogSearch = new CatalogSearch(books, mock(AuthorRepositoryInt.class));
+        assertThat(inTransaction(() -> catalogSearch.searchBooks("towers", 0, 10))).containsExactly(2L);
+        assertThat(inTransaction(() -> catalogSearch.searchBooks("hobbit", 0, 10))).containsExactly(1L);
+        verify(books, times(1)).streamAll();
+    }
+
+    @Test
+    void searchIndexBuiltOnAReplicaIsNotKept() throws Exception {
+        var replicas = replicas(Replicas.Balancing.ROUND_ROBIN, false);
+        replicas.seen(0, NOW);
+        var books = mock(BookRepositoryInt.class);
+        when(books.streamAll()).thenAnswer(invocation -> Stream.of(new Book(1, "The Hobbit", 1937, 1, 1)));
+        var catalogSearch = new CatalogSearch(books, mock(AuthorRepositoryInt.class));
+        // the transaction read from the replica before its first search
+        assertThat(inTransaction(() -> {
+            replicas.getConnection();
+            return catalogSearch.searchBooks("hobbit", 0, 10);
+        })).containsExactly(1L);
+        assertThat(inTransaction(() -> catalogSearch.searchBooks("hobbit", 0, 10))).containsExactly(1L);
+        verify(books, times(2)).streamAll();
+    }
+
+    private static <T> T inTransaction(Callable<T> work) throws Exception {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            var result = work.call();
+            TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(),
+                    TransactionSynchronization.STATUS_COMMITTED);
+            return result;
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+
+    @Test
+    void atLeastOneReplicaIsNeeded() {
+        assertThatIllegalArgumentException().isThrownBy(() ->
+                new Replicas(primary, List.of(), Replicas.Balancing.ROUND_ROBIN, MAX_LAG, false, clock));
+    }
+}
@@ -3,6 +3,7 @@ package org.mystudying.booksmarket2.repositories;
 
 import org.junit.jupiter.api.Test;
 import org.mystudying.booksmarket2.domain.Author;
+import org.mystudying.booksmarket2.domain.Book;
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
 import org.springframework.context.annotation.Import;
 import org.springframework.jdbc.core.simple.JdbcClient;
@@ -10,6 +11,7 @@ import org.springframework.test.context.jdbc.Sql;
 import org.springframework.test.jdbc.JdbcTestUtils;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -44,6 +46,27 @@ class AuthorRepositoryTest {
                 });
     }
 
+    @Test
+    void findWithBooksByIdReturnsAuthorAndBooks() {
+        assertThat(authorRepository.findWithBooksById(idOfTestAuthor1()))
+                .hasValueSatisfying(item -> {
+                    assertThat(item.getAuthor().getName()).isEqualTo("Test Author 1");
+                    assertThat(item.getBooks()).extracting(Book::getTitle).containsExactly("Test Book 1");
+                });
+    }
+
+    @Test
+    void findWithBooksByIdReturnsAuthorWithoutBooks() {
+        long id = authorRepository.create(new Author(1, "Author Without Books", LocalDate.of(1950, 1, 1)));
+        assertThat(authorRepository.findWithBooksById(id))
+                .hasValueSatisfying(item -> assertThat(item.getBooks()).isEmpty());
+    }
+
+    @Test
+    void findWithBooksByNonExistingIdFindsNothing() {
+        assertThat(authorRepository.findWithBooksById(Long.MAX_VALUE)).isEmpty();
+    }
+
     @Test
     void findByNonExistingIdFindsNoOne() {
         assertThat(authorRepository.findById(Long.MAX_VALUE)).isEmpty();
@@ -83,4 +106,25 @@ class AuthorRepositoryTest {
                 .isSorted();
 
     }
+
+    @Test
+    void findAllPagesReturnEveryAuthorOnceInNameOrder() {
+        var expected = jdbcClient.sql("SELECT id FROM authors ORDER BY name, id").query(Long.class).list();
+        var pages = new ArrayList<Long>();
+        var page = authorRepository.findAll(null, 0, 2);
+        while (!page.isEmpty()) {
+            page.forEach(author -> pages.add(author.getId()));
+            var last = page.get(page.size() - 1);
+            page = authorRepository.findAll(last.getName(), last.getId(), 2);
+        }
+        assertThat(pages).isEqualTo(expected);
+    }
+
+    @Test
+    void streamAllReturnsAllAuthors() {
+        var records = JdbcTestUtils.countRowsInTable(jdbcClient, AUTHORS_TABLE);
+        try (var authors = authorRepository.streamAll()) {
+            assertThat(authors.map(Author::getId)).hasSize(records).isSorted();
+        }
+    }
 }
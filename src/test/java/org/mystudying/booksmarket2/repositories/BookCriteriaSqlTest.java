@@ -0,0 +1,54 @@
+package org.mystudying.booksmarket2.repositories;
+
+import org.junit.jupiter.api.Test;
+import org.mystudying.booksmarket2.domain.BookCriteria;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BookCriteriaSqlTest {
+    private final BookCriteriaSql criteriaSql = new BookCriteriaSql();
+
+    @Test
+    void criteriaOfTheSameShapeShareOneStatement() {
+        var first = criteriaSql.sql(BookCriteria.any().withAuthorId(1).withYears(1950, 1960), false);
+        var second = criteriaSql.sql(BookCriteria.any().withAuthorId(2).withYears(1900, 2000), false);
+        assertThat(second).isSameAs(first);
+        assertThat(criteriaSql.cachedStatements()).isOne();
+        criteriaSql.sql(BookCriteria.any().withAuthorId(1).withYears(1950, 1960), true);
+        assertThat(criteriaSql.cachedStatements()).isEqualTo(2);
+    }
+
+    @Test
+    void statementHasOnlyThePredicatesOfTheFiltersSet() {
+        var sql = criteriaSql.sql(BookCriteria.any().withYear(2001).withAvailable(false), false);
+        assertThat(sql)
+                .contains("b.year = :yearFrom", "b.available = 0", "ORDER BY b.title, b.id LIMIT :limit")
+                .doesNotContain(":author", "LIKE", ":yearTo", ":afterTitle");
+        assertThat(criteriaSql.sql(BookCriteria.any(), false)).doesNotContain("WHERE");
+    }
+
+    @Test
+    void openYearRangeComparesOneEnd() {
+        var sql = criteriaSql.sql(BookCriteria.any().withYears(1950, null), true);
+        assertThat(sql).contains("b.year >= :yearFrom", "b.title > :afterTitle").doesNotContain(":yearTo");
+    }
+
+    @Test
+    void paramsHoldTheValuesOfTheFiltersSet() {
+        var params = BookCriteriaSql.params(BookCriteria.any().withAuthorName("Isaac Asimov").withTitlePrefix("I, R"),
+                "I, Robot", 5, 20);
+        assertThat(params)
+                .containsEntry("authorName", "Isaac Asimov")
+                .containsEntry("titlePrefix", "I, R%")
+                .containsEntry("afterTitle", "I, Robot")
+                .containsEntry("afterId", 5L)
+                .containsEntry("limit", 20)
+                .doesNotContainKeys("authorId", "yearFrom", "yearTo");
+    }
+
+    @Test
+    void escapeLikeEscapesWildcardsAndTheEscapeCharacter() {
+        assertThat(BookCriteriaSql.escapeLike("100% _fun_ \\o/")).isEqualTo("100\\% \\_fun\\_ \\\\o/");
+        assertThat(BookCriteriaSql.escapeLike("Foundation")).isEqualTo("Foundation");
+    }
+}
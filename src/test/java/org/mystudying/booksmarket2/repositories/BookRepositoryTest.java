@@ -1,8 +1,11 @@
 package org.mystudying.booksmarket2.repositories;
 
 import org.junit.jupiter.api.Test;
+import org.mystudying.booksmarket2.cache.EntityCaches;
 import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.domain.BookCriteria;
 import org.mystudying.booksmarket2.exceptions.BookNotFoundException;
+import org.mystudying.booksmarket2.outbox.Outbox;
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
 import org.springframework.context.annotation.Import;
 import org.springframework.dao.CannotAcquireLockException;
@@ -10,23 +13,35 @@ import org.springframework.jdbc.core.simple.JdbcClient;
 import org.springframework.test.context.jdbc.Sql;
 import org.springframework.test.jdbc.JdbcTestUtils;
 
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
 
 @JdbcTest
-@Import(BookRepository.class)
+@Import({BookRepository.class, BookingShards.class, EntityCaches.class})
 @Sql("/insertTestRecords.sql")
 class BookRepositoryTest {
     private static final String BOOKS_TABLE = "books";
     private final BookRepository bookRepository;
     private final JdbcClient jdbcClient;
+    private final DataSource dataSource;
+    private final BookingShards shards;
 
-    public BookRepositoryTest(BookRepository bookRepository, JdbcClient jdbcClient) {
+    public BookRepositoryTest(BookRepository bookRepository, JdbcClient jdbcClient, DataSource dataSource,
+                              BookingShards shards) {
         this.bookRepository = bookRepository;
         this.jdbcClient = jdbcClient;
+        this.dataSource = dataSource;
+        this.shards = shards;
     }
 
     private long idOfTestBook1() {
@@ -94,6 +109,14 @@ class BookRepositoryTest {
         assertThat(bookRepository.findByAuthorName("Test Author 1").get(0).getTitle()).isEqualTo("Test Book 1");
     }
 
+    @Test
+    void findByAuthorIdFindsBook() {
+        var authorId = jdbcClient.sql("SELECT id FROM authors WHERE name = 'Test Author 1'").query(Long.class).single();
+        assertThat(bookRepository.findByAuthorId(authorId))
+                .extracting(Book::getTitle)
+                .containsExactly("Test Book 1");
+    }
+
     @Test
     void findByAvailabilityTrue() {
         var recordsAvailable = JdbcTestUtils.countRowsInTableWhere(jdbcClient, BOOKS_TABLE, "available > 0");
@@ -137,6 +160,39 @@ class BookRepositoryTest {
 
     }
 
+    @Test
+    void compareAndUpdateSavesAnEditOfTheCurrentVersionAndBumpsIt() {
+        var book = bookRepository.findById(idOfTestBook1()).orElseThrow();
+        assertThat(bookRepository.compareAndUpdate(
+                book.edited("Test Book 1 edited", book.getYear(), book.getAuthorId(), book.getAvailable()))).isTrue();
+        var saved = bookRepository.findById(book.getId()).orElseThrow();
+        assertThat(saved.getTitle()).isEqualTo("Test Book 1 edited");
+        assertThat(saved.getVersion()).isEqualTo(book.getVersion() + 1);
+    }
+
+    @Test
+    void savedEditsAreRecordedInTheOutboxAtTheirNewVersion() {
+        var outbox = mock(Outbox.class);
+        var recording = new BookRepository(jdbcClient, dataSource, EntityCaches.disabled(), 100, shards, Optional.of(outbox));
+        var book = recording.findById(idOfTestBook1()).orElseThrow();
+        recording.compareAndUpdate(book.edited("Test Book 1 edited", book.getYear(), book.getAuthorId(), 3));
+        recording.update(book.edited("Test Book 1 edited again", book.getYear(), book.getAuthorId(), 2));
+        verify(outbox).bookUpdated(argThat(saved -> saved.getAvailable() == 3 && saved.getVersion() == book.getVersion() + 1));
+        verify(outbox).bookUpdated(argThat(saved -> saved.getAvailable() == 2 && saved.getVersion() == book.getVersion() + 2));
+    }
+
+    @Test
+    void compareAndUpdateReportsAConflictWhenTheBookChangedSinceItWasRead() {
+        var book = bookRepository.findById(idOfTestBook1()).orElseThrow();
+        // a rental or return in between bumps the version too
+        bookRepository.addToAvailable(List.of(book.getId()), 1);
+        assertThat(bookRepository.compareAndUpdate(
+                book.edited("Test Book 1 edited", book.getYear(), book.getAuthorId(), book.getAvailable()))).isFalse();
+        var current = bookRepository.findById(book.getId()).orElseThrow();
+        assertThat(current.getTitle()).isEqualTo(book.getTitle());
+        assertThat(current.getAvailable()).isEqualTo(book.getAvailable() + 1);
+    }
+
     @Test
     void findBooksByUserId() {
         long userId = jdbcClient.sql("SELECT id FROM users WHERE email = 'test1@example.com'")
@@ -210,5 +266,135 @@ class BookRepositoryTest {
 
     }
 
+    @Test
+    void findAllPagesReturnEveryBookOnceInTitleOrder() {
+        var expected = jdbcClient.sql("SELECT id FROM books ORDER BY title, id").query(Long.class).list();
+        var pages = new ArrayList<Long>();
+        var page = bookRepository.findAll(null, 0, 2);
+        while (!page.isEmpty()) {
+            assertThat(page).hasSizeLessThanOrEqualTo(2);
+            page.forEach(book -> pages.add(book.getId()));
+            var last = page.get(page.size() - 1);
+            page = bookRepository.findAll(last.getTitle(), last.getId(), 2);
+        }
+        assertThat(pages).isEqualTo(expected);
+    }
 
+    @Test
+    void findByYearPageStartsAfterGivenBook() {
+        var firstPage = bookRepository.findByYear(2001, null, 0, 10);
+        assertThat(firstPage).extracting(Book::getTitle).containsExactly("Test Book 1");
+        assertThat(bookRepository.findByYear(2001, "Test Book 1", idOfTestBook1(), 10)).isEmpty();
+    }
+
+    @Test
+    void findByAvailabilityPagesMatchTheUnpagedList() {
+        var expected = jdbcClient.sql("SELECT id FROM books WHERE available = 0 ORDER BY title, id")
+                .query(Long.class).list();
+        var pages = new ArrayList<Long>();
+        var page = bookRepository.findByAvailability(false, null, 0, 1);
+        while (!page.isEmpty()) {
+            pages.add(page.get(0).getId());
+            page = bookRepository.findByAvailability(false, page.get(0).getTitle(), page.get(0).getId(), 1);
+        }
+        assertThat(pages).isEqualTo(expected);
+    }
+
+    @Test
+    void streamAllReturnsAllBooks() {
+        var records = JdbcTestUtils.countRowsInTable(jdbcClient, BOOKS_TABLE);
+        try (var books = bookRepository.streamAll()) {
+            assertThat(books.map(Book::getId)).hasSize(records).isSorted();
+        }
+    }
+
+    @Test
+    void streamByAvailabilityReturnsOnlyAvailableBooks() {
+        var records = JdbcTestUtils.countRowsInTableWhere(jdbcClient, BOOKS_TABLE, "available > 0");
+        try (var books = bookRepository.streamByAvailability(true)) {
+            assertThat(books).hasSize(records).allSatisfy(book -> assertThat(book.getAvailable()).isPositive());
+        }
+    }
+
+    @Test
+    void streamByYearReturnsBooksOfThatYear() {
+        try (var books = bookRepository.streamByYear(2002)) {
+            assertThat(books).extracting(Book::getTitle).containsExactly("Test Book 2");
+        }
+    }
+
+    @Test
+    void addToAvailableAppliesDeltasAndRefusesNegativeAvailability() {
+        var bookId1 = idOfTestBook1(); // 5 available
+        var bookId2 = idOfTestBook2(); // none available
+        assertThat(bookRepository.addToAvailable(Map.of(bookId1, -2, bookId2, -1, Long.MAX_VALUE, 1)))
+                .containsExactlyInAnyOrder(bookId2, Long.MAX_VALUE);
+        assertThat(JdbcTestUtils.countRowsInTableWhere(jdbcClient, BOOKS_TABLE, "available = 3 and id = " + bookId1)).isOne();
+        assertThat(JdbcTestUtils.countRowsInTableWhere(jdbcClient, BOOKS_TABLE, "available = 0 and id = " + bookId2)).isOne();
+    }
+
+    @Test
+    void addToAvailableForManyBooksIsOneConditionalUpdate() {
+        var bookId1 = idOfTestBook1(); // 5 available
+        var bookId2 = idOfTestBook2(); // none available
+        assertThat(bookRepository.addToAvailable(List.of(bookId1, bookId2), -1)).isOne();
+        assertThat(JdbcTestUtils.countRowsInTableWhere(jdbcClient, BOOKS_TABLE, "available = 4 and id = " + bookId1)).isOne();
+        assertThat(bookRepository.addToAvailable(List.of(), 1)).isZero();
+    }
+
+    @Test
+    void findAndLockByIdsFindsTheBooksInIdOrder() {
+        var bookId1 = idOfTestBook1();
+        var bookId2 = idOfTestBook2();
+        assertThat(bookRepository.findAndLockByIds(List.of(bookId2, Long.MAX_VALUE, bookId1)))
+                .extracting(Book::getId)
+                .containsExactly(Math.min(bookId1, bookId2), Math.max(bookId1, bookId2));
+    }
+
+    @Test
+    void findByCriteriaAppliesEveryFilterSet() {
+        var criteria = BookCriteria.any().withTitlePrefix("Test Book").withYears(2000, 2010);
+        assertThat(bookRepository.findBy(criteria, null, 0, 10))
+                .extracting(Book::getTitle).containsExactly("Test Book 1", "Test Book 2");
+        assertThat(bookRepository.findBy(criteria.withAvailable(false), null, 0, 10))
+                .extracting(Book::getTitle).containsExactly("Test Book 2");
+        assertThat(bookRepository.findBy(criteria.withAuthorId(idOfTestAuthor1()).withAvailable(true), null, 0, 10))
+                .extracting(Book::getTitle).containsExactly("Test Book 1");
+        assertThat(bookRepository.findBy(criteria.withYear(2003), null, 0, 10)).isEmpty();
+    }
+
+    @Test
+    void findByCriteriaWithAuthorName() {
+        var criteria = BookCriteria.any().withAuthorName("Test Author 2").withYears(2002, null);
+        assertThat(bookRepository.findBy(criteria, null, 0, 10))
+                .extracting(Book::getTitle).containsExactly("Test Book 2");
+        assertThat(bookRepository.findBy(criteria.withAuthorName("Non Existing"), null, 0, 10)).isEmpty();
+    }
+
+    @Test
+    void findByCriteriaWithAuthorNameSharedByTwoAuthors() {
+        jdbcClient.sql("INSERT INTO authors(name, birthdate) VALUES ('Test Author 1', '1950-05-05')").update();
+        var criteria = BookCriteria.any().withAuthorName("Test Author 1");
+        assertThat(bookRepository.findBy(criteria, null, 0, 10))
+                .extracting(Book::getTitle).containsExactly("Test Book 1");
+    }
+
+    @Test
+    void findByCriteriaTitlePrefixMatchesWildcardsLiterally() {
+        assertThat(bookRepository.findBy(BookCriteria.any().withTitlePrefix("Test%"), null, 0, 10)).isEmpty();
+        assertThat(bookRepository.findBy(BookCriteria.any().withTitlePrefix("Test_Book"), null, 0, 10)).isEmpty();
+    }
+
+    @Test
+    void findByCriteriaPagesMatchTheUnpagedList() {
+        var criteria = BookCriteria.any().withTitlePrefix("Test Book");
+        var expected = bookRepository.findBy(criteria, null, 0, 10).stream().map(Book::getId).toList();
+        var pages = new ArrayList<Long>();
+        var page = bookRepository.findBy(criteria, null, 0, 1);
+        while (!page.isEmpty()) {
+            pages.add(page.get(0).getId());
+            page = bookRepository.findBy(criteria, page.get(0).getTitle(), page.get(0).getId(), 1);
+        }
+        assertThat(pages).hasSize(2).isEqualTo(expected);
+    }
 }
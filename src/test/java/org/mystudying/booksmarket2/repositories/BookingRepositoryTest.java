@@ -2,26 +2,34 @@ package org.mystudying.booksmarket2.repositories;
 
 
 import org.junit.jupiter.api.Test;
+import org.mystudying.booksmarket2.cache.EntityCaches;
+import org.mystudying.booksmarket2.domain.Book;
 import org.mystudying.booksmarket2.domain.Booking;
+import org.mystudying.booksmarket2.domain.RentalOutcome;
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
 import org.springframework.context.annotation.Import;
 import org.springframework.jdbc.core.simple.JdbcClient;
 import org.springframework.test.context.jdbc.Sql;
 import org.springframework.test.jdbc.JdbcTestUtils;
 
+import java.util.List;
+import java.util.Optional;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 @JdbcTest
-@Import(BookingRepository.class)
+@Import({BookingRepository.class, BookingShards.class, EntityCaches.class})
 @Sql("/insertTestRecords.sql")
 class BookingRepositoryTest {
     private static final String BOOKINGS_TABLE = "bookings";
     private final BookingRepository bookingRepository;
     private final JdbcClient jdbcClient;
+    private final EntityCaches caches;
 
-    public BookingRepositoryTest(BookingRepository bookingRepository, JdbcClient jdbcClient) {
+    public BookingRepositoryTest(BookingRepository bookingRepository, JdbcClient jdbcClient, EntityCaches caches) {
         this.bookingRepository = bookingRepository;
         this.jdbcClient = jdbcClient;
+        this.caches = caches;
     }
 
     private long idOfTestUser1() {
@@ -63,7 +71,7 @@ class BookingRepositoryTest {
         long userId = idOfTestUser1();
         long bookId = idOfTestBook1();
         var booking = new Booking(userId, bookId);
-        bookingRepository.delete(booking);
+        assertThat(bookingRepository.delete(booking)).isTrue();
         assertThat(JdbcTestUtils.countRowsInTableWhere(jdbcClient, BOOKINGS_TABLE,
                 "user_id = " + userId + " AND book_id = " + bookId)).isZero();
     }
@@ -75,8 +83,124 @@ class BookingRepositoryTest {
         assertThat(bookingRepository.find(userId, bookId)).isPresent();
     }
 
+    @Test
+    void findBookIdsByUserIdFindsTheBooksOnLoan() {
+        assertThat(bookingRepository.findBookIdsByUserId(idOfTestUser1())).containsExactly(idOfTestBook1());
+        assertThat(bookingRepository.findBookIdsByUserId(idOfTestUser2())).isEmpty();
+    }
+
+    @Test
+    void findUserIdsByBookIdFindsTheBorrowers() {
+        bookingRepository.create(new Booking(idOfTestUser2(), idOfTestBook1()));
+        assertThat(bookingRepository.findUserIdsByBookId(idOfTestBook1())).containsExactly(idOfTestUser1(), idOfTestUser2());
+        assertThat(bookingRepository.findUserIdsByBookId(idOfTestBook2())).isEmpty();
+    }
+
+    @Test
+    void streamAllReturnsAllBookingsInKeyOrder() {
+        var records = JdbcTestUtils.countRowsInTable(jdbcClient, BOOKINGS_TABLE);
+        try (var bookings = bookingRepository.streamAll()) {
+            assertThat(bookings.map(booking -> booking.getUserId() + "/" + booking.getBookId()))
+                    .hasSize(records)
+                    .contains(idOfTestUser1() + "/" + idOfTestBook1());
+        }
+        try (var bookings = bookingRepository.streamAll()) {
+            assertThat(bookings.map(Booking::getUserId)).isSorted();
+        }
+    }
+
     @Test
     void findNonExistingFindsNoBooking() {
         assertThat(bookingRepository.find(Long.MAX_VALUE, Long.MAX_VALUE)).isEmpty();
     }
+
+    @Test
+    void deleteOfNonExistingBookingReportsNothingDeleted() {
+        assertThat(bookingRepository.delete(new Booking(idOfTestUser2(), idOfTestBook1()))).isFalse();
+    }
+
+    private int availableOf(long bookId) {
+        return jdbcClient.sql("SELECT available FROM books WHERE id = ?")
+                .param(bookId)
+                .query(Integer.class)
+                .single();
+    }
+
+    @Test
+    void rentAddsBookingAndTakesOneCopy() {
+        long userId = idOfTestUser2();
+        long bookId = idOfTestBook1();
+        int available = availableOf(bookId);
+        assertThat(bookingRepository.rent(userId, bookId)).isEqualTo(RentalOutcome.RENTED);
+        assertThat(availableOf(bookId)).isEqualTo(available - 1);
+        assertThat(bookingRepository.find(userId, bookId)).isPresent();
+    }
+
+    private long versionOf(long bookId) {
+        return jdbcClient.sql("SELECT version FROM books WHERE id = ?")
+                .param(bookId)
+                .query(Long.class)
+                .single();
+    }
+
+    private void cacheBook(long bookId) {
+        caches.books().get(bookId, id -> Optional.of(new Book(id, "Cached", 2000, 1, 0)));
+    }
+
+    @Test
+    void rentOfBorrowedBookLeavesTheBookUnchanged() {
+        long bookId = idOfTestBook1();
+        int available = availableOf(bookId);
+        long version = versionOf(bookId);
+        cacheBook(bookId);
+        assertThat(bookingRepository.rent(idOfTestUser1(), bookId)).isEqualTo(RentalOutcome.ALREADY_BORROWED);
+        assertThat(availableOf(bookId)).isEqualTo(available);
+        assertThat(versionOf(bookId)).isEqualTo(version);
+        assertThat(caches.books().getIfPresent(bookId)).isEmpty();
+    }
+
+    @Test
+    void rentReportsWhatIsMissing() {
+        long bookId = idOfTestBook1();
+        int available = availableOf(bookId);
+        assertThat(bookingRepository.rent(Long.MAX_VALUE, bookId)).isEqualTo(RentalOutcome.USER_NOT_FOUND);
+        assertThat(availableOf(bookId)).isEqualTo(available);
+        assertThat(bookingRepository.rent(idOfTestUser2(), Long.MAX_VALUE)).isEqualTo(RentalOutcome.BOOK_NOT_FOUND);
+        assertThat(bookingRepository.rent(idOfTestUser2(), idOfTestBook2())).isEqualTo(RentalOutcome.NOT_AVAILABLE);
+    }
+
+    @Test
+    void returnBookRemovesBookingAndGivesCopyBack() {
+        long userId = idOfTestUser1();
+        long bookId = idOfTestBook1();
+        int available = availableOf(bookId);
+        assertThat(bookingRepository.returnBook(userId, bookId)).isEqualTo(RentalOutcome.RETURNED);
+        assertThat(availableOf(bookId)).isEqualTo(available + 1);
+        assertThat(bookingRepository.find(userId, bookId)).isEmpty();
+    }
+
+    @Test
+    void returnBookReportsWhatIsMissing() {
+        long bookId = idOfTestBook1();
+        int available = availableOf(bookId);
+        long version = versionOf(bookId);
+        cacheBook(bookId);
+        assertThat(bookingRepository.returnBook(idOfTestUser2(), bookId)).isEqualTo(RentalOutcome.NOT_BORROWED);
+        assertThat(caches.books().getIfPresent(bookId)).isEmpty();
+        assertThat(bookingRepository.returnBook(Long.MAX_VALUE, bookId)).isEqualTo(RentalOutcome.USER_NOT_FOUND);
+        assertThat(availableOf(bookId)).isEqualTo(available);
+        assertThat(versionOf(bookId)).isEqualTo(version);
+        assertThat(bookingRepository.returnBook(idOfTestUser1(), Long.MAX_VALUE)).isEqualTo(RentalOutcome.BOOK_NOT_FOUND);
+    }
+
+    @Test
+    void createAllAndDeleteAllWorkOnTheWholeBatch() {
+        long userId = idOfTestUser2();
+        var bookIds = List.of(idOfTestBook2(), idOfTestBook1());
+        bookingRepository.createAll(userId, bookIds);
+        assertThat(bookingRepository.findBookIds(userId, bookIds)).containsExactlyInAnyOrderElementsOf(bookIds);
+        assertThat(bookingRepository.deleteAll(userId, List.of(idOfTestBook1(), Long.MAX_VALUE)))
+                .containsExactly(idOfTestBook1());
+        assertThat(bookingRepository.findBookIds(userId, bookIds)).containsExactly(idOfTestBook2());
+    }
 }
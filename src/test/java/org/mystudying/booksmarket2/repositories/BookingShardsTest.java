@@ -0,0 +1,52 @@
+package org.mystudying.booksmarket2.repositories;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.simple.JdbcClient;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+@ExtendWith(MockitoExtension.class)
+class BookingShardsTest {
+    private static final String FIND = "SELECT book_id FROM {bookings} WHERE user_id = ?";
+
+    @Mock
+    private JdbcClient jdbcClient;
+
+    @Test
+    void oneShardIsTheBookingsTable() {
+        var shards = new BookingShards(jdbcClient, 1);
+        var sql = shards.sql(FIND);
+        assertThat(sql.forUser(7)).isEqualTo("SELECT book_id FROM bookings WHERE user_id = ?");
+        assertThat(sql.unionAll()).isEqualTo(sql.forUser(7));
+        assertThat(shards.table(7)).isEqualTo("bookings");
+    }
+
+    @Test
+    void usersAreRoutedByIdModuloTheShardCount() {
+        var shards = new BookingShards(jdbcClient, 3);
+        assertThat(shards.table(3)).isEqualTo("bookings");
+        assertThat(shards.table(4)).isEqualTo("bookings_1");
+        assertThat(shards.table(8)).isEqualTo("bookings_2");
+        assertThat(shards.shard(-1)).isEqualTo(2);
+        assertThat(shards.sql(FIND).forUser(4)).isEqualTo("SELECT book_id FROM bookings_1 WHERE user_id = ?");
+    }
+
+    @Test
+    void perShardAndUnionAllCoverEveryShardInOrder() {
+        var sql = new BookingShards(jdbcClient, 2).sql("SELECT user_id FROM {bookings} WHERE book_id = ?");
+        assertThat(sql.perShard()).containsExactly(
+                "SELECT user_id FROM bookings WHERE book_id = ?",
+                "SELECT user_id FROM bookings_1 WHERE book_id = ?");
+        assertThat(sql.unionAll()).isEqualTo(
+                "SELECT user_id FROM bookings WHERE book_id = ? UNION ALL SELECT user_id FROM bookings_1 WHERE book_id = ?");
+    }
+
+    @Test
+    void shardCountMustBePositive() {
+        assertThatIllegalArgumentException().isThrownBy(() -> new BookingShards(jdbcClient, 0));
+    }
+}
@@ -0,0 +1,368 @@
+package org.mystudying.booksmarket2.repositories;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+import org.junit.jupiter.api.TestInstance;
+import org.mystudying.booksmarket2.cache.EntityCaches;
+import org.mystudying.booksmarket2.domain.Author;
+import org.mystudying.booksmarket2.domain.BookCriteria;
+import org.mystudying.booksmarket2.domain.Booking;
+import org.mystudying.booksmarket2.domain.Reservation;
+import org.mystudying.booksmarket2.domain.Tally;
+import org.mystudying.booksmarket2.domain.User;
+import org.mystudying.booksmarket2.domain.YearAvailability;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.util.Map.entry;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Runs every repository method against a seeded catalog, replays each statement it sent under EXPLAIN
+ * and fails when a plan reads a whole table or sorts rows instead of using an index.
+ * Plans are MySQL specific, so the suite is skipped on other databases.
+ */
+@JdbcTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class QueryPlanTest {
+    private static final int AUTHORS = 1_000;
+    private static final int BOOKS = 20_000;
+    private static final int USERS = 5_000;
+    private static final int LOANS_PER_USER = 3;
+    private static final String PREFIX = "Plan Test ";
+
+    private enum Finding {FULL_SCAN, FILESORT}
+
+    // Findings a method may have, keyed like the probes. Anything else is a regression.
+    private static final Map<String, Set<Finding>> ACCEPTED = Map.ofEntries(
+            // unpaged listings return every row: a scan and one sort beat a lookup per row through the index
+            entry("BookRepositoryInt.findAll()", EnumSet.allOf(Finding.class)),
+            entry("UserRepositoryInt.findAll()", EnumSet.allOf(Finding.class)),
+            entry("AuthorRepositoryInt.findAll()", EnumSet.allOf(Finding.class)),
+            // available changes with every rental and is deliberately not indexed; the pages walk the title index
+            entry("BookRepositoryInt.findByAvailability(boolean)", EnumSet.allOf(Finding.class)),
+            // small sorts: the books of one year, of one author, the loans of one user
+            entry("BookRepositoryInt.streamByYear(int)", EnumSet.of(Finding.FILESORT)),
+            entry("BookRepositoryInt.findByAuthorName(String)", EnumSet.of(Finding.FILESORT)),
+            entry("AuthorRepositoryInt.findWithBooksById(long)", EnumSet.of(Finding.FILESORT)),
+            entry("BookRepositoryInt.findBooksByUserId(long)", EnumSet.of(Finding.FILESORT)),
+            // read once at startup to restore the in-memory waitlists
+            entry("ReservationRepositoryInt.findAll()", EnumSet.allOf(Finding.class)),
+            // whole-catalog aggregates: they group and rank every row, and StatisticsService caches them
+            entry("StatisticsRepositoryInt.booksPerAuthor(Tally,int)", EnumSet.allOf(Finding.class)),
+            entry("StatisticsRepositoryInt.loansPerUser(Tally,int)", EnumSet.allOf(Finding.class)),
+            entry("StatisticsRepositoryInt.mostBorrowedBooks(Tally,int)", EnumSet.allOf(Finding.class)),
+            entry("StatisticsRepositoryInt.availabilityPerYear(YearAvailability,int)", EnumSet.allOf(Finding.class)),
+            entry("StatisticsRepositoryInt.totals()", EnumSet.allOf(Finding.class)));
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final RecordingDataSource recordingDataSource;
+    private final BookRepository bookRepository;
+    private final UserRepository userRepository;
+    private final AuthorRepository authorRepository;
+    private final BookingRepository bookingRepository;
+    private final ReservationRepository reservationRepository;
+    private final StatisticsRepository statisticsRepository;
+    private long firstAuthorId;
+    private long firstBookId;
+    private long firstUserId;
+
+    QueryPlanTest(DataSource dataSource, JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.recordingDataSource = new RecordingDataSource(dataSource);
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(recordingDataSource));
+        var jdbcClient = JdbcClient.create(recordingDataSource);
+        var caches = EntityCaches.disabled();
+        var shards = new BookingShards(jdbcClient, 1);
+        bookRepository = new BookRepository(jdbcClient, recordingDataSource, caches, 100, shards, Optional.empty());
+        userRepository = new UserRepository(jdbcClient, recordingDataSource, 100);
+        authorRepository = new AuthorRepository(jdbcClient, recordingDataSource, 100);
+        bookingRepository = new BookingRepository(jdbcClient, recordingDataSource, caches, 100, shards);
+        reservationRepository = new ReservationRepository(jdbcClient);
+        statisticsRepository = new StatisticsRepository(jdbcClient, shards);
+    }
+
+    private boolean isMySql() {
+        var product = jdbcTemplate.execute((java.sql.Connection connection) -> connection.getMetaData().getDatabaseProductName());
+        return "MySQL".equals(product) || "MariaDB".equals(product);
+    }
+
+    @BeforeAll
+    void seed() {
+        assumeTrue(isMySql(), "query plans are only checked on MySQL");
+        cleanup();
+        insert("INSERT INTO authors(name, birthdate) VALUES (?, ?)", AUTHORS,
+                i -> new Object[]{authorName(i), Date.valueOf(LocalDate.of(1900, 1, 1).plusDays(i))});
+        firstAuthorId = firstId("authors", "name", authorName(0));
+        insert("INSERT INTO books(title, year, author_id, available) VALUES (?, ?, ?, ?)", BOOKS,
+                i -> new Object[]{bookTitle(i), 1900 + i % 120, firstAuthorId + i % AUTHORS, i % 10 == 0 ? 0 : 5});
+        firstBookId = firstId("books", "title", bookTitle(0));
+        insert("INSERT INTO users(name, email) VALUES (?, ?)", USERS,
+                i -> new Object[]{PREFIX + "User " + i, "plan.test" + i + "@example.com"});
+        firstUserId = firstId("users", "email", "plan.test0@example.com");
+        insert("INSERT INTO bookings(user_id, book_id) VALUES (?, ?)", USERS * LOANS_PER_USER,
+                i -> new Object[]{firstUserId + i / LOANS_PER_USER, firstBookId + 1 + (i * 7L) % (BOOKS - 1)});
+        // every user waits for one of the sold out books, a few dozen users per book
+        insert("INSERT INTO reservations(user_id, book_id) VALUES (?, ?)", USERS,
+                i -> new Object[]{firstUserId + i, firstBookId + (i * 10L) % BOOKS});
+        // fresh statistics, as a production catalog of this size would have
+        jdbcTemplate.execute("ANALYZE TABLE authors, books, users, bookings, reservations");
+    }
+
+    @AfterAll
+    void cleanup() {
+        if (!isMySql()) {
+            return;
+        }
+        jdbcTemplate.update("DELETE FROM reservations WHERE user_id IN (SELECT id FROM users WHERE name LIKE ?)" +
+                " OR book_id IN (SELECT id FROM books WHERE title LIKE ?)", PREFIX + "%", PREFIX + "%");
+        jdbcTemplate.update("DELETE FROM bookings WHERE user_id IN (SELECT id FROM users WHERE name LIKE ?)" +
+                " OR book_id IN (SELECT id FROM books WHERE title LIKE ?)", PREFIX + "%", PREFIX + "%");
+        jdbcTemplate.update("DELETE FROM books WHERE title LIKE ?", PREFIX + "%");
+        jdbcTemplate.update("DELETE FROM authors WHERE name LIKE ?", PREFIX + "%");
+        jdbcTemplate.update("DELETE FROM users WHERE name LIKE ?", PREFIX + "%");
+    }
+
+    private static String authorName(int index) {
+        return PREFIX + "Author " + index;
+    }
+
+    private static String bookTitle(int index) {
+        return PREFIX + "Book " + index;
+    }
+
+    private long firstId(String table, String column, String value) {
+        return jdbcTemplate.queryForObject("SELECT id FROM " + table + " WHERE " + column + " = ?", Long.class, value);
+    }
+
+    private void insert(String sql, int rows, IntFunction<Object[]> row) {
+        var batch = new ArrayList<Object[]>();
+        for (int i = 0; i < rows; i++) {
+            batch.add(row.apply(i));
+            if (batch.size() == 5_000 || i == rows - 1) {
+                jdbcTemplate.batchUpdate(sql, batch);
+                batch.clear();
+            }
+        }
+    }
+
+    // One call per repository method, named "Interface.method(ParameterTypes)"; methods with
+    // several SQL variants are called once per variant.
+    private Map<String, Runnable> probes() {
+        long bookId = firstBookId + 4_321;
+        long soldOutBookId = firstBookId + 4_320;
+        long userId = firstUserId + 1_234;
+        long authorId = firstAuthorId + 123;
+        var probes = new LinkedHashMap<String, Runnable>();
+
+        probes.put("BookRepositoryInt.findAll()", bookRepository::findAll);
+        probes.put("BookRepositoryInt.findByYear(int)", () -> bookRepository.findByYear(1950));
+        probes.put("BookRepositoryInt.findByAuthorName(String)", () -> bookRepository.findByAuthorName(authorName(123)));
+        probes.put("BookRepositoryInt.findByAuthorId(long)", () -> bookRepository.findByAuthorId(authorId));
+        probes.put("BookRepositoryInt.findByAvailability(boolean)", () -> {
+            bookRepository.findByAvailability(true);
+            bookRepository.findByAvailability(false);
+        });
+        probes.put("BookRepositoryInt.findById(long)", () -> bookRepository.findById(bookId));
+        probes.put("BookRepositoryInt.findByTitle(String)", () -> bookRepository.findByTitle(bookTitle(4_321)));
+        probes.put("BookRepositoryInt.findByIds(Collection)",
+                () -> bookRepository.findByIds(List.of(bookId, bookId + 7, bookId + 1_000)));
+        probes.put("BookRepositoryInt.update(Book)", () -> bookRepository.update(bookRepository.findById(bookId).orElseThrow()));
+        probes.put("BookRepositoryInt.compareAndUpdate(Book)",
+                () -> bookRepository.compareAndUpdate(bookRepository.findById(bookId).orElseThrow()));
+        probes.put("BookRepositoryInt.findBooksByUserId(long)", () -> bookRepository.findBooksByUserId(userId));
+        probes.put("BookRepositoryInt.findAndLockById(long)", () -> bookRepository.findAndLockById(bookId));
+        probes.put("BookRepositoryInt.findAndLockByIds(Collection)",
+                () -> bookRepository.findAndLockByIds(List.of(bookId, bookId + 1, bookId + 2)));
+        probes.put("BookRepositoryInt.findAll(String,long,int)", () -> {
+            bookRepository.findAll(null, 0, 50);
+            bookRepository.findAll(bookTitle(4_321), bookId, 50);
+        });
+        probes.put("BookRepositoryInt.findByYear(int,String,long,int)", () -> {
+            bookRepository.findByYear(1950, null, 0, 50);
+            bookRepository.findByYear(1950, bookTitle(4_321), bookId, 50);
+        });
+        probes.put("BookRepositoryInt.findByAvailability(boolean,String,long,int)", () -> {
+            for (boolean available : new boolean[]{true, false}) {
+                bookRepository.findByAvailability(available, null, 0, 50);
+                bookRepository.findByAvailability(available, bookTitle(4_321), bookId, 50);
+            }
+        });
+        probes.put("BookRepositoryInt.findBy(BookCriteria,String,long,int)", () -> {
+            bookRepository.findBy(BookCriteria.any().withAuthorId(authorId).withYears(1950, 1960).withAvailable(true),
+                    null, 0, 50);
+            bookRepository.findBy(BookCriteria.any().withAuthorName(authorName(123)).withYears(1950, null),
+                    bookTitle(4_321), bookId, 50);
+            bookRepository.findBy(BookCriteria.any().withTitlePrefix(PREFIX + "Book 43").withAvailable(true),
+                    bookTitle(4_321), bookId, 50);
+            bookRepository.findBy(BookCriteria.any().withYear(2001).withAvailable(false), bookTitle(4_321), bookId, 50);
+        });
+        probes.put("BookRepositoryInt.streamAll()", () -> firstOf(bookRepository.streamAll()));
+        probes.put("BookRepositoryInt.streamByYear(int)", () -> firstOf(bookRepository.streamByYear(1950)));
+        probes.put("BookRepositoryInt.streamByAvailability(boolean)", () -> {
+            firstOf(bookRepository.streamByAvailability(true));
+            firstOf(bookRepository.streamByAvailability(false));
+        });
+        probes.put("BookRepositoryInt.addToAvailable(Map)", () -> bookRepository.addToAvailable(Map.of(bookId, 1)));
+        probes.put("BookRepositoryInt.addToAvailable(Collection,int)",
+                () -> bookRepository.addToAvailable(List.of(bookId, bookId + 1), 1));
+
+        probes.put("UserRepositoryInt.findAll()", userRepository::findAll);
+        probes.put("UserRepositoryInt.findById(long)", () -> userRepository.findById(userId));
+        probes.put("UserRepositoryInt.findByName(String)", () -> userRepository.findByName(PREFIX + "User 1234"));
+        probes.put("UserRepositoryInt.findByEmail(String)", () -> userRepository.findByEmail("plan.test1234@example.com"));
+        probes.put("UserRepositoryInt.create(User)",
+                () -> userRepository.create(new User(1, PREFIX + "New User", "plan.test.new@example.com")));
+        probes.put("UserRepositoryInt.findAll(String,long,int)", () -> {
+            userRepository.findAll(null, 0, 50);
+            userRepository.findAll(PREFIX + "User 1234", userId, 50);
+        });
+        probes.put("UserRepositoryInt.streamAll()", () -> firstOf(userRepository.streamAll()));
+
+        probes.put("AuthorRepositoryInt.findAll()", authorRepository::findAll);
+        probes.put("AuthorRepositoryInt.findById(long)", () -> authorRepository.findById(authorId));
+        probes.put("AuthorRepositoryInt.findByName(String)", () -> authorRepository.findByName(authorName(123)));
+        probes.put("AuthorRepositoryInt.findByIds(Collection)",
+                () -> authorRepository.findByIds(List.of(authorId, authorId + 7, authorId + 100)));
+        probes.put("AuthorRepositoryInt.findWithBooksById(long)", () -> authorRepository.findWithBooksById(authorId));
+        probes.put("AuthorRepositoryInt.create(Author)",
+                () -> authorRepository.create(new Author(1, PREFIX + "New Author", LocalDate.of(1950, 1, 1))));
+        probes.put("AuthorRepositoryInt.findAll(String,long,int)", () -> {
+            authorRepository.findAll(null, 0, 50);
+            authorRepository.findAll(authorName(123), authorId, 50);
+        });
+        probes.put("AuthorRepositoryInt.streamAll()", () -> firstOf(authorRepository.streamAll()));
+
+        probes.put("BookingRepositoryInt.create(Booking)", () -> bookingRepository.create(new Booking(userId, bookId)));
+        probes.put("BookingRepositoryInt.delete(Booking)", () -> bookingRepository.delete(new Booking(userId, bookId)));
+        probes.put("BookingRepositoryInt.find(long,long)", () -> bookingRepository.find(userId, bookId));
+        probes.put("BookingRepositoryInt.findBookIdsByUserId(long)", () -> bookingRepository.findBookIdsByUserId(userId));
+        probes.put("BookingRepositoryInt.streamAll()", () -> firstOf(bookingRepository.streamAll()));
+        probes.put("BookingRepositoryInt.findUserIdsByBookId(long)", () -> bookingRepository.findUserIdsByBookId(bookId));
+        probes.put("BookingRepositoryInt.findBookIds(long,Collection)",
+                () -> bookingRepository.findBookIds(userId, List.of(bookId, bookId + 1)));
+        probes.put("BookingRepositoryInt.createAll(long,Collection)",
+                () -> bookingRepository.createAll(userId, List.of(bookId, bookId + 1)));
+        probes.put("BookingRepositoryInt.deleteAll(long,Collection)",
+                () -> bookingRepository.deleteAll(userId, List.of(bookId, bookId + 1)));
+        probes.put("BookingRepositoryInt.rent(long,long)", () -> {
+            bookingRepository.rent(userId, bookId);
+            bookingRepository.rent(userId, soldOutBookId);
+        });
+        probes.put("BookingRepositoryInt.returnBook(long,long)", () -> {
+            bookingRepository.returnBook(userId, bookId);
+            bookingRepository.returnBook(userId, soldOutBookId);
+        });
+
+        probes.put("ReservationRepositoryInt.create(Reservation)",
+                () -> reservationRepository.create(new Reservation(1, userId, bookId)));
+        probes.put("ReservationRepositoryInt.delete(long,long)", () -> reservationRepository.delete(userId, soldOutBookId));
+        probes.put("ReservationRepositoryInt.findAndLockFirstByBookId(long)",
+                () -> reservationRepository.findAndLockFirstByBookId(soldOutBookId));
+        probes.put("ReservationRepositoryInt.findByBookId(long)", () -> reservationRepository.findByBookId(soldOutBookId));
+        probes.put("ReservationRepositoryInt.findByUserId(long)", () -> reservationRepository.findByUserId(userId));
+        probes.put("ReservationRepositoryInt.findAll()", reservationRepository::findAll);
+
+        probes.put("StatisticsRepositoryInt.booksPerAuthor(Tally,int)", () -> {
+            statisticsRepository.booksPerAuthor(null, 50);
+            statisticsRepository.booksPerAuthor(new Tally(authorId, authorName(123), 20), 50);
+        });
+        probes.put("StatisticsRepositoryInt.loansPerUser(Tally,int)", () -> {
+            statisticsRepository.loansPerUser(null, 50);
+            statisticsRepository.loansPerUser(new Tally(userId, PREFIX + "User 1234", LOANS_PER_USER), 50);
+        });
+        probes.put("StatisticsRepositoryInt.mostBorrowedBooks(Tally,int)", () -> {
+            statisticsRepository.mostBorrowedBooks(null, 50);
+            statisticsRepository.mostBorrowedBooks(new Tally(bookId, bookTitle(4_321), 1), 50);
+        });
+        probes.put("StatisticsRepositoryInt.availabilityPerYear(YearAvailability,int)", () -> {
+            statisticsRepository.availabilityPerYear(null, 50);
+            statisticsRepository.availabilityPerYear(new YearAvailability(1950, 0, 0, 0), 50);
+        });
+        probes.put("StatisticsRepositoryInt.totals()", statisticsRepository::totals);
+        return probes;
+    }
+
+    private static void firstOf(Stream<?> stream) {
+        try (stream) {
+            stream.findFirst();
+        }
+    }
+
+    private static String key(Class<?> repository, Method method) {
+        return repository.getSimpleName() + "." + method.getName() + Arrays.stream(method.getParameterTypes())
+                .map(Class::getSimpleName)
+                .collect(Collectors.joining(",", "(", ")"));
+    }
+
+    @Test
+    void everyRepositoryMethodIsProbed() {
+        var methods = Stream.of(BookRepositoryInt.class, UserRepositoryInt.class,
+                        AuthorRepositoryInt.class, BookingRepositoryInt.class, ReservationRepositoryInt.class,
+                        StatisticsRepositoryInt.class)
+                .flatMap(repository -> Arrays.stream(repository.getMethods()).map(method -> key(repository, method)))
+                .collect(Collectors.toSet());
+        assertThat(probes().keySet()).containsExactlyInAnyOrderElementsOf(methods);
+    }
+
+    @TestFactory
+    Stream<DynamicTest> noStatementScansATableOrSortsItsRows() {
+        return probes().entrySet().stream().map(probe -> DynamicTest.dynamicTest(probe.getKey(), () -> {
+            recordingDataSource.drain();
+            transactionTemplate.executeWithoutResult(status -> {
+                probe.getValue().run();
+                status.setRollbackOnly();
+            });
+            var statements = recordingDataSource.drain();
+            assertThat(statements).isNotEmpty();
+            var findings = EnumSet.noneOf(Finding.class);
+            var plans = new ArrayList<String>();
+            for (var statement : statements) {
+                if (statement.sql().stripLeading().toUpperCase().startsWith("INSERT")) {
+                    continue;
+                }
+                var sql = statement.sql().replaceAll("(?i)\\s+for update\\s*$", "");
+                for (var row : jdbcTemplate.queryForList("EXPLAIN " + sql, statement.parameters().toArray())) {
+                    var extra = String.valueOf(row.get("Extra"));
+                    if ("ALL".equals(row.get("type"))) {
+                        findings.add(Finding.FULL_SCAN);
+                    }
+                    if (extra.contains("filesort")) {
+                        findings.add(Finding.FILESORT);
+                    }
+                    plans.add(sql.strip().replaceAll("\\s+", " ") + "\n    " + row);
+                }
+            }
+            assertThat(findings)
+                    .as("plans of %s:%n%s", probe.getKey(), String.join("\n", plans))
+                    .isSubsetOf(ACCEPTED.getOrDefault(probe.getKey(), Set.of()));
+        }));
+    }
+}
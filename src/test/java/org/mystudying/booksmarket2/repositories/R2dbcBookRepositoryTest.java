@@ -0,0 +1,90 @@
+package org.mystudying.booksmarket2.repositories;
+
+
+import org.junit.jupiter.api.Test;
+import org.mystudying.booksmarket2.domain.Book;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.test.StepVerifier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@JdbcTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@ActiveProfiles("reactive")
+@Import({R2dbcConfig.class, R2dbcBookRepository.class, BookingShards.class})
+class R2dbcBookRepositoryTest {
+    private static final String TEST_BOOK_1 = "SELECT id FROM books WHERE title = 'Test Book 1'";
+    private final R2dbcBookRepository bookRepository;
+    private final R2dbcTestRecords records;
+
+    public R2dbcBookRepositoryTest(R2dbcBookRepository bookRepository, DatabaseClient client,
+                                   TransactionalOperator transactionalOperator) {
+        this.bookRepository = bookRepository;
+        this.records = new R2dbcTestRecords(client, transactionalOperator);
+    }
+
+    @Test
+    void findByIdFindsTheBook() {
+        StepVerifier.create(records.rolledBack(() -> records.id(TEST_BOOK_1).flatMap(bookRepository::findById)))
+                .assertNext(book -> {
+                    assertThat(book.getTitle()).isEqualTo("Test Book 1");
+                    assertThat(book.getYear()).isEqualTo(2001);
+                    assertThat(book.getAvailable()).isEqualTo(5);
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void findByIdOfAMissingBookIsEmpty() {
+        StepVerifier.create(records.rolledBack(() -> bookRepository.findById(Long.MAX_VALUE))).verifyComplete();
+    }
+
+    @Test
+    void findByAuthorNameFindsTheBooksOfThatAuthor() {
+        StepVerifier.create(records.rolledBack(() -> bookRepository.findByAuthorName("Test Author 2").map(Book::getTitle)))
+                .expectNext("Test Book 2")
+                .verifyComplete();
+    }
+
+    @Test
+    void findByAvailabilityFindsOnlyBooksWithCopiesLeft() {
+        StepVerifier.create(records.rolledBack(() -> bookRepository.findByAvailability(true).map(Book::getTitle).collectList()))
+                .assertNext(titles -> assertThat(titles).contains("Test Book 1").doesNotContain("Test Book 2"))
+                .verifyComplete();
+    }
+
+    @Test
+    void pagesContinueAfterTheGivenKey() {
+        StepVerifier.create(records.rolledBack(() -> bookRepository.findByYear(2001, null, 0, 10)
+                        .last()
+                        .flatMapMany(last -> bookRepository.findByYear(2001, last.getTitle(), last.getId(), 10))))
+                .verifyComplete();
+    }
+
+    @Test
+    void updateChangesTheBook() {
+        StepVerifier.create(records.rolledBack(() -> records.id(TEST_BOOK_1)
+                        .flatMap(bookRepository::findById)
+                        .flatMap(book -> bookRepository.update(new Book(book.getId(), "Renamed", book.getYear(),
+                                book.getAuthorId(), book.getAvailable())).thenReturn(book.getId()))
+                        .flatMap(bookRepository::findById)
+                        .map(Book::getTitle)))
+                .expectNext("Renamed")
+                .verifyComplete();
+    }
+
+    @Test
+    void findBooksByUserIdFindsTheBorrowedBooks() {
+        StepVerifier.create(records.rolledBack(() -> records.id("SELECT id FROM users WHERE email = 'test1@example.com'")
+                        .flatMapMany(bookRepository::findBooksByUserId)
+                        .map(Book::getTitle)))
+                .expectNext("Test Book 1")
+                .verifyComplete();
+    }
+}
@@ -0,0 +1,131 @@
+package org.mystudying.booksmarket2.repositories;
+
+
+import org.junit.jupiter.api.Test;
+import org.mystudying.booksmarket2.domain.RentalOutcome;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.function.BiFunction;
+
+@JdbcTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@ActiveProfiles("reactive")
+@Import({R2dbcConfig.class, R2dbcBookingRepository.class, BookingShards.class})
+class R2dbcBookingRepositoryTest {
+    private static final String TEST_USER_1 = "SELECT id FROM users WHERE email = 'test1@example.com'";
+    private static final String TEST_USER_2 = "SELECT id FROM users WHERE email = 'test2@example.com'";
+    private static final String TEST_BOOK_1 = "SELECT id FROM books WHERE title = 'Test Book 1'";
+    private static final String TEST_BOOK_2 = "SELECT id FROM books WHERE title = 'Test Book 2'";
+    private final R2dbcBookingRepository bookingRepository;
+    private final R2dbcTestRecords records;
+
+    public R2dbcBookingRepositoryTest(R2dbcBookingRepository bookingRepository, DatabaseClient client,
+                                      TransactionalOperator transactionalOperator) {
+        this.bookingRepository = bookingRepository;
+        this.records = new R2dbcTestRecords(client, transactionalOperator);
+    }
+
+    private <T> Mono<T> withIds(String userSql, String bookSql, BiFunction<Long, Long, Mono<T>> test) {
+        return records.id(userSql).flatMap(userId -> records.id(bookSql).flatMap(bookId -> test.apply(userId, bookId)));
+    }
+
+    private Mono<Integer> available(String bookSql) {
+        return records.id(bookSql).flatMap(id -> records.id("SELECT available FROM books WHERE id = " + id)).map(Long::intValue);
+    }
+
+    private Mono<Long> version(String bookSql) {
+        return records.id(bookSql).flatMap(id -> records.id("SELECT version FROM books WHERE id = " + id));
+    }
+
+    // reads the copies after the outcome, on the same connection
+    private Mono<List<Object>> withAvailableOfTestBook1(RentalOutcome outcome) {
+        return available(TEST_BOOK_1).map(available -> List.of(outcome, available));
+    }
+
+    @Test
+    void rentCreatesTheBookingAndTakesACopy() {
+        StepVerifier.create(records.rolledBack(() -> withIds(TEST_USER_2, TEST_BOOK_1, (userId, bookId) ->
+                        bookingRepository.rent(userId, bookId).flatMap(outcome -> bookingRepository.find(userId, bookId).hasElement()
+                                .flatMap(booked -> available(TEST_BOOK_1).map(available -> List.of(outcome, booked, available)))))))
+                .expectNext(List.of(RentalOutcome.RENTED, true, 4))
+                .verifyComplete();
+    }
+
+    @Test
+    void rentOfABookWithoutCopiesIsNotAvailable() {
+        StepVerifier.create(records.rolledBack(() -> withIds(TEST_USER_2, TEST_BOOK_2, bookingRepository::rent)))
+                .expectNext(RentalOutcome.NOT_AVAILABLE)
+                .verifyComplete();
+    }
+
+    @Test
+    void rentOfABorrowedBookGivesTheCopyBack() {
+        StepVerifier.create(records.rolledBack(() -> withIds(TEST_USER_1, TEST_BOOK_1, bookingRepository::rent)
+                        .flatMap(this::withAvailableOfTestBook1)))
+                .expectNext(List.of(RentalOutcome.ALREADY_BORROWED, 5))
+                .verifyComplete();
+    }
+
+    @Test
+    void rentByAMissingUserGivesTheCopyBack() {
+        StepVerifier.create(records.rolledBack(() -> records.id(TEST_BOOK_1)
+                        .flatMap(bookId -> bookingRepository.rent(Long.MAX_VALUE, bookId))
+                        .flatMap(this::withAvailableOfTestBook1)))
+                .expectNext(List.of(RentalOutcome.USER_NOT_FOUND, 5))
+                .verifyComplete();
+    }
+
+    @Test
+    void rentOfAMissingBookIsBookNotFound() {
+        StepVerifier.create(records.rolledBack(() -> records.id(TEST_USER_1)
+                        .flatMap(userId -> bookingRepository.rent(userId, Long.MAX_VALUE))))
+                .expectNext(RentalOutcome.BOOK_NOT_FOUND)
+                .verifyComplete();
+    }
+
+    @Test
+    void returnBookDeletesTheBookingAndGivesTheCopyBack() {
+        StepVerifier.create(records.rolledBack(() -> withIds(TEST_USER_1, TEST_BOOK_1, (userId, bookId) ->
+                        bookingRepository.returnBook(userId, bookId).flatMap(outcome -> bookingRepository.find(userId, bookId).hasElement()
+                                .flatMap(booked -> available(TEST_BOOK_1).map(available -> List.of(outcome, booked, available)))))))
+                .expectNext(List.of(RentalOutcome.RETURNED, false, 6))
+                .verifyComplete();
+    }
+
+    @Test
+    void returnOfABookNotBorrowedLeavesTheCopiesAlone() {
+        StepVerifier.create(records.rolledBack(() -> withIds(TEST_USER_2, TEST_BOOK_1, bookingRepository::returnBook)
+                        .flatMap(this::withAvailableOfTestBook1)))
+                .expectNext(List.of(RentalOutcome.NOT_BORROWED, 5))
+                .verifyComplete();
+    }
+
+    @Test
+    void refusedRentalAndReturnLeaveTheVersionAlone() {
+        StepVerifier.create(records.rolledBack(() -> version(TEST_BOOK_1).flatMap(before ->
+                        withIds(TEST_USER_1, TEST_BOOK_1, bookingRepository::rent)
+                                .then(withIds(TEST_USER_2, TEST_BOOK_1, bookingRepository::returnBook))
+                                .then(version(TEST_BOOK_1))
+                                .map(after -> after.equals(before)))))
+                .expectNext(true)
+                .verifyComplete();
+    }
+
+    @Test
+    void findBookIdsByUserIdFindsTheBorrowedBooks() {
+        StepVerifier.create(records.rolledBack(() -> withIds(TEST_USER_1, TEST_BOOK_1, (userId, bookId) ->
+                        bookingRepository.findBookIdsByUserId(userId).collectList()
+                                .map(ids -> ids.equals(List.of(bookId))))))
+                .expectNext(true)
+                .verifyComplete();
+    }
+}
@@ -0,0 +1,56 @@
+package org.mystudying.booksmarket2.repositories;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * The reactive counterpart of {@code @Sql("/insertTestRecords.sql")} with a rolled back test transaction:
+ * inserts the test records and runs the test inside one reactive transaction that is never committed.
+ */
+class R2dbcTestRecords {
+    private static final List<String> STATEMENTS = statements();
+
+    private final DatabaseClient client;
+    private final TransactionalOperator transactionalOperator;
+
+    R2dbcTestRecords(DatabaseClient client, TransactionalOperator transactionalOperator) {
+        this.client = client;
+        this.transactionalOperator = transactionalOperator;
+    }
+
+    <T> Flux<T> rolledBack(Supplier<? extends Publisher<T>> test) {
+        return transactionalOperator.execute(status -> {
+            status.setRollbackOnly();
+            return Flux.fromIterable(STATEMENTS)
+                    .concatMap(statement -> client.sql(statement).then())
+                    .thenMany(Flux.defer(test));
+        });
+    }
+
+    Mono<Long> id(String sql) {
+        return client.sql(sql).map(row -> row.get(0, Long.class)).one();
+    }
+
+    private static List<String> statements() {
+        try (var in = new ClassPathResource("insertTestRecords.sql").getInputStream()) {
+            var script = new String(in.readAllBytes(), StandardCharsets.UTF_8).lines()
+                    .filter(line -> !line.strip().startsWith("--"))
+                    .collect(Collectors.joining("\n"));
+            return Arrays.stream(script.split(";")).map(String::strip).filter(statement -> !statement.isEmpty()).toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.mystudying.booksmarket2.repositories;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records every statement the repositories send, with the parameters of its first execution,
+ * so that the statement can be replayed under EXPLAIN.
+ */
+class RecordingDataSource extends DelegatingDataSource {
+
+    record RecordedStatement(String sql, List<Object> parameters) {
+    }
+
+    private final List<RecordedStatement> statements = new ArrayList<>();
+
+    RecordingDataSource(DataSource dataSource) {
+        super(dataSource);
+    }
+
+    List<RecordedStatement> drain() {
+        var drained = List.copyOf(statements);
+        statements.clear();
+        return drained;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return recording(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return recording(super.getConnection(username, password));
+    }
+
+    private Connection recording(Connection connection) {
+        return proxy(Connection.class, connection, (target, method, args) -> {
+            var result = method.invoke(target, args);
+            if (method.getName().equals("prepareStatement") && result instanceof PreparedStatement statement) {
+                return recording(statement, (String) args[0]);
+            }
+            if (method.getName().equals("createStatement") && result instanceof Statement statement) {
+                return recording(statement);
+            }
+            return result;
+        });
+    }
+
+    private PreparedStatement recording(PreparedStatement statement, String sql) {
+        var parameters = new TreeMap<Integer, Object>();
+        var recorded = new boolean[1];
+        return proxy(PreparedStatement.class, statement, (target, method, args) -> {
+            var name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer index) {
+                parameters.put(index, name.equals("setNull") ? null : args[1]);
+            } else if ((name.equals("addBatch") || name.startsWith("execute")) && !recorded[0]) {
+                recorded[0] = true;
+                statements.add(new RecordedStatement(sql, values(parameters)));
+            }
+            return method.invoke(target, args);
+        });
+    }
+
+    private Statement recording(Statement statement) {
+        return proxy(Statement.class, statement, (target, method, args) -> {
+            if (method.getName().startsWith("execute") && args != null && args.length > 0 && args[0] instanceof String sql) {
+                statements.add(new RecordedStatement(sql, List.of()));
+            }
+            return method.invoke(target, args);
+        });
+    }
+
+    private static List<Object> values(Map<Integer, Object> parameters) {
+        // Arrays.asList keeps null parameters, List.copyOf would refuse them
+        return Arrays.asList(parameters.values().toArray());
+    }
+
+    private interface Handler<T> {
+        Object invoke(T target, Method method, Object[] args) throws Throwable;
+    }
+
+    private static <T> T proxy(Class<T> type, T target, Handler<T> handler) {
+        InvocationHandler invocationHandler = (proxy, method, args) -> {
+            try {
+                return handler.invoke(target, method, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, invocationHandler));
+    }
+}
@@ -0,0 +1,95 @@
+package org.mystudying.booksmarket2.repositories;
+
+import org.junit.jupiter.api.Test;
+import org.mystudying.booksmarket2.domain.Reservation;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.jdbc.JdbcTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+@JdbcTest
+@Import(ReservationRepository.class)
+@Sql("/insertTestRecords.sql")
+class ReservationRepositoryTest {
+    private static final String RESERVATIONS_TABLE = "reservations";
+    private final ReservationRepository reservationRepository;
+    private final JdbcClient jdbcClient;
+
+    public ReservationRepositoryTest(ReservationRepository reservationRepository, JdbcClient jdbcClient) {
+        this.reservationRepository = reservationRepository;
+        this.jdbcClient = jdbcClient;
+    }
+
+    private long idOfTestUser1() {
+        return jdbcClient.sql("SELECT id FROM users WHERE email = 'test1@example.com'")
+                .query(Long.class)
+                .single();
+    }
+
+    private long idOfTestUser2() {
+        return jdbcClient.sql("SELECT id FROM users WHERE email = 'test2@example.com'")
+                .query(Long.class)
+                .single();
+    }
+
+    private long idOfTestBook2() {
+        return jdbcClient.sql("SELECT id FROM books WHERE title = 'Test Book 2'")
+                .query(Long.class)
+                .single();
+    }
+
+    @Test
+    void createAddsReservation() {
+        long id = reservationRepository.create(new Reservation(1, idOfTestUser2(), idOfTestBook2()));
+        assertThat(id).isPositive();
+        assertThat(JdbcTestUtils.countRowsInTableWhere(jdbcClient, RESERVATIONS_TABLE,
+                "id = " + id + " AND user_id = " + idOfTestUser2() + " AND book_id = " + idOfTestBook2())).isOne();
+    }
+
+    @Test
+    void secondReservationOfTheSameBookByTheSameUserFails() {
+        var reservation = new Reservation(1, idOfTestUser2(), idOfTestBook2());
+        reservationRepository.create(reservation);
+        assertThatExceptionOfType(DuplicateKeyException.class).isThrownBy(() -> reservationRepository.create(reservation));
+    }
+
+    @Test
+    void firstInLineIsTheOldestReservation() {
+        long bookId = idOfTestBook2();
+        reservationRepository.create(new Reservation(1, idOfTestUser2(), bookId));
+        reservationRepository.create(new Reservation(1, idOfTestUser1(), bookId));
+        assertThat(reservationRepository.findAndLockFirstByBookId(bookId))
+                .hasValueSatisfying(first -> assertThat(first.getUserId()).isEqualTo(idOfTestUser2()));
+        assertThat(reservationRepository.findByBookId(bookId))
+                .extracting(Reservation::getUserId)
+                .containsExactly(idOfTestUser2(), idOfTestUser1());
+    }
+
+    @Test
+    void deleteRemovesTheReservation() {
+        long bookId = idOfTestBook2();
+        reservationRepository.create(new Reservation(1, idOfTestUser2(), bookId));
+        assertThat(reservationRepository.delete(idOfTestUser2(), bookId)).isTrue();
+        assertThat(reservationRepository.delete(idOfTestUser2(), bookId)).isFalse();
+        assertThat(reservationRepository.findAndLockFirstByBookId(bookId)).isEmpty();
+    }
+
+    @Test
+    void findByUserIdAndFindAllReturnTheReservations() {
+        long bookId = idOfTestBook2();
+        reservationRepository.create(new Reservation(1, idOfTestUser2(), bookId));
+        assertThat(reservationRepository.findByUserId(idOfTestUser2()))
+                .extracting(Reservation::getBookId)
+                .containsExactly(bookId);
+        assertThat(reservationRepository.findByUserId(idOfTestUser1())).isEmpty();
+        assertThat(reservationRepository.findAll())
+                .extracting(Reservation::getBookId)
+                .contains(bookId)
+                .isSorted();
+    }
+}
@@ -0,0 +1,97 @@
+package org.mystudying.booksmarket2.repositories;
+
+import org.junit.jupiter.api.Test;
+import org.mystudying.booksmarket2.domain.Tally;
+import org.mystudying.booksmarket2.domain.YearAvailability;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.jdbc.JdbcTestUtils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BiFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@JdbcTest
+@Import({StatisticsRepository.class, BookingShards.class})
+@Sql("/insertTestRecords.sql")
+class StatisticsRepositoryTest {
+    private static final Comparator<Tally> RANKING =
+            Comparator.comparingLong(Tally::count).reversed().thenComparingLong(Tally::id);
+    private final StatisticsRepository statisticsRepository;
+    private final JdbcClient jdbcClient;
+
+    public StatisticsRepositoryTest(StatisticsRepository statisticsRepository, JdbcClient jdbcClient) {
+        this.statisticsRepository = statisticsRepository;
+        this.jdbcClient = jdbcClient;
+    }
+
+    private long count(String sql) {
+        return jdbcClient.sql(sql).query(Long.class).single();
+    }
+
+    // every page of two, one after the other
+    private static <T> List<T> allPages(BiFunction<T, Integer, List<T>> page) {
+        var all = new ArrayList<T>();
+        List<T> next = page.apply(null, 2);
+        while (!next.isEmpty()) {
+            all.addAll(next);
+            next = page.apply(next.get(next.size() - 1), 2);
+        }
+        return all;
+    }
+
+    @Test
+    void totalsCountTheRows() {
+        var totals = statisticsRepository.totals();
+        assertThat(totals.authors()).isEqualTo(JdbcTestUtils.countRowsInTable(jdbcClient, "authors"));
+        assertThat(totals.books()).isEqualTo(JdbcTestUtils.countRowsInTable(jdbcClient, "books"));
+        assertThat(totals.users()).isEqualTo(JdbcTestUtils.countRowsInTable(jdbcClient, "users"));
+        assertThat(totals.loans()).isEqualTo(JdbcTestUtils.countRowsInTable(jdbcClient, "bookings"));
+        assertThat(totals.availableCopies()).isEqualTo(count("SELECT COALESCE(SUM(available), 0) FROM books"));
+    }
+
+    @Test
+    void booksPerAuthorRanksTheAuthorsAcrossPages() {
+        var ranking = allPages(statisticsRepository::booksPerAuthor);
+        assertThat(ranking).isSortedAccordingTo(RANKING)
+                .hasSize((int) count("SELECT COUNT(DISTINCT author_id) FROM books"))
+                .contains(new Tally(count("SELECT id FROM authors WHERE name = 'Test Author 1'"), "Test Author 1", 1));
+        assertThat(ranking.stream().mapToLong(Tally::count).sum())
+                .isEqualTo(JdbcTestUtils.countRowsInTable(jdbcClient, "books"));
+    }
+
+    @Test
+    void loansPerUserAndMostBorrowedBooksCountTheBookings() {
+        var userId = count("SELECT id FROM users WHERE email = 'test1@example.com'");
+        var bookId = count("SELECT id FROM books WHERE title = 'Test Book 1'");
+        var loans = JdbcTestUtils.countRowsInTable(jdbcClient, "bookings");
+
+        var users = allPages(statisticsRepository::loansPerUser);
+        assertThat(users).isSortedAccordingTo(RANKING)
+                .contains(new Tally(userId, "Test User 1", count("SELECT COUNT(*) FROM bookings WHERE user_id = " + userId)));
+        assertThat(users.stream().mapToLong(Tally::count).sum()).isEqualTo(loans);
+
+        var books = allPages(statisticsRepository::mostBorrowedBooks);
+        assertThat(books).isSortedAccordingTo(RANKING)
+                .contains(new Tally(bookId, "Test Book 1", count("SELECT COUNT(*) FROM bookings WHERE book_id = " + bookId)));
+        assertThat(books.stream().mapToLong(Tally::count).sum()).isEqualTo(loans);
+    }
+
+    @Test
+    void availabilityPerYearGoesFromTheNewestYear() {
+        var years = allPages(statisticsRepository::availabilityPerYear);
+        assertThat(years).extracting(YearAvailability::year).isSortedAccordingTo(Comparator.reverseOrder())
+                .hasSize((int) count("SELECT COUNT(DISTINCT year) FROM books"));
+        assertThat(years).filteredOn(year -> year.year() == 2002).singleElement().satisfies(year -> {
+            assertThat(year.books()).isEqualTo(count("SELECT COUNT(*) FROM books WHERE year = 2002"));
+            assertThat(year.soldOut()).isEqualTo(count("SELECT COUNT(*) FROM books WHERE year = 2002 AND available = 0"));
+        });
+        assertThat(years.stream().mapToLong(YearAvailability::availableCopies).sum())
+                .isEqualTo(count("SELECT COALESCE(SUM(available), 0) FROM books"));
+    }
+}
@@ -12,6 +12,7 @@ import org.springframework.test.context.jdbc.Sql;
 import org.springframework.test.jdbc.JdbcTestUtils;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -117,5 +118,24 @@ class UserRepositoryTest {
                 .isSortedAccordingTo(String::compareToIgnoreCase);
     }
 
+    @Test
+    void findAllPagesReturnEveryUserOnceInNameOrder() {
+        var expected = jdbcClient.sql("SELECT id FROM users ORDER BY name, id").query(Long.class).list();
+        var pages = new ArrayList<Long>();
+        var page = userRepository.findAll(null, 0, 3);
+        while (!page.isEmpty()) {
+            page.forEach(user -> pages.add(user.getId()));
+            var last = page.get(page.size() - 1);
+            page = userRepository.findAll(last.getName(), last.getId(), 3);
+        }
+        assertThat(pages).isEqualTo(expected);
+    }
 
+    @Test
+    void streamAllReturnsAllUsers() {
+        var records = JdbcTestUtils.countRowsInTable(jdbcClient, USERS_TABLE);
+        try (var users = userRepository.streamAll()) {
+            assertThat(users.map(User::getId)).hasSize(records).isSorted();
+        }
+    }
 }
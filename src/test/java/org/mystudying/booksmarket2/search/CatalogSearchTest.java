@@ -0,0 +1,98 @@
+package org.mystudying.booksmarket2.search;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mystudying.booksmarket2.domain.Author;
+import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.repositories.AuthorRepositoryInt;
+import org.mystudying.booksmarket2.repositories.BookRepositoryInt;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CatalogSearchTest {
+    @Mock
+    private BookRepositoryInt bookRepository;
+    @Mock
+    private AuthorRepositoryInt authorRepository;
+    private CatalogSearch catalogSearch;
+
+    @BeforeEach
+    void beforeEach() {
+        catalogSearch = new CatalogSearch(bookRepository, authorRepository);
+    }
+
+    @Test
+    void indexIsBuiltFromTheTableOnTheFirstSearchOnly() {
+        when(bookRepository.streamAll()).thenReturn(Stream.of(new Book(1, "The Hobbit", 1937, 1, 1),
+                new Book(2, "The Two Towers", 1954, 1, 1)));
+        assertThat(catalogSearch.searchBooks("towers", 0, 10)).containsExactly(2L);
+        assertThat(catalogSearch.searchBooks("hobbit", 0, 10)).containsExactly(1L);
+        verify(bookRepository, times(1)).streamAll();
+        verifyNoInteractions(authorRepository);
+    }
+
+    @Test
+    void rowsAddedAfterTheBuildAreSearchable() {
+        when(authorRepository.streamAll()).thenReturn(Stream.of(new Author(1, "J. R. R. Tolkien", LocalDate.of(1892, 1, 3))));
+        assertThat(catalogSearch.searchAuthors("tolkien", 0, 10)).containsExactly(1L);
+        // outside a transaction the change applies at once
+        catalogSearch.authorsAdded(Map.of(2L, "Christopher Tolkien"));
+        assertThat(catalogSearch.searchAuthors("tolkien", 0, 10)).containsExactlyInAnyOrder(1L, 2L);
+    }
+
+    @Test
+    void rowsAddedBeforeTheFirstSearchAreLeftToTheBuild() {
+        catalogSearch.booksAdded(Map.of(3L, "Not In The Table"));
+        when(bookRepository.streamAll()).thenReturn(Stream.of(new Book(1, "The Hobbit", 1937, 1, 1)));
+        assertThat(catalogSearch.searchBooks("table", 0, 10)).isEmpty();
+    }
+
+    @Test
+    void rowsAddedDuringTheBuildAreNotLost() throws Exception {
+        var reading = new CountDownLatch(1);
+        var added = new CountDownLatch(1);
+        when(bookRepository.streamAll()).thenAnswer(invocation -> Stream.of(new Book(1, "The Hobbit", 1937, 1, 1))
+                .peek(book -> {
+                    reading.countDown();
+                    await(added);
+                }));
+        var search = CompletableFuture.supplyAsync(() -> catalogSearch.searchBooks("hobbit", 0, 10));
+        await(reading);
+        catalogSearch.booksAdded(Map.of(2L, "The Hobbit Companion"));
+        added.countDown();
+
+        assertThat(search.get(5, TimeUnit.SECONDS)).containsExactly(1L, 2L);
+        assertThat(catalogSearch.searchBooks("companion", 0, 10)).containsExactly(2L);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    void inOrderFollowsTheIdsAndSkipsMissingRows() {
+        var rows = List.of(new Book(1, "A", 2000, 1, 1), new Book(3, "C", 2000, 1, 1));
+        assertThat(CatalogSearch.inOrder(List.of(3L, 2L, 1L), rows, Book::getId))
+                .extracting(Book::getId).containsExactly(3L, 1L);
+    }
+}
@@ -0,0 +1,99 @@
+package org.mystudying.booksmarket2.search;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class TextIndexTest {
+    private TextIndex index;
+
+    @BeforeEach
+    void beforeEach() {
+        index = new TextIndex();
+        index.put(1, "The Lord of the Rings");
+        index.put(2, "The Hobbit");
+        index.put(3, "Lord Jim");
+        index.put(4, "Lorde: A Biography");
+        index.put(5, "Les Misérables");
+        index.put(6, "The Silmarillion");
+    }
+
+    @Test
+    void tokensAreLowerCaseWordsWithoutAccents() {
+        assertThat(TextIndex.tokens("Les Misérables, vol. 2")).containsExactly("les", "miserables", "vol", "2");
+        assertThat(TextIndex.tokens(" -- ")).isEmpty();
+        assertThat(TextIndex.tokens(null)).isEmpty();
+    }
+
+    @Test
+    void everyQueryTermMustMatch() {
+        assertThat(index.search("lord rings", 0, 10)).containsExactly(1L);
+        assertThat(index.search("hobbit rings", 0, 10)).isEmpty();
+    }
+
+    @Test
+    void exactMatchesRankAbovePrefixMatches() {
+        assertThat(index.search("lord", 0, 10)).containsExactly(3L, 1L, 4L);
+    }
+
+    @Test
+    void prefixesMatchTheStartOfTerms() {
+        assertThat(index.search("silm", 0, 10)).containsExactly(6L);
+        assertThat(index.search("the ho", 0, 10)).containsExactly(2L);
+    }
+
+    @Test
+    void typosAreTolerated() {
+        assertThat(index.search("hobit", 0, 10)).containsExactly(2L);
+        assertThat(index.search("hbobit", 0, 10)).containsExactly(2L);
+        assertThat(index.search("silmarilion", 0, 10)).containsExactly(6L);
+        assertThat(index.search("miserabels", 0, 10)).containsExactly(5L);
+        // too short to guess at
+        assertThat(index.search("jin", 0, 10)).isEmpty();
+    }
+
+    @Test
+    void accentsAreIgnored() {
+        assertThat(index.search("MISERABLES", 0, 10)).containsExactly(5L);
+        assertThat(index.search("misér", 0, 10)).containsExactly(5L);
+    }
+
+    @Test
+    void resultsArePaged() {
+        assertThat(index.search("lord", 1, 1)).containsExactly(1L);
+        assertThat(index.search("lord", 3, 10)).isEmpty();
+        assertThatIllegalArgumentException().isThrownBy(() -> index.search("lord", 0, 0));
+        assertThatIllegalArgumentException().isThrownBy(() -> index.search("lord", -1, 10));
+    }
+
+    @Test
+    void putReplacesTheTextOfAnId() {
+        index.put(2, "The Hobbit, or There and Back Again");
+        assertThat(index.search("there back", 0, 10)).containsExactly(2L);
+        index.put(2, "Unfinished Tales");
+        assertThat(index.search("hobbit", 0, 10)).isEmpty();
+        assertThat(index.search("tales", 0, 10)).containsExactly(2L);
+        assertThat(index.size()).isEqualTo(6);
+    }
+
+    @Test
+    void shortPrefixesExpandToTheShortestTermsOnly() {
+        for (int i = 0; i < 200; i++) {
+            index.put(100 + i, "Alpha" + i);
+        }
+        index.put(1_000, "Alp");
+        assertThat(index.search("al", 0, 1)).containsExactly(1_000L);
+        assertThat(index.search("al", 0, 1_000)).hasSize(TextIndex.MAX_COMPLETIONS);
+    }
+
+    @Test
+    void manyTextsStayFindable() {
+        for (long id = 1_000; id < 101_000; id++) {
+            index.put(id, "Volume " + id);
+        }
+        assertThat(index.search("volume 54321", 0, 10)).containsExactly(54_321L);
+        assertThat(index.size()).isEqualTo(100_006);
+    }
+}
@@ -2,11 +2,14 @@ package org.mystudying.booksmarket2.services;
 
 
 import org.junit.jupiter.api.Test;
+import org.mystudying.booksmarket2.cache.EntityCaches;
 import org.mystudying.booksmarket2.domain.Author;
 import org.mystudying.booksmarket2.domain.Book;
 import org.mystudying.booksmarket2.exceptions.AuthorNotFoundException;
 import org.mystudying.booksmarket2.repositories.AuthorRepository;
 import org.mystudying.booksmarket2.repositories.BookRepository;
+import org.mystudying.booksmarket2.repositories.BookingShards;
+import org.mystudying.booksmarket2.search.CatalogSearch;
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
 import org.springframework.context.annotation.Import;
 import org.springframework.jdbc.core.simple.JdbcClient;
@@ -21,7 +24,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 
 @JdbcTest
-@Import({AuthorService.class, AuthorRepository.class, BookRepository.class})
+@Import({AuthorService.class, AuthorRepository.class, BookRepository.class, BookingShards.class, EntityCaches.class, CatalogSearch.class})
 @Sql("/insertTestRecords.sql")
 class AuthorServiceIntegrationTest {
 
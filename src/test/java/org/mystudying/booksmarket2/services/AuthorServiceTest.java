@@ -6,21 +6,30 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.mystudying.booksmarket2.cache.EntityCaches;
 import org.mystudying.booksmarket2.domain.Author;
+import org.mystudying.booksmarket2.domain.AuthorBooks;
 import org.mystudying.booksmarket2.domain.Book;
 import org.mystudying.booksmarket2.exceptions.AuthorNotFoundException;
+import org.mystudying.booksmarket2.outbox.Outbox;
 import org.mystudying.booksmarket2.repositories.AuthorRepository;
 import org.mystudying.booksmarket2.repositories.BookRepository;
+import org.mystudying.booksmarket2.search.CatalogSearch;
 
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 
@@ -32,12 +41,14 @@ class AuthorServiceTest {
     private AuthorRepository authorRepository;
     @Mock
     private BookRepository bookRepository;
+    @Mock
+    private CatalogSearch catalogSearch;
 
     private Author author1, author2;
 
     @BeforeEach
     void beforeEach() {
-        authorService = new AuthorService(authorRepository, bookRepository);
+        authorService = new AuthorService(authorRepository, bookRepository, EntityCaches.disabled(), catalogSearch, Optional.empty());
         author1 = new Author(1, "Author A", LocalDate.now());
         author2 = new Author(2, "Author B", LocalDate.now());
     }
@@ -89,27 +100,54 @@ class AuthorServiceTest {
 
         verify(authorRepository).create(argThat(a -> a.getName().equals(author1.getName()) &&
                 a.getBirthdate().equals(author1.getBirthdate())));
+        verify(catalogSearch).authorsAdded(Map.of(1L, author1.getName()));
+    }
+
+    @Test
+    void createRecordsTheNewAuthorInTheOutbox() {
+        var outbox = mock(Outbox.class);
+        authorService = new AuthorService(authorRepository, bookRepository, EntityCaches.disabled(), catalogSearch, Optional.of(outbox));
+        when(authorRepository.create(argThat(a -> a.getName().equals(author1.getName())))).thenReturn(3L);
+        authorService.create(author1.getName(), author1.getBirthdate());
+        verify(outbox).authorCreated(argThat(a -> a.getId() == 3L && a.getName().equals(author1.getName())));
+    }
 
+    @Test
+    void searchReturnsTheAuthorsInRankOrder() {
+        when(catalogSearch.searchAuthors("author", 2, 2)).thenReturn(List.of(2L, 1L));
+        when(authorRepository.findByIds(List.of(2L, 1L))).thenReturn(List.of(author1, author2));
+        assertThat(authorService.search("author", 2, 2)).containsExactly(author2, author1);
     }
 
     @Test
     void findBooksByAuthorFindsAuthorsBooks() {
         Book book1 = new Book(1, "Book 1", 2000, 1, 5);
         Book book2 = new Book(2, "Book 2", 2000, 1, 5);
-        when(authorRepository.findById(1L)).thenReturn(Optional.of(author1));
-        when(bookRepository.findByAuthorName("Author A")).thenReturn(List.of(book1, book2));
+        when(authorRepository.findWithBooksById(1L)).thenReturn(Optional.of(new AuthorBooks(author1, List.of(book1, book2))));
 
         List<Book> books = authorService.findBooksByAuthor(1L);
         assertThat(books).containsExactly(book1, book2);
-        verify(authorRepository).findById(1L);
-        verify(bookRepository).findByAuthorName("Author A");
+        verify(authorRepository).findWithBooksById(1L);
+        verifyNoInteractions(bookRepository);
+    }
+
+    @Test
+    void findBooksByCachedAuthorOnlyQueriesTheBooks() {
+        authorService = new AuthorService(authorRepository, bookRepository, new EntityCaches(10, 60), catalogSearch, Optional.empty());
+        Book book1 = new Book(1, "Book 1", 2000, 1, 5);
+        when(authorRepository.findById(1L)).thenReturn(Optional.of(author1));
+        when(bookRepository.findByAuthorId(1L)).thenReturn(List.of(book1));
+
+        authorService.findById(1L);
+        assertThat(authorService.findBooksByAuthor(1L)).containsExactly(book1);
+        verify(authorRepository, never()).findWithBooksById(anyLong());
     }
 
     @Test
     void findBooksByAuthorThrowsExceptionIfAuthorNotFound() {
-        when(authorRepository.findById(Long.MAX_VALUE)).thenReturn(Optional.empty());
+        when(authorRepository.findWithBooksById(Long.MAX_VALUE)).thenReturn(Optional.empty());
         assertThatExceptionOfType(AuthorNotFoundException.class)
                 .isThrownBy(() -> authorService.findBooksByAuthor(Long.MAX_VALUE));
-        verify(authorRepository).findById(Long.MAX_VALUE);
+        verify(authorRepository).findWithBooksById(Long.MAX_VALUE);
     }
 }
@@ -0,0 +1,209 @@
+package org.mystudying.booksmarket2.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.exceptions.BookNotFoundException;
+import org.mystudying.booksmarket2.repositories.BookRepository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class AvailabilityEngineTest {
+
+    private AvailabilityEngine engine;
+    @Mock
+    private BookRepository bookRepository;
+
+    @BeforeEach
+    void beforeEach() {
+        engine = new AvailabilityEngine(bookRepository);
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    @AfterEach
+    void afterEach() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private void complete(int status) {
+        TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(), status);
+        TransactionSynchronizationManager.clearSynchronization();
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    @Test
+    void acquireTakesCopiesUntilNoneIsLeft() {
+        when(bookRepository.findById(1L)).thenReturn(Optional.of(new Book(1, "Book A", 2000, 1, 2)));
+        assertThat(engine.acquire(1L)).isTrue();
+        assertThat(engine.acquire(1L)).isTrue();
+        assertThat(engine.acquire(1L)).isFalse();
+        assertThat(engine.available(1L)).isZero();
+        verify(bookRepository, times(1)).findById(1L);
+    }
+
+    @Test
+    void rollbackGivesTheCopyBack() {
+        when(bookRepository.findById(1L)).thenReturn(Optional.of(new Book(1, "Book A", 2000, 1, 1)));
+        assertThat(engine.acquire(1L)).isTrue();
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+        assertThat(engine.available(1L)).isOne();
+        engine.flush();
+        verify(bookRepository, never()).addToAvailable(anyMap());
+    }
+
+    @Test
+    void flushWritesCommittedChangesInOneBatch() {
+        when(bookRepository.findById(1L)).thenReturn(Optional.of(new Book(1, "Book A", 2000, 1, 5)));
+        when(bookRepository.addToAvailable(Map.of(1L, -1))).thenReturn(List.of());
+        engine.acquire(1L);
+        engine.acquire(1L);
+        engine.release(1L);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        assertThat(engine.available(1L)).isEqualTo(4);
+        engine.flush();
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        verify(bookRepository).addToAvailable(Map.of(1L, -1));
+        engine.flush();
+        verifyNoMoreInteractions(bookRepository);
+    }
+
+    @Test
+    void flushKeepsTheChangesWhenItsTransactionRollsBack() {
+        when(bookRepository.findById(1L)).thenReturn(Optional.of(new Book(1, "Book A", 2000, 1, 5)));
+        when(bookRepository.addToAvailable(Map.of(1L, -1))).thenReturn(List.of());
+        engine.acquire(1L);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        engine.flush();
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+        engine.flush();
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        verify(bookRepository, times(2)).addToAvailable(Map.of(1L, -1));
+        assertThat(engine.available(1L)).isEqualTo(4);
+    }
+
+    @Test
+    void flushOutsideTransactionWritesRightAway() {
+        when(bookRepository.findById(1L)).thenReturn(Optional.of(new Book(1, "Book A", 2000, 1, 5)));
+        when(bookRepository.addToAvailable(Map.of(1L, 1))).thenReturn(List.of());
+        engine.release(1L);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        TransactionSynchronizationManager.clearSynchronization();
+        engine.flushOnShutdown();
+        engine.flushOnShutdown();
+        verify(bookRepository).addToAvailable(Map.of(1L, 1));
+    }
+
+    @Test
+    void journaledEngineLeavesTheColumnToTheJournal() {
+        engine = new AvailabilityEngine(bookRepository, true);
+        when(bookRepository.findById(1L)).thenReturn(
+                Optional.of(new Book(1, "Book A", 2000, 1, 5)),
+                Optional.of(new Book(1, "Book A", 2000, 1, 4)));
+        when(bookRepository.addToAvailable(Map.of(1L, -1))).thenReturn(List.of());
+        engine.acquire(1L);
+        engine.acquire(1L);
+        engine.release(1L);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        assertThat(engine.available(1L)).isEqualTo(4);
+        engine.flush();
+        verify(bookRepository, never()).addToAvailable(anyMap());
+        assertThat(engine.writeJournaled(Map.of(1L, -1))).isEmpty();
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        // the journal's own write is no drift
+        engine.reconcile(1L);
+        assertThat(engine.available(1L)).isEqualTo(4);
+    }
+
+    @Test
+    void journaledChangeTheColumnRefusesIsWrittenByTheNextFlush() {
+        engine = new AvailabilityEngine(bookRepository, true);
+        when(bookRepository.findById(1L)).thenReturn(Optional.of(new Book(1, "Book A", 2000, 1, 1)));
+        when(bookRepository.addToAvailable(Map.of(1L, -1))).thenReturn(List.of(1L), List.of());
+        engine.acquire(1L);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        assertThat(engine.writeJournaled(Map.of(1L, -1))).containsExactly(1L);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        assertThat(engine.available(1L)).isZero();
+        engine.flush();
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        verify(bookRepository, times(2)).addToAvailable(Map.of(1L, -1));
+    }
+
+    @Test
+    void refusedChangeIsKeptAndTheCounterReconciledInPlace() {
+        when(bookRepository.findById(1L)).thenReturn(
+                Optional.of(new Book(1, "Book A", 2000, 1, 5)),
+                Optional.of(new Book(1, "Book A", 2000, 1, 0)));
+        when(bookRepository.addToAvailable(Map.of(1L, -1))).thenReturn(List.of(1L));
+        engine.acquire(1L);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        engine.flush();
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        // not read back while the refusing transaction completes
+        verify(bookRepository, times(1)).findById(1L);
+        engine.flush();
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        // the column went from 5 to 0 elsewhere, and the rental is still to be written
+        assertThat(engine.available(1L)).isEqualTo(-1);
+        verify(bookRepository, times(2)).addToAvailable(Map.of(1L, -1));
+        verify(bookRepository, times(2)).findById(1L);
+    }
+
+    @Test
+    void reconcileAddsTheEditToTheCounterAndKeepsTheCopiesInFlight() {
+        when(bookRepository.findById(1L)).thenReturn(
+                Optional.of(new Book(1, "Book A", 2000, 1, 5)),
+                Optional.of(new Book(1, "Book A", 2000, 1, 7)));
+        when(bookRepository.addToAvailable(Map.of(1L, -1))).thenReturn(List.of());
+        engine.acquire(1L);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        assertThat(engine.acquire(1L)).isTrue();
+        engine.reconcile(1L);
+        assertThat(engine.available(1L)).isEqualTo(5);
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+        assertThat(engine.available(1L)).isEqualTo(6);
+        engine.flush();
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        verify(bookRepository).addToAvailable(Map.of(1L, -1));
+    }
+
+    @Test
+    void reconcileForgetsADeletedBook() {
+        when(bookRepository.findById(1L)).thenReturn(
+                Optional.of(new Book(1, "Book A", 2000, 1, 5)),
+                Optional.empty());
+        engine.available(1L);
+        engine.reconcile(1L);
+        assertThatExceptionOfType(BookNotFoundException.class).isThrownBy(() -> engine.available(1L));
+    }
+
+    @Test
+    void acquireOfNonExistingBookFails() {
+        when(bookRepository.findById(Long.MAX_VALUE)).thenReturn(Optional.empty());
+        assertThatExceptionOfType(BookNotFoundException.class).isThrownBy(() -> engine.acquire(Long.MAX_VALUE));
+    }
+
+    @Test
+    void acquireOutsideTransactionFails() {
+        TransactionSynchronizationManager.clearSynchronization();
+        when(bookRepository.findById(1L)).thenReturn(Optional.of(new Book(1, "Book A", 2000, 1, 5)));
+        assertThatExceptionOfType(IllegalStateException.class).isThrownBy(() -> engine.acquire(1L));
+    }
+}
@@ -6,14 +6,34 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.mystudying.booksmarket2.cache.EntityCaches;
 import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.domain.BookCriteria;
+import org.mystudying.booksmarket2.exceptions.BookNotFoundException;
+import org.mystudying.booksmarket2.exceptions.BookUpdateConflictException;
 import org.mystudying.booksmarket2.repositories.BookRepository;
+import org.mystudying.booksmarket2.search.CatalogSearch;
+import org.springframework.transaction.PlatformTransactionManager;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.UnaryOperator;
+import java.util.random.RandomGenerator;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -22,10 +42,23 @@ class BookServiceTest {
     private BookService bookService;
     @Mock
     private BookRepository bookRepository;
+    @Mock
+    private CatalogSearch catalogSearch;
+    @Mock
+    private UserService userService;
+    @Mock
+    private AvailabilityEngine availabilityEngine;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private BookService bookService(EntityCaches caches) {
+        return new BookService(bookRepository, caches, catalogSearch, userService, Optional.empty(),
+                transactionManager, 3, 0, 0);
+    }
 
     @BeforeEach
     void beforeEach() {
-        bookService = new BookService(bookRepository);
+        bookService = bookService(EntityCaches.disabled());
     }
 
     @Test
@@ -38,6 +71,16 @@ class BookServiceTest {
         verify(bookRepository).findAll();
     }
 
+    @Test
+    void searchReturnsTheBooksInRankOrder() {
+        when(catalogSearch.searchBooks("book", 0, 3)).thenReturn(List.of(2L, 9L, 1L));
+        when(bookRepository.findByIds(List.of(2L, 9L, 1L))).thenReturn(List.of(
+                new Book(1, "Book A", 2000, 1, 5),
+                new Book(2, "Book B", 2001, 2, 3)));
+        // 9 is in the index but no longer in the table
+        assertThat(bookService.search("book", 3)).extracting(Book::getId).containsExactly(2L, 1L);
+    }
+
     @Test
     void findById() {
         Book book = new Book(1, "Book A", 2000, 1, 5);
@@ -46,10 +89,136 @@ class BookServiceTest {
         verify(bookRepository).findById(1L);
     }
 
+    @Test
+    void findByIdAndTitleAreServedFromTheCache() {
+        bookService = bookService(new EntityCaches(10, 60));
+        Book book = new Book(1, "Book A", 2000, 1, 5);
+        when(bookRepository.findById(1L)).thenReturn(Optional.of(book));
+        bookService.findById(1L);
+        assertThat(bookService.findById(1L)).contains(book);
+        assertThat(bookService.findByTitle("Book A")).contains(book);
+        verify(bookRepository).findById(1L);
+        verifyNoMoreInteractions(bookRepository);
+    }
+
     @Test
     void findByNonExistingId() {
         when(bookRepository.findById(Long.MAX_VALUE)).thenReturn(Optional.empty());
         assertThat(bookService.findById(Long.MAX_VALUE)).isEmpty();
         verify(bookRepository).findById(Long.MAX_VALUE);
     }
+
+    @Test
+    void findAllPageDelegatesToRepository() {
+        Book book = new Book(2, "Book B", 2001, 2, 3);
+        when(bookRepository.findAll("Book A", 1L, 10)).thenReturn(List.of(book));
+        assertThat(bookService.findAll("Book A", 1L, 10)).containsExactly(book);
+        verify(bookRepository).findAll("Book A", 1L, 10);
+    }
+
+    @Test
+    void findAllPageWithoutPositiveSizeFails() {
+        assertThatIllegalArgumentException().isThrownBy(() -> bookService.findAll(null, 0, 0));
+    }
+
+    @Test
+    void findByCriteriaDelegatesToRepository() {
+        var criteria = BookCriteria.any().withAuthorId(2).withAvailable(true);
+        Book book = new Book(2, "Book B", 2001, 2, 3);
+        when(bookRepository.findBy(criteria, null, 0, 10)).thenReturn(List.of(book));
+        assertThat(bookService.findBy(criteria, null, 0, 10)).containsExactly(book);
+    }
+
+    @Test
+    void findByCriteriaWithoutPositiveSizeFails() {
+        assertThatIllegalArgumentException().isThrownBy(() -> bookService.findBy(BookCriteria.any(), null, 0, 0));
+    }
+
+    @Test
+    void updateRetriesFromAFreshReadAfterAConflict() {
+        var stale = Book.load(1, "Book A", 2000, 1, 5, 3);
+        var current = Book.load(1, "Book A", 2000, 1, 4, 4);
+        when(bookRepository.findById(1L)).thenReturn(Optional.of(stale), Optional.of(current));
+        when(bookRepository.compareAndUpdate(any())).thenReturn(false, true);
+        bookService.update(1L, book -> book.edited("Book A2", book.getYear(), book.getAuthorId(), book.getAvailable()));
+        verify(bookRepository).compareAndUpdate(argThatIs("Book A2", 5, 3));
+        verify(bookRepository).compareAndUpdate(argThatIs("Book A2", 4, 4));
+        verify(catalogSearch).bookRetitled(1L, "Book A2");
+    }
+
+    @Test
+    void copiesAddedByAnUpdateGoToTheWaitlist() {
+        when(bookRepository.findById(1L)).thenReturn(Optional.of(Book.load(1, "Book A", 2000, 1, 1, 3)));
+        when(bookRepository.compareAndUpdate(any())).thenReturn(true);
+        bookService.update(1L, book -> book.edited(book.getTitle(), book.getYear(), book.getAuthorId(), 4));
+        verify(userService).handOffAddedCopies(1L, 3);
+        verify(catalogSearch, never()).bookRetitled(anyLong(), any());
+    }
+
+    @Test
+    void updateWithTheEngineReconcilesItsCounter() {
+        var withEngine = new BookService(bookRepository, EntityCaches.disabled(), catalogSearch, userService,
+                Optional.of(availabilityEngine), transactionManager, 3, 0, 0);
+        when(bookRepository.findById(1L)).thenReturn(Optional.of(Book.load(1, "Book A", 2000, 1, 4, 3)));
+        when(bookRepository.compareAndUpdate(any())).thenReturn(true);
+        withEngine.update(1L, book -> book.edited(book.getTitle(), book.getYear(), book.getAuthorId(), 2));
+        verify(availabilityEngine).reconcile(1L);
+        verifyNoInteractions(userService);
+    }
+
+    @Test
+    void updateGivesUpAfterTheLastAttempt() {
+        when(bookRepository.findById(1L)).thenReturn(Optional.of(new Book(1, "Book A", 2000, 1, 5)));
+        when(bookRepository.compareAndUpdate(any())).thenReturn(false);
+        assertThatExceptionOfType(BookUpdateConflictException.class)
+                .isThrownBy(() -> bookService.update(1L, UnaryOperator.identity()));
+        verify(bookRepository, times(3)).compareAndUpdate(any());
+    }
+
+    @Test
+    void updateOfANonExistingBookFails() {
+        when(bookRepository.findById(1L)).thenReturn(Optional.empty());
+        assertThatExceptionOfType(BookNotFoundException.class)
+                .isThrownBy(() -> bookService.update(1L, UnaryOperator.identity()));
+        verify(bookRepository, never()).compareAndUpdate(any());
+    }
+
+    @Test
+    void backoffIsRandomUpToADoublingCap() {
+        var policy = new RetryPolicy(5, Duration.ofMillis(10), Duration.ofMillis(50));
+        assertThat(policy.backoff(1, highest())).isEqualTo(Duration.ofMillis(10));
+        assertThat(policy.backoff(2, highest())).isEqualTo(Duration.ofMillis(20));
+        assertThat(policy.backoff(4, highest())).isEqualTo(Duration.ofMillis(50));
+        assertThat(new RetryPolicy(5, Duration.ZERO, Duration.ZERO).backoff(3, highest())).isZero();
+    }
+
+    // always the largest value a bounded draw can give
+    private static RandomGenerator highest() {
+        return new RandomGenerator() {
+            @Override
+            public long nextLong() {
+                return Long.MAX_VALUE;
+            }
+
+            @Override
+            public long nextLong(long bound) {
+                return bound - 1;
+            }
+        };
+    }
+
+    private static Book argThatIs(String title, int available, long version) {
+        return argThat(book -> book.getTitle().equals(title)
+                && book.getAvailable() == available && book.getVersion() == version);
+    }
+
+    @Test
+    void streamAllClosesTheStream() {
+        var closed = new AtomicBoolean(false);
+        when(bookRepository.streamAll()).thenReturn(Stream.of(new Book(1, "Book A", 2000, 1, 5))
+                .onClose(() -> closed.set(true)));
+        long count = bookService.streamAll(Stream::count);
+        assertThat(count).isOne();
+        assertThat(closed).isTrue();
+    }
 }
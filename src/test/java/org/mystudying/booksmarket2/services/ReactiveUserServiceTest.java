@@ -0,0 +1,146 @@
+package org.mystudying.booksmarket2.services;
+
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mystudying.booksmarket2.cache.EntityCaches;
+import org.mystudying.booksmarket2.domain.RentalOutcome;
+import org.mystudying.booksmarket2.domain.User;
+import org.mystudying.booksmarket2.domain.UserLoans;
+import org.mystudying.booksmarket2.exceptions.BookAlreadyBorrowedException;
+import org.mystudying.booksmarket2.exceptions.BookNotBorrowedException;
+import org.mystudying.booksmarket2.exceptions.EmailAlreadyExistsException;
+import org.mystudying.booksmarket2.exceptions.UserNotFoundException;
+import org.mystudying.booksmarket2.outbox.R2dbcOutbox;
+import org.mystudying.booksmarket2.repositories.ReactiveBookRepositoryInt;
+import org.mystudying.booksmarket2.repositories.ReactiveBookingRepositoryInt;
+import org.mystudying.booksmarket2.repositories.ReactiveUserRepositoryInt;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ReactiveUserServiceTest {
+
+    private ReactiveUserService userService;
+    private EntityCaches caches;
+    @Mock
+    private ReactiveUserRepositoryInt userRepository;
+    @Mock
+    private ReactiveBookRepositoryInt bookRepository;
+    @Mock
+    private ReactiveBookingRepositoryInt bookingRepository;
+    @Mock
+    private TransactionalOperator transactionalOperator;
+    @Mock
+    private UserService blockingUserService;
+
+    @BeforeEach
+    void beforeEach() {
+        caches = new EntityCaches(100, 300);
+        userService = new ReactiveUserService(userRepository, bookRepository, bookingRepository, transactionalOperator, blockingUserService, caches, Optional.empty(), Optional.empty());
+    }
+
+    private void transactionsPassThrough() {
+        when(transactionalOperator.transactional(any(Mono.class))).thenAnswer(invocation -> invocation.getArgument(0));
+    }
+
+    @Test
+    void availabilityEngineIsRejected() {
+        assertThatIllegalStateException().isThrownBy(() -> new ReactiveUserService(userRepository, bookRepository,
+                bookingRepository, transactionalOperator, blockingUserService, caches, Optional.empty(),
+                Optional.of(mock(AvailabilityEngine.class))));
+    }
+
+    @Test
+    void rentBookUpdatesTheCachedLoansAfterTheTransaction() {
+        transactionsPassThrough();
+        caches.loans().get(1L, id -> Optional.of(new UserLoans(1L, Set.of(3L))));
+        when(bookingRepository.rent(1L, 2L)).thenReturn(Mono.just(RentalOutcome.RENTED));
+
+        StepVerifier.create(userService.rentBook(1L, 2L)).verifyComplete();
+        assertThat(caches.loans().getIfPresent(1L)).hasValueSatisfying(loans ->
+                assertThat(loans.getBookIds()).containsExactlyInAnyOrder(2L, 3L));
+    }
+
+    @Test
+    void rentBookFailsWithTheExceptionOfTheOutcome() {
+        transactionsPassThrough();
+        caches.loans().get(1L, id -> Optional.of(new UserLoans(1L, Set.of(2L))));
+        when(bookingRepository.rent(1L, 2L)).thenReturn(Mono.just(RentalOutcome.ALREADY_BORROWED));
+
+        StepVerifier.create(userService.rentBook(1L, 2L)).verifyError(BookAlreadyBorrowedException.class);
+        assertThat(caches.loans().getIfPresent(1L)).hasValueSatisfying(loans ->
+                assertThat(loans.getBookIds()).containsExactly(2L));
+    }
+
+    @Test
+    void rentBookRecordsTheEventInItsTransactionOnlyWhenRented() {
+        var outbox = mock(R2dbcOutbox.class);
+        userService = new ReactiveUserService(userRepository, bookRepository, bookingRepository, transactionalOperator,
+                blockingUserService, caches, Optional.of(outbox), Optional.empty());
+        transactionsPassThrough();
+        when(bookingRepository.rent(1L, 2L)).thenReturn(Mono.just(RentalOutcome.RENTED), Mono.just(RentalOutcome.ALREADY_BORROWED));
+        when(outbox.booksRented(1L, List.of(2L))).thenReturn(Mono.empty());
+
+        StepVerifier.create(userService.rentBook(1L, 2L)).verifyComplete();
+        StepVerifier.create(userService.rentBook(1L, 2L)).verifyError(BookAlreadyBorrowedException.class);
+        verify(outbox, times(1)).booksRented(1L, List.of(2L));
+    }
+
+    @Test
+    void returnBookRemovesTheBookFromTheCachedLoans() {
+        transactionsPassThrough();
+        caches.loans().get(1L, id -> Optional.of(new UserLoans(1L, Set.of(2L))));
+        when(bookingRepository.returnBook(1L, 2L)).thenReturn(Mono.just(RentalOutcome.RETURNED));
+
+        StepVerifier.create(userService.returnBook(1L, 2L)).verifyComplete();
+        assertThat(caches.loans().getIfPresent(1L)).hasValueSatisfying(loans -> assertThat(loans.getBookIds()).isEmpty());
+        verify(blockingUserService).handOffReturnedCopy(2L);
+    }
+
+    @Test
+    void returnBookNotBorrowedFails() {
+        transactionsPassThrough();
+        when(bookingRepository.returnBook(1L, 2L)).thenReturn(Mono.just(RentalOutcome.NOT_BORROWED));
+        StepVerifier.create(userService.returnBook(1L, 2L)).verifyError(BookNotBorrowedException.class);
+        verify(blockingUserService, never()).handOffReturnedCopy(anyLong());
+    }
+
+    @Test
+    void findBooksByUserIdOfAMissingUserFails() {
+        when(userRepository.findById(1L)).thenReturn(Mono.empty());
+        StepVerifier.create(userService.findBooksByUserId(1L)).verifyError(UserNotFoundException.class);
+    }
+
+    @Test
+    void createOfADuplicateEmailFails() {
+        when(userRepository.create(any(User.class))).thenReturn(Mono.error(new DuplicateKeyException("")));
+        StepVerifier.create(userService.create("New User", "new@example.com")).verifyError(EmailAlreadyExistsException.class);
+    }
+
+    @Test
+    void pageSizeMustBePositive() {
+        StepVerifier.create(userService.findAll(null, 0, 0)).verifyError(IllegalArgumentException.class);
+        verify(userRepository, never()).findAll(any(), anyLong(), anyInt());
+    }
+}
@@ -0,0 +1,68 @@
+package org.mystudying.booksmarket2.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mystudying.booksmarket2.domain.CatalogTotals;
+import org.mystudying.booksmarket2.domain.Tally;
+import org.mystudying.booksmarket2.repositories.StatisticsRepository;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class StatisticsServiceTest {
+    @Mock
+    private StatisticsRepository statisticsRepository;
+
+    @Test
+    void rankingsAreAggregatedOnceAndPagedFromTheSameSnapshot() {
+        var statisticsService = new StatisticsService(statisticsRepository, 10, 60);
+        var first = new Tally(1, "Author A", 3);
+        var second = new Tally(4, "Author D", 2);
+        var third = new Tally(2, "Author B", 2);
+        when(statisticsRepository.booksPerAuthor(null, Integer.MAX_VALUE)).thenReturn(List.of(first, third, second));
+        when(statisticsRepository.totals()).thenReturn(new CatalogTotals(1, 2, 3, 4, 5));
+
+        assertThat(statisticsService.booksPerAuthor(null, 2)).containsExactly(first, third);
+        assertThat(statisticsService.booksPerAuthor(third, 2)).containsExactly(second);
+        assertThat(statisticsService.booksPerAuthor(second, 2)).isEmpty();
+        statisticsService.totals();
+        assertThat(statisticsService.totals().books()).isEqualTo(2);
+
+        verify(statisticsRepository).booksPerAuthor(null, Integer.MAX_VALUE);
+        verify(statisticsRepository).totals();
+        assertThat(statisticsService.cacheStats().hits()).isEqualTo(3);
+    }
+
+    @Test
+    void aPageAfterATallyThatIsNoLongerRankedStartsWhereItWouldBe() {
+        var statisticsService = new StatisticsService(statisticsRepository, 10, 60);
+        var first = new Tally(1, "User A", 5);
+        var second = new Tally(3, "User C", 1);
+        when(statisticsRepository.loansPerUser(null, Integer.MAX_VALUE)).thenReturn(List.of(first, second));
+
+        assertThat(statisticsService.loansPerUser(new Tally(2, "User B", 3), 10)).containsExactly(second);
+    }
+
+    @Test
+    void withoutCacheEveryCallAggregates() {
+        var statisticsService = new StatisticsService(statisticsRepository, 0, 60);
+        when(statisticsRepository.loansPerUser(null, Integer.MAX_VALUE)).thenReturn(List.of());
+        statisticsService.loansPerUser(null, 5);
+        statisticsService.loansPerUser(null, 5);
+        verify(statisticsRepository, times(2)).loansPerUser(null, Integer.MAX_VALUE);
+    }
+
+    @Test
+    void pageSizeMustBePositive() {
+        var statisticsService = new StatisticsService(statisticsRepository, 10, 60);
+        assertThatIllegalArgumentException().isThrownBy(() -> statisticsService.mostBorrowedBooks(null, 0));
+    }
+}
@@ -2,6 +2,8 @@ package org.mystudying.booksmarket2.services;
 
 
 import org.junit.jupiter.api.Test;
+import org.mystudying.booksmarket2.cache.EntityCaches;
+import org.mystudying.booksmarket2.domain.RentalOutcome;
 import org.mystudying.booksmarket2.domain.User;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.transaction.annotation.Propagation;
@@ -11,8 +13,11 @@ import org.mystudying.booksmarket2.exceptions.UserNotFoundException;
 import org.mystudying.booksmarket2.exceptions.BookNotFoundException;
 import org.mystudying.booksmarket2.exceptions.BookAlreadyBorrowedException;
 import org.mystudying.booksmarket2.exceptions.BookNotBorrowedException;
+import org.mystudying.booksmarket2.exceptions.BookAlreadyReservedException;
 import org.mystudying.booksmarket2.repositories.BookRepository;
+import org.mystudying.booksmarket2.repositories.BookingShards;
 import org.mystudying.booksmarket2.repositories.BookingRepository;
+import org.mystudying.booksmarket2.repositories.ReservationRepository;
 import org.mystudying.booksmarket2.repositories.UserRepository;
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
 import org.springframework.context.annotation.Import;
@@ -24,14 +29,17 @@ import org.springframework.test.jdbc.JdbcTestUtils;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.entry;
 
 @JdbcTest
-@Import({UserService.class, UserRepository.class, BookRepository.class, BookingRepository.class})
+@Import({UserService.class, UserRepository.class, BookRepository.class, BookingShards.class, BookingRepository.class, EntityCaches.class,
+        ReservationRepository.class, Waitlist.class})
 @Sql("/insertTestRecords.sql")
 class UserServiceIntegrationTest {
 
@@ -184,6 +192,14 @@ class UserServiceIntegrationTest {
 
 
 
+    @Test
+    void findUsersByBookIdFindsTheBorrowers() {
+        assertThat(userService.findUsersByBookId(idOfTestBook1())).extracting(User::getEmail)
+                .containsExactly("test1@example.com");
+        assertThatExceptionOfType(BookNotFoundException.class)
+                .isThrownBy(() -> userService.findUsersByBookId(Long.MAX_VALUE));
+    }
+
     @Test
     void rentBookThrowsExceptionIfUserNotFound() {
         assertThatExceptionOfType(UserNotFoundException.class)
@@ -312,6 +328,46 @@ class UserServiceIntegrationTest {
                 .isThrownBy(() -> userService.returnBook(userId, bookId));
     }
 
+    @Test
+    void rentBooksReportsAnOutcomePerBookInTheGivenOrder() {
+        long book1 = idOfTestBook1();
+        long book2 = idOfTestBook2();
+
+        var results = userService.rentBooks(idOfTestUser2(), List.of(Long.MAX_VALUE, book2, book1, book1));
+
+        assertThat(results).containsExactly(
+                entry(Long.MAX_VALUE, RentalOutcome.BOOK_NOT_FOUND),
+                entry(book2, RentalOutcome.NOT_AVAILABLE),
+                entry(book1, RentalOutcome.RENTED));
+        assertThat(JdbcTestUtils.countRowsInTableWhere(jdbcTemplate, BOOKINGS_TABLE,
+                "user_id = " + idOfTestUser2())).isOne();
+        assertThat(JdbcTestUtils.countRowsInTableWhere(jdbcTemplate, BOOKS_TABLE,
+                "id = " + book1 + " AND available = 4")).isOne();
+    }
+
+    @Test
+    void rentBooksThrowsExceptionIfUserNotFound() {
+        assertThatExceptionOfType(UserNotFoundException.class)
+                .isThrownBy(() -> userService.rentBooks(Long.MAX_VALUE, List.of(idOfTestBook1())));
+    }
+
+    @Test
+    void returnBooksReportsAnOutcomePerBook() {
+        long book1 = idOfTestBook1();
+        long book2 = idOfTestBook2();
+
+        var results = userService.returnBooks(idOfTestUser1(), List.of(book1, book2, Long.MAX_VALUE));
+
+        assertThat(results).containsExactly(
+                entry(book1, RentalOutcome.RETURNED),
+                entry(book2, RentalOutcome.NOT_BORROWED),
+                entry(Long.MAX_VALUE, RentalOutcome.BOOK_NOT_FOUND));
+        assertThat(JdbcTestUtils.countRowsInTableWhere(jdbcTemplate, BOOKINGS_TABLE,
+                "user_id = " + idOfTestUser1())).isZero();
+        assertThat(JdbcTestUtils.countRowsInTableWhere(jdbcTemplate, BOOKS_TABLE,
+                "id = " + book1 + " AND available = 6")).isOne();
+    }
+
 
     @Test
     void createWithExistingEmailFails() {
@@ -319,4 +375,48 @@ class UserServiceIntegrationTest {
         assertThat(newId).isPositive();
         assertThatExceptionOfType(EmailAlreadyExistsException.class).isThrownBy(() -> userService.create("New User", "new.user@example.com"));
     }
+
+    @Test
+    void reserveOfAnUnavailableBookJoinsTheWaitlist() {
+        long userId = idOfTestUser1();
+        long bookId = idOfTestBook2(); // none available
+
+        assertThat(userService.reserve(userId, bookId)).isEqualTo(RentalOutcome.RESERVED);
+        assertThat(userService.findReservationsByUserId(userId)).singleElement()
+                .satisfies(reservation -> assertThat(reservation.getBookId()).isEqualTo(bookId));
+        assertThatExceptionOfType(BookAlreadyReservedException.class)
+                .isThrownBy(() -> userService.reserve(userId, bookId));
+        assertThat(userService.cancelReservation(userId, bookId)).isTrue();
+        assertThat(userService.cancelReservation(userId, bookId)).isFalse();
+    }
+
+    @Test
+    void reserveOfAnAvailableBookRentsIt() {
+        long userId = idOfTestUser2();
+        long bookId = idOfTestBook1();
+
+        assertThat(userService.reserve(userId, bookId)).isEqualTo(RentalOutcome.RENTED);
+        assertThat(JdbcTestUtils.countRowsInTableWhere(jdbcTemplate, BOOKINGS_TABLE,
+                "user_id = " + userId + " AND book_id = " + bookId)).isOne();
+        assertThat(JdbcTestUtils.countRowsInTable(jdbcTemplate, "reservations")).isZero();
+    }
+
+    @Test
+    void returnBookHandsTheCopyToTheFirstUserInLine() {
+        long returningUser = idOfTestUser1();
+        long waitingUser = idOfTestUser2();
+        long bookId = idOfTestBook1();
+        jdbcTemplate.update("UPDATE books SET available = 0 WHERE id = ?", bookId);
+        assertThat(userService.reserve(waitingUser, bookId)).isEqualTo(RentalOutcome.RESERVED);
+
+        userService.returnBook(returningUser, bookId);
+
+        assertThat(JdbcTestUtils.countRowsInTableWhere(jdbcTemplate, BOOKINGS_TABLE,
+                "book_id = " + bookId)).isOne();
+        assertThat(JdbcTestUtils.countRowsInTableWhere(jdbcTemplate, BOOKINGS_TABLE,
+                "user_id = " + waitingUser + " AND book_id = " + bookId)).isOne();
+        assertThat(JdbcTestUtils.countRowsInTableWhere(jdbcTemplate, BOOKS_TABLE,
+                "id = " + bookId + " AND available = 0")).isOne();
+        assertThat(userService.findReservationsByUserId(waitingUser)).isEmpty();
+    }
 }
@@ -6,16 +6,32 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.mystudying.booksmarket2.cache.EntityCaches;
+import org.mystudying.booksmarket2.domain.Book;
+import org.mystudying.booksmarket2.domain.Booking;
+import org.mystudying.booksmarket2.domain.RentalOutcome;
 import org.mystudying.booksmarket2.domain.User;
+import org.mystudying.booksmarket2.exceptions.BookAlreadyBorrowedException;
+import org.mystudying.booksmarket2.exceptions.BookNotBorrowedException;
+import org.mystudying.booksmarket2.exceptions.BookNotFoundException;
 import org.mystudying.booksmarket2.exceptions.EmailAlreadyExistsException;
+import org.mystudying.booksmarket2.exceptions.UserNotFoundException;
+import org.mystudying.booksmarket2.journal.BookingJournal;
+import org.mystudying.booksmarket2.outbox.Outbox;
 import org.mystudying.booksmarket2.repositories.BookRepository;
 import org.mystudying.booksmarket2.repositories.BookingRepository;
 import org.mystudying.booksmarket2.repositories.UserRepository;
+import org.springframework.dao.DuplicateKeyException;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.function.LongPredicate;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.entry;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.*;
 
@@ -29,10 +45,12 @@ class UserServiceTest {
     private BookRepository bookRepository;
     @Mock
     private BookingRepository bookingRepository;
+    @Mock
+    private Waitlist waitlist;
 
     @BeforeEach
     void beforeEach() {
-        userService = new UserService(userRepository, bookRepository, bookingRepository);
+        userService = new UserService(userRepository, bookRepository, bookingRepository, EntityCaches.disabled(), waitlist, Optional.empty(), Optional.empty(), Optional.empty());
     }
 
     @Test
@@ -53,4 +71,261 @@ class UserServiceTest {
                 .isThrownBy(() -> userService.create("New User", "new@example.com"));
         verify(userRepository).create(any(User.class));
     }
+
+    @Test
+    void findBooksByUserIdReadsTheLoansWithoutJoinAndSortsThemByTitle() {
+        userService = new UserService(userRepository, bookRepository, bookingRepository, new EntityCaches(100, 300), waitlist, Optional.empty(), Optional.empty(), Optional.empty());
+        when(userRepository.findById(1L)).thenReturn(Optional.of(new User(1, "User", "user@example.com")));
+        when(bookingRepository.findBookIdsByUserId(1L)).thenReturn(List.of(2L, 3L));
+        when(bookRepository.findByIds(Set.of(2L, 3L))).thenReturn(List.of(
+                new Book(2, "Zebra", 2000, 1, 1), new Book(3, "Apple", 2000, 1, 1)));
+
+        assertThat(userService.findBooksByUserId(1L)).extracting(Book::getTitle).containsExactly("Apple", "Zebra");
+        assertThat(userService.findBooksByUserId(1L)).extracting(Book::getId).containsExactly(3L, 2L);
+        verify(bookingRepository, times(1)).findBookIdsByUserId(1L);
+        // the books, with their availability, are read every time
+        verify(bookRepository, times(2)).findByIds(Set.of(2L, 3L));
+        verify(bookRepository, never()).findBooksByUserId(anyLong());
+    }
+
+    @Test
+    void findBooksByUserIdOfUnknownUserThrows() {
+        assertThatExceptionOfType(UserNotFoundException.class).isThrownBy(() -> userService.findBooksByUserId(1L));
+        verifyNoInteractions(bookingRepository);
+    }
+
+    @Test
+    void rentBookUsesTheAtomicRepositoryOperation() {
+        when(bookingRepository.rent(1L, 2L)).thenReturn(RentalOutcome.RENTED);
+        userService.rentBook(1L, 2L);
+        verify(bookingRepository).rent(1L, 2L);
+        verifyNoInteractions(userRepository, bookRepository);
+    }
+
+    @Test
+    void rentBookTurnsFailedOutcomesIntoExceptions() {
+        when(bookingRepository.rent(1L, 2L)).thenReturn(RentalOutcome.USER_NOT_FOUND, RentalOutcome.BOOK_NOT_FOUND,
+                RentalOutcome.NOT_AVAILABLE, RentalOutcome.ALREADY_BORROWED);
+        assertThatExceptionOfType(UserNotFoundException.class).isThrownBy(() -> userService.rentBook(1L, 2L));
+        assertThatExceptionOfType(BookNotFoundException.class).isThrownBy(() -> userService.rentBook(1L, 2L))
+                .withMessageContaining("Id: 2");
+        assertThatExceptionOfType(BookNotFoundException.class).isThrownBy(() -> userService.rentBook(1L, 2L))
+                .withMessageContaining("not available");
+        assertThatExceptionOfType(BookAlreadyBorrowedException.class).isThrownBy(() -> userService.rentBook(1L, 2L));
+    }
+
+    @Test
+    void returnBookTurnsNotBorrowedIntoException() {
+        when(bookingRepository.returnBook(1L, 2L)).thenReturn(RentalOutcome.NOT_BORROWED);
+        assertThatExceptionOfType(BookNotBorrowedException.class).isThrownBy(() -> userService.returnBook(1L, 2L));
+    }
+
+    @Test
+    void returnBookOffersTheCopyToTheWaitlist() {
+        when(bookingRepository.returnBook(1L, 2L)).thenReturn(RentalOutcome.RETURNED);
+        when(waitlist.handOff(eq(2L), any())).thenAnswer(invocation -> {
+            LongPredicate rent = invocation.getArgument(1);
+            return rent.test(3L) ? OptionalLong.of(3L) : OptionalLong.empty();
+        });
+        when(bookingRepository.rent(3L, 2L)).thenReturn(RentalOutcome.RENTED);
+        userService.returnBook(1L, 2L);
+        verify(bookingRepository).rent(3L, 2L);
+    }
+
+    @Test
+    void handOffReturnedCopyGivesItToTheWaitlistWhileItIsStillAvailable() {
+        when(waitlist.waiting(2L)).thenReturn(List.of(3L));
+        when(bookRepository.findAndLockById(2L)).thenReturn(Optional.of(new Book(2, "Book", 2000, 1, 0)),
+                Optional.of(new Book(2, "Book", 2000, 1, 1)));
+        when(waitlist.handOff(eq(2L), any())).thenAnswer(invocation -> {
+            LongPredicate rent = invocation.getArgument(1);
+            return rent.test(3L) ? OptionalLong.of(3L) : OptionalLong.empty();
+        });
+        when(bookingRepository.rent(3L, 2L)).thenReturn(RentalOutcome.RENTED);
+        // rented by someone else meanwhile
+        userService.handOffReturnedCopy(2L);
+        verify(waitlist, never()).handOff(anyLong(), any());
+        userService.handOffReturnedCopy(2L);
+        verify(bookingRepository).rent(3L, 2L);
+    }
+
+    @Test
+    void handOffReturnedCopyOfABookNobodyWaitsForLocksNothing() {
+        when(waitlist.waiting(2L)).thenReturn(List.of());
+        userService.handOffReturnedCopy(2L);
+        verifyNoInteractions(bookRepository);
+    }
+
+    @Test
+    void handOffAddedCopiesStopsAtTheCopiesStillAvailable() {
+        when(waitlist.waiting(2L)).thenReturn(List.of(3L, 4L, 5L));
+        // one of the three added copies was rented meanwhile
+        when(bookRepository.findAndLockById(2L)).thenReturn(Optional.of(new Book(2, "Book", 2000, 1, 2)));
+        when(waitlist.handOff(eq(2L), any())).thenReturn(OptionalLong.of(3L), OptionalLong.of(4L));
+        userService.handOffAddedCopies(2L, 3);
+        verify(waitlist, times(2)).handOff(eq(2L), any());
+    }
+
+    @Test
+    void handOffAddedCopiesWithEngineReleasesTheCopyNobodyTakes() {
+        var engine = mock(AvailabilityEngine.class);
+        userService = new UserService(userRepository, bookRepository, bookingRepository, EntityCaches.disabled(), waitlist, Optional.of(engine), Optional.empty(), Optional.empty());
+        when(waitlist.waiting(2L)).thenReturn(List.of(3L));
+        when(engine.acquire(2L)).thenReturn(true);
+        when(waitlist.handOff(eq(2L), any())).thenAnswer(invocation -> {
+            LongPredicate rent = invocation.getArgument(1);
+            return rent.test(3L) ? OptionalLong.of(3L) : OptionalLong.empty();
+        }).thenReturn(OptionalLong.empty());
+        userService.handOffAddedCopies(2L, 3);
+        verify(bookingRepository).create(argThat(booking -> booking.getUserId() == 3L && booking.getBookId() == 2L));
+        verify(engine, times(2)).acquire(2L);
+        verify(engine).release(2L);
+        verify(bookRepository, never()).findAndLockById(anyLong());
+    }
+
+    @Test
+    void reserveJoinsTheWaitlistOnlyIfNoCopyIsLeft() {
+        when(bookRepository.findAndLockById(2L)).thenReturn(Optional.of(new Book(2, "Book", 2000, 1, 0)),
+                Optional.of(new Book(2, "Book", 2000, 1, 1)));
+        when(userRepository.findById(1L)).thenReturn(Optional.of(new User(1, "User", "user@example.com")));
+        when(bookingRepository.rent(1L, 2L)).thenReturn(RentalOutcome.RENTED);
+        assertThat(userService.reserve(1L, 2L)).isEqualTo(RentalOutcome.RESERVED);
+        assertThat(userService.reserve(1L, 2L)).isEqualTo(RentalOutcome.RENTED);
+        verify(waitlist, times(1)).join(1L, 2L);
+        verify(bookingRepository, times(1)).rent(1L, 2L);
+    }
+
+    @Test
+    void reserveOfABorrowedBookFails() {
+        when(bookRepository.findAndLockById(2L)).thenReturn(Optional.of(new Book(2, "Book", 2000, 1, 0)));
+        when(userRepository.findById(1L)).thenReturn(Optional.of(new User(1, "User", "user@example.com")));
+        when(bookingRepository.find(1L, 2L)).thenReturn(Optional.of(new Booking(1L, 2L)));
+        assertThatExceptionOfType(BookAlreadyBorrowedException.class).isThrownBy(() -> userService.reserve(1L, 2L));
+        verifyNoInteractions(waitlist);
+    }
+
+    @Test
+    void returnBookWithEngineHandsTheCopyOverInsteadOfReleasingIt() {
+        var engine = mock(AvailabilityEngine.class);
+        userService = new UserService(userRepository, bookRepository, bookingRepository, EntityCaches.disabled(), waitlist, Optional.of(engine), Optional.empty(), Optional.empty());
+        when(userRepository.findById(1L)).thenReturn(Optional.of(new User(1, "User", "user@example.com")));
+        when(bookRepository.findById(2L)).thenReturn(Optional.of(new Book(2, "Book", 2000, 1, 0)));
+        when(bookingRepository.delete(any(Booking.class))).thenReturn(true);
+        when(waitlist.handOff(eq(2L), any())).thenAnswer(invocation -> {
+            LongPredicate rent = invocation.getArgument(1);
+            return rent.test(3L) ? OptionalLong.of(3L) : OptionalLong.empty();
+        });
+        userService.returnBook(1L, 2L);
+        verify(bookingRepository).create(argThat(booking -> booking.getUserId() == 3L && booking.getBookId() == 2L));
+        verify(engine, never()).release(anyLong());
+    }
+
+    @Test
+    void rentBookWithEngineFailsWithoutBookingIfNoCopyIsLeft() {
+        var engine = mock(AvailabilityEngine.class);
+        userService = new UserService(userRepository, bookRepository, bookingRepository, EntityCaches.disabled(), waitlist, Optional.of(engine), Optional.empty(), Optional.empty());
+        when(userRepository.findById(1L)).thenReturn(Optional.of(new User(1, "User", "user@example.com")));
+        when(engine.acquire(2L)).thenReturn(false);
+        assertThatExceptionOfType(BookNotFoundException.class)
+                .isThrownBy(() -> userService.rentBook(1L, 2L))
+                .withMessageContaining("not available");
+        verifyNoInteractions(bookingRepository);
+        verify(bookRepository, never()).findAndLockById(anyLong());
+    }
+
+    @Test
+    void rentBookWithEngineReportsSecondCopyForTheSameUser() {
+        var engine = mock(AvailabilityEngine.class);
+        userService = new UserService(userRepository, bookRepository, bookingRepository, EntityCaches.disabled(), waitlist, Optional.of(engine), Optional.empty(), Optional.empty());
+        when(userRepository.findById(1L)).thenReturn(Optional.of(new User(1, "User", "user@example.com")));
+        when(engine.acquire(2L)).thenReturn(true);
+        doThrow(new DuplicateKeyException("")).when(bookingRepository).create(any(Booking.class));
+        assertThatExceptionOfType(BookAlreadyBorrowedException.class).isThrownBy(() -> userService.rentBook(1L, 2L));
+    }
+
+    @Test
+    void returnBookWithEngineGivesTheCopyBackOnlyIfTheBookingExisted() {
+        var engine = mock(AvailabilityEngine.class);
+        userService = new UserService(userRepository, bookRepository, bookingRepository, EntityCaches.disabled(), waitlist, Optional.of(engine), Optional.empty(), Optional.empty());
+        when(userRepository.findById(1L)).thenReturn(Optional.of(new User(1, "User", "user@example.com")));
+        when(bookRepository.findById(2L)).thenReturn(Optional.of(new Book(2, "Book", 2000, 1, 0)));
+        when(bookingRepository.delete(any(Booking.class))).thenReturn(true, false);
+        userService.returnBook(1L, 2L);
+        assertThatExceptionOfType(BookNotBorrowedException.class).isThrownBy(() -> userService.returnBook(1L, 2L));
+        verify(engine, times(1)).release(2L);
+    }
+
+    @Test
+    void rentAndReturnWithJournalAppendInsteadOfWritingBookings() {
+        var engine = mock(AvailabilityEngine.class);
+        var journal = mock(BookingJournal.class);
+        userService = new UserService(userRepository, bookRepository, bookingRepository, EntityCaches.disabled(), waitlist, Optional.of(engine), Optional.of(journal), Optional.empty());
+        when(userRepository.findById(1L)).thenReturn(Optional.of(new User(1, "User", "user@example.com")));
+        when(bookRepository.findById(2L)).thenReturn(Optional.of(new Book(2, "Book", 2000, 1, 0)));
+        when(engine.acquire(2L)).thenReturn(true);
+        when(journal.rent(1L, List.of(2L))).thenReturn(true, false);
+        when(journal.returnBooks(1L, List.of(2L))).thenReturn(List.of(2L));
+        userService.rentBook(1L, 2L);
+        assertThatExceptionOfType(BookAlreadyBorrowedException.class).isThrownBy(() -> userService.rentBook(1L, 2L));
+        userService.returnBook(1L, 2L);
+        verify(engine).release(2L);
+        verifyNoInteractions(bookingRepository);
+    }
+
+    @Test
+    void rentalsReturnsAndHandOffsAreRecordedInTheOutbox() {
+        var outbox = mock(Outbox.class);
+        userService = new UserService(userRepository, bookRepository, bookingRepository, EntityCaches.disabled(), waitlist, Optional.empty(), Optional.empty(), Optional.of(outbox));
+        when(bookingRepository.rent(anyLong(), eq(2L))).thenReturn(RentalOutcome.RENTED);
+        when(bookingRepository.returnBook(1L, 2L)).thenReturn(RentalOutcome.RETURNED);
+        when(waitlist.handOff(eq(2L), any())).thenAnswer(invocation -> {
+            LongPredicate rent = invocation.getArgument(1);
+            return rent.test(3L) ? OptionalLong.of(3L) : OptionalLong.empty();
+        });
+        userService.rentBook(1L, 2L);
+        userService.returnBook(1L, 2L);
+        var order = inOrder(outbox);
+        order.verify(outbox).booksRented(1L, List.of(2L));
+        order.verify(outbox).booksReturned(1L, List.of(2L));
+        order.verify(outbox).booksRented(3L, List.of(2L));
+    }
+
+    @Test
+    void failedRentalRecordsNothing() {
+        var outbox = mock(Outbox.class);
+        userService = new UserService(userRepository, bookRepository, bookingRepository, EntityCaches.disabled(), waitlist, Optional.empty(), Optional.empty(), Optional.of(outbox));
+        when(bookingRepository.rent(1L, 2L)).thenReturn(RentalOutcome.NOT_AVAILABLE);
+        assertThatExceptionOfType(BookNotFoundException.class).isThrownBy(() -> userService.rentBook(1L, 2L));
+        verifyNoInteractions(outbox);
+    }
+
+    @Test
+    void rentBooksWritesOnlyTheRentedBooksInOneBatch() {
+        when(bookRepository.findAndLockByIds(any())).thenReturn(List.of(
+                new Book(2, "Book 2", 2000, 1, 3), new Book(3, "Book 3", 2000, 1, 0), new Book(4, "Book 4", 2000, 1, 1)));
+        when(userRepository.findById(1L)).thenReturn(Optional.of(new User(1, "User", "user@example.com")));
+        when(bookingRepository.findBookIds(eq(1L), any())).thenReturn(List.of(4L));
+
+        var results = userService.rentBooks(1L, List.of(4L, 3L, 2L, 5L));
+
+        assertThat(results).containsExactly(entry(4L, RentalOutcome.ALREADY_BORROWED),
+                entry(3L, RentalOutcome.NOT_AVAILABLE), entry(2L, RentalOutcome.RENTED),
+                entry(5L, RentalOutcome.BOOK_NOT_FOUND));
+        verify(bookingRepository).createAll(1L, List.of(2L));
+        verify(bookRepository).addToAvailable(List.of(2L), -1);
+    }
+
+    @Test
+    void returnBooksWithEngineReleasesOnlyDeletedBookings() {
+        var engine = mock(AvailabilityEngine.class);
+        userService = new UserService(userRepository, bookRepository, bookingRepository, EntityCaches.disabled(), waitlist, Optional.of(engine), Optional.empty(), Optional.empty());
+        when(userRepository.findById(1L)).thenReturn(Optional.of(new User(1, "User", "user@example.com")));
+        when(bookingRepository.deleteAll(eq(1L), any())).thenReturn(List.of(2L));
+        when(bookRepository.findById(3L)).thenReturn(Optional.of(new Book(3, "Book 3", 2000, 1, 0)));
+
+        assertThat(userService.returnBooks(1L, List.of(2L, 3L)))
+                .containsExactly(entry(2L, RentalOutcome.RETURNED), entry(3L, RentalOutcome.NOT_BORROWED));
+        verify(engine).release(2L);
+        verify(engine, never()).release(3L);
+    }
 }
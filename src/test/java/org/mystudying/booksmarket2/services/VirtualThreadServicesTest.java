@@ -0,0 +1,95 @@
+package org.mystudying.booksmarket2.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mystudying.booksmarket2.domain.User;
+import org.mystudying.booksmarket2.exceptions.BookNotBorrowedException;
+
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class VirtualThreadServicesTest {
+    private static final int MAX_CONCURRENCY = 4;
+
+    @Mock
+    private UserService userService;
+    @Mock
+    private BookService bookService;
+    @Mock
+    private AuthorService authorService;
+    private VirtualThreadServices services;
+
+    @AfterEach
+    void afterEach() {
+        if (services != null) {
+            services.close();
+        }
+    }
+
+    @Test
+    void callsRunOnVirtualThreads() throws Exception {
+        services = new VirtualThreadServices(userService, bookService, authorService, MAX_CONCURRENCY);
+        when(userService.findById(1L)).thenAnswer(invocation ->
+                Thread.currentThread().isVirtual() ? Optional.of(new User(1, "User", "user@example.com")) : Optional.empty());
+        assertThat(services.users(service -> service.findById(1L)).get(5, TimeUnit.SECONDS)).isPresent();
+    }
+
+    @Test
+    void noMoreCallsThanMaxConcurrencyRunAtOnce() throws Exception {
+        services = new VirtualThreadServices(userService, bookService, authorService, MAX_CONCURRENCY);
+        var running = new AtomicInteger();
+        var mostRunning = new AtomicInteger();
+        var release = new CountDownLatch(1);
+        when(userService.findById(anyLong())).thenAnswer(invocation -> {
+            mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            release.await();
+            running.decrementAndGet();
+            return Optional.empty();
+        });
+        var calls = new ArrayList<CompletableFuture<Optional<User>>>();
+        for (long id = 1; id <= 1_000; id++) {
+            long userId = id;
+            calls.add(services.users(service -> service.findById(userId)));
+        }
+        while (services.inFlight() < MAX_CONCURRENCY) {
+            Thread.onSpinWait();
+        }
+        assertThat(services.queued()).isPositive();
+        release.countDown();
+        CompletableFuture.allOf(calls.toArray(CompletableFuture[]::new)).get(30, TimeUnit.SECONDS);
+        assertThat(mostRunning).hasValue(MAX_CONCURRENCY);
+        assertThat(services.inFlight()).isZero();
+    }
+
+    @Test
+    void failedCallCompletesExceptionallyAndReleasesItsPermit() throws Exception {
+        services = new VirtualThreadServices(userService, bookService, authorService, 1);
+        doThrow(new BookNotBorrowedException()).when(userService).returnBook(1L, 2L);
+        assertThatExceptionOfType(ExecutionException.class)
+                .isThrownBy(() -> services.returnBook(1L, 2L).get(5, TimeUnit.SECONDS))
+                .withCauseInstanceOf(BookNotBorrowedException.class);
+        services.rentBook(1L, 2L).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void maxConcurrencyMustBePositive() {
+        assertThatIllegalArgumentException()
+                .isThrownBy(() -> new VirtualThreadServices(userService, bookService, authorService, 0));
+    }
+}
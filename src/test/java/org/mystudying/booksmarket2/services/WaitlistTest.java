@@ -0,0 +1,138 @@
+package org.mystudying.booksmarket2.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mystudying.booksmarket2.domain.Reservation;
+import org.mystudying.booksmarket2.exceptions.BookAlreadyReservedException;
+import org.mystudying.booksmarket2.repositories.ReservationRepository;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class WaitlistTest {
+
+    private Waitlist waitlist;
+    @Mock
+    private ReservationRepository reservationRepository;
+    private final List<String> handedOver = new ArrayList<>();
+
+    @BeforeEach
+    void beforeEach() {
+        ReservationListener listener = (userId, bookId) -> handedOver.add(bookId + "->" + userId);
+        var listeners = new StaticListableBeanFactory(Map.of("listener", listener))
+                .getBeanProvider(ReservationListener.class);
+        waitlist = new Waitlist(reservationRepository, listeners);
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    @AfterEach
+    void afterEach() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private void complete(int status) {
+        TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(), status);
+        TransactionSynchronizationManager.clearSynchronization();
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    @Test
+    void loadRestoresTheQueuesInLineOrder() {
+        when(reservationRepository.findAll()).thenReturn(List.of(
+                new Reservation(3, 7, 1), new Reservation(5, 8, 1), new Reservation(4, 9, 2)));
+        waitlist.load();
+        assertThat(waitlist.waiting(1L)).containsExactly(7L, 8L);
+        assertThat(waitlist.waiting(2L)).containsExactly(9L);
+    }
+
+    @Test
+    void joinIsVisibleAtOnceAndUndoneByARollback() {
+        waitlist.join(7L, 1L);
+        waitlist.join(8L, 1L);
+        assertThat(waitlist.waiting(1L)).containsExactly(7L, 8L);
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+        assertThat(waitlist.waiting(1L)).isEmpty();
+    }
+
+    @Test
+    void joiningTwiceFails() {
+        when(reservationRepository.create(any())).thenReturn(1L).thenThrow(new DuplicateKeyException(""));
+        waitlist.join(7L, 1L);
+        assertThatExceptionOfType(BookAlreadyReservedException.class).isThrownBy(() -> waitlist.join(7L, 1L));
+    }
+
+    @Test
+    void leaveTakesEffectOnCommit() {
+        waitlist.join(7L, 1L);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        when(reservationRepository.delete(7L, 1L)).thenReturn(true, false);
+        assertThat(waitlist.leave(7L, 1L)).isTrue();
+        assertThat(waitlist.waiting(1L)).containsExactly(7L);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        assertThat(waitlist.waiting(1L)).isEmpty();
+        assertThat(waitlist.leave(7L, 1L)).isFalse();
+    }
+
+    @Test
+    void handOffOfABookNobodyWaitsForSendsNoQuery() {
+        assertThat(waitlist.handOff(1L, userId -> true)).isEmpty();
+        verifyNoInteractions(reservationRepository);
+    }
+
+    @Test
+    void handOffGivesTheCopyToTheFirstUserWhoCanTakeItAndNotifiesAfterCommit() {
+        waitlist.join(7L, 1L);
+        waitlist.join(8L, 1L);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        when(reservationRepository.findAndLockFirstByBookId(1L))
+                .thenReturn(Optional.of(new Reservation(1, 7, 1)), Optional.of(new Reservation(2, 8, 1)));
+
+        // user 7 got a copy in the meantime
+        assertThat(waitlist.handOff(1L, userId -> userId == 8L)).hasValue(8L);
+
+        verify(reservationRepository).delete(7L, 1L);
+        verify(reservationRepository).delete(8L, 1L);
+        assertThat(handedOver).isEmpty();
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        assertThat(handedOver).containsExactly("1->8");
+        assertThat(waitlist.waiting(1L)).isEmpty();
+    }
+
+    @Test
+    void rolledBackHandOffKeepsTheQueue() {
+        waitlist.join(7L, 1L);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        when(reservationRepository.findAndLockFirstByBookId(1L)).thenReturn(Optional.of(new Reservation(1, 7, 1)));
+        waitlist.handOff(1L, userId -> true);
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+        assertThat(waitlist.waiting(1L)).containsExactly(7L);
+        assertThat(handedOver).isEmpty();
+    }
+
+    @Test
+    void queueAheadOfTheTableCostsOneQuery() {
+        waitlist.join(7L, 1L);
+        when(reservationRepository.findAndLockFirstByBookId(1L)).thenReturn(Optional.empty());
+        assertThat(waitlist.handOff(1L, userId -> true)).isEmpty();
+        verify(reservationRepository, never()).delete(anyLong(), anyLong());
+    }
+}